@@ -645,6 +645,11 @@ public interface OdeMessages extends Messages {
       "a build request.")
   String buildServerBusyError();
 
+  @DefaultMessage("Waiting for the build server. Builds ahead of this one: {0}.")
+  @Description("Message shown in the build output panel while a build waits in the build " +
+      "server's queue.")
+  String buildQueuedMessage(String buildsAhead);
+
   @DefaultMessage("The build server is not compatible with this version of App Inventor.")
   @Description("Error message reported when the build server is running a different version of " +
       "the App Inventor code.")
@@ -11,6 +11,8 @@ import static com.google.appinventor.client.Ode.MESSAGES;
 import com.google.appinventor.client.explorer.project.Project;
 import com.google.appinventor.client.settings.project.ProjectSettings;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
+import com.google.appinventor.shared.rpc.project.FileDescriptorWithDelta;
+import com.google.appinventor.shared.rpc.project.ProjectService;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.gwt.user.client.Command;
 import com.google.gwt.user.client.Timer;
@@ -18,6 +20,7 @@ import com.google.gwt.user.client.Timer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,6 +45,11 @@ public final class EditorManager {
   // TODO(user): Make this configurable.
   private static final int AUTO_SAVE_FORCED_TIMEOUT = 30000;
 
+  // Whether this browser hashes changes the way the server does. If it
+  // doesn't, every change would be rejected and saved again in full, so files
+  // are always saved in full.
+  private static final boolean SAVE_DELTAS = FileDescriptorWithDelta.isHashConsistent();
+
   // Fields used for saving and auto-saving.
   private final Set<ProjectSettings> dirtyProjectSettings;
   private final Set<FileEditor> dirtyFileEditors;
@@ -49,6 +57,11 @@ public final class EditorManager {
   private boolean autoSaveIsScheduled;
   private long autoSaveRequestTime;
 
+  // The content of each file as last saved successfully, keyed by
+  // getFileKey(). A file whose saved content is known is saved by sending only
+  // the change to it.
+  private final Map<String, String> lastSavedContents;
+
   /**
    * Creates the editor manager.
    */
@@ -57,6 +70,7 @@ public final class EditorManager {
 
     dirtyProjectSettings = new HashSet<ProjectSettings>();
     dirtyFileEditors = new HashSet<FileEditor>();
+    lastSavedContents = new HashMap<String, String>();
 
     autoSaveTimer = new Timer() {
       @Override
@@ -125,6 +139,7 @@ public final class EditorManager {
         projectEditor.closeFileEditor(fileId);
       }
     }
+    lastSavedContents.remove(getFileKey(projectId, fileId));
   }
 
   /**
@@ -141,6 +156,13 @@ public final class EditorManager {
     ProjectSettings projectSettings = project.getSettings();
     dirtyProjectSettings.remove(projectSettings);
     openProjectEditors.remove(projectId);
+    String keyPrefix = getFileKey(projectId, "");
+    for (Iterator<String> iterator = lastSavedContents.keySet().iterator();
+        iterator.hasNext(); ) {
+      if (iterator.next().startsWith(keyPrefix)) {
+        iterator.remove();
+      }
+    }
   }
 
   /**
@@ -203,12 +225,20 @@ public final class EditorManager {
    *                     settings and file editors are saved successfully
    */
   public void saveDirtyEditors(final Command afterSaving) {
-    // Collect the files that need to be saved.
+    // Collect the files that need to be saved. Files whose last saved content
+    // is known are saved as changes to that content.
     List<FileDescriptorWithContent> filesToSave = new ArrayList<FileDescriptorWithContent>();
+    List<FileDescriptorWithContent> filesToSaveAsDeltas =
+        new ArrayList<FileDescriptorWithContent>();
     for (FileEditor fileEditor : dirtyFileEditors) {
       FileDescriptorWithContent fileContent = new FileDescriptorWithContent(
           fileEditor.getProjectId(), fileEditor.getFileId(), fileEditor.getRawFileContent());
-      filesToSave.add(fileContent);
+      if (SAVE_DELTAS && lastSavedContents.containsKey(
+          getFileKey(fileEditor.getProjectId(), fileEditor.getFileId()))) {
+        filesToSaveAsDeltas.add(fileContent);
+      } else {
+        filesToSave.add(fileContent);
+      }
     }
     dirtyFileEditors.clear();
 
@@ -222,10 +252,10 @@ public final class EditorManager {
 
     // Keep count as each save operation finishes so we can set the projects' modified date and
     // call the afterSaving command after everything has been saved.
-    // Each project settings is saved as a separate operation, but all files are saved as a single
-    // save operation. So the initial value of pendingSaveOperations is the size of
-    // projectSettingsToSave plus 1.
-    final AtomicInteger pendingSaveOperations = new AtomicInteger(projectSettingsToSave.size() + 1);
+    // Each project settings is saved as a separate operation, but all files with full content are
+    // saved as a single save operation, and all files with changes as another. So the initial
+    // value of pendingSaveOperations is the size of projectSettingsToSave plus 2.
+    final AtomicInteger pendingSaveOperations = new AtomicInteger(projectSettingsToSave.size() + 2);
     Command callAfterSavingCommand = new Command() {
       @Override
       public void execute() {
@@ -240,6 +270,7 @@ public final class EditorManager {
 
     // Save all files at once (asynchronously).
     saveMultipleFilesAtOnce(filesToSave, callAfterSavingCommand);
+    saveMultipleDeltasAtOnce(filesToSaveAsDeltas, callAfterSavingCommand);
 
     // Save project settings one at a time (asynchronously).
     for (ProjectSettings projectSettings : projectSettingsToSave) {
@@ -274,17 +305,68 @@ public final class EditorManager {
           new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
         @Override
         public void onSuccess(Long date) {
-          // Call the project editor's onSave method for each file that was saved and update the
-          // project's modification date.
-          for (FileDescriptorWithContent fileDescriptor : filesWithContent) {
-            long projectId = fileDescriptor.getProjectId();
-            ProjectEditor projectEditor = openProjectEditors.get(projectId);
-            if (projectEditor != null) {
-              projectEditor.onSave(fileDescriptor.getFileId());
+          onFilesSaved(filesWithContent, date);
+
+          // Execute the afterSavingFiles command if one was given.
+          if (afterSavingFiles != null) {
+            afterSavingFiles.execute();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Saves changes to multiple files, whose last saved content must be known,
+   * to the ODE server and calls the afterSavingFiles command after they have
+   * all been saved successfully.
+   *
+   * If the server's content of any of the files is not the last saved content
+   * known here, for example because the project was changed in another
+   * browser window, the files are saved again with their full content.
+   *
+   * If any errors occur while saving, the afterSavingFiles command will not be
+   * executed.
+   * If filesWithContent is empty, the afterSavingFiles command is called
+   * immediately, not asynchronously.
+   *
+   * @param filesWithContent  the files that need to be saved
+   * @param afterSavingFiles  optional command to be executed after file
+   *                          editors are saved.
+   */
+  private void saveMultipleDeltasAtOnce(
+      final List<FileDescriptorWithContent> filesWithContent, final Command afterSavingFiles) {
+    if (filesWithContent.isEmpty()) {
+      // No files needed saving.
+      // Execute the afterSavingFiles command if one was given.
+      if (afterSavingFiles != null) {
+        afterSavingFiles.execute();
+      }
+
+    } else {
+      List<FileDescriptorWithDelta> filesWithDelta = new ArrayList<FileDescriptorWithDelta>();
+      for (FileDescriptorWithContent fileDescriptor : filesWithContent) {
+        long projectId = fileDescriptor.getProjectId();
+        String fileId = fileDescriptor.getFileId();
+        filesWithDelta.add(new FileDescriptorWithDelta(projectId, fileId,
+            lastSavedContents.get(getFileKey(projectId, fileId)), fileDescriptor.getContent()));
+      }
+      Ode.getInstance().getProjectService().saveDeltas(filesWithDelta,
+          new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
+        @Override
+        public void onSuccess(Long date) {
+          if (date == ProjectService.DELTA_MISMATCH) {
+            // Not all were saved. Forget the content we thought was saved and send the full content.
+            for (FileDescriptorWithContent fileDescriptor : filesWithContent) {
+              lastSavedContents.remove(
+                  getFileKey(fileDescriptor.getProjectId(), fileDescriptor.getFileId()));
             }
-            Ode.getInstance().updateModificationDate(projectId, date);
+            saveMultipleFilesAtOnce(filesWithContent, afterSavingFiles);
+            return;
           }
 
+          onFilesSaved(filesWithContent, date);
+
           // Execute the afterSavingFiles command if one was given.
           if (afterSavingFiles != null) {
             afterSavingFiles.execute();
@@ -293,4 +375,25 @@ public final class EditorManager {
       });
     }
   }
+
+  /*
+   * Calls the project editor's onSave method for each file that was saved, remembers the saved
+   * content and updates the project's modification date.
+   */
+  private void onFilesSaved(List<FileDescriptorWithContent> filesWithContent, long date) {
+    for (FileDescriptorWithContent fileDescriptor : filesWithContent) {
+      long projectId = fileDescriptor.getProjectId();
+      lastSavedContents.put(getFileKey(projectId, fileDescriptor.getFileId()),
+          fileDescriptor.getContent());
+      ProjectEditor projectEditor = openProjectEditors.get(projectId);
+      if (projectEditor != null) {
+        projectEditor.onSave(fileDescriptor.getFileId());
+      }
+      Ode.getInstance().updateModificationDate(projectId, date);
+    }
+  }
+
+  private static String getFileKey(long projectId, String fileId) {
+    return projectId + "/" + fileId;
+  }
 }
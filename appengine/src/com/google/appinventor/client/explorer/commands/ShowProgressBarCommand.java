@@ -41,7 +41,9 @@ public class ShowProgressBarCommand extends ChainableCommand {
   private String target;
   private ChainableCommand nextCommand;
   private final String buildRequestTime;
-  private static final int WAIT_INTERVAL_MILLIS = 5000;
+  // Delay before asking again. The server waits for the progress to change before answering, so
+  // this only keeps a server that answers without waiting from being asked too often.
+  private static final int WAIT_INTERVAL_MILLIS = 1000;
   private ProjectNode projectNode;
   private ProgressBarDialogBox minPB;
   private String serviceName;
@@ -106,7 +108,8 @@ public class ShowProgressBarCommand extends ChainableCommand {
         super.onFailure(caught);
         executionFailedOrCanceled();}
     };
-    ode.getProjectService().getBuildResult(node.getProjectId(), target, callback);
+    ode.getProjectService().waitForBuildResult(node.getProjectId(), target, currentProgress,
+        callback);
   }
 
   class ProgressBarDialogBox extends DialogBox{
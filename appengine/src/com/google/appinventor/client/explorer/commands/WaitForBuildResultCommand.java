@@ -22,6 +22,7 @@ import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjec
 import com.google.appinventor.shared.youngandroid.YoungAndroidSourceAnalyzer;
 import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.i18n.client.DateTimeFormat;
+import com.google.gwt.json.client.JSONNumber;
 import com.google.gwt.json.client.JSONObject;
 import com.google.gwt.json.client.JSONParser;
 import com.google.gwt.json.client.JSONString;
@@ -39,9 +40,14 @@ import java.util.Date;
 public class WaitForBuildResultCommand extends ChainableCommand {
   // The build target
   private final String target;
-  private static final int WAIT_INTERVAL_MILLIS = 10000;
+  // Delay before asking again after the server answered without a change, in case it answered
+  // without waiting.
+  private static final int WAIT_INTERVAL_MILLIS = 1000;
   private final MessagesOutput messagesOutput;
   private final String buildRequestTime;
+  // The build progress in the last result, sent with the next request so that the server waits
+  // until it changes.
+  private int lastProgress = -1;
 
   /**
    * Creates a new WaitForBuildResultCommand.
@@ -112,13 +118,23 @@ public class WaitForBuildResultCommand extends ChainableCommand {
           executionFailedOrCanceled();
         } else {
           // Build isn't done yet
+          int queuePosition = extractQueuePosition(result);
+          if (queuePosition > 0) {
+            messagesOutput.addMessages(MESSAGES.buildQueuedMessage("" + (queuePosition - 1)));
+          }
+          int progress = parseProgress(result);
+          if (progress != lastProgress) {
+            // The server waited for the progress to change, so ask again right away.
+            lastProgress = progress;
+            execute(node);
+            return;
+          }
           Timer timer = new Timer() {
             @Override
             public void run() {
               execute(node);
             }
           };
-          // TODO(user): Maybe do an exponential backoff here.
           timer.schedule(WAIT_INTERVAL_MILLIS);
         }
       }
@@ -130,7 +146,34 @@ public class WaitForBuildResultCommand extends ChainableCommand {
       }
     };
 
-    ode.getProjectService().getBuildResult(node.getProjectId(), target, callback);
+    ode.getProjectService().waitForBuildResult(node.getProjectId(), target, lastProgress,
+        callback);
+  }
+
+  private static int parseProgress(RpcResult result) {
+    try {
+      return Integer.parseInt(result.getOutput());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static int extractQueuePosition(RpcResult result) {
+    String extraString = result.getExtra();
+    if (extraString != null) {
+      JSONValue extraJSONValue = JSONParser.parseStrict(extraString);
+      JSONObject extraJSONObject = extraJSONValue.isObject();
+      if (extraJSONObject != null) {
+        JSONValue queuePositionJSONValue = extraJSONObject.get("queuePosition");
+        if (queuePositionJSONValue != null) {
+          JSONNumber queuePositionJSONNumber = queuePositionJSONValue.isNumber();
+          if (queuePositionJSONNumber != null) {
+            return (int) queuePositionJSONNumber.doubleValue();
+          }
+        }
+      }
+    }
+    return 0;
   }
 
   private static YoungAndroidFormNode findFormNode(YoungAndroidProjectNode projectRootNode,
@@ -22,6 +22,9 @@ import java.util.Map;
  * @author lizlooney@google.com (Liz Looney)
  */
 public final class ProjectManager {
+  // Number of project infos requested from the server at a time.
+  private static final int PROJECT_INFOS_PAGE_SIZE = 100;
+
   // Map to find the project from a project ID.
   private final Map<Long, Project> projectsMap;
 
@@ -34,7 +37,15 @@ public final class ProjectManager {
   public ProjectManager() {
     projectsMap = new HashMap<Long, Project>();
     projectManagerEventListeners = new ArrayList<ProjectManagerEventListener>();
-    Ode.getInstance().getProjectService().getProjectInfos(
+    loadProjectInfos(0);
+  }
+
+  /*
+   * Loads the project infos in pages, so that the first projects are shown
+   * before all of them have been read.
+   */
+  private void loadProjectInfos(long afterProjectId) {
+    Ode.getInstance().getProjectService().getProjectInfos(afterProjectId, PROJECT_INFOS_PAGE_SIZE,
         new OdeAsyncCallback<List<UserProject>>(
         MESSAGES.projectInformationRetrievalError()) {
       @Override
@@ -42,6 +53,9 @@ public final class ProjectManager {
         for (UserProject projectInfo : projectInfos) {
           addProject(projectInfo);
         }
+        if (projectInfos.size() == PROJECT_INFOS_PAGE_SIZE) {
+          loadProjectInfos(projectInfos.get(projectInfos.size() - 1).getProjectId());
+        }
       }
     });
   }
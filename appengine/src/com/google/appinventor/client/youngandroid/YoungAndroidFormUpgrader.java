@@ -427,6 +427,13 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 5.
       srcCompVersion = 5;
     }
+    if (srcCompVersion < 6) {
+      // The BluetoothClient.BytesReceived and BluetoothClient.DelimiterReceived events were added.
+      // The BluetoothClient.ReceiveAvailableText, BluetoothClient.ReceiveAvailableSignedBytes, and
+      // BluetoothClient.ReceiveAvailableUnsignedBytes methods were added.
+      // No properties need to be modified to upgrade to version 6.
+      srcCompVersion = 6;
+    }
     return srcCompVersion;
   }
 
@@ -453,6 +460,13 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 5.
       srcCompVersion = 5;
     }
+    if (srcCompVersion < 6) {
+      // The BluetoothServer.BytesReceived and BluetoothServer.DelimiterReceived events were added.
+      // The BluetoothServer.ReceiveAvailableText, BluetoothServer.ReceiveAvailableSignedBytes, and
+      // BluetoothServer.ReceiveAvailableUnsignedBytes methods were added.
+      // No properties need to be modified to upgrade to version 6.
+      srcCompVersion = 6;
+    }
     return srcCompVersion;
   }
   private static int upgradeSliderProperties(Map<String, JSONValue> componentProperties,
@@ -0,0 +1,193 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.server;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Progress of the builds that are running, as posted by the Build Server to
+ * {@link ReceiveBuildServlet}. Each build is identified by its user, project
+ * and build output folder, so builds of different users or projects never see
+ * each other's progress.
+ *
+ * <p>While a build waits in the Build Server's queue, its position in the queue
+ * is recorded as well, so the user can see why it hasn't started.
+ *
+ * <p>Progress is kept in memcache, where every App Engine instance can see it.
+ * It is only a hint for showing the user how far along a build is: if it is
+ * lost, {@link #get} returns {@link #UNKNOWN} and the build result is still
+ * found in the project's output files when the build finishes.
+ *
+ */
+public final class BuildProgress {
+  private static final Logger LOG = Logger.getLogger(BuildProgress.class.getName());
+
+  /**
+   * Progress returned when none has been posted for a build.
+   */
+  public static final int UNKNOWN = -1;
+
+  /**
+   * Progress of a build whose output files have all been received.
+   */
+  public static final int DONE = 100;
+
+  // How long progress stays in memcache. Longer than any build takes.
+  private static final int EXPIRATION_SECONDS = 30 * 60;
+
+  // How often waitForChange looks for new progress.
+  private static final long POLL_INTERVAL_MILLIS = 500;
+
+  // Prefix for memcache keys, so they can't collide with other memcache users.
+  private static final String KEY_PREFIX = "BuildProgress:";
+
+  // Prefix for the memcache keys of queue positions.
+  private static final String QUEUE_KEY_PREFIX = "BuildQueuePosition:";
+
+  private static final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  private BuildProgress() {
+  }
+
+  /**
+   * Records the progress of a build.
+   *
+   * @param userId  the user who requested the build
+   * @param projectId  the project being built
+   * @param buildDir  the folder of the build's output files
+   * @param progress  the progress, from 0 to {@link #DONE}
+   */
+  public static void set(String userId, long projectId, String buildDir, int progress) {
+    try {
+      // A build that has progress is no longer waiting in the queue.
+      memcache.delete(queueKey(userId, projectId, buildDir));
+      memcache.put(key(userId, projectId, buildDir), progress,
+          Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+    } catch (RuntimeException e) {
+      LOG.log(Level.FINE, "Unable to record build progress", e);
+    }
+  }
+
+  /**
+   * Returns the progress of a build, or {@link #UNKNOWN} if none has been
+   * recorded.
+   *
+   * @param userId  the user who requested the build
+   * @param projectId  the project being built
+   * @param buildDir  the folder of the build's output files
+   */
+  public static int get(String userId, long projectId, String buildDir) {
+    try {
+      Object progress = memcache.get(key(userId, projectId, buildDir));
+      if (progress instanceof Integer) {
+        return (Integer) progress;
+      }
+    } catch (RuntimeException e) {
+      LOG.log(Level.FINE, "Unable to get build progress", e);
+    }
+    return UNKNOWN;
+  }
+
+  /**
+   * Records progress posted by the Build Server while a build is running.
+   * The progress stays below {@link #DONE} until the output files have been
+   * received, and a late report doesn't replace {@link #DONE}.
+   *
+   * @param userId  the user who requested the build
+   * @param projectId  the project being built
+   * @param buildDir  the folder of the build's output files
+   * @param progress  the progress reported by the Build Server
+   */
+  public static void report(String userId, long projectId, String buildDir, int progress) {
+    if (get(userId, projectId, buildDir) != DONE) {
+      set(userId, projectId, buildDir, Math.min(Math.max(progress, 0), DONE - 1));
+    }
+  }
+
+  /**
+   * Records the position of a build in the Build Server's queue, as posted by
+   * the Build Server while the build waits to start.
+   *
+   * @param userId  the user who requested the build
+   * @param projectId  the project being built
+   * @param buildDir  the folder of the build's output files
+   * @param queuePosition  1 if the build is the next to start, 2 if it is the
+   *     one after that, and so on
+   */
+  public static void reportQueuePosition(String userId, long projectId, String buildDir,
+      int queuePosition) {
+    try {
+      memcache.put(queueKey(userId, projectId, buildDir), queuePosition,
+          Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+    } catch (RuntimeException e) {
+      LOG.log(Level.FINE, "Unable to record build queue position", e);
+    }
+  }
+
+  /**
+   * Returns the position of a build in the Build Server's queue, or 0 if it
+   * isn't known to be waiting.
+   *
+   * @param userId  the user who requested the build
+   * @param projectId  the project being built
+   * @param buildDir  the folder of the build's output files
+   */
+  public static int getQueuePosition(String userId, long projectId, String buildDir) {
+    try {
+      Object queuePosition = memcache.get(queueKey(userId, projectId, buildDir));
+      if (queuePosition instanceof Integer) {
+        return (Integer) queuePosition;
+      }
+    } catch (RuntimeException e) {
+      LOG.log(Level.FINE, "Unable to get build queue position", e);
+    }
+    return 0;
+  }
+
+  /**
+   * Waits until the progress of a build is known and differs from the given
+   * progress, its queue position changes, or the timeout has passed, and
+   * returns the progress.
+   *
+   * @param userId  the user who requested the build
+   * @param projectId  the project being built
+   * @param buildDir  the folder of the build's output files
+   * @param lastProgress  the progress the caller already knows about
+   * @param timeoutMillis  the longest time to wait
+   */
+  public static int waitForChange(String userId, long projectId, String buildDir,
+      int lastProgress, long timeoutMillis) {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    int lastQueuePosition = getQueuePosition(userId, projectId, buildDir);
+    while (true) {
+      int progress = get(userId, projectId, buildDir);
+      if ((progress != UNKNOWN && progress != lastProgress)
+          || getQueuePosition(userId, projectId, buildDir) != lastQueuePosition
+          || System.currentTimeMillis() >= deadline) {
+        return progress;
+      }
+      try {
+        Thread.sleep(POLL_INTERVAL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return progress;
+      }
+    }
+  }
+
+  private static String key(String userId, long projectId, String buildDir) {
+    return KEY_PREFIX + userId + ":" + projectId + ":" + buildDir;
+  }
+
+  private static String queueKey(String userId, long projectId, String buildDir) {
+    return QUEUE_KEY_PREFIX + userId + ":" + projectId + ":" + buildDir;
+  }
+}
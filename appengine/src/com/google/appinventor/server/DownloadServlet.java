@@ -11,11 +11,11 @@ import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.server.util.CacheHeaders;
 import com.google.appinventor.server.util.CacheHeadersImpl;
 import com.google.appinventor.shared.rpc.ServerLayout;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.storage.StorageUtil;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.NoSuchElementException;
 import java.util.logging.Logger;
 
@@ -88,6 +88,8 @@ public class DownloadServlet extends OdeServlet {
 
   private final FileExporter fileExporter = new FileExporterImpl();
 
+  private final StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
+
   @Override
   public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
     // Set a default http header to avoid security vulnerabilities.
@@ -120,11 +122,14 @@ public class DownloadServlet extends OdeServlet {
         String projectTitle = (uriComponents.length > PROJECT_TITLE_INDEX) ?
             uriComponents[PROJECT_TITLE_INDEX] : null;
         final boolean includeProjectHistory = true;
-        String zipName = (projectTitle == null) ? null :
+        String zipName = (projectTitle == null) ?
+            storageIo.getProjectName(userId, projectId) + ".zip" :
             StringUtils.normalizeForFilename(projectTitle) + ".zip";
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(userId,
-            projectId, includeProjectHistory, false, zipName);
-        downloadableFile = zipFile.getRawFile();
+        // The zip is written to the response as it is made, rather than being built in memory.
+        AttachmentOutputStream out = new AttachmentOutputStream(resp, zipName);
+        fileExporter.exportProjectSourceZip(userId, projectId, includeProjectHistory, false, out);
+        out.close();
+        return;
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_USER_PROJECT_SOURCE)) {
         // Download project source files for the specified user project as a zip.
@@ -132,7 +137,6 @@ public class DownloadServlet extends OdeServlet {
         
         String userIdOrEmail = uriComponents[USER_PROJECT_USERID_INDEX];
         String projectUserId;
-        StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
         if (userIdOrEmail.contains("@")) {
           // email address
           try {
@@ -173,15 +177,18 @@ public class DownloadServlet extends OdeServlet {
         } else {
           zipName = "u" + projectUserId + "_p" + projectId + ".zip";
         }
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(projectUserId,
-            projectId, /* include history*/ true, /* include keystore */ true, zipName);
-        downloadableFile = zipFile.getRawFile();
-        
+        AttachmentOutputStream out = new AttachmentOutputStream(resp, zipName);
+        fileExporter.exportProjectSourceZip(projectUserId, projectId,
+            /* include history*/ true, /* include keystore */ true, out);
+        out.close();
+        return;
+
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_ALL_PROJECTS_SOURCE)) {
         // Download all project source files as a zip of zips.
-        ProjectSourceZip zipFile = fileExporter.exportAllProjectsSourceZip(
-            userId, "all-projects.zip");
-        downloadableFile = zipFile.getRawFile();
+        AttachmentOutputStream out = new AttachmentOutputStream(resp, "all-projects.zip");
+        fileExporter.exportAllProjectsSourceZip(userId, out);
+        out.close();
+        return;
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_FILE)) {
         // Download a specific file.
@@ -212,9 +219,7 @@ public class DownloadServlet extends OdeServlet {
     byte[] content = downloadableFile.getContent();
 
     // Set http response information
-    resp.setStatus(HttpServletResponse.SC_OK);
-    resp.setHeader("content-disposition", "attachment; filename=\"" + fileName + "\"");
-    resp.setContentType(StorageUtil.getContentTypeForFilePath(fileName));
+    setAttachmentHeaders(resp, fileName);
     resp.setContentLength(content.length);
 
     // Attach download data
@@ -222,4 +227,62 @@ public class DownloadServlet extends OdeServlet {
     out.write(content);
     out.close();
   }
+
+  /*
+   * Sets the response information for downloading a file with the given name. Zips are streamed,
+   * so their length isn't known when this is called.
+   */
+  private static void setAttachmentHeaders(HttpServletResponse resp, String fileName) {
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.setHeader("content-disposition", "attachment; filename=\"" + fileName + "\"");
+    resp.setContentType(StorageUtil.getContentTypeForFilePath(fileName));
+  }
+
+  /*
+   * Writes a streamed export to the response, setting the attachment headers
+   * when the export is first written to. An export that fails validation
+   * writes nothing (see FileExporter), so the headers of a failed download are
+   * never set.
+   */
+  private static class AttachmentOutputStream extends OutputStream {
+    private final HttpServletResponse resp;
+    private final String fileName;
+    private ServletOutputStream out;
+
+    AttachmentOutputStream(HttpServletResponse resp, String fileName) {
+      this.resp = resp;
+      this.fileName = fileName;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      getOut().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      getOut().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (out != null) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // The export succeeded, even if it wrote nothing.
+      getOut().close();
+    }
+
+    private ServletOutputStream getOut() throws IOException {
+      if (out == null) {
+        setAttachmentHeaders(resp, fileName);
+        out = resp.getOutputStream();
+      }
+      return out;
+    }
+  }
 }
@@ -5,10 +5,10 @@
 
 package com.google.appinventor.server;
 
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.annotation.Nullable;
 
@@ -34,36 +34,36 @@ public interface FileExporter {
       throws IOException;
 
   /**
-   * Exports the project source files as a zip.
+   * Exports the project source files as a zip, writing it to out as it is
+   * made. Memory use doesn't depend on the size of the project.
    *
    * @param userId the userId
    * @param projectId the project id belonging to the userId
    * @param includeProjectHistory indicates whether to include a file
    *        containing the project's history in the zip
    * @param includeAndroidKeystore indicates whether to include the user's android.keystore file
-   * @param zipName the desired name for the zip, or null for a name to be generated
-   * @return the zip file, which includes a count of the number of zipped files
-   *         and (indirectly) the name of the file and its contents
+   * @param out the stream to write the zip to; it is not closed
+   * @return the number of files in the zip
    * @throws IllegalArgumentException if download request cannot be fulfilled
-   *         (no source files)
+   *         (no source files); nothing has been written to out in that case
    * @throws IOException if files cannot be written
    */
-  ProjectSourceZip exportProjectSourceZip(String userId, long projectId,
-                                          boolean includeProjectHistory,
-                                          boolean includeAndroidKeystore, @Nullable String zipName)
+  int exportProjectSourceZip(String userId, long projectId, boolean includeProjectHistory,
+                             boolean includeAndroidKeystore, OutputStream out)
       throws IOException;
 
   /**
-   * Exports all of the user's projects' source files as a zip of zips.
+   * Exports all of the user's projects' source files as a zip of zips, writing
+   * it to out as it is made.
    *
    * @param userId the userId
-   * @param zipName the desired name for the zip
-   * @return the name, contents, and number of files in the zip
+   * @param out the stream to write the zip to; it is not closed
+   * @return the number of files in the zip
    * @throws IllegalArgumentException if download request cannot be fulfilled
-   *         (no projects)
+   *         (no projects); nothing has been written to out in that case
    * @throws IOException if files cannot be written
    */
-  ProjectSourceZip exportAllProjectsSourceZip(String userId, String zipName) throws IOException;
+  int exportAllProjectsSourceZip(String userId, OutputStream out) throws IOException;
 
   /**
    * Exports a specific project file.
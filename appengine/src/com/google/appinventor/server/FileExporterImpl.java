@@ -6,15 +6,13 @@
 package com.google.appinventor.server;
 
 import com.google.common.base.Strings;
-import com.google.appinventor.server.storage.ObjectifyStorageIo;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.storage.StorageUtil;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipEntry;
@@ -57,61 +55,44 @@ public final class FileExporterImpl implements FileExporter {
   }
 
   @Override
-  public ProjectSourceZip exportProjectSourceZip(String userId, long projectId,
-                                                 boolean includeProjectHistory,
-                                                 boolean includeAndroidKeystore,
-                                                 @Nullable String zipName) throws IOException {
+  public int exportProjectSourceZip(String userId, long projectId,
+                                    boolean includeProjectHistory,
+                                    boolean includeAndroidKeystore,
+                                    OutputStream out) throws IOException {
     // Download project source files as a zip.
-    if (storageIo instanceof ObjectifyStorageIo) {
-      return ((ObjectifyStorageIo)storageIo).exportProjectSourceZip(userId, projectId,
-          includeProjectHistory, includeAndroidKeystore, zipName);
-    } else {
-      throw new IllegalArgumentException("Objectify only");
-    }
+    ZipOutputStream zipOut = new ZipOutputStream(out);
+    int count = storageIo.exportProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, zipOut);
+    // Finish rather than close the zip, since out belongs to the caller.
+    zipOut.finish();
+    return count;
   }
 
   @Override
-  public ProjectSourceZip exportAllProjectsSourceZip(String userId,
-      String zipName) throws IOException {
+  public int exportAllProjectsSourceZip(String userId, OutputStream outputStream)
+      throws IOException {
     // Create a zip file for each project's sources.
     List<Long> projectIds = storageIo.getProjects(userId);
     if (projectIds.size() == 0) {
       throw new IllegalArgumentException("No projects to download");
     }
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    ZipOutputStream out = new ZipOutputStream(zipFile);
+    ZipOutputStream out = new ZipOutputStream(outputStream);
     int count = 0;
-    String metadata = "";
     for (Long projectId : projectIds) {
+      // The project's zip is written straight into its entry, which is only started once the
+      // zip is written to, so that a project without files gets no entry.
+      ProjectEntryOutputStream entryOut = new ProjectEntryOutputStream(out,
+          storageIo.getProjectName(userId, projectId) + ".zip");
       try {
-        ProjectSourceZip projectSourceZip =
-            exportProjectSourceZip(userId, projectId, false, false, null);
-        byte[] data = projectSourceZip.getContent();
-        String name = projectSourceZip.getFileName();
-
-        // If necessary, rename duplicate projects
-        while (true) {
-          try {
-            out.putNextEntry(new ZipEntry(name));
-            break;
-          } catch (IOException e) {
-            name = "duplicate-" + name;
-          }
-        }
-        metadata += projectSourceZip.getMetadata() + "\n";
-
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        count++;
+        exportProjectSourceZip(userId, projectId, false, false, entryOut);
       } catch (IllegalArgumentException e) {
         System.err.println("No files found for userid: " + userId +
             " for projectid: " + projectId);
-        continue;
-      } catch (IOException e) {
-        System.err.println("IOException while reading files found for userid: " +
-            userId + " for projectid: " + projectId);
-        continue;
+      }
+      if (entryOut.isEntryStarted()) {
+        out.closeEntry();
+        count++;
       }
     }
     if (count == 0) {
@@ -130,13 +111,9 @@ public final class FileExporterImpl implements FileExporter {
       }
     }
 
-    out.close();
-
-    // Package the big zip file up as a ProjectSourceZip and return it.
-    byte[] content = zipFile.toByteArray();
-    ProjectSourceZip projectSourceZip = new ProjectSourceZip(zipName, content, count);
-    projectSourceZip.setMetadata(metadata);
-    return projectSourceZip;
+    // Finish rather than close the zip, since outputStream belongs to the caller.
+    out.finish();
+    return count;
   }
 
   @Override
@@ -164,6 +141,49 @@ public final class FileExporterImpl implements FileExporter {
     }
   }
 
+  /*
+   * Writes a project's zip into an entry of the zip of all projects, starting
+   * the entry when the project's zip is first written to.
+   */
+  private static class ProjectEntryOutputStream extends OutputStream {
+    private final ZipOutputStream out;
+    private String name;
+    private boolean entryStarted;
+
+    ProjectEntryOutputStream(ZipOutputStream out, String name) {
+      this.out = out;
+      this.name = name;
+    }
+
+    boolean isEntryStarted() {
+      return entryStarted;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      startEntry();
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      startEntry();
+      out.write(b, off, len);
+    }
+
+    private void startEntry() {
+      // If necessary, rename duplicate projects
+      while (!entryStarted) {
+        try {
+          out.putNextEntry(new ZipEntry(name));
+          entryStarted = true;
+        } catch (IOException e) {
+          name = "duplicate-" + name;
+        }
+      }
+    }
+  }
+
   /*
    * Filters a list of file names, removing those that don't start with the given prefix.
    */
@@ -10,6 +10,7 @@ import com.google.appinventor.shared.rpc.project.UserProject;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -52,6 +53,22 @@ public interface FileImporter {
                             InputStream uploadedFileStream, @Nullable String projectHistory)
       throws FileImporterException, IOException;
 
+  /**
+   * Creates a project on the server for each project archive in a zip file,
+   * and imports its content. Each project is named after its archive, with a
+   * suffix if the user already has a project with that name. Archives that
+   * aren't valid project archives are skipped.
+   *
+   * @param userId the userId
+   * @param uploadedFileStream zip file of project archives
+   * @return the UserProjects of the imported projects
+   * @throws FileImporterException if uploadedFile is not a valid zip file or
+   *         it doesn't contain any valid project archives
+   * @throws IOException if any file operation fails
+   */
+  List<UserProject> importProjects(String userId, InputStream uploadedFileStream)
+      throws FileImporterException, IOException;
+
   /**
    * Adds the file to the project on the server and imports its content.
    *
@@ -26,10 +26,15 @@ import com.google.common.io.ByteStreams;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
@@ -43,6 +48,8 @@ import javax.annotation.Nullable;
  */
 public final class FileImporterImpl implements FileImporter {
 
+  private static final Logger LOG = Logger.getLogger(FileImporterImpl.class.getName());
+
   // Maximum size of an uploaded asset, in megabytes.
   private static final Flag<Float> maxAssetSizeMegs = Flag.createFlag("max.asset.size.megs", 9f);
 
@@ -60,7 +67,83 @@ public final class FileImporterImpl implements FileImporter {
       throws FileImporterException, IOException {
     // The projectName parameter has already been validated, including checking for an
     // existing project with the same name. (See TextValidators.checkNewProjectName).
+    return importProject(userId, storageIo.getUser(userId).getUserEmail(), projectName,
+        uploadedFileStream, projectHistory);
+  }
+
+  @Override
+  public List<UserProject> importProjects(String userId, InputStream uploadedFileStream)
+      throws FileImporterException, IOException {
+    String userEmail = storageIo.getUser(userId).getUserEmail();
+    // The names of the user's projects are read once, and each imported project's name is added,
+    // so that every archive gets a name that isn't taken without reading them again.
+    Set<String> projectNames = new HashSet<String>(getProjectNames(userId));
+    List<UserProject> userProjects = new ArrayList<UserProject>();
+
+    ZipInputStream zin = new ZipInputStream(uploadedFileStream);
+    try {
+      while (true) {
+        ZipEntry entry;
+        try {
+          entry = zin.getNextEntry();
+          if (entry == null) {
+            break;
+          }
+        } catch (ZipException e) {
+          // The uploaded file is not a valid zip file
+          throw new FileImporterException(UploadResponse.Status.NOT_PROJECT_ARCHIVE);
+        }
 
+        String fileName = entry.getName();
+        if (entry.isDirectory() || !(fileName.endsWith(".aia") || fileName.endsWith(".zip"))) {
+          continue;
+        }
+        String projectName = makeProjectName(fileName, projectNames);
+        try {
+          // The project archive is read straight from the enclosing zip, which importProject
+          // must not close.
+          userProjects.add(importProject(userId, userEmail, projectName,
+              new FilterInputStream(zin) {
+                @Override
+                public void close() {
+                }
+              }, null));
+          projectNames.add(projectName);
+        } catch (FileImporterException e) {
+          LOG.info("Skipping " + fileName + " in bulk import: " + e.uploadResponse.getStatus());
+        }
+      }
+    } finally {
+      zin.close();
+    }
+
+    if (userProjects.isEmpty()) {
+      throw new FileImporterException(UploadResponse.Status.NOT_PROJECT_ARCHIVE);
+    }
+    return userProjects;
+  }
+
+  /**
+   * Returns a valid project name, not in the given set of names, for the
+   * project archive with the given file name.
+   */
+  @VisibleForTesting
+  static String makeProjectName(String fileName, Set<String> projectNames) {
+    String name = StorageUtil.trimOffExtension(StorageUtil.basename(fileName))
+        .replaceAll("\\W", "_");
+    if (!name.matches("^[a-zA-Z].*")) {
+      name = "Project_" + name;
+    }
+    String projectName = name;
+    for (int i = 2; projectNames.contains(projectName); i++) {
+      projectName = name + "_" + i;
+    }
+    return projectName;
+  }
+
+  private UserProject importProject(String userId, String userEmail, String projectName,
+      InputStream uploadedFileStream, @Nullable String projectHistory)
+      throws FileImporterException, IOException {
     // Begin creating the project.
     Project project = new Project(projectName);
     project.setProjectType(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE);
@@ -68,8 +151,7 @@ public final class FileImporterImpl implements FileImporter {
     // As we process the ZipEntry for each file, we'll adjust the directory structure so that it is
     // appropriate for this user.
     // Here we get the information (such as the qualified form name) that we'll need to do that.
-    String qualifiedFormName = StringUtils.getQualifiedFormName(
-        storageIo.getUser(userId).getUserEmail(), projectName);
+    String qualifiedFormName = StringUtils.getQualifiedFormName(userEmail, projectName);
     String srcDirectory = YoungAndroidProjectService.getSourceDirectory(qualifiedFormName);
 
     ZipInputStream zin = new ZipInputStream(uploadedFileStream);
@@ -128,10 +210,7 @@ public final class FileImporterImpl implements FileImporter {
             }
 
             // Get the file content from the ZipEntry.
-            ByteArrayOutputStream contentStream = new ByteArrayOutputStream();
-            ByteStreams.copy(zin, contentStream);
-
-            project.addRawFile(new RawFile(fileName, contentStream.toByteArray()));
+            project.addRawFile(new RawFile(fileName, ByteStreams.toByteArray(zin)));
           }
         }
       }
@@ -150,10 +229,9 @@ public final class FileImporterImpl implements FileImporter {
       project.setProjectHistory(projectHistory);
     }
     String settings = YoungAndroidProjectService.getProjectSettings(null, null, null, null);
+    // All of the project's files are written by this one call.
     long projectId = storageIo.createProject(userId, project, settings);
-    return new UserProject(projectId, storageIo.getProjectName(userId, projectId),
-        storageIo.getProjectType(userId, projectId),
-        storageIo.getProjectDateCreated(userId, projectId));
+    return storageIo.getUserProjects(userId, Collections.singletonList(projectId)).get(0);
   }
 
   @VisibleForTesting
@@ -207,11 +285,14 @@ public final class FileImporterImpl implements FileImporter {
 
   @Override
   public Set<String> getProjectNames(final String userId) {
-    List<Long> projectIds = storageIo.getProjects(userId);
-    Iterable<String> names = Iterables.transform(projectIds, new Function<Long, String>() {
+    // The projects are read with batch gets rather than one at a time.
+    List<UserProject> userProjects = storageIo.getUserProjects(userId,
+        storageIo.getProjects(userId));
+    Iterable<String> names = Iterables.transform(userProjects,
+        new Function<UserProject, String>() {
       @Override
-      public String apply(Long projectId) {
-        return storageIo.getProjectName(userId, projectId);
+      public String apply(UserProject userProject) {
+        return userProject.getProjectName();
       }
     });
     return ImmutableSet.copyOf(names);
@@ -8,6 +8,7 @@ package com.google.appinventor.server;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appinventor.server.flags.Flag;
+import com.google.appinventor.server.storage.StorageCache;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.ServerLayout;
@@ -80,8 +81,11 @@ public class OdeAuthFilter implements Filter {
   @VisibleForTesting
   void doMyFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
       throws IOException, ServletException {
+    // Datastore lookups are cached for the rest of the request.
+    StorageCache.beginRequest();
     if (!setUser(request)) {
       // can't get the user info, so block further request processing
+      StorageCache.endRequest();
       response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
       return;
     }
@@ -105,6 +109,7 @@ public class OdeAuthFilter implements Filter {
       chain.doFilter(request, response);
     } finally {
       removeUser();
+      StorageCache.endRequest();
     }
   }
 
@@ -12,6 +12,7 @@ import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
+import com.google.appinventor.shared.rpc.project.FileDescriptorWithDelta;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.ProjectService;
@@ -19,7 +20,9 @@ import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 import com.google.common.collect.Lists;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
@@ -35,6 +38,17 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
 
   private static final long serialVersionUID = -8316312003804169166L;
 
+  // Save byte counts are logged after this many saves.
+  private static final long LOG_SAVE_STATS_INTERVAL = 1000;
+
+  // Counts of saves and of the content characters they carried, shared by all
+  // instances of this servlet: characters sent as full content, characters
+  // sent as changes, and characters of content that the changes produced.
+  private static final AtomicLong saveCount = new AtomicLong(0);
+  private static final AtomicLong fullContentChars = new AtomicLong(0);
+  private static final AtomicLong deltaChars = new AtomicLong(0);
+  private static final AtomicLong deltaContentChars = new AtomicLong(0);
+
   private final transient StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
 
   // RPC implementation for YoungAndroid projects
@@ -106,13 +120,34 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
    */
   @Override
   public List<UserProject> getProjectInfos() {
+    String userId = userInfoProvider.getUserId();
+    return storageIo.getUserProjects(userId, storageIo.getProjects(userId));
+  }
+
+  /**
+   * Returns a page of the list returned by {@link #getProjectInfos()}.
+   * Pages are delimited by project ID rather than by position, so that
+   * projects created or deleted meanwhile don't shift later pages.
+   *
+   * @param afterProjectId  only projects with a greater ID are returned
+   * @param maxCount  maximum number of projects to return
+   * @return list of project infos, in order of project ID
+   */
+  @Override
+  public List<UserProject> getProjectInfos(long afterProjectId, int maxCount) {
     String userId = userInfoProvider.getUserId();
     List<Long> projectIds = storageIo.getProjects(userId);
-    List<UserProject> projectInfos = Lists.newArrayListWithExpectedSize(projectIds.size());
+    Collections.sort(projectIds);
+    List<Long> pageProjectIds = Lists.newArrayList();
     for (Long projectId : projectIds) {
-      projectInfos.add(makeUserProject(userId, projectId));
+      if (pageProjectIds.size() >= maxCount) {
+        break;
+      }
+      if (projectId > afterProjectId) {
+        pageProjectIds.add(projectId);
+      }
     }
-    return projectInfos;
+    return storageIo.getUserProjects(userId, pageProjectIds);
   }
 
   /**
@@ -246,10 +281,55 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
      long projectId = fileAndContent.getProjectId();
      date = getProjectRpcImpl(userId, projectId).
          save(userId, projectId, fileAndContent.getFileId(), fileAndContent.getContent());
+     fullContentChars.addAndGet(fileAndContent.getContent().length());
+     countSave();
     }
     return date;
   }
 
+  /**
+   * Saves changes to the contents of multiple files. Each file is loaded,
+   * changed and saved in turn, so that only one file's content is held at a
+   * time. If a change can't be applied, the files after it are not loaded
+   * and the client saves all of the files again with their full content.
+   *
+   * @param filesAndDeltas  list containing file descriptors and the changes
+   *                        to their last saved content
+   * @return modification date for last modified project of list, or
+   *         {@link #DELTA_MISMATCH} if any change could not be applied
+   */
+  @Override
+  public long saveDeltas(List<FileDescriptorWithDelta> filesAndDeltas) {
+    final String userId = userInfoProvider.getUserId();
+    long date = 0;
+    for (FileDescriptorWithDelta fileAndDelta : filesAndDeltas) {
+      long projectId = fileAndDelta.getProjectId();
+      String fileId = fileAndDelta.getFileId();
+      CommonProjectService projectRpcImpl = getProjectRpcImpl(userId, projectId);
+      String content = fileAndDelta.apply(projectRpcImpl.load(userId, projectId, fileId));
+      if (content == null) {
+        LOG.info("Content of " + fileId + " in project " + projectId +
+            " doesn't match the saved change; asking for the full content");
+        return DELTA_MISMATCH;
+      }
+      date = projectRpcImpl.save(userId, projectId, fileId, content);
+      deltaChars.addAndGet(fileAndDelta.getReplacementLength());
+      deltaContentChars.addAndGet(content.length());
+      countSave();
+    }
+    return date;
+  }
+
+  private static void countSave() {
+    long saves = saveCount.incrementAndGet();
+    if (saves % LOG_SAVE_STATS_INTERVAL == 0) {
+      LOG.info("Saves: " + saves +
+          ", full content chars: " + fullContentChars.get() +
+          ", delta chars: " + deltaChars.get() +
+          ", content chars saved from deltas: " + deltaContentChars.get());
+    }
+  }
+
   /**
    * Invokes a build command for the project on the back-end.
    *
@@ -285,6 +365,23 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
         userInfoProvider.getUser(), projectId, target);
   }
 
+  /**
+   * Waits for the progress of a build to change and then gets its result.
+   *
+   * @param projectId  project ID
+   * @param target  build target (optional, implementation dependent)
+   * @param lastProgress  the build progress the client already knows about
+   *
+   * @return  results of build, as for {@link #getBuildResult}
+   */
+  @Override
+  public RpcResult waitForBuildResult(long projectId, String target, int lastProgress) {
+    // Dispatch
+    final String userId = userInfoProvider.getUserId();
+    return getProjectRpcImpl(userId, projectId).waitForBuildResult(
+        userInfoProvider.getUser(), projectId, target, lastProgress);
+  }
+
   /*
    * Write the serialized response out to stdout. This is a very unusual thing
    * to do, but it allows us to create a static file version of the response
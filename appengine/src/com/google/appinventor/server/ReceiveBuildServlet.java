@@ -9,10 +9,14 @@ import com.google.appinventor.server.encryption.EncryptionException;
 import com.google.appinventor.server.project.utils.Security;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
+import com.google.appinventor.server.storage.StoredOutputFile;
 import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.io.ByteStreams;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -28,6 +32,15 @@ import javax.servlet.http.HttpServletResponse;
  * safety they contain an encrypted user and project ID as part of
  * their URL.
  *
+ * <p>While a build is running, the Build Server also posts its progress here,
+ * as a progress query parameter with an empty body, and while it waits in the
+ * Build Server's queue, its position as a queuePosition query parameter. Both
+ * are recorded in {@link BuildProgress}.
+ *
+ * <p>Output files are copied to storage as they are read from the request and
+ * are then added to the project together, so that a large APK is never held
+ * in memory. The time taken and the bytes received are logged for each build.
+ *
  * @author markf@google.com (Mark Friedman)
  */
 public class ReceiveBuildServlet extends OdeServlet {
@@ -38,6 +51,11 @@ public class ReceiveBuildServlet extends OdeServlet {
   private final OdeAuthFilter odeFilter = new OdeAuthFilter();
   private final transient StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
 
+  // Totals over all builds received by this instance.
+  private static final AtomicLong buildCount = new AtomicLong(0);
+  private static final AtomicLong totalBytes = new AtomicLong(0);
+  private static final AtomicLong totalMillis = new AtomicLong(0);
+
   @Override
   public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
     // URIs for receivebuild requests are structured as follows:
@@ -57,31 +75,87 @@ public class ReceiveBuildServlet extends OdeServlet {
       throw CrashReport.createAndLogError(LOG, req, null, e);
     }
 
+    // A post with a progress parameter only reports the progress of a running build.
+    String progressParam = req.getParameter("progress");
+    if (progressParam != null) {
+      try {
+        BuildProgress.report(userId, projectId, uriComponents[4],
+            Integer.parseInt(progressParam));
+      } catch (NumberFormatException e) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid progress " + progressParam);
+      }
+      return;
+    }
+
+    // A post with a queuePosition parameter only reports where a waiting build is in the queue.
+    String queuePositionParam = req.getParameter("queuePosition");
+    if (queuePositionParam != null) {
+      try {
+        BuildProgress.reportQueuePosition(userId, projectId, uriComponents[4],
+            Integer.parseInt(queuePositionParam));
+      } catch (NumberFormatException e) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "Invalid queue position " + queuePositionParam);
+      }
+      return;
+    }
+
     // Set the user in the OdeFilter, which is used everywhere as the UserInfoProvider.
     odeFilter.setUserFromUserId(userId);
     try {
+      long startTime = System.currentTimeMillis();
+      long bytes = 0;
       String buildFileDirPath = uriComponents[4];
-      ZipInputStream zipInputStream = new ZipInputStream(req.getInputStream());
-      while (true) {
-        ZipEntry zipEntry = zipInputStream.getNextEntry();
-        if (zipEntry == null) {
-          break;
+      List<StoredOutputFile> outputFiles = new ArrayList<StoredOutputFile>();
+      boolean outputFilesHandedOver = false;
+      try {
+        ZipInputStream zipInputStream = new ZipInputStream(req.getInputStream());
+        while (true) {
+          ZipEntry zipEntry = zipInputStream.getNextEntry();
+          if (zipEntry == null) {
+            break;
+          }
+          String fileName = zipEntry.getName();
+          if (StorageUtil.ANDROID_KEYSTORE_FILENAME.equals(fileName)) {
+            byte[] fileBytes = ByteStreams.toByteArray(zipInputStream);
+            bytes += fileBytes.length;
+            LOG.info("Saving android.keystore for user: " + userId);
+            storageIo.addFilesToUser(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME);
+            storageIo.uploadRawUserFile(userId, fileName, fileBytes);
+          } else {
+            String filePath = buildFileDirPath + "/" + fileName;
+            LOG.info("Saving build output files: " + filePath);
+            StoredOutputFile outputFile = storageIo.storeOutputFile(projectId, filePath,
+                zipInputStream);
+            bytes += outputFile.getSize();
+            outputFiles.add(outputFile);
+          }
         }
-        String fileName = zipEntry.getName();
-        byte[] fileBytes = ByteStreams.toByteArray(zipInputStream);
-        if (StorageUtil.ANDROID_KEYSTORE_FILENAME.equals(fileName)) {
-          LOG.info("Saving android.keystore for user: " + userId);
-          storageIo.addFilesToUser(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME);
-          storageIo.uploadRawUserFile(userId, fileName, fileBytes);
-        } else {
-          String filePath = buildFileDirPath + "/" + fileName;
-          LOG.info("Saving build output files: " + filePath);
-          storageIo.addOutputFilesToProject(userId, projectId, filePath);
-          storageIo.uploadRawFile(projectId, filePath, userId, fileBytes);
+        // From here on, addStoredOutputFilesToProject discards the files if it fails.
+        outputFilesHandedOver = true;
+        if (!outputFiles.isEmpty()) {
+          storageIo.addStoredOutputFilesToProject(userId, projectId, outputFiles);
+        }
+      } finally {
+        if (!outputFilesHandedOver) {
+          // Don't leave the files already stored behind when the rest can't be received.
+          storageIo.discardStoredOutputFiles(outputFiles);
         }
       }
+      BuildProgress.set(userId, projectId, buildFileDirPath, BuildProgress.DONE);
+      logBuildReceived(projectId, outputFiles.size(), bytes,
+          System.currentTimeMillis() - startTime);
     } finally {
       odeFilter.removeUser();
     }
   }
+
+  private static void logBuildReceived(long projectId, int fileCount, long bytes, long millis) {
+    long builds = buildCount.incrementAndGet();
+    long allBytes = totalBytes.addAndGet(bytes);
+    long allMillis = totalMillis.addAndGet(millis);
+    LOG.info("Received build output for project " + projectId + ": " + fileCount +
+        " files, " + bytes + " bytes in " + millis + " ms (" + builds + " builds, " +
+        allBytes + " bytes, " + (allMillis / builds) + " ms average since startup)");
+  }
 }
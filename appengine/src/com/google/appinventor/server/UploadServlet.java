@@ -10,6 +10,7 @@ import com.google.appinventor.server.util.CacheHeadersImpl;
 import com.google.appinventor.shared.rpc.ServerLayout;
 import com.google.appinventor.shared.rpc.UploadResponse;
 import com.google.appinventor.shared.rpc.project.UserProject;
+import com.google.common.base.Joiner;
 
 import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.FileItemIterator;
@@ -18,6 +19,7 @@ import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.List;
 import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletRequest;
@@ -32,13 +34,14 @@ public class UploadServlet extends OdeServlet {
   /*
    * URIs for upload requests are structured as follows:
    *    /<baseurl>/upload/project/<projectname>}
+   *    /<baseurl>/upload/projects
    *    /<baseurl>/upload/file/<projectId>/<filePath>
    *    /<baseurl>/upload/userfile/<filePath>
    */
 
   // Constants for accessing split URI
   /*
-   * Upload kind can be: "project", "file", or "userfile".
+   * Upload kind can be: "project", "projects", "file", or "userfile".
    * Constants for these are defined in ServerLayout.
    */
   private static final int UPLOAD_KIND_INDEX = 3;
@@ -100,6 +103,24 @@ public class UploadServlet extends OdeServlet {
         } catch (FileImporterException e) {
           uploadResponse = e.uploadResponse;
         }
+      } else if (uploadKind.equals(ServerLayout.UPLOAD_PROJECTS)) {
+        InputStream uploadedStream;
+        try {
+          uploadedStream = getRequestStream(req, ServerLayout.UPLOAD_PROJECT_ARCHIVES_FORM_ELEMENT);
+        } catch (Exception e) {
+          throw CrashReport.createAndLogError(LOG, req, null, e);
+        }
+
+        try {
+          List<UserProject> userProjects = fileImporter.importProjects(
+              userInfoProvider.getUserId(), uploadedStream);
+          // One UserProject per line.
+          String info = Joiner.on('\n').join(userProjects);
+          uploadResponse = new UploadResponse(UploadResponse.Status.SUCCESS, userProjects.size(),
+              info);
+        } catch (FileImporterException e) {
+          uploadResponse = e.uploadResponse;
+        }
       } else if (uploadKind.equals(ServerLayout.UPLOAD_FILE)) {
         uriComponents = uri.split("/", SPLIT_LIMIT_FILE);
         long projectId = Long.parseLong(uriComponents[PROJECT_ID_INDEX]);
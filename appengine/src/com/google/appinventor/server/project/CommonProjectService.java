@@ -185,4 +185,17 @@ public abstract class CommonProjectService {
    *           -1: Build is not yet done.
    */
   public abstract RpcResult getBuildResult(User user, long projectId, String target);
+
+  /**
+   * Waits for the progress of a build to change and then gets the result of
+   * the build command for the project.
+   *
+   * @param user the User that owns the {@code projectId}.
+   * @param projectId  project id to be built
+   * @param target  build target (optional, implementation dependent.
+   * @param lastProgress  the build progress the client already knows about
+   * @return  build results, as returned by {@link #getBuildResult}
+   */
+  public abstract RpcResult waitForBuildResult(User user, long projectId, String target,
+      int lastProgress);
 }
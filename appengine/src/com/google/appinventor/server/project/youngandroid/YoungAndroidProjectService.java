@@ -10,6 +10,7 @@ import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.common.utils.StringUtils;
 //import com.google.appinventor.common.version.GitBuildId;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.server.BuildProgress;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.FileExporter;
 import com.google.appinventor.server.FileExporterImpl;
@@ -27,7 +28,6 @@ import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.project.youngandroid.NewYoungAndroidProjectParameters;
@@ -46,6 +46,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
+import com.google.common.io.CountingOutputStream;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -74,7 +75,6 @@ import java.util.logging.Logger;
  */
 public final class YoungAndroidProjectService extends CommonProjectService {
 
-  private static int currentProgress = 0;
   private static final Logger LOG = Logger.getLogger(YoungAndroidProjectService.class.getName());
 
   // The value of this flag can be changed in appengine-web.xml
@@ -95,6 +95,10 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   public static final String PROJECT_PROPERTIES_FILE_NAME = PROJECT_DIRECTORY + "/" +
       "project.properties";
 
+  // The longest time waitForBuildResult waits for the progress of a build to change. Well within
+  // the App Engine request deadline.
+  private static final long BUILD_RESULT_WAIT_MILLIS = 20000;
+
   // Maximum size of a generated apk file, in megabytes.
   private static final Flag<Float> maxApkSizeMegs = Flag.createFlag("max.apk.size.megs", 10f);
 
@@ -467,8 +471,10 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     for (String buildOutputFile : buildOutputFiles) {
       storageIo.deleteFile(userId, projectId, buildOutputFile);
     }
+    BuildProgress.set(userId, projectId, outputFileDir, 0);
     URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    // Counts the bytes of the zip as it is written, for the error message if it is too large.
+    CountingOutputStream zipOutputStream = null;
     try {
       buildServerUrl = new URL(getBuildServerUrlStr(
           user.getUserEmail(),
@@ -479,14 +485,15 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
 
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
+      // The zip is written to the connection as it is made, rather than being built in memory
+      // first.
+      zipOutputStream = new CountingOutputStream(
+          new BufferedOutputStream(connection.getOutputStream()));
       FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
-          /* includeAndroidKeystore */ true,
-          projectName + ".zip");
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
+      fileExporter.exportProjectSourceZip(userId, projectId, false,
+          /* includeAndroidKeystore */ true, zipOutputStream);
+      zipOutputStream.flush();
+      zipOutputStream.close();
 
       int responseCode = 0;
       try {
@@ -547,8 +554,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       // In particular, we often see RequestTooLargeException (if the zip is too
       // big) and ApiProxyException. There may be others.
       Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
+      if (e instanceof ApiProxy.RequestTooLargeException && zipOutputStream != null) {
+        long zipFileLength = zipOutputStream.getCount();
         if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
           wrappedException = new IllegalArgumentException(
               "Sorry, can't package projects larger than 5MB."
@@ -583,6 +590,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
                ? "&gitBuildVersion="
                  + URLEncoder.encode("kkkk", "UTF-8")
                : "")
+           + "&projectId=" + projectId
            + "&callback="
            + URLEncoder.encode("http://" + getCurrentHost() + ServerLayout.ODE_BASEURL_NOAUTH
                                + ServerLayout.RECEIVE_BUILD_SERVLET + "/"
@@ -628,15 +636,23 @@ public final class YoungAndroidProjectService extends CommonProjectService {
    *            0:  Build is done and was successful
    *            1:  Build is done and was unsuccessful
    *            2:  Yail generation failed
-   *           -1:  Build is not yet done.
+   *           -1:  Build is not yet done. RpcResult.output holds the progress, and if the
+   *                build is waiting in the Build Server's queue, RpcResult.extra is a JSON
+   *                object whose queuePosition is its position in the queue.
    */
   @Override
   public RpcResult getBuildResult(User user, long projectId, String target) {
     String userId = user.getUserId();
     String buildOutputFileName = BUILD_FOLDER + '/' + target + '/' + "build.out";
     List<String> outputFiles = storageIo.getProjectOutputFiles(userId, projectId);
-    updateCurrentProgress(user, projectId, target);
-    RpcResult buildResult = new RpcResult(-1, ""+currentProgress, ""); // Build not finished
+    int progress = BuildProgress.get(userId, projectId, BUILD_FOLDER + '/' + target);
+    int queuePosition =
+        BuildProgress.getQueuePosition(userId, projectId, BUILD_FOLDER + '/' + target);
+    // Build not finished
+    RpcResult buildResult = (queuePosition > 0)
+        ? new RpcResult(-1, "" + Math.max(progress, 0), "",
+            "{\"queuePosition\":" + queuePosition + "}")
+        : new RpcResult(-1, "" + Math.max(progress, 0), "");
     for (String outputFile : outputFiles) {
       if (buildOutputFileName.equals(outputFile)) {
         String outputStr = storageIo.downloadFile(userId, projectId, outputFile, "UTF-8");
@@ -656,47 +672,22 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   }
 
   /**
-   * Check if there are any build progress available for the given user's project
+   * Waits for the progress of a build, as posted by the Build Server, to change from the given
+   * progress, or for a while if it doesn't, and then returns the same result as
+   * {@link #getBuildResult}.
    *
    * @param user the User that owns the {@code projectId}.
    * @param projectId  project id to be built
    * @param target  build target (optional, implementation dependent)
+   * @param lastProgress  the progress the client already knows about
+   * @return an RpcResult as returned by {@link #getBuildResult}
    */
-  public void updateCurrentProgress(User user, long projectId, String target) {
-    try {
-      String userId = user.getUserId();
-      String projectName = storageIo.getProjectName(userId, projectId);
-      String outputFileDir = BUILD_FOLDER + '/' + target;
-      URL buildServerUrl = null;
-      ProjectSourceZip zipFile = null;
-
-      buildServerUrl = new URL(getBuildServerUrlStr(user.getUserEmail(),
-        userId, projectId, outputFileDir));
-      HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
-      connection.setDoOutput(true);
-      connection.setRequestMethod("POST");
-
-      int responseCode = connection.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-          try {
-            String content = readContent(connection.getInputStream());
-            if (content != null && !content.isEmpty()) {
-              LOG.info("The current progress is " + content + "%.");
-              currentProgress = Integer.parseInt(content);
-            }
-          } catch (IOException e) {
-            // No content. That's ok.
-          }
-         }
-      } catch (MalformedURLException e) {
-        // that's ok, nothing to do
-      } catch (IOException e) {
-        // that's ok, nothing to do
-      } catch (EncryptionException e) {
-        // that's ok, nothing to do
-      } catch (RuntimeException e) {
-        // that's ok, nothing to do
-      }
+  @Override
+  public RpcResult waitForBuildResult(User user, long projectId, String target,
+      int lastProgress) {
+    BuildProgress.waitForChange(user.getUserId(), projectId, BUILD_FOLDER + '/' + target,
+        lastProgress, BUILD_RESULT_WAIT_MILLIS);
+    return getBuildResult(user, projectId, target);
   }
 
   /**
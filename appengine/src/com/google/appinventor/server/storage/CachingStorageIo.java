@@ -0,0 +1,386 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.server.storage;
+
+import com.google.appinventor.server.storage.StorageCache.Scope;
+import com.google.appinventor.shared.rpc.Motd;
+import com.google.appinventor.shared.rpc.project.Project;
+import com.google.appinventor.shared.rpc.project.UserProject;
+import com.google.appinventor.shared.rpc.user.User;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A StorageIo that caches user, whitelist and project metadata lookups of
+ * another StorageIo in a {@link StorageCache}.
+ *
+ * <p>These lookups happen on nearly every request: the auth filter reads the
+ * user and the whitelist, and the project services read a project's name,
+ * type and dates separately. Everything else is passed straight through.
+ *
+ * <p>A project's name, type and creation date never change, so they are
+ * shared between requests and instances. Users are shared through memcache
+ * only, since the methods that change them can't reach the in-process caches
+ * of other instances. A project's modification date
+ * changes with every save, possibly on another instance, so it is only cached
+ * for the current request.
+ *
+ */
+public class CachingStorageIo implements StorageIo {
+
+  /*
+   * The cached part of a user. A new User is made for each lookup, since
+   * callers modify the User they get.
+   */
+  private static final class CachedUser implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String email;
+    final boolean tosAccepted;
+
+    CachedUser(String email, boolean tosAccepted) {
+      this.email = email;
+      this.tosAccepted = tosAccepted;
+    }
+  }
+
+  private final StorageIo storageIo;
+
+  private final StorageCache cache = new StorageCache();
+
+  /**
+   * Creates a CachingStorageIo.
+   *
+   * @param storageIo  the StorageIo that does the actual work
+   */
+  public CachingStorageIo(StorageIo storageIo) {
+    this.storageIo = storageIo;
+  }
+
+  // User management
+
+  @Override
+  public User getUser(String userId) {
+    return getUser(userId, null);
+  }
+
+  @Override
+  public User getUser(String userId, String email) {
+    String key = "user:" + userId;
+    CachedUser cachedUser = (CachedUser) cache.get(key, Scope.MEMCACHE);
+    // A different email must be written to the datastore, so the cache can't be used.
+    if (cachedUser != null && (email == null || email.equals(cachedUser.email))) {
+      return new User(userId, cachedUser.email, cachedUser.tosAccepted, false);
+    }
+    User user = storageIo.getUser(userId, email);
+    if (cachedUser != null) {
+      // The email was changed, so the cached user is out of date everywhere.
+      cache.invalidate(key, Scope.MEMCACHE);
+    } else {
+      cache.put(key, new CachedUser(user.getUserEmail(), user.getUserTosAccepted()),
+          Scope.MEMCACHE);
+    }
+    return user;
+  }
+
+  @Override
+  public void setUserEmail(String userId, String email) {
+    storageIo.setUserEmail(userId, email);
+    cache.invalidate("user:" + userId, Scope.MEMCACHE);
+  }
+
+  @Override
+  public void setTosAccepted(String userId) {
+    storageIo.setTosAccepted(userId);
+    cache.invalidate("user:" + userId, Scope.MEMCACHE);
+  }
+
+  @Override
+  public String loadSettings(String userId) {
+    return storageIo.loadSettings(userId);
+  }
+
+  @Override
+  public void storeSettings(String userId, String settings) {
+    storageIo.storeSettings(userId, settings);
+  }
+
+  // Project management
+
+  @Override
+  public long createProject(String userId, Project project, String projectSettings) {
+    return storageIo.createProject(userId, project, projectSettings);
+  }
+
+  @Override
+  public void deleteProject(String userId, long projectId) {
+    storageIo.deleteProject(userId, projectId);
+    cache.invalidate("project-type:" + projectId, Scope.SHARED);
+    cache.invalidate("project-name:" + projectId, Scope.SHARED);
+    cache.invalidate("project-date-created:" + projectId, Scope.SHARED);
+    projectModified(projectId);
+  }
+
+  @Override
+  public List<Long> getProjects(String userId) {
+    return storageIo.getProjects(userId);
+  }
+
+  @Override
+  public String loadProjectSettings(String userId, long projectId) {
+    return storageIo.loadProjectSettings(userId, projectId);
+  }
+
+  @Override
+  public void storeProjectSettings(String userId, long projectId, String settings) {
+    storageIo.storeProjectSettings(userId, projectId, settings);
+    projectModified(projectId);
+  }
+
+  @Override
+  public String getProjectType(String userId, long projectId) {
+    String key = "project-type:" + projectId;
+    String projectType = (String) cache.get(key, Scope.SHARED);
+    if (projectType == null) {
+      projectType = storageIo.getProjectType(userId, projectId);
+      cache.put(key, projectType, projectType.isEmpty() ? Scope.REQUEST : Scope.SHARED);
+    }
+    return projectType;
+  }
+
+  @Override
+  public String getProjectName(String userId, long projectId) {
+    String key = "project-name:" + projectId;
+    String projectName = (String) cache.get(key, Scope.SHARED);
+    if (projectName == null) {
+      projectName = storageIo.getProjectName(userId, projectId);
+      cache.put(key, projectName, projectName.isEmpty() ? Scope.REQUEST : Scope.SHARED);
+    }
+    return projectName;
+  }
+
+  @Override
+  public long getProjectDateModified(String userId, long projectId) {
+    String key = "project-date-modified:" + projectId;
+    Long dateModified = (Long) cache.get(key, Scope.REQUEST);
+    if (dateModified == null) {
+      dateModified = storageIo.getProjectDateModified(userId, projectId);
+      cache.put(key, dateModified, Scope.REQUEST);
+    }
+    return dateModified;
+  }
+
+  @Override
+  public String getProjectHistory(String userId, long projectId) {
+    return storageIo.getProjectHistory(userId, projectId);
+  }
+
+  @Override
+  public long getProjectDateCreated(String userId, long projectId) {
+    String key = "project-date-created:" + projectId;
+    Long dateCreated = (Long) cache.get(key, Scope.SHARED);
+    if (dateCreated == null) {
+      dateCreated = storageIo.getProjectDateCreated(userId, projectId);
+      cache.put(key, dateCreated, (dateCreated != 0) ? Scope.SHARED : Scope.REQUEST);
+    }
+    return dateCreated;
+  }
+
+  @Override
+  public List<UserProject> getUserProjects(String userId, List<Long> projectIds) {
+    // Not cached: one batch read is cheaper than a memcache put per project.
+    return storageIo.getUserProjects(userId, projectIds);
+  }
+
+  // Non-project-specific file management
+
+  @Override
+  public void addFilesToUser(String userId, String... fileIds) {
+    storageIo.addFilesToUser(userId, fileIds);
+  }
+
+  @Override
+  public List<String> getUserFiles(String userId) {
+    return storageIo.getUserFiles(userId);
+  }
+
+  @Override
+  public void uploadUserFile(String userId, String fileId, String content, String encoding) {
+    storageIo.uploadUserFile(userId, fileId, content, encoding);
+  }
+
+  @Override
+  public void uploadRawUserFile(String userId, String fileName, byte[] content) {
+    storageIo.uploadRawUserFile(userId, fileName, content);
+  }
+
+  @Override
+  public String downloadUserFile(String userId, String fileId, String encoding) {
+    return storageIo.downloadUserFile(userId, fileId, encoding);
+  }
+
+  @Override
+  public byte[] downloadRawUserFile(String userId, String fileName) {
+    return storageIo.downloadRawUserFile(userId, fileName);
+  }
+
+  @Override
+  public void deleteUserFile(String userId, String fileId) {
+    storageIo.deleteUserFile(userId, fileId);
+  }
+
+  // File management
+
+  @Override
+  public int getMaxJobSizeBytes() {
+    return storageIo.getMaxJobSizeBytes();
+  }
+
+  @Override
+  public void addSourceFilesToProject(String userId, long projectId, boolean changeModDate,
+      String... fileIds) {
+    storageIo.addSourceFilesToProject(userId, projectId, changeModDate, fileIds);
+    projectModified(projectId);
+  }
+
+  @Override
+  public void addOutputFilesToProject(String userId, long projectId, String... fileIds) {
+    storageIo.addOutputFilesToProject(userId, projectId, fileIds);
+    projectModified(projectId);
+  }
+
+  @Override
+  public StoredOutputFile storeOutputFile(long projectId, String fileId, InputStream content)
+      throws IOException {
+    return storageIo.storeOutputFile(projectId, fileId, content);
+  }
+
+  @Override
+  public long addStoredOutputFilesToProject(String userId, long projectId,
+      List<StoredOutputFile> files) {
+    long dateModified = storageIo.addStoredOutputFilesToProject(userId, projectId, files);
+    projectModified(projectId);
+    return dateModified;
+  }
+
+  @Override
+  public void discardStoredOutputFiles(List<StoredOutputFile> files) {
+    storageIo.discardStoredOutputFiles(files);
+  }
+
+  @Override
+  public void removeSourceFilesFromProject(String userId, long projectId,
+      boolean changeModDate, String... fileIds) {
+    storageIo.removeSourceFilesFromProject(userId, projectId, changeModDate, fileIds);
+    projectModified(projectId);
+  }
+
+  @Override
+  public void removeOutputFilesFromProject(String userId, long projectId, String... fileIds) {
+    storageIo.removeOutputFilesFromProject(userId, projectId, fileIds);
+    projectModified(projectId);
+  }
+
+  @Override
+  public List<String> getProjectSourceFiles(String userId, long projectId) {
+    return storageIo.getProjectSourceFiles(userId, projectId);
+  }
+
+  @Override
+  public List<String> getProjectOutputFiles(String userId, long projectId) {
+    return storageIo.getProjectOutputFiles(userId, projectId);
+  }
+
+  @Override
+  public long uploadFile(long projectId, String fileId, String userId, String content,
+      String encoding) {
+    long dateModified = storageIo.uploadFile(projectId, fileId, userId, content, encoding);
+    projectModified(projectId);
+    return dateModified;
+  }
+
+  @Override
+  public long uploadRawFile(long projectId, String fileId, String userId, byte[] content) {
+    long dateModified = storageIo.uploadRawFile(projectId, fileId, userId, content);
+    projectModified(projectId);
+    return dateModified;
+  }
+
+  @Override
+  public long deleteFile(String userId, long projectId, String fileId) {
+    long dateModified = storageIo.deleteFile(userId, projectId, fileId);
+    projectModified(projectId);
+    return dateModified;
+  }
+
+  @Override
+  public String downloadFile(String userId, long projectId, String fileId, String encoding) {
+    return storageIo.downloadFile(userId, projectId, fileId, encoding);
+  }
+
+  @Override
+  public byte[] downloadRawFile(String userId, long projectId, String fileId) {
+    return storageIo.downloadRawFile(userId, projectId, fileId);
+  }
+
+  // MOTD management
+
+  @Override
+  public Motd getCurrentMotd() {
+    return storageIo.getCurrentMotd();
+  }
+
+  @Override
+  public int exportProjectSourceZip(String userId, long projectId,
+                                    boolean includeProjectHistory,
+                                    boolean includeAndroidKeystore,
+                                    ZipOutputStream out) throws IOException {
+    return storageIo.exportProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, out);
+  }
+
+  @Override
+  public String findUserByEmail(String email) throws NoSuchElementException {
+    return storageIo.findUserByEmail(email);
+  }
+
+  @Override
+  public String findIpAddressByKey(String key) {
+    return storageIo.findIpAddressByKey(key);
+  }
+
+  @Override
+  public void storeIpAddressByKey(String key, String ipAddress) {
+    storageIo.storeIpAddressByKey(key, ipAddress);
+  }
+
+  /*
+   * The whitelist is maintained outside of App Inventor, so there is nothing
+   * to invalidate the cached answers; a change takes effect when they expire.
+   */
+  @Override
+  public boolean checkWhiteList(String email) {
+    String key = "whitelist:" + email.toLowerCase();
+    Boolean whitelisted = (Boolean) cache.get(key, Scope.SHARED);
+    if (whitelisted == null) {
+      whitelisted = storageIo.checkWhiteList(email);
+      cache.put(key, whitelisted, Scope.SHARED);
+    }
+    return whitelisted;
+  }
+
+  /*
+   * Invalidates the cached modification date of a project after a write.
+   */
+  private void projectModified(long projectId) {
+    cache.invalidate("project-date-modified:" + projectId, Scope.REQUEST);
+  }
+}
@@ -5,6 +5,7 @@
 
 package com.google.appinventor.server.storage;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreInputStream;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
@@ -25,22 +26,23 @@ import com.google.appinventor.server.storage.StoredData.RendezvousData;
 import com.google.appinventor.server.storage.StoredData.WhiteListData;
 import com.google.appinventor.shared.rpc.Motd;
 import com.google.appinventor.shared.rpc.project.Project;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
+import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Query;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -48,17 +50,23 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import java.util.Date;
 
-import javax.annotation.Nullable;
-
 /**
  * Implements the StorageIo interface using Objectify as the underlying data
  * store.
@@ -78,6 +86,15 @@ public class ObjectifyStorageIo implements  StorageIo {
   // TODO(user): need a way to modify this. Also, what is really a good value?
   private static final int MAX_JOB_RETRIES = 10;
 
+  // The maximum number of entities read by one batch get.
+  private static final int MAX_BATCH_GET_SIZE = 500;
+
+  // The most blobs that createProject uploads at the same time.
+  private static final int MAX_PARALLEL_BLOB_UPLOADS = 4;
+
+  // The size of the chunks in which blobs are copied to an output stream.
+  private static final int BLOB_COPY_BUFFER_SIZE = 64 * 1024;
+
   // Use this class to define the work of a job that can be retried. The
   // "datastore" argument to run() is the Objectify object for this job
   // (created with ObjectifyService.beginTransaction()). Note that all operations
@@ -253,6 +270,32 @@ public class ObjectifyStorageIo implements  StorageIo {
     final List<String> blobsToDelete = new ArrayList<String>();
     final List<FileData> addedFiles = new ArrayList<FileData>();
 
+    // The project's ID is allocated first, so that its blobs can be uploaded before the
+    // transaction, several at a time, and aren't uploaded again if the transaction is retried.
+    projectId.t = ObjectifyService.factory().allocateIds(ProjectData.class, 1).iterator().next()
+        .getId();
+    final Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+    try {
+      for (TextFile file : project.getSourceFiles()) {
+        contents.put(file.getFileName(), file.getContent().getBytes(DEFAULT_ENCODING));
+      }
+    } catch (UnsupportedEncodingException e) {  // shouldn't happen!
+      throw CrashReport.createAndLogError(LOG, null, project.getProjectName(), e);
+    }
+    for (RawFile file : project.getRawSourceFiles()) {
+      contents.put(file.getFileName(), file.getContent());
+    }
+    final Map<String, String> blobstorePaths;
+    try {
+      blobstorePaths = uploadBlobs(projectId.t, contents);
+    } catch (BlobWriteException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId.t), e);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId.t), e);
+    }
+
     try {
       // first job is on the project entity, creating the ProjectData object
       // and the associated files.
@@ -261,68 +304,36 @@ public class ObjectifyStorageIo implements  StorageIo {
         public void run(Objectify datastore) throws ObjectifyException {
           long date = System.currentTimeMillis();
           ProjectData pd = new ProjectData();
-          pd.id = null;  // let Objectify auto-generate the project id
+          pd.id = projectId.t;
           pd.dateCreated = date;
           pd.dateModified = date;
           pd.history = project.getProjectHistory();
           pd.name = project.getProjectName();
           pd.settings = projectSettings;
           pd.type = project.getProjectType();
-          datastore.put(pd); // put the project in the db so that it gets assigned an id
-
-          assert pd.id != null;
-          projectId.t = pd.id;
-          // After the job commits projectId.t should end up with the last value
-          // we've gotten for pd.id (i.e. the one that committed if there
-          // was no error).
-          // Note that while we cannot expect to read back a value that we've
-          // written in this job, reading the assigned id from pd should work.
+          datastore.put(pd);
 
           Key<ProjectData> projectKey = projectKey(projectId.t);
-          try {
-            for (TextFile file : project.getSourceFiles()) {
-              try {
-                addedFiles.add(createRawFile(projectKey, FileData.RoleEnum.SOURCE,
-                    file.getFileName(), file.getContent().getBytes(DEFAULT_ENCODING)));
-              } catch (BlobWriteException e) {
-                rememberBlobsToDelete();
-                // Note that this makes the BlobWriteException fatal. The job will
-                // not be retried if we get this exception.
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId.t, file.getFileName()), e);
-              }
-            }
-          } catch (UnsupportedEncodingException e) {  // shouldn't happen!
-            rememberBlobsToDelete();
-            throw CrashReport.createAndLogError(LOG, null, project.getProjectName(), e);
-          }
-          for (RawFile file : project.getRawSourceFiles()) {
-            try {
-              addedFiles.add(createRawFile(projectKey, FileData.RoleEnum.SOURCE, file.getFileName(),
-                  file.getContent()));
-            } catch (BlobWriteException e) {
-              rememberBlobsToDelete();
-              // Note that this makes the BlobWriteException fatal. The job will
-              // not be retried if we get this exception.
-              throw CrashReport.createAndLogError(LOG, null,
-                  collectProjectErrorInfo(userId, projectId.t, file.getFileName()), e);
+          for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            FileData file = new FileData();
+            file.fileName = entry.getKey();
+            file.projectKey = projectKey;
+            file.role = FileData.RoleEnum.SOURCE;
+            String blobstorePath = blobstorePaths.get(entry.getKey());
+            if (blobstorePath != null) {
+              file.isBlob = true;
+              file.blobstorePath = blobstorePath;
+            } else {
+              file.content = entry.getValue();
             }
+            addedFiles.add(file);
           }
           datastore.put(addedFiles);  // batch put
         }
 
         @Override
         public void onNonFatalError() {
-          rememberBlobsToDelete();
-        }
-
-        private void rememberBlobsToDelete() {
-          for (FileData addedFile : addedFiles) {
-            if (addedFile.isBlob && addedFile.blobstorePath != null) {
-              blobsToDelete.add(addedFile.blobstorePath);
-            }
-          }
-          // clear addedFiles in case we end up here more than once
+          // The blobs were uploaded before the job, so they are kept for the retry.
           addedFiles.clear();
         }
       });
@@ -340,13 +351,7 @@ public class ObjectifyStorageIo implements  StorageIo {
         }
       });
     } catch (ObjectifyException e) {
-      for (FileData addedFile : addedFiles) {
-        if (addedFile.isBlob && addedFile.blobstorePath != null) {
-          blobsToDelete.add(addedFile.blobstorePath);
-        }
-      }
-      // clear addedFiles in case we end up here more than once
-      addedFiles.clear();
+      blobsToDelete.addAll(blobstorePaths.values());
       throw CrashReport.createAndLogError(LOG, null,
           collectUserProjectErrorInfo(userId, projectId.t), e);
     } finally {
@@ -361,23 +366,68 @@ public class ObjectifyStorageIo implements  StorageIo {
   }
 
   /*
-   *  Creates and returns a new FileData object with the specified fields.
-   *  Does not check for the existence of the object and does not update
-   *  the database.
+   * Uploads the files that are stored in the blobstore, several at a time, and
+   * returns their blobstore paths by file name. Files that are stored in the
+   * datastore are skipped. If any upload fails, the blobs that were uploaded
+   * are deleted.
    */
-  private FileData createRawFile(Key<ProjectData> projectKey, FileData.RoleEnum role,
-      String fileName, byte[] content) throws BlobWriteException, ObjectifyException {
-    FileData file = new FileData();
-    file.fileName = fileName;
-    file.projectKey = projectKey;
-    file.role = role;
-    if (useBlobstoreForFile(fileName)) {
-      file.isBlob = true;
-      file.blobstorePath = uploadToBlobstore(content, makeBlobName(projectKey.getId(), fileName));
-    } else {
-      file.content = content;
+  private Map<String, String> uploadBlobs(long projectId, Map<String, byte[]> contents)
+      throws BlobWriteException, ObjectifyException {
+    Map<String, FutureTask<String>> uploads = new LinkedHashMap<String, FutureTask<String>>();
+    ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLEL_BLOB_UPLOADS,
+        ThreadManager.currentRequestThreadFactory());
+    try {
+      for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+        final String fileName = entry.getKey();
+        if (!useBlobstoreForFile(fileName)) {
+          continue;
+        }
+        final byte[] content = entry.getValue();
+        final String blobName = makeBlobName(projectId, fileName);
+        FutureTask<String> upload = new FutureTask<String>(new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            return uploadToBlobstore(content, blobName);
+          }
+        });
+        uploads.put(fileName, upload);
+        try {
+          executor.execute(upload);
+        } catch (RuntimeException e) {
+          // Request threads aren't available, so upload the blob on this thread.
+          upload.run();
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    Map<String, String> blobstorePaths = new LinkedHashMap<String, String>();
+    Exception failure = null;
+    for (Map.Entry<String, FutureTask<String>> upload : uploads.entrySet()) {
+      try {
+        blobstorePaths.put(upload.getKey(), upload.getValue().get());
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Error) {
+          throw (Error) e.getCause();
+        }
+        failure = (Exception) e.getCause();
+      } catch (InterruptedException e) {
+        failure = e;
+      }
     }
-    return file;
+    if (failure != null) {
+      for (String blobstorePath : blobstorePaths.values()) {
+        deleteBlobstoreFile(blobstorePath);
+      }
+      if (failure instanceof BlobWriteException) {
+        throw (BlobWriteException) failure;
+      }
+      throw (failure instanceof ObjectifyException)
+          ? (ObjectifyException) failure
+          : new ObjectifyException(failure);
+    }
+    return blobstorePaths;
   }
 
   @Override
@@ -605,6 +655,38 @@ public class ObjectifyStorageIo implements  StorageIo {
     return dateCreated.t;
   }
 
+  @Override
+  public List<UserProject> getUserProjects(final String userId, final List<Long> projectIds) {
+    // Each project is its own entity group, and a transaction can only span a few
+    // of them, so the projects are read outside of a transaction with batch gets.
+    Objectify datastore = ObjectifyService.begin();
+    List<UserProject> userProjects = new ArrayList<UserProject>(projectIds.size());
+    for (int start = 0; start < projectIds.size(); start += MAX_BATCH_GET_SIZE) {
+      List<Long> batchIds =
+          projectIds.subList(start, Math.min(start + MAX_BATCH_GET_SIZE, projectIds.size()));
+      List<Key<ProjectData>> projectKeys = new ArrayList<Key<ProjectData>>(batchIds.size());
+      for (long projectId : batchIds) {
+        projectKeys.add(projectKey(projectId));
+      }
+      Map<Key<ProjectData>, ProjectData> projectDatas;
+      try {
+        projectDatas = datastore.get(projectKeys);
+      } catch (RuntimeException e) {
+        throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+      }
+      for (long projectId : batchIds) {
+        ProjectData pd = projectDatas.get(projectKey(projectId));
+        if (pd != null) {
+          userProjects.add(new UserProject(projectId, pd.name, pd.type, pd.dateCreated,
+              pd.dateModified));
+        } else {
+          userProjects.add(new UserProject(projectId, "", "", 0, 0));
+        }
+      }
+    }
+    return userProjects;
+  }
+
   @Override
   public void addFilesToUser(final String userId, final String... fileNames) {
     try {
@@ -823,6 +905,87 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @Override
+  public StoredOutputFile storeOutputFile(long projectId, String fileId, InputStream content)
+      throws IOException {
+    if (useBlobstoreForFile(fileId)) {
+      CountingInputStream countingContent = new CountingInputStream(content);
+      try {
+        String blobstorePath = uploadToBlobstore(countingContent, makeBlobName(projectId, fileId));
+        return new StoredOutputFile(fileId, countingContent.getCount(), null, blobstorePath);
+      } catch (ObjectifyException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(null, projectId, fileId), e);
+      }
+    } else {
+      byte[] bytes = ByteStreams.toByteArray(content);
+      return new StoredOutputFile(fileId, bytes.length, bytes, null);
+    }
+  }
+
+  @Override
+  public long addStoredOutputFilesToProject(final String userId, final long projectId,
+      final List<StoredOutputFile> files) {
+    if (!getProjects(userId).contains(projectId)) {
+      discardStoredOutputFiles(files);
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId),
+          new UnauthorizedAccessException(userId, projectId, null));
+    }
+    final Result<Long> modTime = new Result<Long>();
+    final List<String> oldBlobstorePaths = new ArrayList<String>();
+    boolean added = false;
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          oldBlobstorePaths.clear();
+          Key<ProjectData> projectKey = projectKey(projectId);
+          List<FileData> changedFiles = new ArrayList<FileData>();
+          for (StoredOutputFile file : files) {
+            FileData fd = datastore.find(projectFileKey(projectKey, file.getFileId()));
+            checkProjectFileRole(fd, FileData.RoleEnum.TARGET, projectKey, file.getFileId());
+            if (fd == null) {
+              fd = newProjectFile(projectKey, FileData.RoleEnum.TARGET, file.getFileId());
+            } else if (fd.isBlob && fd.blobstorePath != null) {
+              oldBlobstorePaths.add(fd.blobstorePath);
+            }
+            fd.isBlob = file.blobstorePath != null;
+            fd.blobstorePath = file.blobstorePath;
+            fd.content = file.content;
+            changedFiles.add(fd);
+          }
+          datastore.put(changedFiles); // batch put
+          modTime.t = updateProjectModDate(datastore, projectId);
+        }
+      });
+      added = true;
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    } finally {
+      if (!added) {
+        // The new blobs are no longer referenced by anything. This also covers runtime
+        // exceptions, such as the one for a file whose role doesn't match.
+        discardStoredOutputFiles(files);
+      }
+    }
+    // As in uploadRawFile, the old blobs can't be deleted within the transaction.
+    for (String oldBlobstorePath : oldBlobstorePaths) {
+      deleteBlobstoreFile(oldBlobstorePath);
+    }
+    return modTime.t;
+  }
+
+  @Override
+  public void discardStoredOutputFiles(List<StoredOutputFile> files) {
+    for (StoredOutputFile file : files) {
+      if (file.blobstorePath != null) {
+        deleteBlobstoreFile(file.blobstorePath);
+      }
+    }
+  }
+
   private void addFilesToProject(Objectify datastore, long projectId, FileData.RoleEnum role,
       boolean changeModDate, String... fileNames) {
     List<FileData> addedFiles = new ArrayList<FileData>();
@@ -842,18 +1005,29 @@ public class ObjectifyStorageIo implements  StorageIo {
   private FileData createProjectFile(Objectify datastore, Key<ProjectData> projectKey,
       FileData.RoleEnum role, String fileName) {
     FileData fd = datastore.find(projectFileKey(projectKey, fileName));
-    if (fd == null) {
-      fd = new FileData();
-      fd.fileName = fileName;
-      fd.projectKey = projectKey;
-      fd.role = role;
-      return fd;
-    } else if (!fd.role.equals(role)) {
+    checkProjectFileRole(fd, role, projectKey, fileName);
+    return (fd == null) ? newProjectFile(projectKey, role, fileName) : null;
+  }
+
+  private static FileData newProjectFile(Key<ProjectData> projectKey, FileData.RoleEnum role,
+      String fileName) {
+    FileData fd = new FileData();
+    fd.fileName = fileName;
+    fd.projectKey = projectKey;
+    fd.role = role;
+    return fd;
+  }
+
+  /*
+   * Throws if fd, an existing project file or null, doesn't have the given role.
+   */
+  private void checkProjectFileRole(FileData fd, FileData.RoleEnum role,
+      Key<ProjectData> projectKey, String fileName) {
+    if (fd != null && !fd.role.equals(role)) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(null, projectKey.getId(), fileName),
           new IllegalStateException("File role change is not supported"));
     }
-    return null;
   }
 
   @Override
@@ -1004,6 +1178,12 @@ public class ObjectifyStorageIo implements  StorageIo {
         public void run(Objectify datastore) throws ObjectifyException {
           fd = datastore.find(projectFileKey(projectKey(projectId), fileName));
           Preconditions.checkState(fd != null);
+          if (!useBlobstore && !fd.isBlob && Arrays.equals(fd.content, content)) {
+            // Saving unchanged content, for example after an edit was undone, doesn't need to
+            // rewrite the file.
+            modTime.t = updateProjectModDate(datastore, projectId);
+            return;
+          }
           if (fd.isBlob) {
             // mark the old blobstore blob for deletion
            oldBlobstorePath.t = fd.blobstorePath;
@@ -1065,6 +1245,11 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   private String uploadToBlobstore(byte[] content, String name)
       throws BlobWriteException, ObjectifyException {
+    return uploadToBlobstore(new ByteArrayInputStream(content), name);
+  }
+
+  private String uploadToBlobstore(InputStream content, String name)
+      throws BlobWriteException, ObjectifyException {
     // Create a new Blob file with generic mime-type "application/octet-stream"
     AppEngineFile blobstoreFile = null;
     try {
@@ -1074,7 +1259,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       FileWriteChannel blobstoreWriteChannel = fileService.openWriteChannel(blobstoreFile, true);
 
       OutputStream blobstoreOutputStream = Channels.newOutputStream(blobstoreWriteChannel);
-      ByteStreams.copy(ByteStreams.newInputStreamSupplier(content), blobstoreOutputStream);
+      ByteStreams.copy(content, blobstoreOutputStream);
       blobstoreOutputStream.flush();
       blobstoreOutputStream.close();
       blobstoreWriteChannel.closeFinally();
@@ -1200,42 +1385,87 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  // Note: this must be called outside of any transaction, since getBlobKey()
+  // uses the current transaction and it will most likely have the wrong
+  // entity group!
+  // The blob is copied one chunk at a time, so it is never held in memory as a whole.
+  // Failures to read the blob are reported as BlobReadException; failures to write to out
+  // are passed on as IOException.
+  private void copyBlobstoreBytes(String blobstorePath, OutputStream out)
+      throws BlobReadException, IOException {
+    AppEngineFile blobstoreFile = new AppEngineFile(blobstorePath);
+    BlobKey blobKey = fileService.getBlobKey(blobstoreFile);
+    if (blobKey == null) {
+      throw new BlobReadException("getBlobKey() returned null for " + blobstorePath);
+    }
+    InputStream blobInputStream;
+    try {
+      blobInputStream = new BlobstoreInputStream(blobKey);
+    } catch (IOException e) {
+      throw new BlobReadException(e, "Error trying to read blob from " + blobstorePath
+          + ", blobkey = " + blobKey);
+    }
+    try {
+      byte[] buffer = new byte[BLOB_COPY_BUFFER_SIZE];
+      while (true) {
+        int count;
+        try {
+          count = blobInputStream.read(buffer);
+        } catch (IOException e) {
+          throw new BlobReadException(e, "Error trying to read blob from " + blobstorePath
+              + ", blobkey = " + blobKey);
+        }
+        if (count == -1) {
+          break;
+        }
+        out.write(buffer, 0, count);
+      }
+    } finally {
+      try {
+        blobInputStream.close();
+      } catch (IOException e) {
+        // Everything we need has been read.
+      }
+    }
+  }
+
   /**
-   *  Exports project files as a zip archive
+   * Writes project files as entries of a zip archive. The entries are written
+   * to out as they are read, and blobs are copied one chunk at a time, so
+   * memory use doesn't depend on the size of the project.
+   *
    * @param userId a user Id (the request is made on behalf of this user)
    * @param projectId  project ID
    * @param includeProjectHistory  whether or not to include the project history
    * @param includeAndroidKeystore  whether or not to include the Android keystore
-   * @param zipName  the name of the zip file, if a specific one is desired
-
-   * @return  project with the content as requested by params.
+   * @param out  the zip stream to write the entries to; it is neither finished
+   *             nor closed
+   *
+   * @return  the number of entries written
    */
   @Override
-  public ProjectSourceZip exportProjectSourceZip(final String userId, final long projectId,
-                                                 final boolean includeProjectHistory,
-                                                 final boolean includeAndroidKeystore,
-                                                 @Nullable String zipName) throws IOException {
-    final Result<Integer> fileCount = new Result<Integer>();
-    fileCount.t = 0;
+  public int exportProjectSourceZip(final String userId, final long projectId,
+                                    final boolean includeProjectHistory,
+                                    final boolean includeAndroidKeystore,
+                                    ZipOutputStream out) throws IOException {
+    int fileCount = 0;
     final Result<String> projectHistory = new Result<String>();
     projectHistory.t = null;
     // We collect up all the file data for the project in a transaction but
     // then we read the data and write the zip file outside of the transaction
     // to avoid problems reading blobs in a transaction with the wrong
-    // entity group.
+    // entity group, and to avoid writing entries twice if the job is retried.
     final List<FileData> fileData = new ArrayList<FileData>();
-    final Result<String> projectName = new Result<String>();
-    projectName.t = null;
     String fileName = null;
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
-
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
           Key<ProjectData> projectKey = projectKey(projectId);
+          // The job may be retried, so start from scratch.
+          fileData.clear();
+          projectHistory.t = null;
           boolean foundFiles = false;
           for (FileData fd : datastore.query(FileData.class).ancestor(projectKey)) {
             String fileName = fd.fileName;
@@ -1248,48 +1478,52 @@ public class ObjectifyStorageIo implements  StorageIo {
               foundFiles = true;
             }
           }
-          if (foundFiles) {
+          if (foundFiles && includeProjectHistory) {
             ProjectData pd = datastore.find(projectKey);
-            projectName.t = pd.name;
-            if (includeProjectHistory && !Strings.isNullOrEmpty(pd.history)) {
+            if (!Strings.isNullOrEmpty(pd.history)) {
               projectHistory.t = pd.history;
             }
           }
         }
       });
+    } catch (ObjectifyException e) {
+      CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+      throw new IOException("Reflecting exception for userid " + userId +
+          " projectId " + projectId + ", original exception " + e.getMessage());
+    }
+
+    if (fileData.isEmpty()) {
+      // Nothing has been written yet, so the caller can still report the error.
+      throw new IllegalArgumentException("No files to download");
+    }
 
+    try {
       // Process the file contents outside of the job since we can't read
       // blobs in the job.
       for (FileData fd : fileData) {
         fileName = fd.fileName;
-        byte[] data;
+        out.putNextEntry(new ZipEntry(fileName));
         if (fd.isBlob) {
           try {
-            data = getBlobstoreBytes(fd.blobstorePath);
+            copyBlobstoreBytes(fd.blobstorePath, out);
           } catch (BlobReadException e) {
             throw CrashReport.createAndLogError(LOG, null,
                 collectProjectErrorInfo(userId, projectId, fileName), e);
           }
         } else {
-          data = fd.content;
+          out.write(fd.content, 0, fd.content.length);
         }
-        out.putNextEntry(new ZipEntry(fileName));
-        out.write(data, 0, data.length);
         out.closeEntry();
-        fileCount.t++;
+        fileCount++;
       }
       if (projectHistory.t != null) {
         byte[] data = projectHistory.t.getBytes(StorageUtil.DEFAULT_CHARSET);
         out.putNextEntry(new ZipEntry(FileExporter.REMIX_INFORMATION_FILE_PATH));
         out.write(data, 0, data.length);
         out.closeEntry();
-        fileCount.t++;
+        fileCount++;
       }
-    } catch (ObjectifyException e) {
-      CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
-      throw new IOException("Reflecting exception for userid " + userId +
-          " projectId " + projectId + ", original exception " + e.getMessage());
     } catch (RuntimeException e) {
       CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
@@ -1297,48 +1531,34 @@ public class ObjectifyStorageIo implements  StorageIo {
           " projectId " + projectId + ", original exception " + e.getMessage());
     }
 
-    if (fileCount.t == 0) {
-      // can't close out since will get a ZipException due to the lack of files
-      throw new IllegalArgumentException("No files to download");
-    }
-
     if (includeAndroidKeystore) {
+      final Result<byte[]> keystore = new Result<byte[]>();
+      keystore.t = null;
       try {
         runJobWithRetries(new JobRetryHelper() {
             @Override
             public void run(Objectify datastore) {
-              try {
-                Key<UserData> userKey = userKey(userId);
-                for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
-                  if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
-                      (ufd.content.length > 0)) {
-                    out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
-                    out.write(ufd.content, 0, ufd.content.length);
-                    out.closeEntry();
-                    fileCount.t++;
-                  }
+              Key<UserData> userKey = userKey(userId);
+              for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
+                if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
+                    (ufd.content.length > 0)) {
+                  keystore.t = ufd.content;
                 }
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId,
-                        StorageUtil.ANDROID_KEYSTORE_FILENAME), e);
               }
             }
           });
       } catch (ObjectifyException e) {
         throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
       }
+      if (keystore.t != null) {
+        out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
+        out.write(keystore.t, 0, keystore.t.length);
+        out.closeEntry();
+        fileCount++;
+      }
     }
 
-    out.close();
-
-    if (zipName == null) {
-      zipName = projectName.t + ".zip";
-    }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
+    return fileCount;
   }
 
   @Override
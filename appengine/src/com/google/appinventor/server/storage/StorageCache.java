@@ -0,0 +1,265 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cache of small values read from the datastore, used by
+ * {@link CachingStorageIo}.
+ *
+ * <p>Values are looked up in three tiers:
+ * <ol>
+ *   <li>the current request, if {@link #beginRequest} has been called on this
+ *       thread,
+ *   <li>an in-process LRU map whose entries expire after a few seconds,
+ *       because other instances can change the datastore without telling
+ *       this one,
+ *   <li>memcache, which is shared by all instances.
+ * </ol>
+ * Each value is only kept in the tiers its {@link Scope} allows.
+ * {@link #invalidate} must be called whenever the underlying data is written.
+ * Hit and miss counts for each tier are logged periodically.
+ *
+ * <p>A value read from the datastore just before another request writes it
+ * must not be put back in memcache after that request invalidates it. So
+ * invalidating keeps the value from being added to memcache again for a
+ * while, and values are only added to memcache if they aren't already there.
+ *
+ */
+public final class StorageCache {
+  private static final Logger LOG = Logger.getLogger(StorageCache.class.getName());
+
+  // The maximum number of values in the in-process map.
+  private static final int MAX_LOCAL_ENTRIES = 1000;
+
+  // How long values stay in the in-process map.
+  private static final long LOCAL_TTL_MILLIS = 10 * 1000;
+
+  // How long values stay in memcache.
+  private static final int MEMCACHE_TTL_SECONDS = 600;
+
+  // How long an invalidated value can't be added to memcache again. Longer than a datastore read
+  // takes, so that a value read before the invalidation can't be put back after it.
+  private static final long MEMCACHE_NO_READD_MILLIS = 10 * 1000;
+
+  // Hit and miss counts are logged after this many lookups.
+  private static final long LOG_STATS_INTERVAL = 1000;
+
+  // Prefix for memcache keys, so they can't collide with other memcache users.
+  private static final String MEMCACHE_KEY_PREFIX = "StorageCache:";
+
+  /**
+   * Where a value may be cached.
+   */
+  enum Scope {
+    /**
+     * Only for the current request, for values that change often.
+     */
+    REQUEST,
+
+    /**
+     * For the current request and in memcache, for values that can change
+     * on any instance. Memcache is invalidated for all instances at once.
+     */
+    MEMCACHE,
+
+    /**
+     * In all the tiers, for values that never change once written, or that
+     * may be out of date until they expire.
+     */
+    SHARED
+  }
+
+  private static final class LocalEntry {
+    final Object value;
+    final long expirationTime;
+
+    LocalEntry(Object value, long expirationTime) {
+      this.value = value;
+      this.expirationTime = expirationTime;
+    }
+  }
+
+  private static final ThreadLocal<Map<String, Object>> requestValues =
+      new ThreadLocal<Map<String, Object>>();
+
+  // Guarded by itself.
+  private final LinkedHashMap<String, LocalEntry> localValues =
+      new LinkedHashMap<String, LocalEntry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LocalEntry> eldest) {
+          return size() > MAX_LOCAL_ENTRIES;
+        }
+      };
+
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  private final AtomicLong requestHits = new AtomicLong(0);
+  private final AtomicLong localHits = new AtomicLong(0);
+  private final AtomicLong memcacheHits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+
+  /**
+   * Starts caching values for the request handled by the current thread.
+   */
+  public static void beginRequest() {
+    requestValues.set(new HashMap<String, Object>());
+  }
+
+  /**
+   * Stops caching values for the request handled by the current thread.
+   */
+  public static void endRequest() {
+    requestValues.remove();
+  }
+
+  /**
+   * Returns the cached value for the given key, or null if there is none.
+   *
+   * @param key  the key
+   * @param scope  where the value may come from
+   */
+  Object get(String key, Scope scope) {
+    Map<String, Object> values = requestValues.get();
+    if (values != null && values.containsKey(key)) {
+      countLookup(requestHits);
+      return values.get(key);
+    }
+    if (scope == Scope.SHARED) {
+      Object value = getLocal(key);
+      if (value != null) {
+        countLookup(localHits);
+        putRequest(key, value);
+        return value;
+      }
+    }
+    if (scope != Scope.REQUEST) {
+      Object value = getMemcache(key);
+      if (value != null) {
+        countLookup(memcacheHits);
+        if (scope == Scope.SHARED) {
+          putLocal(key, value);
+        }
+        putRequest(key, value);
+        return value;
+      }
+    }
+    countLookup(misses);
+    return null;
+  }
+
+  /**
+   * Caches a value that was just read from the datastore.
+   *
+   * @param key  the key
+   * @param value  the value, which must not be null
+   * @param scope  where the value may be put
+   */
+  void put(String key, Serializable value, Scope scope) {
+    putRequest(key, value);
+    if (scope == Scope.SHARED) {
+      putLocal(key, value);
+    }
+    if (scope != Scope.REQUEST) {
+      try {
+        memcache.put(MEMCACHE_KEY_PREFIX + key, value,
+            Expiration.byDeltaSeconds(MEMCACHE_TTL_SECONDS), SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      } catch (RuntimeException e) {
+        // The value just won't be shared.
+        LOG.log(Level.FINE, "Unable to put " + key + " in memcache", e);
+      }
+    }
+  }
+
+  /**
+   * Removes a value from the cache.
+   *
+   * @param key  the key
+   * @param scope  where the value may be; must match the scope given to
+   *               {@link #put}
+   */
+  void invalidate(String key, Scope scope) {
+    Map<String, Object> values = requestValues.get();
+    if (values != null) {
+      values.remove(key);
+    }
+    if (scope == Scope.REQUEST) {
+      return;
+    }
+    if (scope == Scope.SHARED) {
+      synchronized (localValues) {
+        localValues.remove(key);
+      }
+    }
+    try {
+      memcache.delete(MEMCACHE_KEY_PREFIX + key, MEMCACHE_NO_READD_MILLIS);
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Unable to remove " + key + " from memcache", e);
+    }
+  }
+
+  private void putRequest(String key, Object value) {
+    Map<String, Object> values = requestValues.get();
+    if (values != null) {
+      values.put(key, value);
+    }
+  }
+
+  private Object getLocal(String key) {
+    synchronized (localValues) {
+      LocalEntry entry = localValues.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.expirationTime < System.currentTimeMillis()) {
+        localValues.remove(key);
+        return null;
+      }
+      return entry.value;
+    }
+  }
+
+  private void putLocal(String key, Object value) {
+    synchronized (localValues) {
+      localValues.put(key, new LocalEntry(value, System.currentTimeMillis() + LOCAL_TTL_MILLIS));
+    }
+  }
+
+  private Object getMemcache(String key) {
+    try {
+      return memcache.get(MEMCACHE_KEY_PREFIX + key);
+    } catch (RuntimeException e) {
+      LOG.log(Level.FINE, "Unable to get " + key + " from memcache", e);
+      return null;
+    }
+  }
+
+  private void countLookup(AtomicLong counter) {
+    counter.incrementAndGet();
+    long lookups = requestHits.get() + localHits.get() + memcacheHits.get() + misses.get();
+    if (lookups % LOG_STATS_INTERVAL == 0) {
+      LOG.info("Storage cache lookups: " + lookups +
+          ", request hits: " + requestHits.get() +
+          ", local hits: " + localHits.get() +
+          ", memcache hits: " + memcacheHits.get() +
+          ", misses: " + misses.get());
+    }
+  }
+}
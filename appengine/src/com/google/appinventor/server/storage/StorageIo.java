@@ -7,14 +7,14 @@ package com.google.appinventor.server.storage;
 
 import com.google.appinventor.shared.rpc.Motd;
 import com.google.appinventor.shared.rpc.project.Project;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.user.User;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.NoSuchElementException;
-
-import javax.annotation.Nullable;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Interface of methods to simplify access to the storage systems.
@@ -174,6 +174,20 @@ public interface StorageIo {
    */
   long getProjectDateCreated(String userId, long projectId);
 
+  /**
+   * Returns the name, type and dates of several projects, all read at once.
+   * This is much faster than calling {@link #getProjectName} and friends
+   * for each project.
+   *
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectIds  project ids
+   *
+   * @return a UserProject for each project, in the same order; as with the
+   *         single-project methods, a project that can't be found has an
+   *         empty name and type and zero dates
+   */
+  List<UserProject> getUserProjects(String userId, List<Long> projectIds);
+
   // Non-project-specific file management
 
   /**
@@ -268,6 +282,39 @@ public interface StorageIo {
    */
   void addOutputFilesToProject(String userId, long projectId, String...fileIds);
 
+  /**
+   * Stores the content of a project output file, reading it from a stream, but
+   * doesn't add the file to the project. Large files are copied to storage as
+   * they are read rather than held in memory. The returned file must be passed
+   * to {@link #addStoredOutputFilesToProject} or
+   * {@link #discardStoredOutputFiles}.
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param content  file content, which is read to its end but not closed
+   * @return the stored file
+   * @throws IOException if the content can't be read
+   */
+  StoredOutputFile storeOutputFile(long projectId, String fileId, InputStream content)
+      throws IOException;
+
+  /**
+   * Adds stored output files to the project's list of output files, replacing
+   * the content of any output files with the same IDs, in a single update. If
+   * the files can't be added, they are discarded.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param files  files returned by {@link #storeOutputFile}
+   * @return modification date for project
+   */
+  long addStoredOutputFilesToProject(String userId, long projectId, List<StoredOutputFile> files);
+
+  /**
+   * Deletes the content of stored output files that won't be added to their
+   * project.
+   * @param files  files returned by {@link #storeOutputFile}
+   */
+  void discardStoredOutputFiles(List<StoredOutputFile> files);
+
   /**
    * Removes file IDs from the project's list of source files, updating the
    * modification date of the project if requested.  Note that no
@@ -367,19 +414,25 @@ public interface StorageIo {
   Motd getCurrentMotd();
 
   /**
-   *  Exports project files as a zip archive
+   * Writes project files as entries of a zip archive. The entries are written
+   * to out as they are read, so memory use doesn't depend on the size of the
+   * project.
+   *
    * @param userId a user Id (the request is made on behalf of this user)
    * @param projectId  project ID
    * @param includeProjectHistory  whether or not to include the project history
    * @param includeAndroidKeystore  whether or not to include the Android keystore
-   * @param zipName  the name of the zip file, if a specific one is desired
-
-   * @return  project with the content as requested by params.
+   * @param out  the zip stream to write the entries to; it is neither finished
+   *             nor closed
+   *
+   * @return  the number of entries written
+   * @throws IllegalArgumentException if the project has no source files, in
+   *         which case nothing has been written to out
    */
-  ProjectSourceZip exportProjectSourceZip(String userId, long projectId,
-                                          boolean includeProjectHistory,
-                                          boolean includeAndroidKeystore,
-                                          @Nullable String zipName) throws IOException;
+  int exportProjectSourceZip(String userId, long projectId,
+                             boolean includeProjectHistory,
+                             boolean includeAndroidKeystore,
+                             ZipOutputStream out) throws IOException;
 
   /**
    * Find a user's id given their email address. Note that this query is case
@@ -14,7 +14,7 @@ package com.google.appinventor.server.storage;
  *
  */
 public class StorageIoInstanceHolder {
-  public static final StorageIo INSTANCE = new ObjectifyStorageIo();
+  public static final StorageIo INSTANCE = new CachingStorageIo(new ObjectifyStorageIo());
   
   private StorageIoInstanceHolder() {} // not to be instantiated
     
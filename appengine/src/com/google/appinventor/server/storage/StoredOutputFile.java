@@ -0,0 +1,43 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.server.storage;
+
+/**
+ * The stored content of a project output file that has not yet been added to
+ * the project. Returned by {@link StorageIo#storeOutputFile} and passed to
+ * {@link StorageIo#addStoredOutputFilesToProject}, so that all of the outputs
+ * of a build can be added to their project at once.
+ *
+ */
+public final class StoredOutputFile {
+  private final String fileId;
+  private final long size;
+
+  // Exactly one of these is set, as in StoredData.FileData.
+  final byte[] content;
+  final String blobstorePath;
+
+  StoredOutputFile(String fileId, long size, byte[] content, String blobstorePath) {
+    this.fileId = fileId;
+    this.size = size;
+    this.content = content;
+    this.blobstorePath = blobstorePath;
+  }
+
+  /**
+   * Returns the ID of the file.
+   */
+  public String getFileId() {
+    return fileId;
+  }
+
+  /**
+   * Returns the size of the file's content, in bytes.
+   */
+  public long getSize() {
+    return size;
+  }
+}
@@ -130,6 +130,12 @@ public class ServerLayout {
    */
   public static final String UPLOAD_PROJECT = "project";
 
+  /**
+   * Relative path within {@link com.google.appinventor.server.UploadServlet}
+   * for uploading a zip file of several projects
+   */
+  public static final String UPLOAD_PROJECTS = "projects";
+
   /**
    * Relative path within {@link com.google.appinventor.server.UploadServlet}
    * for uploading a file
@@ -191,6 +197,11 @@ public class ServerLayout {
    */
   public static final String UPLOAD_PROJECT_ARCHIVE_FORM_ELEMENT = "uploadProjectArchive";
 
+  /**
+   * Name of the form element to upload a zip file of project archives.
+   */
+  public static final String UPLOAD_PROJECT_ARCHIVES_FORM_ELEMENT = "uploadProjectArchives";
+
   /**
    * Name of the form element to upload user files.
    */
@@ -0,0 +1,142 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.shared.rpc.project;
+
+/**
+ * Describes a file (using its project and file IDs) and a change to its
+ * content, so that a small edit to a large file can be saved without sending
+ * the whole file.
+ *
+ * <p>The change replaces everything between a common prefix and a common
+ * suffix of the old and new content. It carries hashes of both, so that the
+ * server can tell whether the content it has is the content the change was
+ * made to, and whether applying it gave the intended result.
+ *
+ */
+public final class FileDescriptorWithDelta extends FileDescriptor {
+
+  // For serialization
+  private static final long serialVersionUID = 3218744921073329187L;
+
+  // Content used by isHashConsistent. It is long enough for String.hashCode
+  // to overflow, and includes characters outside ASCII and a surrogate pair.
+  private static final String HASH_CHECK_CONTENT =
+      "<xml><block type=\"component_event\" id=\"1234\">\u00e9\u4e2d\ud83d\ude00"
+      + "The quick brown fox jumps over the lazy dog 0123456789</block></xml>";
+
+  // The hashes of "" and HASH_CHECK_CONTENT, as computed on the server.
+  private static final String EMPTY_HASH = "0:0:1";
+  private static final String HASH_CHECK_HASH = "117:4be443e0:b451";
+
+  // Hash of the content the change was made to
+  private String baseHash;
+
+  // Length of the unchanged start of the content
+  private int prefixLength;
+
+  // Length of the unchanged end of the content
+  private int suffixLength;
+
+  // Text replacing everything between the unchanged start and end
+  private String replacement;
+
+  // Hash of the content after the change
+  private String contentHash;
+
+  /**
+   * Default constructor (for serialization only).
+   * Unfortunately this will prevent any fields from being marked as final!
+   */
+  @SuppressWarnings("unused")
+  private FileDescriptorWithDelta() {
+  }
+
+  /**
+   * Creates a new descriptor for a file and the change from its old content
+   * to its new content.
+   *
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param baseContent  the content last saved
+   * @param content  the new content
+   */
+  public FileDescriptorWithDelta(long projectId, String fileId, String baseContent,
+      String content) {
+    super(projectId, fileId);
+    int maxLength = Math.min(baseContent.length(), content.length());
+    int prefix = 0;
+    while (prefix < maxLength && baseContent.charAt(prefix) == content.charAt(prefix)) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < maxLength - prefix &&
+        baseContent.charAt(baseContent.length() - 1 - suffix) ==
+        content.charAt(content.length() - 1 - suffix)) {
+      suffix++;
+    }
+    this.baseHash = hash(baseContent);
+    this.prefixLength = prefix;
+    this.suffixLength = suffix;
+    this.replacement = content.substring(prefix, content.length() - suffix);
+    this.contentHash = hash(content);
+  }
+
+  /**
+   * Applies the change to the given content.
+   *
+   * @param baseContent  the content to change
+   * @return  the changed content, or {@code null} if the change was not made
+   *          to the given content
+   */
+  public String apply(String baseContent) {
+    if (!hash(baseContent).equals(baseHash)
+        || prefixLength + suffixLength > baseContent.length()) {
+      return null;
+    }
+    String content = baseContent.substring(0, prefixLength) + replacement
+        + baseContent.substring(baseContent.length() - suffixLength);
+    return hash(content).equals(contentHash) ? content : null;
+  }
+
+  /**
+   * Returns the number of characters of content carried by this change.
+   *
+   * @return  length of the replacement text
+   */
+  public int getReplacementLength() {
+    return replacement.length();
+  }
+
+  /**
+   * Returns whether this runtime computes the hashes of changes the way the
+   * server does, by checking the hashes of a few fixed strings. If it doesn't,
+   * every change would be rejected, so the full content should be saved
+   * instead.
+   */
+  public static boolean isHashConsistent() {
+    return hash("").equals(EMPTY_HASH)
+        && hash(HASH_CHECK_CONTENT).equals(HASH_CHECK_HASH);
+  }
+
+  /*
+   * Returns a hash of the given content: its length and two different hashes
+   * of its characters.
+   *
+   * The client and the server must compute the same hash, but in the browser
+   * int arithmetic is done on doubles and isn't wrapped to 32 bits. The first
+   * hash is String.hashCode, which GWT computes exactly. The second is kept
+   * below 65521 after every step, so that no intermediate value overflows an
+   * int on the server or loses precision in the browser.
+   */
+  private static String hash(String content) {
+    int hash2 = 1;
+    for (int i = 0; i < content.length(); i++) {
+      hash2 = (hash2 * 32749 + content.charAt(i)) % 65521;
+    }
+    return content.length() + ":" + Integer.toHexString(content.hashCode()) + ":"
+        + Integer.toHexString(hash2);
+  }
+}
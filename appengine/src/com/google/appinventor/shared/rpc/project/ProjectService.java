@@ -58,6 +58,16 @@ public interface ProjectService extends RemoteService {
    */
   List<UserProject> getProjectInfos();
 
+  /**
+   * Returns a page of project infos, in order of project ID.
+   * @param afterProjectId  only projects with a greater ID are returned;
+   *                        0 for the first page
+   * @param maxCount  maximum number of project infos to return
+   * @return list of project infos found by the back-end; it has fewer than
+   *         maxCount elements if it is the last page
+   */
+  List<UserProject> getProjectInfos(long afterProjectId, int maxCount);
+
   /**
    * Returns the root node for the given project.
    * @param projectId  project ID as received by
@@ -141,6 +151,24 @@ public interface ProjectService extends RemoteService {
    */
   public long save(List<FileDescriptorWithContent> filesAndContent);
 
+  /**
+   * Value returned by {@link #saveDeltas} when a change was not made to the
+   * content the server has, in which case the files must be saved again with
+   * their full content.
+   */
+  long DELTA_MISMATCH = -1;
+
+  /**
+   * Saves changes to the contents of multiple files. The changes are saved
+   * in order, up to the first one that can't be applied.
+   *
+   * @param filesAndDeltas  list containing file descriptors and the changes
+   *                        to their last saved content
+   * @return modification date for last modified project of list, or
+   *         {@link #DELTA_MISMATCH} if any change could not be applied
+   */
+  long saveDeltas(List<FileDescriptorWithDelta> filesAndDeltas);
+
   /**
    * Invokes a build command for the project on the back-end.
    *
@@ -164,6 +192,21 @@ public interface ProjectService extends RemoteService {
    */
   RpcResult getBuildResult(long projectId, String target);
 
+  /**
+   * Waits until the progress of a build differs from the progress the client
+   * already knows about, or until a timeout of about 20 seconds, and then gets
+   * the result of the build. The progress is posted to the server by the
+   * Build Server, so waiting costs no requests to the Build Server.
+   *
+   * @param projectId  project ID
+   * @param target  build target (optional, implementation dependent)
+   * @param lastProgress  the progress in the RpcResult.output of the last
+   *                      result the client received, or -1
+   *
+   * @return  results of build, as for {@link #getBuildResult}
+   */
+  RpcResult waitForBuildResult(long projectId, String target, int lastProgress);
+
   /**
    * Adds a new file to the given project.
    *
@@ -44,6 +44,12 @@ public interface ProjectServiceAsync {
    */
   void getProjectInfos(AsyncCallback<List<UserProject>> callback);
 
+  /**
+   * @see ProjectService#getProjectInfos(long, int)
+   */
+  void getProjectInfos(long afterProjectId, int maxCount,
+      AsyncCallback<List<UserProject>> callback);
+
   /**
    * @see ProjectService#getProject(long)
    */
@@ -89,6 +95,11 @@ public interface ProjectServiceAsync {
    */
   void save(List<FileDescriptorWithContent> filesAndContent, AsyncCallback<Long> callback);
 
+  /**
+   * @see ProjectService#saveDeltas(List)
+   */
+  void saveDeltas(List<FileDescriptorWithDelta> filesAndDeltas, AsyncCallback<Long> callback);
+
   /**
    * @see ProjectService#build(long, String)
    */
@@ -99,6 +110,12 @@ public interface ProjectServiceAsync {
    */
   void getBuildResult(long projectId, String target, AsyncCallback<RpcResult> callback);
 
+  /**
+   * @see ProjectService#waitForBuildResult(long, String, int)
+   */
+  void waitForBuildResult(long projectId, String target, int lastProgress,
+      AsyncCallback<RpcResult> callback);
+
   /**
    * @see ProjectService#addFile(long, String)
    */
@@ -9,25 +9,28 @@ import com.google.appinventor.common.jsonp.JsonpConstants;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * A request handler base class for JSONP requests that must be handled
  * asynchronously.
  *
+ * <p>The work of each request is run on the server's pool of async threads,
+ * which are reused from one request to the next.
+ *
  * @author lizlooney@google.com (Liz Looney)
  */
 public abstract class AsyncJsonpRequestHandler extends JsonpRequestHandler {
   private class Handler {
-    private volatile Thread thread;
+    private volatile boolean finished;
     private volatile String responseValue;
     private volatile Throwable exception;
 
     private Handler() {
     }
 
-    private void startThread(String initialRequestId, final Map<String, String> parameters) {
-      String threadName = "AsyncJsonRequestHandler-" + initialRequestId;
-      thread = new Thread(new Runnable() {
+    private void start(final Map<String, String> parameters) {
+      executor.execute(new Runnable() {
         @Override
         public void run() {
           try {
@@ -37,18 +40,18 @@ public abstract class AsyncJsonpRequestHandler extends JsonpRequestHandler {
             if (HttpServer.LOG_TO_SYSTEM_OUT) {
               e.printStackTrace(System.out);
             }
+          } finally {
+            finished = true;
           }
         }
-      }, threadName);
-      thread.start();
+      });
     }
 
-    private boolean isThreadFinished() {
-      return !thread.isAlive();
+    private boolean isFinished() {
+      return finished;
     }
 
     private String getResponseValue() throws Throwable {
-      thread = null; // Don't need the thread anymore.
       // If an exception occurred, rethrow it.
       if (exception != null) {
         throw exception;
@@ -58,6 +61,7 @@ public abstract class AsyncJsonpRequestHandler extends JsonpRequestHandler {
   }
 
   private final Map<String, Handler> handlers;
+  private final Executor executor;
 
   /**
    * Creates an AsyncJsonpRequestHandler.
@@ -65,8 +69,21 @@ public abstract class AsyncJsonpRequestHandler extends JsonpRequestHandler {
    * @param server the server for this handler, used for logging messages
    */
   public AsyncJsonpRequestHandler(HttpServer server) {
+    this(server, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Creates an AsyncJsonpRequestHandler that works on no more than the given
+   * number of requests at a time. The work of further requests waits until
+   * the work of one of them has finished.
+   *
+   * @param server the server for this handler, used for logging messages
+   * @param maxConcurrentRequests the most requests to work on at a time
+   */
+  public AsyncJsonpRequestHandler(HttpServer server, int maxConcurrentRequests) {
     super(server);
     handlers = new ConcurrentHashMap<String, Handler>();
+    executor = new LimitedExecutor(server.getAsyncExecutor(), maxConcurrentRequests);
   }
 
   /**
@@ -83,22 +100,22 @@ public abstract class AsyncJsonpRequestHandler extends JsonpRequestHandler {
   @Override
   public final String getResponseValue(final Map<String, String> parameters) throws Throwable {
     if (isInitialRequest(parameters)) {
-      // This is the initial request. Start a new thread to handle the request.
+      // This is the initial request. Start working on it in the background.
       String initialRequestId = parameters.get(JsonpConstants.ID);
       Handler handler = new Handler();
       handlers.put(initialRequestId, handler);
-      handler.startThread(initialRequestId, parameters);
+      handler.start(parameters);
       return JsonpConstants.NOT_FINISHED_YET;
     } else {
       // Polling for the result of the previous request.
       String initialRequestId = parameters.get(JsonpConstants.POLLING);
       Handler handler = handlers.get(initialRequestId);
-      if (handler.isThreadFinished()) {
-        // The thread has finished. We either have a responseValue or an exception.
+      if (handler.isFinished()) {
+        // The work has finished. We either have a responseValue or an exception.
         handlers.remove(initialRequestId); // Remove the handler info.
         return handler.getResponseValue();
       } else {
-        // The thread hasn't finished yet, we don't have a response value yet.
+        // The work hasn't finished yet, we don't have a response value yet.
         return JsonpConstants.NOT_FINISHED_YET;
       }
     }
@@ -106,7 +123,7 @@ public abstract class AsyncJsonpRequestHandler extends JsonpRequestHandler {
 
   /**
    * Returns the response value that will be passed to the javascript
-   * callback. This method is called on a new thread.
+   * callback. This method is called on one of the server's async threads.
    *
    * @param parameters the request parametere
    */
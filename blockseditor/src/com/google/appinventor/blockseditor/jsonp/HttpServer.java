@@ -7,192 +7,340 @@ package com.google.appinventor.blockseditor.jsonp;
 
 import com.google.appinventor.common.jsonp.JsonpConstants;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Extremely simple HTTP server.
+ * Simple HTTP server.
  *
- * <p>Listens on a single port. Requests are handled one at a time, in the order
- * they are received. All replies must be content type text.
+ * <p>Listens on a single port. A single dispatcher thread accepts connections
+ * and reads and writes them without blocking; the requests it reads are
+ * handled by a small pool of worker threads, so a slow request doesn't hold up
+ * the others. Connections are kept alive between requests. Each handler may
+ * only use some of the worker threads at a time, so one busy handler can't
+ * keep the others from running. All replies must be content type text.
  *
  * @author lizlooney@google.com (Liz Looney)
  */
 public final class HttpServer {
   /**
-   * The Producer thread accepts connections and puts them in the connection
-   * queue.
+   * The Dispatcher thread accepts connections, reads requests from them and
+   * writes the replies to them. It never blocks on a connection.
    */
-  class Producer implements Runnable {
-    private final ServerSocket serverSocket;
-    private final BlockingQueue<Socket> connectionQueue;
-
-    private Producer(ServerSocket serverSocket, BlockingQueue<Socket> connectionQueue) {
-      this.serverSocket = serverSocket;
-      this.connectionQueue = connectionQueue;
+  class Dispatcher implements Runnable {
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Set<Connection> connections;
+    private long shutDownTime;
+
+    private Dispatcher(Selector selector, ServerSocketChannel serverChannel) {
+      this.selector = selector;
+      this.serverChannel = serverChannel;
+      connections = new HashSet<Connection>();
     }
 
     @Override
     public void run() {
-      while (!shutDown) {
-        Socket socket = null;
-        try {
-          socket = serverSocket.accept();
-          socket.setSoTimeout(30 * 1000); // ??? why not 0 (infinite)?
-        } catch (SocketException e) {
-          // SocketException is thrown if the main thread calls ServerSocket.close().
-          // We'll check the shutDown field at the top of while-loop to see if we are finished.
-        } catch (IOException e) {
-          if (LOG_TO_SYSTEM_OUT) {
-            e.printStackTrace(System.out);
-          }
-        }
-
-        if (socket != null) {
-          cancelConnectivityTimerTask();
-          setConnectivityStatus(true);
-
-          try {
-            connectionQueue.put(socket);
-          } catch (InterruptedException e) {
-            if (LOG_TO_SYSTEM_OUT) {
-              e.printStackTrace(System.out);
+      try {
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        while (!isFinished()) {
+          selector.select(SELECT_TIMEOUT_MILLIS);
+          writeReplies();
+
+          Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+          while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if (!key.isValid()) {
+              continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+              if (key.isAcceptable()) {
+                accept();
+              } else if (key.isReadable()) {
+                read(connection);
+              } else if (key.isWritable()) {
+                write(connection);
+              }
+            } catch (Throwable e) {
+              if (LOG_TO_SYSTEM_OUT) {
+                e.printStackTrace(System.out);
+              }
+              if (connection != null) {
+                close(connection);
+              }
             }
           }
+
+          closeIdleConnections();
+        }
+      } catch (IOException e) {
+        if (LOG_TO_SYSTEM_OUT) {
+          e.printStackTrace(System.out);
+        }
+      } finally {
+        for (Connection connection : new ArrayList<Connection>(connections)) {
+          close(connection);
         }
       }
     }
-  }
-
-  /**
-   * The Consumer thread takes requests from the connection queue and handles
-   * them.
-   */
-  class Consumer implements Runnable {
-    private final BlockingQueue<Socket> connectionQueue;
-
-    private Consumer(BlockingQueue<Socket> connectionQueue) {
-      this.connectionQueue = connectionQueue;
-    }
 
-    @Override
-    public void run() {
-      while (!shutDown) {
-        Socket socket = null;
+    /**
+     * Returns true once the server has been shut down and all replies have
+     * been written, or the server has waited long enough for them.
+     */
+    private boolean isFinished() {
+      if (!shutDown) {
+        return false;
+      }
+      long now = System.currentTimeMillis();
+      if (shutDownTime == 0) {
+        shutDownTime = now;
+        // Stop accepting connections.
         try {
-          socket = connectionQueue.take();
-        } catch (InterruptedException e) {
+          serverChannel.close();
+        } catch (IOException e) {
           if (LOG_TO_SYSTEM_OUT) {
             e.printStackTrace(System.out);
           }
         }
-        if (socket != null) {
-          // Handle the connection, and catch any exceptions that get thrown.
-          try {
-            processRequest(socket);
-          } catch (Throwable e) {
-            if (LOG_TO_SYSTEM_OUT) {
-              e.printStackTrace(System.out);
-            }
-          }
-          try {
-            socket.close();
-          } catch (IOException e) {
-            if (LOG_TO_SYSTEM_OUT) {
-              e.printStackTrace(System.out);
-            }
-          }
-          scheduleConnectivityTimerTask();
+      }
+      if (now - shutDownTime >= SHUT_DOWN_TIMEOUT_MILLIS) {
+        return true;
+      }
+      if (requestsInProgress.get() != 0 || !finishedRequests.isEmpty()) {
+        return false;
+      }
+      for (Connection connection : connections) {
+        if (connection.busy) {
+          return false;
         }
       }
+      return true;
     }
 
-    /**
-     * Process a request.
-     */
-    private void processRequest(Socket socket) throws IOException {
-      Pair<String, String> protocolAndUri = readHttpRequest(socket);
-      String protocol = protocolAndUri.getFirst();
-      String uri = protocolAndUri.getSecond();
-      log("processRequest: " + protocol + " " + uri + "\n");
-
-      // Fail if the server's secret number has not be set yet.
-      if (secret == 0) {
-        reply(socket, "ERROR: service is unavailable at this time.<p>\n",
-            ResponseCode.SERVICE_UNAV);
+    private void accept() throws IOException {
+      SocketChannel channel = serverChannel.accept();
+      if (channel == null) {
         return;
       }
+      channel.configureBlocking(false);
+      Connection connection = new Connection(channel);
+      connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+      connections.add(connection);
 
-      // Fail if the request is not coming from localhost.
-      String addr = socket.getInetAddress().getHostAddress();
-      if (!addr.equals("127.0.0.1")) {
-        log("    rejecting request from unauthorized client\n");
-        reply(socket, "ERROR: " + addr + " unauthorized to send request.<p>\n",
-            ResponseCode.UNAUTHORIZED);
+      cancelConnectivityTimerTask();
+      setConnectivityStatus(true);
+    }
+
+    private void read(Connection connection) throws IOException {
+      ByteBuffer buffer = connection.requestBuffer;
+      if (connection.channel.read(buffer) == -1) {
+        close(connection);
         return;
       }
+      connection.lastActiveTime = System.currentTimeMillis();
 
-      // Only allow GET requests.
-      if (!protocol.equals("GET")) {
-        log("    rejecting request of unsupported protocol " + protocol + "\n");
-        reply(socket, "ERROR: " + protocol + " not implemented.<p>\n",
-            ResponseCode.NOT_IMPL);
+      int end = findEndOfRequest(buffer);
+      if (end == -1) {
+        if (!buffer.hasRemaining()) {
+          log("    rejecting request that is too large\n");
+          close(connection);
+        }
+        return;
+      }
+      String text = new String(buffer.array(), 0, end, "UTF-8");
+      // Browsers don't pipeline requests. If this one did, we don't keep its connection alive
+      // rather than buffering the next request.
+      boolean pipelined = buffer.position() > end;
+      buffer.clear();
+      if (text.trim().length() == 0) {
+        // Only blank lines so far.
         return;
       }
 
-      // Process the URI to get the handler key and the query parameters.
-      Pair<String, Map<String, String>> pathAndParameters = parseUri(uri);
-      String handlerKey = pathAndParameters.getFirst();
-      Map<String, String> parameters = pathAndParameters.getSecond();
+      Request request = parseHttpRequest(text);
+      connection.keepAlive = request.keepAlive && !pipelined;
+      connection.busy = true;
+      // Don't read anything more until the reply has been written.
+      connection.key.interestOps(0);
 
-      // Validate the request parameters
-      if (!validateRequestParameters(parameters, secret)) {
-        reply(socket, "ERROR: request is bad.<p>\n", ResponseCode.BAD_REQUEST);
+      cancelConnectivityTimerTask();
+      setConnectivityStatus(true);
+      dispatch(connection, request);
+    }
+
+    private void write(Connection connection) throws IOException {
+      connection.channel.write(connection.replyBuffer);
+      if (connection.replyBuffer.hasRemaining()) {
         return;
       }
-
-      HttpRequestHandler handler = getHandlerForKey(handlerKey);
-      if (handler != null) {
-        reply(socket, handler.handleRequest(parameters), ResponseCode.REQUEST_OK);
+      connection.replyBuffer = null;
+      connection.busy = false;
+      if (connection.keepAlive && !shutDown) {
+        connection.lastActiveTime = System.currentTimeMillis();
+        connection.key.interestOps(SelectionKey.OP_READ);
       } else {
-        reply(socket, "Page not found: " + uri + "\n", ResponseCode.NOT_FOUND);
+        close(connection);
       }
     }
 
-    private void reply(Socket socket, String body, ResponseCode responseCode) throws IOException {
-      byte[] utf8Bytes = body.getBytes("UTF-8");
+    /**
+     * Starts writing the replies that the worker threads have finished.
+     */
+    private void writeReplies() {
+      Connection connection;
+      while ((connection = finishedRequests.poll()) != null) {
+        if (!connection.channel.isOpen()) {
+          // The browser closed the connection while the request was being handled.
+          continue;
+        }
+        try {
+          connection.key.interestOps(SelectionKey.OP_WRITE);
+          write(connection);
+        } catch (Throwable e) {
+          if (LOG_TO_SYSTEM_OUT) {
+            e.printStackTrace(System.out);
+          }
+          close(connection);
+        }
+      }
+    }
 
-      // Set headers.
-      String outputHeaders = "HTTP/1.0 " + responseCode.getCode() + " "
-          + responseCode.getDescription() + "\r\n"
-          + "Content-Type: text/plain\r\n"
-          + "Content-Length: " + utf8Bytes.length + "\r\n"
-          + "Cache-Control: no-cache\r\n\r\n";
+    private void closeIdleConnections() {
+      long now = System.currentTimeMillis();
+      for (Connection connection : new ArrayList<Connection>(connections)) {
+        if (!connection.busy && now - connection.lastActiveTime >= IDLE_TIMEOUT_MILLIS) {
+          close(connection);
+        }
+      }
+    }
 
-      // Write the headers.
-      OutputStream outputStream = socket.getOutputStream();
-      PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"));
-      writer.write(outputHeaders);
-      writer.flush();
+    private void close(Connection connection) {
+      connections.remove(connection);
+      if (connection.key != null) {
+        connection.key.cancel();
+      }
+      try {
+        connection.channel.close();
+      } catch (IOException e) {
+        if (LOG_TO_SYSTEM_OUT) {
+          e.printStackTrace(System.out);
+        }
+      }
+    }
 
-      // Write the body.
-      outputStream.write(utf8Bytes);
+    /**
+     * Hands a request to the worker threads.
+     */
+    private void dispatch(final Connection connection, final Request request) {
+      final long startTime = System.nanoTime();
+      requestsInProgress.incrementAndGet();
+      Executor executor = getExecutorForKey(getPath(request.uri));
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Pair<String, ResponseCode> reply;
+            try {
+              reply = processRequest(connection, request);
+            } catch (Throwable e) {
+              if (LOG_TO_SYSTEM_OUT) {
+                e.printStackTrace(System.out);
+              }
+              reply = new Pair<String, ResponseCode>("ERROR: " + e + "<p>\n",
+                  ResponseCode.SERVER_ERROR);
+            }
+            connection.replyBuffer = createReply(request, reply.getFirst(), reply.getSecond(),
+                connection.keepAlive && !shutDown);
+            recordLatency(request, reply.getSecond(), System.nanoTime() - startTime);
+            finishedRequests.add(connection);
+            selector.wakeup();
+          } finally {
+            if (requestsInProgress.decrementAndGet() == 0) {
+              scheduleConnectivityTimerTask();
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * A connection from the browser. Only the dispatcher thread reads and
+   * writes it. While its request is being handled by a worker thread, it is
+   * busy.
+   */
+  private static class Connection {
+    private final SocketChannel channel;
+    private final ByteBuffer requestBuffer;
+    private SelectionKey key;
+    private long lastActiveTime;
+    private boolean busy;
+    private volatile boolean keepAlive;
+    private volatile ByteBuffer replyBuffer;
+
+    private Connection(SocketChannel channel) {
+      this.channel = channel;
+      requestBuffer = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+      lastActiveTime = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * The parts of an HTTP request that the server uses.
+   */
+  static class Request {
+    final String protocol;
+    final String uri;
+    final String version;
+    final boolean keepAlive;
+
+    Request(String protocol, String uri, String version, boolean keepAlive) {
+      this.protocol = protocol;
+      this.uri = uri;
+      this.version = version;
+      this.keepAlive = keepAlive;
+    }
+  }
+
+  /**
+   * Creates the named threads of the server's thread pools.
+   */
+  private static class NamedThreadFactory implements ThreadFactory {
+    private final String namePrefix;
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    private NamedThreadFactory(String namePrefix) {
+      this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      return new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
     }
   }
 
@@ -224,18 +372,64 @@ public final class HttpServer {
   private static final long NO_CONNECTIVITY_TIME_MILLIS = 5000;
   private static final long NO_CONNECTIVITY_TIME_NANO = NO_CONNECTIVITY_TIME_MILLIS * 1000000;
 
+  // The number of worker threads that handle requests.
+  private static final int WORKER_THREADS = 4;
+
+  // The number of worker threads that a handler may use at a time, unless it was given a different
+  // limit when it was registered. One thread is left for the other handlers.
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = WORKER_THREADS - 1;
+
+  // The largest request that the server reads. JSONP requests are GETs, so they have no body.
+  private static final int MAX_REQUEST_SIZE = 64 * 1024;
+
+  // How long a connection may be idle before it is closed.
+  private static final long IDLE_TIMEOUT_MILLIS = 30 * 1000;
+
+  // How often the dispatcher thread looks for idle connections and for a shut down.
+  private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+  // How long the server waits for replies to be written after it has been shut down.
+  private static final long SHUT_DOWN_TIMEOUT_MILLIS = 5000;
+
+  // How often request latencies are reported to the listeners.
+  private static final long LATENCY_REPORT_INTERVAL_MILLIS = 60 * 1000;
+
+  // The key under which the latencies of requests without a handler are recorded.
+  private static final String UNHANDLED_REQUESTS_KEY = "(other)";
+
   public static final boolean LOG_TO_SYSTEM_OUT = false;
 
   /**
    * The secret that is required in all JSONP requests.
    */
-  private int secret;
+  private volatile int secret;
 
   /**
    * Map URI strings to HttpRequestHandler objects.
    */
   private final Map<String, HttpRequestHandler> handlers;
 
+  /**
+   * Map URI strings to the executors that limit how many requests each
+   * handler handles at a time. Guarded by handlers.
+   */
+  private final Map<String, Executor> handlerExecutors;
+
+  // Worker threads that handle requests.
+  private final ExecutorService workerExecutor;
+
+  // Threads that run the work of AsyncJsonpRequestHandlers.
+  private final ExecutorService asyncExecutor;
+
+  // Requests that have been dispatched and whose replies haven't been queued yet.
+  private final AtomicInteger requestsInProgress;
+
+  // Connections whose replies are ready to be written by the dispatcher thread.
+  private final Queue<Connection> finishedRequests;
+
+  // Latencies of the requests since they were last reported, by request. Guarded by this.
+  private Map<String, LatencyHistogram> latencies;
+
   private volatile boolean shutDown;
 
   // List of listeners for events.
@@ -251,6 +445,13 @@ public final class HttpServer {
    */
   public HttpServer() {
     handlers = new HashMap<String, HttpRequestHandler>();
+    handlerExecutors = new HashMap<String, Executor>();
+    workerExecutor = Executors.newFixedThreadPool(WORKER_THREADS,
+        new NamedThreadFactory("HttpServer-Worker-"));
+    asyncExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("HttpServer-Async-"));
+    requestsInProgress = new AtomicInteger();
+    finishedRequests = new ConcurrentLinkedQueue<Connection>();
+    latencies = new HashMap<String, LatencyHistogram>();
     eventListeners = new ArrayList<HttpServerEventListener>();
     connectivityStatus = true;
     connectivityTimer = new Timer("HttpServer-ConnectivityTimer");
@@ -290,9 +491,25 @@ public final class HttpServer {
    * @param handler the HTTP request handler to be registered.
    */
   public void setHandler(String request, HttpRequestHandler handler) {
+    setHandler(request, handler, DEFAULT_MAX_CONCURRENT_REQUESTS);
+  }
+
+  /**
+   * Register an HTTP request handler that handles no more than the given
+   * number of requests at a time. Further requests wait until one of them
+   * has been handled.
+   * This will replace any existing handler for the specified request.
+   *
+   * @param request the request
+   * @param handler the HTTP request handler to be registered.
+   * @param maxConcurrentRequests the most requests the handler may handle at a time
+   */
+  public void setHandler(String request, HttpRequestHandler handler, int maxConcurrentRequests) {
     String key = getHandlerKey(request);
+    Executor executor = new LimitedExecutor(workerExecutor, maxConcurrentRequests);
     synchronized (handlers) {
       handlers.put(key, handler);
+      handlerExecutors.put(key, executor);
     }
   }
 
@@ -310,6 +527,26 @@ public final class HttpServer {
     }
   }
 
+  /**
+   * Returns the executor for requests with the given handler key. Requests
+   * that have no handler only get an error reply, so they go straight to the
+   * worker threads.
+   */
+  private Executor getExecutorForKey(String key) {
+    synchronized (handlers) {
+      Executor executor = handlerExecutors.get(key);
+      return (executor != null) ? executor : workerExecutor;
+    }
+  }
+
+  /**
+   * Returns the executor that runs the work of
+   * {@link AsyncJsonpRequestHandler}s.
+   */
+  Executor getAsyncExecutor() {
+    return asyncExecutor;
+  }
+
   /**
    * Returns the handler key for the given request.
    */
@@ -350,49 +587,49 @@ public final class HttpServer {
    */
   public void runHttpServer() throws IOException {
     // Pick an available port.
-    ServerSocket serverSocket = new ServerSocket();
-    serverSocket.bind(null);
-    int port = serverSocket.getLocalPort();
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().bind(null);
+    serverChannel.configureBlocking(false);
+    int port = serverChannel.socket().getLocalPort();
     firePortSelected(port);
 
-    BlockingQueue<Socket> connectionQueue = new LinkedBlockingQueue<Socket>();
-    Thread producerThread = new Thread(new Producer(serverSocket, connectionQueue),
-        "HttpServer-Producer");
-    Thread consumerThread = new Thread(new Consumer(connectionQueue), "HttpServer-Consumer");
+    Selector selector = Selector.open();
+    Thread dispatcherThread = new Thread(new Dispatcher(selector, serverChannel),
+        "HttpServer-Dispatcher");
+
+    TimerTask latencyReportTask = new TimerTask() {
+      @Override
+      public void run() {
+        reportLatencies();
+      }
+    };
+    connectivityTimer.schedule(latencyReportTask, LATENCY_REPORT_INTERVAL_MILLIS,
+        LATENCY_REPORT_INTERVAL_MILLIS);
 
-    producerThread.start();
-    consumerThread.start();
+    dispatcherThread.start();
 
-    // Because the consumerThread will be the one to set the shutDown field, it will be the first
-    // to finish.
+    // The dispatcherThread finishes after a request has set the shutDown field and the replies
+    // have been written.
     try {
-      consumerThread.join();
+      dispatcherThread.join();
     } catch (InterruptedException e) {
       if (LOG_TO_SYSTEM_OUT) {
         e.printStackTrace(System.out);
       }
     }
 
-    // After the consumerThread finishes, the producerThread will either finish
-    // on its own after checking the shutDown field or it will be blocked inside the
-    // ServerSocket.accept() method. By closing the server socket here, it will cause the
-    // ServerSocket.accept() method to throw a SocketException.
+    latencyReportTask.cancel();
+    reportLatencies();
+    workerExecutor.shutdown();
+    asyncExecutor.shutdown();
     try {
-      serverSocket.close();
+      serverChannel.close();
+      selector.close();
     } catch (IOException e) {
       if (LOG_TO_SYSTEM_OUT) {
         e.printStackTrace(System.out);
       }
     }
-
-    // Now we can wait for the producerThread to finish.
-    try {
-      producerThread.join();
-    } catch (InterruptedException e) {
-      if (LOG_TO_SYSTEM_OUT) {
-        e.printStackTrace(System.out);
-      }
-    }
   }
 
   private void cancelConnectivityTimerTask() {
@@ -454,30 +691,218 @@ public final class HttpServer {
   }
 
   /**
-   * Reads the HTTP request from the given socket and returns the protocol and
-   * URI as a Pair.
+   * Triggers a 'request latencies' event to be sent to each listener.
+   *
+   * @param latencies the latencies of the requests, by request
    */
-  private static Pair<String, String> readHttpRequest(Socket socket) throws IOException {
-    BufferedReader reader = new BufferedReader(
-        new InputStreamReader(socket.getInputStream(), "UTF-8"));
-    // Find the first non-blank line.
-    String line;
-    do {
-      line = reader.readLine();
-      if (line == null) {
-        throw new IllegalStateException("readLine returned null");
+  private void fireRequestLatencies(Map<String, LatencyHistogram> latencies) {
+    for (HttpServerEventListener listener : eventListeners) {
+      listener.onRequestLatencies(this, latencies);
+    }
+  }
+
+  /**
+   * Records the latency of a request, from when it was read until its reply
+   * was ready.
+   */
+  private void recordLatency(Request request, ResponseCode responseCode, long latencyNanos) {
+    String key = getPath(request.uri);
+    if (responseCode == ResponseCode.NOT_FOUND || getHandlerForKey(key) == null) {
+      key = UNHANDLED_REQUESTS_KEY;
+    } else {
+      // Report the request without the leading slash of the handler key.
+      key = key.substring(1);
+    }
+    synchronized (this) {
+      LatencyHistogram histogram = latencies.get(key);
+      if (histogram == null) {
+        histogram = new LatencyHistogram();
+        latencies.put(key, histogram);
       }
-    } while (line.length() == 0);
+      histogram.record(latencyNanos);
+    }
+  }
 
-    // Get the protocol and URI.
+  /**
+   * Reports the latencies recorded since the last report to the listeners,
+   * if there are any.
+   */
+  private void reportLatencies() {
+    Map<String, LatencyHistogram> reported;
+    synchronized (this) {
+      if (latencies.isEmpty()) {
+        return;
+      }
+      reported = latencies;
+      latencies = new HashMap<String, LatencyHistogram>();
+    }
+    fireRequestLatencies(reported);
+  }
+
+  /**
+   * Process a request.
+   *
+   * @returns the body and response code of the reply
+   */
+  private Pair<String, ResponseCode> processRequest(Connection connection, Request request)
+      throws IOException {
+    String protocol = request.protocol;
+    String uri = request.uri;
+    log("processRequest: " + protocol + " " + uri + "\n");
+
+    // Fail if the server's secret number has not be set yet.
+    if (secret == 0) {
+      return new Pair<String, ResponseCode>("ERROR: service is unavailable at this time.<p>\n",
+          ResponseCode.SERVICE_UNAV);
+    }
+
+    // Fail if the request is not coming from localhost.
+    String addr = connection.channel.socket().getInetAddress().getHostAddress();
+    if (!addr.equals("127.0.0.1")) {
+      log("    rejecting request from unauthorized client\n");
+      return new Pair<String, ResponseCode>(
+          "ERROR: " + addr + " unauthorized to send request.<p>\n", ResponseCode.UNAUTHORIZED);
+    }
+
+    // Only allow GET requests.
+    if (!protocol.equals("GET")) {
+      log("    rejecting request of unsupported protocol " + protocol + "\n");
+      return new Pair<String, ResponseCode>("ERROR: " + protocol + " not implemented.<p>\n",
+          ResponseCode.NOT_IMPL);
+    }
+
+    // Process the URI to get the handler key and the query parameters.
+    Pair<String, Map<String, String>> pathAndParameters = parseUri(uri);
+    String handlerKey = pathAndParameters.getFirst();
+    Map<String, String> parameters = pathAndParameters.getSecond();
+
+    // Validate the request parameters
+    if (!validateRequestParameters(parameters, secret)) {
+      return new Pair<String, ResponseCode>("ERROR: request is bad.<p>\n",
+          ResponseCode.BAD_REQUEST);
+    }
+
+    HttpRequestHandler handler = getHandlerForKey(handlerKey);
+    if (handler != null) {
+      return new Pair<String, ResponseCode>(handler.handleRequest(parameters),
+          ResponseCode.REQUEST_OK);
+    } else {
+      return new Pair<String, ResponseCode>("Page not found: " + uri + "\n",
+          ResponseCode.NOT_FOUND);
+    }
+  }
+
+  /**
+   * Returns the bytes of the reply to a request, headers and body.
+   */
+  private static ByteBuffer createReply(Request request, String body, ResponseCode responseCode,
+      boolean keepAlive) {
+    byte[] utf8Bytes = getUtf8Bytes(body);
+
+    // Set headers.
+    String version = "HTTP/1.1".equals(request.version) ? "HTTP/1.1" : "HTTP/1.0";
+    String outputHeaders = version + " " + responseCode.getCode() + " "
+        + responseCode.getDescription() + "\r\n"
+        + "Content-Type: text/plain\r\n"
+        + "Content-Length: " + utf8Bytes.length + "\r\n"
+        + "Cache-Control: no-cache\r\n"
+        + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+    byte[] headerBytes = getUtf8Bytes(outputHeaders);
+
+    ByteBuffer reply = ByteBuffer.allocate(headerBytes.length + utf8Bytes.length);
+    reply.put(headerBytes);
+    reply.put(utf8Bytes);
+    reply.flip();
+    return reply;
+  }
+
+  private static byte[] getUtf8Bytes(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      // UTF-8 is always supported.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the length of the HTTP request at the start of the given buffer,
+   * including the blank line that ends it, or -1 if the whole request hasn't
+   * been read yet. Blank lines before the request are counted as part of it.
+   */
+  // VisibleForTesting
+  static int findEndOfRequest(ByteBuffer buffer) {
+    byte[] bytes = buffer.array();
+    int length = buffer.position();
+    int start = 0;
+    while (start < length && (bytes[start] == '\r' || bytes[start] == '\n')) {
+      start++;
+    }
+    if (start == length) {
+      // Nothing but blank lines.
+      return length;
+    }
+    for (int i = start; i < length; i++) {
+      if (bytes[i] == '\n') {
+        if (i + 1 < length && bytes[i + 1] == '\n') {
+          return i + 2;
+        }
+        if (i + 2 < length && bytes[i + 1] == '\r' && bytes[i + 2] == '\n') {
+          return i + 3;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parses the given HTTP request, which is everything up to the blank line
+   * that ends the headers.
+   */
+  // VisibleForTesting
+  static Request parseHttpRequest(String text) {
+    String[] lines = text.split("\r?\n");
+    // Find the first non-blank line.
+    int first = 0;
+    while (first < lines.length && lines[first].length() == 0) {
+      first++;
+    }
+    if (first == lines.length) {
+      throw new IllegalStateException("HTTP request is empty");
+    }
+    String line = lines[first];
+
+    // Get the protocol, URI and HTTP version.
     String[] parts = line.split(" +", 3);
     if (parts.length < 2) {
       throw new IllegalStateException("Cannot find protocol and URI in HTTP request " + line);
     }
     String protocol = parts[0];
     String uri = parts[1];
+    String version = (parts.length > 2) ? parts[2].trim() : "HTTP/1.0";
+
+    // HTTP/1.1 connections are kept alive unless the browser asks for them to be closed.
+    // Earlier versions are only kept alive if the browser asks for it.
+    String connectionHeader = null;
+    for (int i = first + 1; i < lines.length; i++) {
+      int colon = lines[i].indexOf(':');
+      if (colon != -1 && lines[i].substring(0, colon).trim().equalsIgnoreCase("Connection")) {
+        connectionHeader = lines[i].substring(colon + 1).trim();
+      }
+    }
+    boolean keepAlive = "HTTP/1.1".equals(version)
+        ? !"close".equalsIgnoreCase(connectionHeader)
+        : "keep-alive".equalsIgnoreCase(connectionHeader);
+
+    return new Request(protocol, uri, version, keepAlive);
+  }
 
-    return new Pair<String, String>(protocol, uri);
+  /**
+   * Returns the path of the given URI, without its query parameters.
+   */
+  private static String getPath(String uri) {
+    int questionMark = uri.indexOf('?');
+    return (questionMark != -1) ? uri.substring(0, questionMark) : uri;
   }
 
   /**
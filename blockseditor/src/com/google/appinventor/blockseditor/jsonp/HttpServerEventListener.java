@@ -5,6 +5,8 @@
 
 package com.google.appinventor.blockseditor.jsonp;
 
+import java.util.Map;
+
 /**
  * Listener interface for receiving events from {@link HttpServer}.
  *
@@ -16,6 +18,9 @@ package com.google.appinventor.blockseditor.jsonp;
  * <p>When the HttpServer selects HTTP the port, the listeners'
  * {@link #onPortSelected(HttpServer, int)} methods will be invoked.
  *
+ * <p>Every minute in which the HttpServer handled requests, the listeners'
+ * {@link #onRequestLatencies(HttpServer, Map)} methods will be invoked.
+ *
  * @author lizlooney@google.com (Liz Looney)
  */
 public interface HttpServerEventListener {
@@ -38,4 +43,14 @@ public interface HttpServerEventListener {
    *                otherwise.
    */
   void onConnectivityStatusChange(HttpServer server, boolean status);
+
+  /**
+   * Invoked periodically with the latencies of the requests that the
+   * {@link HttpServer} has handled since the last time it was invoked.
+   *
+   * @param server  the HttpServer
+   * @param latencies  the latencies, by request. Requests that have no
+   *                   handler are counted together.
+   */
+  void onRequestLatencies(HttpServer server, Map<String, LatencyHistogram> latencies);
 }
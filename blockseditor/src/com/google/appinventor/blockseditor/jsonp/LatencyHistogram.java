@@ -0,0 +1,102 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.blockseditor.jsonp;
+
+/**
+ * Counts of request latencies, in buckets of increasing size. An
+ * {@link HttpServer} keeps one histogram per request and reports them to its
+ * {@link HttpServerEventListener}s.
+ *
+ */
+public final class LatencyHistogram {
+  /**
+   * The upper bounds, in milliseconds, of all but the last bucket. The last
+   * bucket holds the latencies that are larger than all of these.
+   */
+  private static final long[] BUCKET_LIMITS_MILLIS = {
+    1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+  };
+
+  // The following are guarded by this.
+  private final long[] bucketCounts = new long[BUCKET_LIMITS_MILLIS.length + 1];
+  private long count;
+  private long totalMillis;
+  private long maxMillis;
+
+  LatencyHistogram() {
+  }
+
+  /**
+   * Adds a latency to the histogram.
+   *
+   * @param latencyNanos  the latency, in nanoseconds
+   */
+  synchronized void record(long latencyNanos) {
+    long millis = latencyNanos / 1000000;
+    int bucket = 0;
+    while (bucket < BUCKET_LIMITS_MILLIS.length && millis >= BUCKET_LIMITS_MILLIS[bucket]) {
+      bucket++;
+    }
+    bucketCounts[bucket]++;
+    count++;
+    totalMillis += millis;
+    maxMillis = Math.max(maxMillis, millis);
+  }
+
+  /**
+   * Returns the upper bounds, in milliseconds, of all but the last bucket.
+   */
+  public static long[] getBucketLimitsMillis() {
+    return BUCKET_LIMITS_MILLIS.clone();
+  }
+
+  /**
+   * Returns the number of latencies in each bucket.
+   */
+  public synchronized long[] getBucketCounts() {
+    return bucketCounts.clone();
+  }
+
+  /**
+   * Returns the number of latencies in the histogram.
+   */
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the average latency, in milliseconds.
+   */
+  public synchronized long getAverageMillis() {
+    return (count == 0) ? 0 : totalMillis / count;
+  }
+
+  /**
+   * Returns the largest latency, in milliseconds.
+   */
+  public synchronized long getMaxMillis() {
+    return maxMillis;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("count=").append(count).append(" avg=").append(getAverageMillis())
+        .append("ms max=").append(maxMillis).append("ms");
+    for (int i = 0; i < bucketCounts.length; i++) {
+      if (bucketCounts[i] != 0) {
+        sb.append(' ');
+        if (i < BUCKET_LIMITS_MILLIS.length) {
+          sb.append('<').append(BUCKET_LIMITS_MILLIS[i]);
+        } else {
+          sb.append(">=").append(BUCKET_LIMITS_MILLIS[i - 1]);
+        }
+        sb.append("ms:").append(bucketCounts[i]);
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,77 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.blockseditor.jsonp;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * An executor that runs tasks on another executor, but no more than a given
+ * number of them at a time. Tasks beyond the limit wait in a queue, without
+ * holding a thread of the other executor, and are run in the order they were
+ * given.
+ *
+ */
+final class LimitedExecutor implements Executor {
+  private final Executor executor;
+  private final int maxConcurrentTasks;
+
+  // The following are guarded by this.
+  private final Queue<Runnable> waitingTasks = new LinkedList<Runnable>();
+  private int runningTasks;
+
+  /**
+   * Creates a LimitedExecutor.
+   *
+   * @param executor  the executor that runs the tasks
+   * @param maxConcurrentTasks  the most tasks that may run at the same time
+   */
+  LimitedExecutor(Executor executor, int maxConcurrentTasks) {
+    if (maxConcurrentTasks < 1) {
+      throw new IllegalArgumentException("maxConcurrentTasks must be at least 1");
+    }
+    this.executor = executor;
+    this.maxConcurrentTasks = maxConcurrentTasks;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    synchronized (this) {
+      if (runningTasks >= maxConcurrentTasks) {
+        waitingTasks.add(task);
+        return;
+      }
+      runningTasks++;
+    }
+    start(task);
+  }
+
+  private void start(final Runnable task) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } finally {
+          taskFinished();
+        }
+      }
+    });
+  }
+
+  private void taskFinished() {
+    Runnable next;
+    synchronized (this) {
+      next = waitingTasks.poll();
+      if (next == null) {
+        runningTasks--;
+        return;
+      }
+    }
+    start(next);
+  }
+}
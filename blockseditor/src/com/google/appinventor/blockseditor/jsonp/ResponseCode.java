@@ -15,6 +15,7 @@ enum ResponseCode {
   BAD_REQUEST(400, "Bad Request"),
   UNAUTHORIZED(401, "Unauthorized"),
   NOT_FOUND(404, "Not Found"),
+  SERVER_ERROR(500, "Internal Server Error"),
   NOT_IMPL(501, "Not Implemented"),
   SERVICE_UNAV(503, "Service Unavailable");
 
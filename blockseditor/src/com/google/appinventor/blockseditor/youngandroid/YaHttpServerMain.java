@@ -8,6 +8,7 @@ package com.google.appinventor.blockseditor.youngandroid;
 import com.google.appinventor.blockseditor.jsonp.AsyncJsonpRequestHandler;
 import com.google.appinventor.blockseditor.jsonp.HttpServer;
 import com.google.appinventor.blockseditor.jsonp.HttpServerEventListener;
+import com.google.appinventor.blockseditor.jsonp.LatencyHistogram;
 import com.google.appinventor.blockseditor.jsonp.Util;
 import com.google.appinventor.common.youngandroid.YaHttpServerConstants;
 
@@ -116,6 +117,13 @@ public class YaHttpServerMain {
          * but for now we do nothing.
          */
       }
+      @Override
+      public void onRequestLatencies(HttpServer subject,
+          Map<String, LatencyHistogram> latencies) {
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+          subject.log("    " + entry.getKey() + ": " + entry.getValue() + "\n");
+        }
+      }
     });
 
     addHandlers();
@@ -168,8 +176,9 @@ public class YaHttpServerMain {
       }
     });
 
+    // Saves write the same file, so only one runs at a time.
     server.setHandler(YaHttpServerConstants.SAVE_CODEBLOCKS_SOURCE, new AsyncJsonpRequestHandler(
-        server) {
+        server, 1) {
       @Override
       public String getResponseValueAsync(Map<String, String> parameters) throws Throwable {
         return Boolean.toString(saveCodeblocksSource());
@@ -32,6 +32,13 @@ public class BlockLinkChecker {
     // TODO get a better value
     private static double MAX_LINK_DISTANCE = 20.0;
     
+    /**
+     * Returns the maximum distance, in pixels, between two connectors that can link.
+     */
+    public static double getMaxLinkDistance(){
+        return MAX_LINK_DISTANCE;
+    }
+    
     /**
      * Clears all the rules within this.
      */
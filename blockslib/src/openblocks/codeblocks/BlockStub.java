@@ -238,6 +238,7 @@ public class BlockStub extends Block {
   public static void reset() {
     parentNameToBlockStubs.clear();
     parentNameToParentBlocks.clear();
+    parentToPlugType.clear();
   }
 
   /**
@@ -13,6 +13,7 @@ import java.awt.Color;
 import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handles the recording and display of errors and warnings about code blocks.
@@ -38,6 +39,8 @@ public class ComplaintDepartment {
 
   private static final List<String> compileErrors = new ArrayList<String>();
   private static Rectangle complaintRect;
+  // The number of complaints made since the blocks editor started.
+  private static final AtomicInteger complaintCount = new AtomicInteger();
   private long blockID;
 
   public ComplaintDepartment(long bID) {
@@ -62,6 +65,7 @@ public class ComplaintDepartment {
    * @param severe true means fatal error
    */
    public void complain(String complaint, boolean severe)  {
+    complaintCount.incrementAndGet();
     if (severe) {
       compileErrors.add(complaint);
     }
@@ -83,6 +87,15 @@ public class ComplaintDepartment {
   }
 
 
+  /**
+   * Returns the number of complaints made since the blocks editor started.
+   * Comparing the counts before and after generating code tells whether
+   * generating it caused any complaints.
+   */
+  public static int getComplaintCount() {
+    return complaintCount.get();
+  }
+
   /* Called from yacodeblocks.WorkSpaceController at the end of compilation.
    *
    * @return number of errors
@@ -49,6 +49,7 @@ public class PhoneCommIndicator extends JLabel {
   }
 
   private IndicatorState state;  // the current state of the phone icon
+  private String statistics;  // statistics about the communication, or null
 
   // map from the current state to the info describing the state
   final private HashMap<IndicatorState, ImageInfo> stateMap =
@@ -84,11 +85,34 @@ public class PhoneCommIndicator extends JLabel {
         this.state = state;
         ImageInfo imageInfo = stateMap.get(state);
         setIcon(imageInfo.icon);
+        updateToolTip();
       }
       return oldState;
     }
   }
 
+  /**
+   * Sets the statistics about the communication with the phone that are
+   * shown in the tooltip, below a description of the state.
+   *
+   * @param statistics  a description of the statistics, or null for none
+   */
+  public void setStatistics(String statistics) {
+    synchronized(this) {
+      this.statistics = statistics;
+      updateToolTip();
+    }
+  }
+
+  private void updateToolTip() {
+    String descriptor = stateMap.get(state).descriptor;
+    if (statistics == null) {
+      setToolTipText(descriptor);
+    } else {
+      setToolTipText("<html>" + descriptor + "<br>" + statistics + "</html>");
+    }
+  }
+
   /**
    * Returns the current state of the indicator.
    *
@@ -26,6 +26,7 @@ import openblocks.workspace.FactoryCanvas;
 import openblocks.workspace.FactoryManager;
 import openblocks.workspace.ISupportMemento;
 import openblocks.workspace.MiniMap;
+import openblocks.workspace.Page;
 import openblocks.workspace.RBParent;
 import openblocks.workspace.SearchableElement;
 import openblocks.workspace.TrashCan;
@@ -451,6 +452,19 @@ public class RenderableBlock extends JComponent implements SearchableElement,
   }
 
 
+  /**
+   * Overriding Component.setBounds() so that the page containing this keeps
+   * its index of block positions up to date.  setLocation() and setSize()
+   * both end up here.
+   */
+  @Override
+  public void setBounds(int x, int y, int width, int height) {
+    super.setBounds(x, y, width, height);
+    if (parent instanceof Page) {
+      ((Page) parent).blockBoundsChanged(this);
+    }
+  }
+
   /**
    * Moves this component to a new location. The top-left corner of
    * the new location is specified by point <code>p</code>. Point
@@ -871,7 +885,17 @@ public class RenderableBlock extends JComponent implements SearchableElement,
    * If block is collapsed it will return null.
    */
   public BlockLink getNearbyLink(){
-    return BlockLinkChecker.getLink(this, Workspace.getInstance().getBlockCanvas().getBlocks());
+    Page page = Workspace.getInstance().getBlockCanvas().getTheOnlyPage();
+    if (page == null || getParent() == null) {
+      return BlockLinkChecker.getLink(this, Workspace.getInstance().getBlockCanvas().getBlocks());
+    }
+    // Only blocks near this one can have a connector within linking distance
+    // of one of its connectors. Connectors may stick out of a block's bounds
+    // a little, so search a margin of twice the linking distance.
+    int margin = 2 * (int) Math.ceil(BlockLinkChecker.getMaxLinkDistance());
+    Rectangle area = SwingUtilities.convertRectangle(getParent(), getBounds(), page.getJComponent());
+    area.grow(margin, margin);
+    return BlockLinkChecker.getLink(this, page.getBlocksIn(area));
   }
 
   ///////////////////////
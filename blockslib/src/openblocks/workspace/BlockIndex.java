@@ -0,0 +1,137 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+package openblocks.workspace;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A uniform grid over a Page that indexes its blocks by their bounds, so that
+ * the blocks near a point can be found without looking at every block on the
+ * page.  A block is listed in every cell its bounds touch.  Its connectors
+ * lie within (or just outside) its bounds, so the blocks that may have a
+ * connector near a given area are the ones listed in the cells around it.
+ *
+ * Blocks are updated incrementally as they move; a block that moves within
+ * the cells it already occupies costs only the computation of its cells.
+ *
+ * @param <T> the type of the indexed blocks, normally RenderableBlock
+ */
+class BlockIndex<T> {
+
+  // The width and height of a cell, in pixels.  About the size of a
+  // typical block, so that each block is in only a few cells.
+  private static final int CELL_SIZE = 128;
+
+  // The blocks in each non-empty cell, keyed by cellKey().
+  private final Map<Long, List<T>> cells = new HashMap<Long, List<T>>();
+
+  // The cells occupied by each block, as {left, top, right, bottom}
+  // column and row indices, all inclusive.
+  private final Map<T, int[]> ranges = new HashMap<T, int[]>();
+
+  /**
+   * Adds a block to the index or, if it is already there, moves it.
+   * @param block the block
+   * @param bounds the block's bounds, in page coordinates
+   */
+  void update(T block, Rectangle bounds) {
+    int[] newRange = cellRange(bounds);
+    int[] oldRange = ranges.get(block);
+    if (oldRange != null) {
+      if (oldRange[0] == newRange[0] && oldRange[1] == newRange[1] &&
+          oldRange[2] == newRange[2] && oldRange[3] == newRange[3]) {
+        return;
+      }
+      removeFromCells(block, oldRange);
+    }
+    ranges.put(block, newRange);
+    for (int col = newRange[0]; col <= newRange[2]; col++) {
+      for (int row = newRange[1]; row <= newRange[3]; row++) {
+        Long key = cellKey(col, row);
+        List<T> blocks = cells.get(key);
+        if (blocks == null) {
+          blocks = new ArrayList<T>(4);
+          cells.put(key, blocks);
+        }
+        blocks.add(block);
+      }
+    }
+  }
+
+  /**
+   * Removes a block from the index.  Does nothing if it isn't there.
+   */
+  void remove(T block) {
+    int[] range = ranges.remove(block);
+    if (range != null) {
+      removeFromCells(block, range);
+    }
+  }
+
+  /**
+   * Removes all blocks from the index.
+   */
+  void clear() {
+    cells.clear();
+    ranges.clear();
+  }
+
+  /**
+   * @param area an area of the page, in page coordinates
+   * @return the blocks whose bounds may intersect the area, each once
+   */
+  Collection<T> getBlocksIn(Rectangle area) {
+    Set<T> result = new LinkedHashSet<T>();
+    int[] range = cellRange(area);
+    for (int col = range[0]; col <= range[2]; col++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        List<T> blocks = cells.get(cellKey(col, row));
+        if (blocks != null) {
+          result.addAll(blocks);
+        }
+      }
+    }
+    return result;
+  }
+
+  private void removeFromCells(T block, int[] range) {
+    for (int col = range[0]; col <= range[2]; col++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        Long key = cellKey(col, row);
+        List<T> blocks = cells.get(key);
+        if (blocks != null) {
+          blocks.remove(block);
+          if (blocks.isEmpty()) {
+            cells.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  private static int[] cellRange(Rectangle bounds) {
+    // A block with no size still occupies the cell at its location.
+    return new int[] {
+      cellIndex(bounds.x), cellIndex(bounds.y),
+      cellIndex(bounds.x + Math.max(bounds.width - 1, 0)),
+      cellIndex(bounds.y + Math.max(bounds.height - 1, 0))
+    };
+  }
+
+  private static int cellIndex(int coordinate) {
+    return (int) Math.floor((double) coordinate / CELL_SIZE);
+  }
+
+  private static Long cellKey(int col, int row) {
+    return ((long) col << 32) | (row & 0xffffffffL);
+  }
+}
@@ -0,0 +1,163 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+package openblocks.workspace;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro-benchmark of the link search that runs on every mouse drag event,
+ * replaying a drag across a large synthetic workspace.  The workspace is
+ * made of stacks of blocks, each with a plug on its top edge and a socket
+ * on its bottom edge.  At every step of the drag, the closest plug/socket
+ * pair within linking distance is searched for among all blocks, as
+ * RenderableBlock.getNearbyLink did before pages had a BlockIndex, and
+ * among the blocks the index returns, as it does now.  The link rules
+ * depend on the language definition and are the same in both cases, so
+ * they are left out; the real saving is larger, since they run for every
+ * block searched.
+ *
+ * Usage: java -cp OpenBlocks.jar openblocks.workspace.BlockIndexBenchmark
+ * [block counts...]
+ */
+public final class BlockIndexBenchmark {
+
+  private static final int BLOCKS_PER_STACK = 10;
+  private static final int DRAG_STEP = 4;
+  // BlockLinkChecker.getMaxLinkDistance(), which can't be used here without
+  // loading the rest of the editor.
+  private static final double MAX_LINK_DISTANCE = 20.0;
+
+  // A block's bounds, and its connectors relative to its location.
+  private static class SyntheticBlock {
+    final int id;
+    final Rectangle bounds;
+
+    SyntheticBlock(int id, int x, int y, int width, int height) {
+      this.id = id;
+      bounds = new Rectangle(x, y, width, height);
+    }
+
+    Point plug() {
+      return new Point(bounds.x + 12, bounds.y);
+    }
+
+    Point socket() {
+      return new Point(bounds.x + 12, bounds.y + bounds.height);
+    }
+  }
+
+  private BlockIndexBenchmark() {
+  }
+
+  public static void main(String[] args) {
+    int[] blockCounts = {500, 2000, 8000};
+    if (args.length > 0) {
+      blockCounts = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        blockCounts[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    // Warm up, so that the JIT has compiled both searches before timing.
+    replayDrag(2000, false);
+    replayDrag(2000, true);
+
+    System.out.println("blocks\tdrag steps\tscan ms/step\tindex ms/step\tsteps with a link");
+    for (int blockCount : blockCounts) {
+      long start = System.nanoTime();
+      int[] scan = replayDrag(blockCount, false);
+      long scanNanos = System.nanoTime() - start;
+      start = System.nanoTime();
+      int[] indexed = replayDrag(blockCount, true);
+      long indexNanos = System.nanoTime() - start;
+      if (scan[1] != indexed[1] || scan[2] != indexed[2]) {
+        throw new AssertionError("The index and the scan found different links");
+      }
+      System.out.println(blockCount + "\t" + scan[0] + "\t" +
+          millisPerStep(scanNanos, scan[0]) + "\t" + millisPerStep(indexNanos, indexed[0]) +
+          "\t" + indexed[1]);
+    }
+  }
+
+  /*
+   * Builds a workspace of blockCount blocks and drags a block diagonally
+   * across it, then drops it.  Returns the number of drag steps, the number
+   * of steps at which a link was found, and a checksum of the blocks linked
+   * to at each step.
+   */
+  private static int[] replayDrag(int blockCount, boolean useIndex) {
+    Random random = new Random(blockCount);
+    int stackCount = (blockCount + BLOCKS_PER_STACK - 1) / BLOCKS_PER_STACK;
+    int columns = (int) Math.ceil(Math.sqrt(stackCount));
+    List<SyntheticBlock> blocks = new ArrayList<SyntheticBlock>(blockCount);
+    BlockIndex<SyntheticBlock> index = new BlockIndex<SyntheticBlock>();
+    for (int stack = 0; stack < stackCount; stack++) {
+      int x = (stack % columns) * 400 + random.nextInt(100);
+      int y = (stack / columns) * 500 + random.nextInt(100);
+      for (int i = 0; i < BLOCKS_PER_STACK && blocks.size() < blockCount; i++) {
+        SyntheticBlock block = new SyntheticBlock(blocks.size(), x, y,
+            100 + random.nextInt(150), 20 + random.nextInt(20));
+        blocks.add(block);
+        index.update(block, block.bounds);
+        y += block.bounds.height;
+      }
+    }
+
+    // The dragged block isn't on the page, so it isn't in the index until
+    // it is dropped.
+    SyntheticBlock dragged = new SyntheticBlock(blockCount, 0, 0, 150, 30);
+    int margin = 2 * (int) Math.ceil(MAX_LINK_DISTANCE);
+    int end = columns * 450;
+    int steps = 0;
+    int stepsWithLink = 0;
+    int linkChecksum = 0;
+    for (int position = 0; position < end; position += DRAG_STEP) {
+      dragged.bounds.setLocation(position, position * 500 / 400);
+      Iterable<SyntheticBlock> candidates;
+      if (useIndex) {
+        Rectangle area = new Rectangle(dragged.bounds);
+        area.grow(margin, margin);
+        candidates = index.getBlocksIn(area);
+      } else {
+        candidates = blocks;
+      }
+      SyntheticBlock link = findLink(dragged, candidates);
+      if (link != null) {
+        stepsWithLink++;
+        linkChecksum = 31 * linkChecksum + link.id;
+      }
+      steps++;
+    }
+    blocks.add(dragged);
+    index.update(dragged, dragged.bounds);
+    return new int[] {steps, stepsWithLink, linkChecksum};
+  }
+
+  /*
+   * Returns the block with the closest connector that can link with one of
+   * the dragged block's, or null if none is within linking distance.
+   */
+  private static SyntheticBlock findLink(SyntheticBlock dragged,
+      Iterable<SyntheticBlock> candidates) {
+    SyntheticBlock closest = null;
+    double closestDistance = MAX_LINK_DISTANCE;
+    for (SyntheticBlock block : candidates) {
+      double distance = Math.min(dragged.plug().distance(block.socket()),
+          block.plug().distance(dragged.socket()));
+      if (distance < closestDistance) {
+        closest = block;
+        closestDistance = distance;
+      }
+    }
+    return closest;
+  }
+
+  private static String millisPerStep(long nanos, int steps) {
+    return String.format("%.4f", nanos / 1e6 / steps);
+  }
+}
@@ -14,6 +14,8 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.event.ContainerEvent;
+import java.awt.event.ContainerListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.ArrayList;
@@ -127,6 +129,9 @@ public class Page  implements WorkspaceWidget, SearchableContainer, ISupportMeme
   private int minimumPixelHeight = 0;
   /** The user-time unique id of this page. Once set, cannot be changed. */
   private String pageId = null;
+  /** Index of the blocks on this page by position, for finding nearby blocks */
+  private final BlockIndex<RenderableBlock> blockIndex =
+      new BlockIndex<RenderableBlock>();
   //////////////////////////////
   //Constructor/ Destructor     //
   //////////////////////////////
@@ -169,6 +174,18 @@ public class Page  implements WorkspaceWidget, SearchableContainer, ISupportMeme
       this.pageDrawer = name;
     }
     this.pageJComponent.setOpaque(true);
+    this.pageJComponent.addContainerListener(new ContainerListener() {
+      public void componentAdded(ContainerEvent e) {
+        if (e.getChild() instanceof RenderableBlock) {
+          blockIndex.update((RenderableBlock) e.getChild(), e.getChild().getBounds());
+        }
+      }
+      public void componentRemoved(ContainerEvent e) {
+        if (e.getChild() instanceof RenderableBlock) {
+          blockIndex.remove((RenderableBlock) e.getChild());
+        }
+      }
+    });
   }
 
   /**
@@ -215,6 +232,7 @@ public class Page  implements WorkspaceWidget, SearchableContainer, ISupportMeme
    */
   public void reset(){
     this.pageJComponent.removeAll();
+    this.blockIndex.clear();
     Page.zoom = 1.0;
   }
 
@@ -256,6 +274,27 @@ public class Page  implements WorkspaceWidget, SearchableContainer, ISupportMeme
     return blocks;
   }
 
+  /**
+   * @param area an area in the coordinate space of this page's JComponent
+   * @return the RenderableBlocks within this page whose bounds may intersect
+   *                    area.  Found with an index, without looking at every block.
+   */
+  public Collection<RenderableBlock> getBlocksIn(Rectangle area){
+    return blockIndex.getBlocksIn(area);
+  }
+
+  /**
+   * Updates the index used by getBlocksIn() after a block has moved or
+   * changed size.  Does nothing if the block is not within this page, for
+   * example while it is being dragged.
+   * @param block the block whose bounds have changed
+   */
+  public void blockBoundsChanged(RenderableBlock block){
+    if(block.getParent() == this.pageJComponent){
+      blockIndex.update(block, block.getBounds());
+    }
+  }
+
   /**
    * @return a collection of top level blocks within this page (blocks with no
    *                    parents that and are the first block of each stack) or an empty
@@ -10,7 +10,6 @@ import openblocks.workspace.WorkspaceEvent;
 import openblocks.workspace.WorkspaceListener;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -40,14 +39,17 @@ import javax.swing.SwingUtilities;
  *           currentState in the history, move the currentState pointer forward
  *           and restores the workspace to that state.
  *
- * TODO(sharon): consider compressing the saved history strings to avoid
- * consuming too much memory (and possibly allowing a larger number
- * of saved states).
+ * The history is kept in an {@link UndoHistory}, which stores the states
+ * compressed, mostly as changes from the state before, and drops the oldest
+ * states when they use more than MAX_HISTORY_KB of memory. The budget can be
+ * set with the undo.history.max.kb system property.
  * @author sharon@google.com (Sharon Perl) - undo/redo
  */
 public class AutoSaver implements WorkspaceListener {
   private static final boolean DEBUG = false;
-  private static final int MAX_HISTORY_SIZE = 20; // max depth of undo stack
+  private static final int MAX_HISTORY_SIZE = 100; // max depth of undo stack
+  // max memory used by the compressed undo stack
+  private static final int MAX_HISTORY_KB = Integer.getInteger("undo.history.max.kb", 16 * 1024);
 
   // Set testingMode to true to prevent the AutoSaver from really trying
   // to save files
@@ -66,7 +68,7 @@ public class AutoSaver implements WorkspaceListener {
   private volatile boolean listening = false;
   // alreadySaving prevents auto-save if explicit save is already in progress
   private volatile boolean alreadySaving = false;
-  private volatile ArrayList<String> history;
+  private volatile UndoHistory history;
   // if non-null, lastFormProperties should be the form properties string
   // that goes with the blocks state in history
   private volatile String lastFormProperties;
@@ -399,36 +401,17 @@ public class AutoSaver implements WorkspaceListener {
       }
       return;
     }
-    if (currentState == history.size() - 1) {
-      // common case unless we've been undo'ing
-      if (history.size() >= MAX_HISTORY_SIZE) {
-        System.out.println("Truncating undo history.");
-        history.remove(0);
-        currentState -= 1; // adjust for shift in history items
-      }
-      currentState += 1;
-      history.add(stateString);
-      fixButtons();
-    } else {
-      // the new state goes into the history just after the current state
-      currentState += 1;
-      try {
-        history.set(currentState, stateString);
-        // clear out the history beyond index currentState. Do it from high
-        // to low indexes to avoid having to shift elements.
-        for (int i = history.size() - 1; i > currentState; --i) {
-          history.remove(i);
-        }
-      } catch (IndexOutOfBoundsException e) {
-        e.printStackTrace();
-        if (DEBUG) {
-          System.out.println("Unexpected bounds exception on history. " +
-              "size = " + history.size() + ", index = " + currentState);
-        }
-      } finally {
-        fixButtons();
-      }
+    // the new state goes into the history just after the current state, wiping out any
+    // following states. The history may drop its oldest states to make room, so the new state
+    // is found at the end of the history rather than at currentState + 1.
+    int droppedStates = history.getDroppedStates();
+    history.truncate(currentState + 1);
+    history.add(stateString);
+    currentState = history.size() - 1;
+    if (history.getDroppedStates() != droppedStates) {
+      System.out.println("Truncating undo history: " + history.getStats());
     }
+    fixButtons();
     if (DEBUG) {
       System.out.println("--addTohistory: currentState = " + currentState + ", history.size() = "
           + history.size());
@@ -525,13 +508,22 @@ public class AutoSaver implements WorkspaceListener {
     workspaceChangedBySystem = true;
   }
 
+  /**
+   * Returns a description of the size of the undo/redo history.
+   */
+  public String getHistoryStats() {
+    synchronized (saverLock) {
+      return history.getStats();
+    }
+  }
+
   /**
    * Clear the undo/redo history and disable the buttons
    * Must not hold saverLock on call
    */
   public void clearHistory() {
     synchronized (saverLock) {
-      history = new ArrayList<String>();
+      history = new UndoHistory(MAX_HISTORY_SIZE, MAX_HISTORY_KB * 1024L);
       currentState = -1;
       fixButtons();
     }
@@ -10,14 +10,13 @@ import openblocks.codeblocks.BlockConnector;
 import openblocks.codeblocks.BlockStub;
 import openblocks.codeblocks.ComplaintDepartment;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -72,45 +71,263 @@ public class BlockParser {
 
   // A large number of strings of YAIL fragments are declared at the end
 
-  // Mapping of Block ya-kind (see lang_def) to function name
-  private static final HashMap<String, String> blockKindToMethodMap = new HashMap<String, String>();
+  /*
+   * The code generator for each kind of block. Blocks are dispatched through
+   * these rather than by looking up and invoking a generator method
+   * reflectively for every block.
+   */
+  private enum Generator {
+    ARGUMENT {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeArgumentBlock(block);
+      }
+    },
+    USER_PROCEDURE_CALL {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeUserProcedureCallBlock(block);
+      }
+    },
+    IF_ELSE {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeIfElseBlock(block);
+      }
+    },
+    COLOR {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeColorBlock(block);
+      }
+    },
+    COMPONENT {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeComponentBlock(block);
+      }
+    },
+    COMPONENT_EVENT {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeComponentEventBlock(block);
+      }
+    },
+    COMPONENT_GETTER {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeCompVarGetBlock(block);
+      }
+    },
+    COMPONENT_METHOD_CALL {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeComponentMethodCallBlock(block);
+      }
+    },
+    COMPONENT_SETTER {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeCompVarSetBlock(block);
+      }
+    },
+    COMPONENT_TYPE_METHOD_CALL {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeComponentTypeMethodCallBlock(block);
+      }
+    },
+    DEFINE_VAR {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeDefineVarBlock(block);
+      }
+    },
+    DEFINE_PROC {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeDefineProcBlock(block);
+      }
+    },
+    FALSE {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeFalseBlock(block);
+      }
+    },
+    FOR_EACH {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeForEachBlock(block);
+      }
+    },
+    FOR_RANGE {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeForRangeBlock(block);
+      }
+    },
+    GETTER {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeGetterBlock(block);
+      }
+    },
+    GLUE {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeGlueBlock(block);
+      }
+    },
+    AND {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeAndBlock(block);
+      }
+    },
+    OR {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeOrBlock(block);
+      }
+    },
+    IF {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeIfBlock(block);
+      }
+    },
+    ADD_TO_LIST {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeAddToListBlock(block);
+      }
+    },
+    NULL {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeNullBlock(block);
+      }
+    },
+    NUMBER {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeNumberBlock(block);
+      }
+    },
+    YAIL_PRIMITIVE_CALL {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeYailPrimitiveCallBlock(block);
+      }
+    },
+    VAR_SET {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeVarSetBlock(block);
+      }
+    },
+    STRING {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeStringBlock(block);
+      }
+    },
+    TRUE {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeTrueBlock(block);
+      }
+    },
+    WHILE {
+      @Override
+      StringBuilder generate(BlockParser parser, Block block)
+          throws EmptySocketException, BadBlockException, YailGenerationSystemException {
+        return parser.makeWhileBlock(block);
+      }
+    };
+
+    abstract StringBuilder generate(BlockParser parser, Block block)
+        throws EmptySocketException, BadBlockException, YailGenerationSystemException;
+  }
+
+  // Mapping of Block ya-kind (see lang_def) to its generator
+  private static final HashMap<String, Generator> blockKindToGenerator =
+      new HashMap<String, Generator>();
   static {
-    blockKindToMethodMap.put("argument", "makeArgumentBlock");
-    blockKindToMethodMap.put("call", "makeUserProcedureCallBlock");
-    blockKindToMethodMap.put("choose", "makeIfElseBlock");
-    blockKindToMethodMap.put("color", "makeColorBlock");
-    blockKindToMethodMap.put("component", "makeComponentBlock");
-    blockKindToMethodMap.put("componentEvent", "makeComponentEventBlock");
-    blockKindToMethodMap.put("componentGetter", "makeCompVarGetBlock");
-    blockKindToMethodMap.put("componentMethod", "makeComponentMethodCallBlock");
-    blockKindToMethodMap.put("componentSetter", "makeCompVarSetBlock");
-    blockKindToMethodMap.put("componentTypeMethod", "makeComponentTypeMethodCallBlock");
-    blockKindToMethodMap.put("def", "makeDefineVarBlock");
-    blockKindToMethodMap.put("define", "makeDefineProcBlock");
-    blockKindToMethodMap.put("false", "makeFalseBlock");
-    blockKindToMethodMap.put("foreach", "makeForEachBlock");
-    blockKindToMethodMap.put("forrange", "makeForRangeBlock");
-    blockKindToMethodMap.put("getter", "makeGetterBlock");
-    blockKindToMethodMap.put("glue", "makeGlueBlock");
-    blockKindToMethodMap.put("and", "makeAndBlock");
-    blockKindToMethodMap.put("or", "makeOrBlock");
-    blockKindToMethodMap.put("if", "makeIfBlock");
-    blockKindToMethodMap.put("ifelse", "makeIfElseBlock");
-    blockKindToMethodMap.put("makeList", "makeListBlock");
-    blockKindToMethodMap.put("addToList", "makeAddToListBlock");
-    blockKindToMethodMap.put("null", "makeNullBlock");
-    blockKindToMethodMap.put("number", "makeNumberBlock");
-    blockKindToMethodMap.put("primitive", "makeYailPrimitiveCallBlock");
-    blockKindToMethodMap.put("setter", "makeVarSetBlock");
-    blockKindToMethodMap.put("text", "makeStringBlock");
-    blockKindToMethodMap.put("true", "makeTrueBlock");
-    blockKindToMethodMap.put("while", "makeWhileBlock");
+    blockKindToGenerator.put("argument", Generator.ARGUMENT);
+    blockKindToGenerator.put("call", Generator.USER_PROCEDURE_CALL);
+    blockKindToGenerator.put("choose", Generator.IF_ELSE);
+    blockKindToGenerator.put("color", Generator.COLOR);
+    blockKindToGenerator.put("component", Generator.COMPONENT);
+    blockKindToGenerator.put("componentEvent", Generator.COMPONENT_EVENT);
+    blockKindToGenerator.put("componentGetter", Generator.COMPONENT_GETTER);
+    blockKindToGenerator.put("componentMethod", Generator.COMPONENT_METHOD_CALL);
+    blockKindToGenerator.put("componentSetter", Generator.COMPONENT_SETTER);
+    blockKindToGenerator.put("componentTypeMethod", Generator.COMPONENT_TYPE_METHOD_CALL);
+    blockKindToGenerator.put("def", Generator.DEFINE_VAR);
+    blockKindToGenerator.put("define", Generator.DEFINE_PROC);
+    blockKindToGenerator.put("false", Generator.FALSE);
+    blockKindToGenerator.put("foreach", Generator.FOR_EACH);
+    blockKindToGenerator.put("forrange", Generator.FOR_RANGE);
+    blockKindToGenerator.put("getter", Generator.GETTER);
+    blockKindToGenerator.put("glue", Generator.GLUE);
+    blockKindToGenerator.put("and", Generator.AND);
+    blockKindToGenerator.put("or", Generator.OR);
+    blockKindToGenerator.put("if", Generator.IF);
+    blockKindToGenerator.put("ifelse", Generator.IF_ELSE);
+    blockKindToGenerator.put("addToList", Generator.ADD_TO_LIST);
+    blockKindToGenerator.put("null", Generator.NULL);
+    blockKindToGenerator.put("number", Generator.NUMBER);
+    blockKindToGenerator.put("primitive", Generator.YAIL_PRIMITIVE_CALL);
+    blockKindToGenerator.put("setter", Generator.VAR_SET);
+    blockKindToGenerator.put("text", Generator.STRING);
+    blockKindToGenerator.put("true", Generator.TRUE);
+    blockKindToGenerator.put("while", Generator.WHILE);
   }
 
   private static StringBuilder emptyStringBuilder = new StringBuilder("");
 
   private final boolean forRepl;  // We're more permissive if it's true.
 
+  // If true, the code of each declaration is kept until the declaration
+  // changes, so that the code of unchanged declarations isn't generated again.
+  private final boolean memoize;
+  // The code of each declaration that generated without complaints, by block
+  // ID. Guarded by itself.
+  private final Map<Long, String> declarationCode = new HashMap<Long, String>();
+  // The number of times declarationCode has been invalidated, so that code
+  // generated while the blocks were changing isn't kept. Guarded by
+  // declarationCode.
+  private long invalidations;
+
   private List<String> formalParameters = new LinkedList<String>();
   // Invariant: formalParameters contains all the names that are lexically
   // defined at the moment. Care must be taken to add and remove them as
@@ -123,7 +340,51 @@ public class BlockParser {
    */
 
   public BlockParser(boolean forRepl) {
+    this(forRepl, false);
+  }
+
+  /**
+   * Constructor
+   * @param forRepl simply save which purpose the Yailification is for to
+   *        control permissiveness.
+   * @param memoize if true, keep the code of each declaration until
+   *        {@link #invalidate} or {@link #invalidateAll} is called for it.
+   *        The owner of the parser must call these whenever blocks change.
+   */
+  public BlockParser(boolean forRepl, boolean memoize) {
     this.forRepl = forRepl;
+    this.memoize = memoize;
+  }
+
+  /**
+   * Returns true if the code is for the Repl.
+   */
+  public boolean isForRepl() {
+    return forRepl;
+  }
+
+  /**
+   * Forgets the code of the given declaration, so that it is generated again.
+   *
+   * @param blockID the ID of a top level block
+   */
+  public void invalidate(long blockID) {
+    synchronized (declarationCode) {
+      invalidations++;
+      declarationCode.remove(blockID);
+    }
+  }
+
+  /**
+   * Forgets the code of all declarations. Used when a change may affect the
+   * code of blocks other than the one that changed, for example when a
+   * procedure or variable is renamed.
+   */
+  public void invalidateAll() {
+    synchronized (declarationCode) {
+      invalidations++;
+      declarationCode.clear();
+    }
   }
 
   /**
@@ -139,6 +400,20 @@ public class BlockParser {
    * @return Yail code
    */
   public String genYail(Block block) {
+    // Only declarations are kept. They are always top level blocks, and their
+    // code doesn't depend on any enclosing block.
+    boolean memoizable = memoize && block.isDeclaration();
+    long invalidationsBefore = 0;
+    if (memoizable) {
+      synchronized (declarationCode) {
+        String code = declarationCode.get(block.getBlockID());
+        if (code != null) {
+          return code;
+        }
+        invalidationsBefore = invalidations;
+      }
+    }
+    int complaintsBefore = ComplaintDepartment.getComplaintCount();
     StringBuilder codeStringBuilder = new StringBuilder();
     try {
       genCodeForSingleBlock(block, codeStringBuilder);
@@ -149,7 +424,17 @@ public class BlockParser {
       block.postWarning(BAD_BLOCK + " " + e.getMessage());
       return "";
     }
-    return codeStringBuilder.toString();
+    String code = codeStringBuilder.toString();
+    // Code that caused complaints isn't kept, because the complaints must be
+    // posted again each time the code is generated.
+    if (memoizable && ComplaintDepartment.getComplaintCount() == complaintsBefore) {
+      synchronized (declarationCode) {
+        if (invalidations == invalidationsBefore) {
+          declarationCode.put(block.getBlockID(), code);
+        }
+      }
+    }
+    return code;
   }
 
   /**
@@ -267,44 +552,22 @@ public class BlockParser {
   private StringBuilder invokeBlocksGenerator(Block block)
       throws EmptySocketException, BadBlockException {
     String kind = block.getProperty("ya-kind");
-    String methodName = getMethodFor(kind);
-    if (methodName == null) {
+    Generator generator = blockKindToGenerator.get(kind);
+    if (generator == null) {
       FeedbackReporter.showSystemErrorMessage("Invalid block kind: " + kind);
       return emptyStringBuilder;
     }
-    Method method;
-    try {
-      method = getClass().getDeclaredMethod(methodName, Block.class);
-    } catch (SecurityException e) {
-      FeedbackReporter.showSystemErrorMessage("Security exception " + e.getMessage());
-      return emptyStringBuilder;
-    } catch (NoSuchMethodException e) {
-      FeedbackReporter.showSystemErrorMessage("No such method. " + e.getMessage());
-      return emptyStringBuilder;
-    }
     try {
-      return (StringBuilder) method.invoke(this, block);
-    } catch (IllegalArgumentException e) {
-      FeedbackReporter.showSystemErrorMessage("Illegal argument " + e.getMessage());
+      return generator.generate(this, block);
+    } catch (YailGenerationSystemException e) {
       e.printStackTrace();
+      FeedbackReporter.showSystemErrorMessage("Generator for " + kind + " failed: " +
+          e.getMessage());
       return emptyStringBuilder;
-    } catch (IllegalAccessException e) {
-      FeedbackReporter.showSystemErrorMessage("Illegal access " + e.getMessage());
+    } catch (RuntimeException e) {
       e.printStackTrace();
-      return emptyStringBuilder;
-    } catch (InvocationTargetException e) {
-      Throwable cause = e.getCause();
-      while (cause instanceof InvocationTargetException) {
-        cause = cause.getCause();
-      }
-      if (cause instanceof EmptySocketException) {
-        throw (EmptySocketException) cause;
-      } else if (cause instanceof BadBlockException) {
-        throw (BadBlockException) cause;
-      }
-      cause.printStackTrace();
-      FeedbackReporter.showSystemErrorMessage("Invocation target exception for method " + method +
-          " " + cause.getMessage());
+      FeedbackReporter.showSystemErrorMessage("Generator for " + kind + " failed: " +
+          e.getMessage());
       return emptyStringBuilder;
     }
   }
@@ -315,16 +578,7 @@ public class BlockParser {
    * @return If this class can handle the type
    */
   private boolean defined(String kind) {
-    return blockKindToMethodMap.containsKey(kind) || "primitive".equals(kind);
-  }
-
-  /**
-   * Return the method call for a given type
-   *
-   * @return The method call
-   */
-  private String getMethodFor(String type) {
-    return blockKindToMethodMap.get(type);
+    return blockKindToGenerator.containsKey(kind);
   }
 
   // Many of the makeXXX routines that follow are written in a style that suggests
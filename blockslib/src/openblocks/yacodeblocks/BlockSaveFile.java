@@ -620,6 +620,13 @@ public class BlockSaveFile {
       // No blocks need to be modified to upgrade to version 5.
       blkCompVersion = 5;
     }
+    if (blkCompVersion < 6) {
+      // The BluetoothClient.BytesReceived and BluetoothClient.DelimiterReceived events were added.
+      // The BluetoothClient.ReceiveAvailableText, BluetoothClient.ReceiveAvailableSignedBytes, and
+      // BluetoothClient.ReceiveAvailableUnsignedBytes methods were added.
+      // No blocks need to be modified to upgrade to version 6.
+      blkCompVersion = 6;
+    }
     return blkCompVersion;
   }
 
@@ -650,6 +657,13 @@ public class BlockSaveFile {
       // No blocks need to be modified to upgrade to version 5.
       blkCompVersion = 5;
     }
+    if (blkCompVersion < 6) {
+      // The BluetoothServer.BytesReceived and BluetoothServer.DelimiterReceived events were added.
+      // The BluetoothServer.ReceiveAvailableText, BluetoothServer.ReceiveAvailableSignedBytes, and
+      // BluetoothServer.ReceiveAvailableUnsignedBytes methods were added.
+      // No blocks need to be modified to upgrade to version 6.
+      blkCompVersion = 6;
+    }
     return blkCompVersion;
   }
 
@@ -53,6 +53,12 @@ public interface IWorkspaceController {
    */
   void componentRemoved(String name);
 
+  /**
+   * Notification from ProcedureBlockManager that a procedure has been renamed
+   * to make its name unique.
+   */
+  void procedureRenamed(String oldName, String newName);
+
   /*
    * Notification from BlockCanvas.
    *
@@ -10,10 +10,19 @@ import openblocks.codeblockutil.PhoneCommIndicator;
 import openblocks.renderable.RenderableBlock;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -129,6 +138,24 @@ public class PhoneCommManager {
   private volatile boolean waitingForProjectLoad = false;
   private volatile boolean connectedToPhone = false; // true iff repl running on phone
 
+  // A hash of the code last sent to the phone for each declaration block, so that a declaration
+  // that hasn't changed isn't sent again. It is cleared whenever the REPL is reset or the whole
+  // project is sent, because then the phone has either none or all of the current definitions.
+  private final ConcurrentMap<Long, String> sentDefinitionHashes =
+      new ConcurrentHashMap<Long, String>();
+
+  // Statistics about the messages sent to the phone, shown in the comm indicator's tooltip.
+  private final AtomicLong messagesSent = new AtomicLong();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong definitionsSent = new AtomicLong();
+  private final AtomicLong definitionsSkipped = new AtomicLong();
+  private final AtomicLong roundTrips = new AtomicLong();
+  private final AtomicLong totalRoundTripMillis = new AtomicLong();
+  private final AtomicLong lastRoundTripMillis = new AtomicLong();
+  // The time, from System.nanoTime, at which each message still waiting for a response was
+  // sent, by return tag.
+  private final ConcurrentMap<String, Long> sendTimes = new ConcurrentHashMap<String, Long>();
+
   public PhoneCommManager() {
     downloadedProjectAssets = new ConcurrentHashMap<String, String>();
   }
@@ -429,10 +456,72 @@ public class PhoneCommManager {
     replControllerCreateAndSend(data, purpose, blockID, loading, true);
   }
 
+  /**
+   * Sends the code of several declarations to the REPL in a single message,
+   * and does not wait for the communication to the phone to finish.
+   * Declarations whose code is the same as the code last sent for them are
+   * skipped. Each declaration keeps its own return tag, so its result is still
+   * shown on its own block.
+   *
+   * @param definitions the code of each declaration, by block ID, in the order
+   *        they should be evaluated
+   * @param purpose a string documenting the purpose of this call
+   */
+  public void replSendDefinitionsAsync(Map<Long, String> definitions, String purpose) {
+    if (psReplController == null) {
+      return;
+    }
+    StringBuilder message = new StringBuilder();
+    List<String> returnTags = new ArrayList<String>();
+    for (Map.Entry<Long, String> definition : definitions.entrySet()) {
+      Long blockID = definition.getKey();
+      String code = definition.getValue();
+      String hash = hash(code);
+      if (hash.equals(sentDefinitionHashes.put(blockID, hash))) {
+        definitionsSkipped.incrementAndGet();
+        if (DEBUG) {
+          System.out.println("Not sending unchanged definition of block " + blockID);
+        }
+        continue;
+      }
+      String returnTag = purpose + REPL_BLOCK_ID_INDICATOR + blockID.toString();
+      message.append(wrapForRepl(code, returnTag));
+      returnTags.add(returnTag);
+    }
+    definitionsSent.addAndGet(returnTags.size());
+    if (returnTags.isEmpty()) {
+      showStatistics();
+      return;
+    }
+    if (returnTags.size() > 1) {
+      message.insert(0, "(begin ").append(")");
+    }
+    replControllerCreateAndSend(message.toString(), returnTags, false, true);
+  }
+
+  /**
+   * Forgets the code last sent for a declaration, so that it is sent again
+   * even if it hasn't changed. Used when the declaration has been redefined
+   * some other way, for example to have a null value.
+   */
+  public void forgetDefinition(long blockID) {
+    sentDefinitionHashes.remove(blockID);
+  }
+
   /* See replControllerCreateAndSendAsync for documentation
    */
-  private void replControllerCreateAndSend(final String data, final String purpose,
-      final Long blockID, final boolean loading, boolean asynchronous) {
+  private void replControllerCreateAndSend(String data, String purpose,
+      Long blockID, boolean loading, boolean asynchronous) {
+    String returnTag = purpose + REPL_BLOCK_ID_INDICATOR + blockID.toString();
+    replControllerCreateAndSend(wrapForRepl(data, returnTag), Collections.singletonList(returnTag),
+        loading, asynchronous);
+  }
+
+  /* Sends a message that has already been wrapped for the REPL, with the given
+   * return tags.
+   */
+  private void replControllerCreateAndSend(final String message, final List<String> returnTags,
+      final boolean loading, boolean asynchronous) {
     if (psReplController == null) {
       return;
     }
@@ -447,7 +536,7 @@ public class PhoneCommManager {
         // If we might have a working controller, try the send directly.
         if (connectedToPhone()) {
           try {
-            psReplControllerSend(data, purpose + REPL_BLOCK_ID_INDICATOR + blockID.toString());
+            psReplControllerSendWrapped(message, returnTags);
             return;
           } catch (IOException e) {
             if (DEBUG) {
@@ -463,7 +552,7 @@ public class PhoneCommManager {
         try {
           psReplControllerRestart(!loading /* don't send defns to phone if already loading */,
               loading /*restart the app if we're loading*/);
-          psReplControllerSend(data, purpose + REPL_BLOCK_ID_INDICATOR + blockID.toString());
+          psReplControllerSendWrapped(message, returnTags);
           return;
         } catch (IOException e) {
           setConnectedToPhone(false);
@@ -574,8 +663,19 @@ public class PhoneCommManager {
   // REQUIRES: is called from the phone synchronizer queue
   // expects that replController is in a good state
   private void psReplControllerSend(String data, String returnTag) throws IOException {
-    String wrapped = "(" + RUNTIME_REPL_COMMUNICATION_INPUT_WRAPPER + " "
+    psReplControllerSendWrapped(wrapForRepl(data, returnTag),
+        Collections.singletonList(returnTag));
+  }
+
+  private static String wrapForRepl(String data, String returnTag) {
+    return "(" + RUNTIME_REPL_COMMUNICATION_INPUT_WRAPPER + " "
         + data + " \"" + returnTag + "\")";
+  }
+
+  // REQUIRES: is called from the phone synchronizer queue
+  // expects that replController is in a good state
+  private void psReplControllerSendWrapped(String wrapped, List<String> returnTags)
+      throws IOException {
     /* Kawa's REPL behaves nastily when you give it an input that has linebreaks
      * in it.  It seems to echo those back and spits out a prompt for each new
      * line.So we avoid the multiple prompts by replacing all whitespace with spaces.
@@ -587,16 +687,33 @@ public class PhoneCommManager {
     if (DEBUG) {
       System.out.println("Sending to phone: " + noWhitespace);
     }
-    // Note that this send can trigger an IOException
     boolean projectLoading = false;
+    for (String returnTag : returnTags) {
+      if (returnTag.startsWith(REPL_PROJECT_LOADING)) {
+        projectLoading = true;
+      }
+    }
+    if (projectLoading) {
+      // The whole project is being sent, so any definition might be sent again.
+      sentDefinitionHashes.clear();
+    }
+    // Note that this send can trigger an IOException
     try {
       setSendingToPhone(true);
-      if (returnTag.startsWith(REPL_PROJECT_LOADING)) {
+      if (projectLoading) {
         setWaitingForProjectLoad(true);
-        projectLoading = true;
+      }
+      long now = System.nanoTime();
+      for (String returnTag : returnTags) {
+        sendTimes.putIfAbsent(returnTag, now);
       }
       psReplController.send(noWhitespace);
+      messagesSent.incrementAndGet();
+      bytesSent.addAndGet(noWhitespace.length());
     } catch (IOException e) {
+      for (String returnTag : returnTags) {
+        sendTimes.remove(returnTag);
+      }
       if (projectLoading) {
         setWaitingForProjectLoad(false);
       }
@@ -604,6 +721,51 @@ public class PhoneCommManager {
     } finally {
       setSendingToPhone(false);
     }
+    showStatistics();
+  }
+
+  // Returns a hash of the given code, used to tell whether a definition has changed.
+  private static String hash(String code) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      return new BigInteger(1, digest.digest(code.getBytes("UTF-8"))).toString(16);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);  // SHA-1 is always supported.
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);  // UTF-8 is always supported.
+    }
+  }
+
+  /**
+   * Returns a description of the messages sent to the phone: how many and
+   * how large they were, how many unchanged definitions weren't sent, and how
+   * long the phone took to respond.
+   */
+  public String getStatistics() {
+    long trips = roundTrips.get();
+    StringBuilder sb = new StringBuilder();
+    sb.append("Sent ").append(messagesSent.get()).append(" messages (")
+        .append(bytesSent.get() / 1024).append(" KB), ")
+        .append(definitionsSent.get()).append(" definitions, ")
+        .append(definitionsSkipped.get()).append(" unchanged definitions not sent");
+    if (trips > 0) {
+      sb.append("; round trip ").append(lastRoundTripMillis.get()).append(" ms (average ")
+          .append(totalRoundTripMillis.get() / trips).append(" ms)");
+    }
+    return sb.toString();
+  }
+
+  private void showStatistics() {
+    if (commIndicator == null) {
+      // only expect this to be true during testing
+      return;
+    }
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        commIndicator.setStatistics(getStatistics());
+      }
+    });
   }
 
   /**
@@ -807,6 +969,15 @@ public class PhoneCommManager {
         // To mollify compiler
       }
     } else {
+      Long sendTime = sendTimes.remove(match1.group(1) + REPL_BLOCK_ID_INDICATOR
+          + match1.group(2));
+      if (sendTime != null) {
+        long millis = (System.nanoTime() - sendTime) / 1000000;
+        lastRoundTripMillis.set(millis);
+        totalRoundTripMillis.addAndGet(millis);
+        roundTrips.incrementAndGet();
+        showStatistics();
+      }
       PhoneResponse pr =  new PhoneResponse(match1.group(1),
           Long.parseLong(match1.group(2).equals("")
                   ? "0"
@@ -873,6 +1044,8 @@ public class PhoneCommManager {
    * Reset any existing REPL Controller
    */
   private void psResetReplController() {
+    sentDefinitionHashes.clear();
+    sendTimes.clear();
     if (!(psReplController == null)) {
       // do some finalization here?
       psReplController.reset();
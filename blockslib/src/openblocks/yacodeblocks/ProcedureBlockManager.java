@@ -31,14 +31,17 @@ public class ProcedureBlockManager implements WorkspaceListener {
   private static final String PROC_CALLER_GENUS = "caller";
 
   private Workspace workspace;
+  private IWorkspaceController workspaceController;
   private HashMap<String, Long> procNameToBlockId;
 
   /**
    * Creates a manager for procedure blocks
    * @param workspace the current workspace
+   * @param workspaceController
    */
-  public ProcedureBlockManager(Workspace workspace) {
+  public ProcedureBlockManager(Workspace workspace, IWorkspaceController workspaceController) {
     this.workspace = workspace;
+    this.workspaceController = workspaceController;
     procNameToBlockId = new HashMap<String, Long>();
   }
 
@@ -183,6 +186,7 @@ public class ProcedureBlockManager implements WorkspaceListener {
       block.setBlockLabel(newLabel);
       System.out.println("Changed proc label from " + oldLabel + " to "
           + newLabel + " to make it unique");
+      workspaceController.procedureRenamed(oldLabel, newLabel);
     }
     procNameToBlockId.put(newLabel, block.getBlockID());
   }
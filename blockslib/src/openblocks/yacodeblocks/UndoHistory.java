@@ -0,0 +1,300 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package openblocks.yacodeblocks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The list of saved workspace states used by {@link AutoSaver} for undo and
+ * redo, stored compactly.
+ *
+ * Every KEYFRAME_INTERVAL states a whole state is stored (a keyframe). The
+ * states in between are stored as the change from the state before them:
+ * the text that replaces everything between the prefix and the suffix they
+ * have in common with it. Keyframes and changes are both compressed. Getting
+ * a state decompresses the keyframe before it and applies the changes that
+ * follow the keyframe.
+ *
+ * When there are more than the maximum number of states, or the compressed
+ * states take more than the memory budget, the oldest states are dropped.
+ *
+ * An UndoHistory is not thread safe. AutoSaver only uses it with its
+ * saverLock held.
+ */
+final class UndoHistory {
+  private static final boolean DEBUG = false;
+
+  // How often a whole state is stored.
+  private static final int KEYFRAME_INTERVAL = 10;
+
+  private static final String ENCODING = "UTF-8";
+
+  /*
+   * A stored state: either a whole state, or the change from the state before it.
+   */
+  private static class Entry {
+    private final boolean keyframe;
+    // For a change, the lengths of the prefix and suffix kept from the state before.
+    private final int prefixLength;
+    private final int suffixLength;
+    // The compressed state or replacement text.
+    private final byte[] compressed;
+    // The length of the state, in characters.
+    private final int length;
+
+    private Entry(boolean keyframe, int prefixLength, int suffixLength, byte[] compressed,
+        int length) {
+      this.keyframe = keyframe;
+      this.prefixLength = prefixLength;
+      this.suffixLength = suffixLength;
+      this.compressed = compressed;
+      this.length = length;
+    }
+  }
+
+  private final int maxStates;
+  private final long maxBytes;
+  private final ArrayList<Entry> entries = new ArrayList<Entry>();
+  private long compressedBytes;
+  private long stateChars;
+  private int droppedStates;
+
+  // The state that was last added or gotten, so that stepping through the history, or comparing
+  // a new state with the current one, usually doesn't decompress anything.
+  private int cachedIndex = -1;
+  private String cachedState;
+
+  /**
+   * Creates an empty history.
+   *
+   * @param maxStates  the most states kept
+   * @param maxBytes  the most memory used by the compressed states, in bytes.
+   *                  The latest state is always kept, even if it is larger.
+   */
+  UndoHistory(int maxStates, long maxBytes) {
+    this.maxStates = maxStates;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the number of states in the history.
+   */
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the state at the given index.
+   */
+  String get(int index) {
+    if (index < 0 || index >= entries.size()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + entries.size());
+    }
+    if (index == cachedIndex) {
+      return cachedState;
+    }
+
+    int start = index;
+    while (!entries.get(start).keyframe) {
+      start--;
+    }
+    String state;
+    if (cachedIndex >= start && cachedIndex < index) {
+      // Start from the cached state rather than the keyframe.
+      start = cachedIndex;
+      state = cachedState;
+    } else {
+      state = decompress(entries.get(start).compressed);
+    }
+    for (int i = start + 1; i <= index; i++) {
+      Entry entry = entries.get(i);
+      state = state.substring(0, entry.prefixLength) + decompress(entry.compressed)
+          + state.substring(state.length() - entry.suffixLength);
+    }
+
+    cachedIndex = index;
+    cachedState = state;
+    return state;
+  }
+
+  /**
+   * Adds a state to the end of the history, then drops the oldest states if
+   * the history is too large.
+   */
+  void add(String state) {
+    int index = entries.size();
+    int lastKeyframe = index - 1;
+    while (lastKeyframe >= 0 && !entries.get(lastKeyframe).keyframe) {
+      lastKeyframe--;
+    }
+    Entry entry = null;
+    if (lastKeyframe >= 0 && index - lastKeyframe < KEYFRAME_INTERVAL) {
+      entry = createChange(get(index - 1), state);
+    }
+    if (entry == null) {
+      entry = createKeyframe(state);
+    }
+    entries.add(entry);
+    compressedBytes += entry.compressed.length;
+    stateChars += entry.length;
+    cachedIndex = index;
+    cachedState = state;
+
+    while (entries.size() > maxStates || (entries.size() > 1 && compressedBytes > maxBytes)) {
+      removeOldest();
+    }
+  }
+
+  /**
+   * Removes the states at and after the given index.
+   */
+  void truncate(int size) {
+    for (int i = entries.size() - 1; i >= size; i--) {
+      Entry removed = entries.remove(i);
+      compressedBytes -= removed.compressed.length;
+      stateChars -= removed.length;
+    }
+    if (cachedIndex >= size) {
+      cachedIndex = -1;
+      cachedState = null;
+    }
+  }
+
+  /**
+   * Returns the number of states dropped because the history was too large.
+   */
+  int getDroppedStates() {
+    return droppedStates;
+  }
+
+  /**
+   * Returns the memory used by the compressed states, in bytes.
+   */
+  long getCompressedBytes() {
+    return compressedBytes;
+  }
+
+  /**
+   * Returns the memory the states would use if they were kept as strings,
+   * in bytes.
+   */
+  long getUncompressedBytes() {
+    return 2 * stateChars;
+  }
+
+  /**
+   * Returns a description of the size of the history.
+   */
+  String getStats() {
+    return entries.size() + " states, " + compressedBytes / 1024 + " KB compressed ("
+        + getUncompressedBytes() / 1024 + " KB uncompressed), " + droppedStates + " dropped";
+  }
+
+  // Removes the oldest state. If the next state is a change, it becomes a keyframe.
+  private void removeOldest() {
+    if (entries.size() > 1 && !entries.get(1).keyframe) {
+      Entry keyframe = createKeyframe(get(1));
+      Entry change = entries.set(1, keyframe);
+      compressedBytes += keyframe.compressed.length - change.compressed.length;
+    }
+    Entry removed = entries.remove(0);
+    compressedBytes -= removed.compressed.length;
+    stateChars -= removed.length;
+    droppedStates++;
+    cachedIndex--;
+    if (cachedIndex < 0) {
+      cachedIndex = -1;
+      cachedState = null;
+    }
+    if (DEBUG) {
+      System.out.println("Truncating undo history: " + getStats());
+    }
+  }
+
+  private static Entry createKeyframe(String state) {
+    return new Entry(true, 0, 0, compress(state), state.length());
+  }
+
+  // Returns the change from oldState to newState, or null if the change is about as large as
+  // newState, in which case a keyframe is better.
+  private static Entry createChange(String oldState, String newState) {
+    int maxLength = Math.min(oldState.length(), newState.length());
+    int prefix = 0;
+    while (prefix < maxLength && oldState.charAt(prefix) == newState.charAt(prefix)) {
+      prefix++;
+    }
+    // The replacement is compressed as UTF-8, so it must not start or end in the middle of a
+    // surrogate pair; a lone surrogate would not survive the round trip.
+    if (prefix > 0 && Character.isHighSurrogate(newState.charAt(prefix - 1))) {
+      prefix--;
+    }
+    int suffix = 0;
+    while (suffix < maxLength - prefix &&
+        oldState.charAt(oldState.length() - 1 - suffix) ==
+        newState.charAt(newState.length() - 1 - suffix)) {
+      suffix++;
+    }
+    if (suffix > 0 && Character.isLowSurrogate(newState.charAt(newState.length() - suffix))) {
+      suffix--;
+    }
+    String replacement = newState.substring(prefix, newState.length() - suffix);
+    if (replacement.length() > newState.length() / 2) {
+      return null;
+    }
+    return new Entry(false, prefix, suffix, compress(replacement), newState.length());
+  }
+
+  private static byte[] compress(String text) {
+    byte[] bytes;
+    try {
+      bytes = text.getBytes(ENCODING);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);  // UTF-8 is always supported.
+    }
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 16);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int count = deflater.deflate(buffer);
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static String decompress(byte[] compressed) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+      byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        int count = inflater.inflate(buffer);
+        if (count == 0 && inflater.needsInput()) {
+          throw new IllegalStateException("Undo history entry is truncated");
+        }
+        out.write(buffer, 0, count);
+      }
+      return out.toString(ENCODING);
+    } catch (DataFormatException e) {
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);  // UTF-8 is always supported.
+    } finally {
+      inflater.end();
+    }
+  }
+}
@@ -41,8 +41,11 @@ import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
 import java.util.regex.Pattern;
 
@@ -57,6 +60,7 @@ import javax.swing.JPanel;
 import javax.swing.KeyStroke;
 import javax.swing.LookAndFeel;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.UIDefaults;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
@@ -125,7 +129,20 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
   public static final String REPL_DO_IT = "Do It";
   public static final String REPL_DEFINE_IT = "Define It";
   // A BlockParser that knows its working for the Repl
-  private final BlockParser blockParser = new BlockParser(true);
+  private final BlockParser blockParser = new BlockParser(true, true);
+  // BlockParsers for the code of the whole project. Like blockParser, they
+  // keep the code of each declaration until it is invalidated. A parser
+  // keeps state while it generates code, so each is locked while in use.
+  private final BlockParser projectReplBlockParser = new BlockParser(true, true);
+  private final BlockParser projectBlockParser = new BlockParser(false, true);
+  // How long to wait after a declaration changes before sending it to the phone, so that a
+  // burst of changes, such as dragging a large event handler around, is sent only once.
+  private static final int REPL_UPDATE_DELAY_MS = 300;
+  // Declarations that have changed since they were last sent to the phone, in the order they
+  // changed. Guarded by itself.
+  private final Set<Long> changedDeclarations = new LinkedHashSet<Long>();
+  // Sends the changed declarations when no more changes have happened for REPL_UPDATE_DELAY_MS.
+  private final Timer replUpdateTimer;
   // Used by mouseMovedOnCanvas to determine wandering from Done block.
   private Block doItBlock = null; // the most recent block to execute a Do It
   private Rectangle doItBlockRegion = null;
@@ -148,7 +165,14 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
     aiDir = new AIDirectory();
     cbm = new ComponentBlockManager(workspace, this);
     pcm = new PhoneCommManager();
-    pbm = new ProcedureBlockManager(workspace);
+    pbm = new ProcedureBlockManager(workspace, this);
+    replUpdateTimer = new Timer(REPL_UPDATE_DELAY_MS, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        sendChangedDeclarations();
+      }
+    });
+    replUpdateTimer.setRepeats(false);
     saveButton = new CSaveButton("Save", "Saved");
     undoButton = new CSaveButton("Undo", "Undo");
     redoButton = new CSaveButton("Redo", "Redo");
@@ -549,6 +573,7 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
     }
     cbm.reset();
     pbm.reset();
+    invalidateAllGeneratedYail();
     doItBlock = null;
     setProjectName("");
     projectLoaded = false;
@@ -588,6 +613,8 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
     if (pcm.connectedToPhone()) {
       // Download all the definitions to the phone
       try {
+        // The changed declarations are sent with the others.
+        clearChangedDeclarations();
         String yail = getProjectDefinitionsForRepl(formProperties);
         pcm.replControllerCreateAndSendAsync(yail, PhoneCommManager.REPL_PROJECT_LOADING,
             new Long(0), true);
@@ -705,8 +732,11 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
         return "";
       }
     }
-    String code = YABlockCompiler.generateYailForProject(formProperties,
-        componentMap, forRepl) + "\n";
+    BlockParser parser = forRepl ? projectReplBlockParser : projectBlockParser;
+    String code;
+    synchronized (parser) {
+      code = YABlockCompiler.generateYailForProject(formProperties, componentMap, parser) + "\n";
+    }
     int hardErrors = ComplaintDepartment.showCompiletimeComplaints();
     if (hardErrors == 0) {
       return code;
@@ -1042,6 +1072,8 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
     if (loadingBlocks) {
       componentRemovedOrRenamedDuringLoad = true;
     }
+    // The blocks of the component were relabeled without workspace events.
+    invalidateAllGeneratedYail();
     if (pcm.connectedToPhone()) {
       pcm.replControllerCreateAndSendAsync(
           YABlockCompiler.generateComponentRename(oldName, newName),
@@ -1060,12 +1092,23 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
     if (loadingBlocks) {
       componentRemovedOrRenamedDuringLoad = true;
     }
+    invalidateAllGeneratedYail();
     if (pcm.connectedToPhone()) {
       pcm.replControllerCreateAndSendAsync(YABlockCompiler.generateComponentRemoval(name),
           "Component removal", 0L, true);
     }
   }
 
+  /**
+   * Notification from ProcedureBlockManager that a procedure has been renamed
+   * to make its name unique.
+   */
+  @Override
+  public void procedureRenamed(String oldName, String newName) {
+    // The procedure and its callers were relabeled without workspace events.
+    invalidateAllGeneratedYail();
+  }
+
   ////////
   // UI //
   ////////
@@ -1299,6 +1342,7 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
    * it causes deadlocks for WorkspaceController and seems unnecessary.
    */
   public void workspaceEventOccurred(WorkspaceEvent event)  {
+    invalidateGeneratedYail(event);
     if (isLoadingBlocks() || !pcm.connectedToPhone()) {
       return;
     }
@@ -1340,6 +1384,62 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
     }
   }
 
+  /*
+   * Makes the block parsers forget the code of the declarations that the
+   * event may have changed.
+   */
+  private void invalidateGeneratedYail(WorkspaceEvent event) {
+    switch (event.getEventType()) {
+      case WorkspaceEvent.PAGE_RESIZED:
+      case WorkspaceEvent.BLOCK_MOVED:
+      case WorkspaceEvent.BLOCK_NOTE_ADDED:
+      case WorkspaceEvent.BLOCK_NOTE_REMOVED:
+      case WorkspaceEvent.BLOCK_NOTE_MOVED:
+      case WorkspaceEvent.BLOCK_NOTE_RESIZED:
+      case WorkspaceEvent.BLOCK_NOTE_VISIBILITY_CHANGE:
+      case WorkspaceEvent.BLOCK_NOTE_CHANGED:
+      case WorkspaceEvent.BLOCK_COLLAPSE_CHANGE:
+      case WorkspaceEvent.BLOCK_DO_IT:
+      case WorkspaceEvent.BLOCK_DOUBLE_CLICKED:
+        // These don't change any code.
+        break;
+      case WorkspaceEvent.BLOCKS_CONNECTED:
+      case WorkspaceEvent.BLOCKS_DISCONNECTED:
+        invalidateContainingDecl(event.getSourceLink().getSocketBlockID());
+        invalidateContainingDecl(event.getSourceLink().getPlugBlockID());
+        break;
+      case WorkspaceEvent.BLOCK_ACTIVATED:
+      case WorkspaceEvent.BLOCK_DEACTIVATED:
+        invalidateContainingDecl(event.getSourceBlockID());
+        break;
+      default:
+        // Renaming, adding or removing a block, or changing whether a
+        // variable reports its value, can change the code of other
+        // declarations, such as the calls of a procedure or the setters of
+        // a variable.
+        invalidateAllGeneratedYail();
+        break;
+    }
+  }
+
+  private void invalidateContainingDecl(Long blockID) {
+    RenderableBlock rb = (blockID == null) ? null : RenderableBlock.getRenderableBlock(blockID);
+    if (rb == null) {
+      invalidateAllGeneratedYail();
+      return;
+    }
+    long declID = rb.getTopmost().getBlockID();
+    blockParser.invalidate(declID);
+    projectReplBlockParser.invalidate(declID);
+    projectBlockParser.invalidate(declID);
+  }
+
+  private void invalidateAllGeneratedYail() {
+    blockParser.invalidateAll();
+    projectReplBlockParser.invalidateAll();
+    projectBlockParser.invalidateAll();
+  }
+
   private void performDoIt(long blockID) {
     // Clean up from previous Do It.
     for (RenderableBlock rb : RenderableBlock.getAllRenderableBlocks()) {
@@ -1351,6 +1451,8 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
         }
       }
     }
+    // The block may use declarations that haven't been sent yet.
+    sendChangedDeclarations();
     executeOnPhone(REPL_DO_IT, blockID);
     doItBlock = Block.getBlock(blockID);
     RenderableBlock doItRb = RenderableBlock.getRenderableBlock(blockID);
@@ -1367,11 +1469,11 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
       for (long bs : BlockStub.getStubsOfParent(blockID)) {
         // Recompile all the decls containing setter stubs. The stubs
         // will figure out if they have to generate report calls.
-        // TODO(user): Avoid sending a decl multiple times.
         if (Block.getBlock(bs).getProperty("ya-kind").equals("setter")) {
           executeContainingDecl(bs);
         }
       }
+      sendChangedDeclarations();
       if (block.shouldReceiveReport()) {
         // Need to get current value of var if change was to add report.
         String blockCode = blockParser.genVarGetYailFromDecl(block);
@@ -1391,6 +1493,10 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
    * Redefine the block to have a null value
    */
   private void executeNullDecl(Block block) {
+    synchronized (changedDeclarations) {
+      changedDeclarations.remove(block.getBlockID());
+    }
+    pcm.forgetDefinition(block.getBlockID());
     String blockCode = blockParser.genNullDecl(block);
     if (blockCode.length() != 0) {
       pcm.replControllerCreateAndSendAsync(blockCode, REPL_DEFINE_IT, block.getBlockID(),
@@ -1401,7 +1507,52 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
   private void executeContainingDecl(long blockID) {
     Block block = RenderableBlock.getRenderableBlock(blockID).getTopmost().getBlock();
     if (block.isDeclaration()) {
-      executeOnPhone(REPL_DEFINE_IT, block.getBlockID());
+      synchronized (changedDeclarations) {
+        changedDeclarations.add(block.getBlockID());
+      }
+      replUpdateTimer.restart();
+    }
+  }
+
+  /*
+   * Sends the declarations that have changed to the phone, in one message.
+   * The phone comm manager skips the ones whose code is the same as when they
+   * were last sent, for example when a block was only moved around.
+   */
+  private void sendChangedDeclarations() {
+    replUpdateTimer.stop();
+    List<Long> blockIDs;
+    synchronized (changedDeclarations) {
+      blockIDs = new ArrayList<Long>(changedDeclarations);
+      changedDeclarations.clear();
+    }
+    if (blockIDs.isEmpty() || !pcm.connectedToPhone()) {
+      return;
+    }
+    Map<Long, String> definitions = new LinkedHashMap<Long, String>();
+    for (Long id : blockIDs) {
+      Block block = Block.getBlock(id);
+      if (block == null || !block.isDeclaration()) {
+        continue;
+      }
+      ComplaintDepartment.clearComplaints();
+      String blockCode = blockParser.genYail(block);
+      if (ComplaintDepartment.showCompiletimeComplaints() > 0 ||
+          blockCode.length() == 0) {
+        // Don't execute if there are serious errors.
+        continue;
+      }
+      definitions.put(id, blockCode);
+    }
+    if (!definitions.isEmpty()) {
+      pcm.replSendDefinitionsAsync(definitions, REPL_DEFINE_IT);
+    }
+  }
+
+  private void clearChangedDeclarations() {
+    replUpdateTimer.stop();
+    synchronized (changedDeclarations) {
+      changedDeclarations.clear();
     }
   }
 
@@ -101,6 +101,23 @@ public class YABlockCompiler {
   public static String generateYailForProject(JSONObject formProperties,
       HashMap<String, ArrayList<RenderableBlock>> componentMap, boolean forRepl)
       throws YailGenerationException {
+    return generateYailForProject(formProperties, componentMap, new BlockParser(forRepl));
+  }
+
+  /**
+   * Generate the Yail representation of the current Codeblocks code, using
+   * the given parser for the blocks. A parser that keeps the code of each
+   * declaration avoids generating the code of unchanged declarations again.
+   * @param formProperties a JSONObject representation of the components
+   * on this form and their properties.
+   * @param componentMap a map of renderable blocks.
+   * @param parser the parser for the blocks.
+   * @return the Yail representation
+   */
+  public static String generateYailForProject(JSONObject formProperties,
+      HashMap<String, ArrayList<RenderableBlock>> componentMap, BlockParser parser)
+      throws YailGenerationException {
+    boolean forRepl = parser.isForRepl();
     String formName;
     try {
       formName = formProperties.getJSONObject("Properties").getString("$Name");
@@ -108,7 +125,7 @@ public class YABlockCompiler {
       throw new YailGenerationException("Unable to determine form name");
     }
     StringBuilder code = new StringBuilder();
-    blockParser = new BlockParser(forRepl);
+    blockParser = parser;
 
     // Add 'My Program' globals
     if (componentMap.containsKey(GLOBALS)) {
@@ -0,0 +1,254 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded on-disk cache of intermediate build artifacts, so that rebuilding a project that
+ * changed only a little doesn't redo the whole pipeline.
+ *
+ * <p>Artifacts (a generated .yail file, a directory of compiled classes, a dex file, a packaged
+ * resource file) are stored under a key computed from the content of everything they were
+ * produced from; see {@link #newHasher}. An unchanged form or project therefore hits the cache
+ * no matter which user or temp directory it comes from. When the cache grows beyond its size
+ * limit, the least recently used entries are deleted.</p>
+ */
+final class BuildCache {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildCache.class.getName());
+
+  private static final long BYTES_PER_MB = 1024 * 1024;
+
+  // Guarded by BuildCache.class.
+  private static File cacheDirectory =
+      new File(System.getProperty("java.io.tmpdir"), "appinventor-build-cache");
+  private static long maxBytes = 1024 * BYTES_PER_MB;
+  // The size of all entries, or -1 if it hasn't been computed yet. Updated as entries are added
+  // and deleted, so the cache directory is only walked when entries need to be evicted.
+  private static long totalBytes = -1;
+
+  private static final AtomicInteger hitCount = new AtomicInteger(0);
+  private static final AtomicInteger missCount = new AtomicInteger(0);
+
+  private BuildCache() {
+  }
+
+  /**
+   * Sets the cache directory and size limit.
+   *
+   * @param directory  the cache directory, or null to keep the default; it is created if
+   *     necessary
+   * @param maxMb  the size limit, in MB
+   */
+  static synchronized void configure(File directory, long maxMb) {
+    if (directory != null) {
+      cacheDirectory = directory;
+      totalBytes = -1;
+    }
+    maxBytes = maxMb * BYTES_PER_MB;
+  }
+
+  private static synchronized File getCacheDirectory() throws IOException {
+    if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+      throw new IOException("Unable to create build cache directory " + cacheDirectory);
+    }
+    return cacheDirectory;
+  }
+
+  /**
+   * Returns a hasher for computing a cache key. The kind of artifact is part of the key, so
+   * different kinds of artifacts never share keys.
+   *
+   * @param kind  the kind of artifact, for example "yail"
+   */
+  static Hasher newHasher(String kind) {
+    return Hashing.sha1().newHasher().putString(kind, Charsets.UTF_8);
+  }
+
+  /**
+   * Adds the content of a file to a cache key.
+   */
+  static void putFile(Hasher hasher, File file) throws IOException {
+    hasher.putString("|" + Files.hash(file, Hashing.sha1()), Charsets.UTF_8);
+  }
+
+  /**
+   * Adds the names and contents of all files in a directory tree to a cache key. A missing
+   * directory is treated like an empty one.
+   */
+  static void putTree(Hasher hasher, File directory) throws IOException {
+    putTree(hasher, directory, "");
+  }
+
+  private static void putTree(Hasher hasher, File directory, String relativePath)
+      throws IOException {
+    File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    Arrays.sort(children);
+    for (File child : children) {
+      String childPath = relativePath + "/" + child.getName();
+      if (child.isDirectory()) {
+        putTree(hasher, child, childPath);
+      } else {
+        hasher.putString("|" + childPath, Charsets.UTF_8);
+        putFile(hasher, child);
+      }
+    }
+  }
+
+  /**
+   * Copies a cached artifact to the given file or directory.
+   *
+   * @param key  the cache key
+   * @param destination  where to copy the artifact; a directory artifact is merged into it
+   * @return {@code true} on a cache hit, {@code false} on a miss
+   */
+  static boolean restore(String key, File destination) {
+    try {
+      File entry = new File(getCacheDirectory(), key);
+      if (entry.exists()) {
+        // Mark the entry as recently used before copying, so it isn't evicted meanwhile.
+        entry.setLastModified(System.currentTimeMillis());
+        if (entry.isDirectory()) {
+          FileUtils.copyDirectory(entry, destination);
+        } else {
+          Files.copy(entry, destination);
+        }
+        hitCount.incrementAndGet();
+        return true;
+      }
+    } catch (IOException e) {
+      // The entry may have been evicted while we were copying it. Treat it as a miss.
+      LOG.log(Level.WARNING, "Unable to restore build cache entry " + key, e);
+    }
+    missCount.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Adds an artifact to the cache. Failures are logged and otherwise ignored, since the cache is
+   * only an optimization.
+   *
+   * @param key  the cache key
+   * @param source  the file or directory to store; it is copied, not moved
+   */
+  static void store(String key, File source) {
+    try {
+      File directory = getCacheDirectory();
+      File entry = new File(directory, key);
+      if (entry.exists()) {
+        return;
+      }
+      File tmpEntry = new File(directory, key + ".tmp" + System.nanoTime());
+      try {
+        if (source.isDirectory()) {
+          FileUtils.copyDirectory(source, tmpEntry);
+        } else {
+          Files.copy(source, tmpEntry);
+        }
+        // If another build stored the same entry first, its copy is identical to ours.
+        if (tmpEntry.renameTo(entry)) {
+          entryAdded(directory, FileUtils.sizeOf(entry));
+        }
+      } finally {
+        FileUtils.deleteQuietly(tmpEntry);
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to store build cache entry " + key, e);
+    }
+  }
+
+  /*
+   * Adds a new entry to the total size, and evicts entries if the cache no longer fits its size
+   * limit.
+   */
+  private static synchronized void entryAdded(File directory, long entryBytes) {
+    if (totalBytes < 0) {
+      // The size of the entries stored before this server started isn't known yet.
+      totalBytes = sizeOfEntries(directory.listFiles());
+    } else {
+      totalBytes += entryBytes;
+    }
+    if (totalBytes > maxBytes) {
+      evict(directory);
+    }
+  }
+
+  /*
+   * Deletes least recently used entries until the cache is at most 90% of its size limit, so
+   * that the next few stores don't have to evict again.
+   */
+  private static synchronized void evict(File directory) {
+    File[] entries = directory.listFiles();
+    if (entries == null) {
+      return;
+    }
+    // Start from the actual size, in case entries were changed by something other than this
+    // server.
+    totalBytes = sizeOfEntries(entries);
+    long targetBytes = maxBytes - maxBytes / 10;
+    if (totalBytes <= targetBytes) {
+      return;
+    }
+    Arrays.sort(entries, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        long aModified = a.lastModified();
+        long bModified = b.lastModified();
+        return (aModified < bModified) ? -1 : ((aModified == bModified) ? 0 : 1);
+      }
+    });
+    for (File entry : entries) {
+      if (totalBytes <= targetBytes) {
+        break;
+      }
+      if (entry.getName().contains(".tmp")) {
+        // Another build is still writing this entry.
+        continue;
+      }
+      totalBytes -= FileUtils.sizeOf(entry);
+      FileUtils.deleteQuietly(entry);
+    }
+  }
+
+  private static long sizeOfEntries(File[] entries) {
+    long bytes = 0;
+    if (entries != null) {
+      for (File entry : entries) {
+        // Entries still being written may be renamed at any moment, and are counted when they
+        // are added.
+        if (!entry.getName().contains(".tmp")) {
+          bytes += FileUtils.sizeOf(entry);
+        }
+      }
+    }
+    return bytes;
+  }
+
+  static int getHitCount() {
+    return hitCount.get();
+  }
+
+  static int getMissCount() {
+    return missCount.get();
+  }
+}
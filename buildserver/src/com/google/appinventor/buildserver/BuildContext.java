@@ -0,0 +1,254 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+package com.google.appinventor.buildserver;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * The state of a single build: its status and progress, the time taken by
+ * each stage of the build, its temporary files and the child processes it is
+ * running.
+ *
+ * <p>Each build request gets its own context, so builds that run at the same
+ * time can't see or clean up each other's state. Contexts of async builds are
+ * listed in the {@link BuildRegistry}.
+ *
+ */
+final class BuildContext {
+  private static final Logger LOG = Logger.getLogger(BuildContext.class.getName());
+
+  enum Status {
+    QUEUED,
+    BUILDING,
+    SENDING,
+    SUCCEEDED,
+    FAILED
+  }
+
+  private static final AtomicLong nextId = new AtomicLong(1);
+
+  private final long id;
+  private final String queueKey;
+  private final long createTime;
+
+  private volatile Status status = Status.QUEUED;
+  private volatile int progress;
+  private volatile long startTime;
+  private volatile long finishTime;
+
+  // The following are guarded by this.
+  private final Map<String, Long> stageMillis = new LinkedHashMap<String, Long>();
+  private String currentStage;
+  private long currentStageStartTime;
+  private final Set<Process> processes = new HashSet<Process>();
+
+  // Temporary files, which are deleted by cleanUp. They are only used by the thread running the
+  // build.
+  private File inputZip;
+  private File outputDir;
+  private File outputApk;
+  private File outputKeystore;
+  private File outputZip;
+
+  /**
+   * Creates the context of a new build.
+   *
+   * @param queueKey  the key of the build in the build queue, or null if it isn't queued
+   */
+  BuildContext(String queueKey) {
+    this.id = nextId.getAndIncrement();
+    this.queueKey = queueKey;
+    this.createTime = System.currentTimeMillis();
+  }
+
+  long getId() {
+    return id;
+  }
+
+  String getQueueKey() {
+    return queueKey;
+  }
+
+  Status getStatus() {
+    return status;
+  }
+
+  void setStatus(Status status) {
+    long now = System.currentTimeMillis();
+    if (status == Status.BUILDING && startTime == 0) {
+      startTime = now;
+    }
+    if (status == Status.SUCCEEDED || status == Status.FAILED) {
+      finishTime = now;
+      startStage(null);
+    }
+    this.status = status;
+  }
+
+  boolean isFinished() {
+    return status == Status.SUCCEEDED || status == Status.FAILED;
+  }
+
+  int getProgress() {
+    return progress;
+  }
+
+  void setProgress(int progress) {
+    this.progress = progress;
+    LOG.info("Build " + id + ": the current progress is " + progress + "%");
+  }
+
+  /**
+   * Ends the current stage of the build, if any, and starts the given one.
+   *
+   * @param stage  a description of the stage, or null to only end the current stage
+   */
+  synchronized void startStage(String stage) {
+    long now = System.currentTimeMillis();
+    if (currentStage != null) {
+      Long earlierMillis = stageMillis.get(currentStage);
+      long millis = now - currentStageStartTime;
+      stageMillis.put(currentStage, (earlierMillis == null) ? millis : earlierMillis + millis);
+    }
+    currentStage = stage;
+    currentStageStartTime = now;
+  }
+
+  /**
+   * Records a child process run by the build, so that it can be stopped if
+   * the build is cleaned up while it is still running.
+   */
+  synchronized void addProcess(Process process) {
+    processes.add(process);
+  }
+
+  /**
+   * Forgets a child process that has finished.
+   */
+  synchronized void removeProcess(Process process) {
+    processes.remove(process);
+  }
+
+  File getInputZip() {
+    return inputZip;
+  }
+
+  void setInputZip(File inputZip) {
+    this.inputZip = inputZip;
+    inputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
+  }
+
+  File getOutputDir() {
+    return outputDir;
+  }
+
+  void setOutputDir(File outputDir) {
+    this.outputDir = outputDir;
+    // It is likely that the directory won't be empty and therefore won't actually be deleted on
+    // exit. That's only if the build server is killed while a build is happening.
+    outputDir.deleteOnExit();
+  }
+
+  File getOutputApk() {
+    return outputApk;
+  }
+
+  void setOutputApk(File outputApk) {
+    this.outputApk = outputApk;
+    if (outputApk != null) {
+      outputApk.deleteOnExit();  // In case build server is killed before cleanUp executes.
+    }
+  }
+
+  File getOutputKeystore() {
+    return outputKeystore;
+  }
+
+  void setOutputKeystore(File outputKeystore) {
+    this.outputKeystore = outputKeystore;
+    if (outputKeystore != null) {
+      outputKeystore.deleteOnExit();  // In case build server is killed before cleanUp executes.
+    }
+  }
+
+  File getOutputZip() {
+    return outputZip;
+  }
+
+  void setOutputZip(File outputZip) {
+    this.outputZip = outputZip;
+    if (outputZip != null) {
+      outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
+    }
+  }
+
+  /**
+   * Stops any child processes that are still running and deletes the
+   * temporary files of the build.
+   */
+  void cleanUp() {
+    synchronized (this) {
+      for (Process process : processes) {
+        LOG.warning("Build " + id + ": stopping a child process that is still running");
+        process.destroy();
+      }
+      processes.clear();
+    }
+    if (inputZip != null) {
+      inputZip.delete();
+    }
+    if (outputKeystore != null) {
+      outputKeystore.delete();
+    }
+    if (outputApk != null) {
+      outputApk.delete();
+    }
+    if (outputZip != null) {
+      outputZip.delete();
+    }
+    if (outputDir != null) {
+      outputDir.delete();
+    }
+  }
+
+  /**
+   * Returns a description of the build for the builds status page. The status page is not
+   * access controlled, so the description leaves out the user name, which is an email address.
+   */
+  synchronized JSONObject toJson() throws JSONException {
+    long now = System.currentTimeMillis();
+    JSONObject json = new JSONObject();
+    json.put("id", id);
+    json.put("status", status.toString());
+    json.put("progress", progress);
+    json.put("age-in-ms", now - createTime);
+    if (startTime != 0) {
+      json.put("queue-wait-in-ms", startTime - createTime);
+      json.put("build-time-in-ms", ((finishTime != 0) ? finishTime : now) - startTime);
+    }
+    JSONObject stages = new JSONObject();
+    for (Map.Entry<String, Long> stage : stageMillis.entrySet()) {
+      stages.put(stage.getKey(), stage.getValue());
+    }
+    if (currentStage != null) {
+      json.put("current-stage", currentStage);
+      Long earlierMillis = stageMillis.get(currentStage);
+      stages.put(currentStage, now - currentStageStartTime +
+          ((earlierMillis == null) ? 0 : earlierMillis));
+    }
+    json.put("stage-times-in-ms", stages);
+    json.put("child-processes", processes.size());
+    return json;
+  }
+}
@@ -0,0 +1,82 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+package com.google.appinventor.buildserver;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The builds that are queued or running, and the last few that finished,
+ * for the builds status page and for finding the progress of a build.
+ *
+ */
+final class BuildRegistry {
+
+  // The number of finished builds that are remembered.
+  private static final int MAX_FINISHED_BUILDS = 50;
+
+  // Queued and running builds, by ID. IDs increase, so the builds are in the order they were
+  // requested.
+  private static final ConcurrentSkipListMap<Long, BuildContext> activeBuilds =
+    new ConcurrentSkipListMap<Long, BuildContext>();
+
+  // Finished builds, most recent first. Guarded by itself.
+  private static final LinkedList<BuildContext> finishedBuilds = new LinkedList<BuildContext>();
+
+  private BuildRegistry() {
+  }
+
+  /**
+   * Adds a build that has been queued or started.
+   */
+  static void register(BuildContext context) {
+    activeBuilds.put(context.getId(), context);
+  }
+
+  /**
+   * Moves a build to the list of finished builds.
+   */
+  static void finish(BuildContext context) {
+    if (activeBuilds.remove(context.getId()) != null) {
+      synchronized (finishedBuilds) {
+        finishedBuilds.addFirst(context);
+        if (finishedBuilds.size() > MAX_FINISHED_BUILDS) {
+          finishedBuilds.removeLast();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the most recently requested active build with the given queue key,
+   * or null if there is none.
+   */
+  static BuildContext findActiveBuild(String queueKey) {
+    for (BuildContext context : activeBuilds.descendingMap().values()) {
+      if (queueKey.equals(context.getQueueKey())) {
+        return context;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the queued and running builds, oldest first.
+   */
+  static List<BuildContext> getActiveBuilds() {
+    return new ArrayList<BuildContext>(activeBuilds.values());
+  }
+
+  /**
+   * Returns the last few finished builds, most recent first.
+   */
+  static List<BuildContext> getFinishedBuilds() {
+    synchronized (finishedBuilds) {
+      return new ArrayList<BuildContext>(finishedBuilds);
+    }
+  }
+}
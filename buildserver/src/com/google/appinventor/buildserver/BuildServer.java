@@ -12,6 +12,7 @@ import com.google.common.io.Files;
 import com.sun.grizzly.http.SelectorThread;
 import com.sun.jersey.api.container.grizzly.GrizzlyServerFactory;
 
+import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.kohsuke.args4j.CmdLineException;
@@ -33,12 +34,18 @@ import java.lang.management.RuntimeMXBean;
 import java.lang.Math;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -63,17 +70,29 @@ import javax.ws.rs.core.Response;
 // The Java class will be hosted at the URI path "/buildserver"
 @Path("/buildserver")
 public class BuildServer {
-  private ProjectBuilder projectBuilder = new ProjectBuilder();
-
   static class CommandLineOptions {
     @Option(name = "--childProcessRamMb",
       usage = "Maximum ram that can be used by a child processes, in MB.")
     int childProcessRamMb = 2048;
 
     @Option(name = "--maxSimultaneousBuilds",
-      usage = "Maximum number of builds that can run in parallel. O means unlimited.")
+      usage = "Maximum number of builds that can run in parallel. 0 means unlimited.")
     int maxSimultaneousBuilds = 1;  // The default is unlimited.
 
+    @Option(name = "--maxQueuedBuilds",
+      usage = "Maximum number of builds that can wait for a free build slot. 0 means unlimited.")
+    int maxQueuedBuilds = 20;
+
+    @Option(name = "--minFreeMemoryMb",
+      usage = "Reject new builds when there is less free physical memory than this, in MB. " +
+        "0 disables the check.")
+    int minFreeMemoryMb = 0;
+
+    @Option(name = "--maxLoadPerProcessor",
+      usage = "Reject new builds when the load average per processor is above this. " +
+        "0 disables the check.")
+    double maxLoadPerProcessor = 0;
+
     @Option(name = "--port",
       usage = "The port number to bind to on the local machine.")
     int port = 9990;
@@ -87,6 +106,46 @@ public class BuildServer {
       usage = "Turn on debugging, which enables the non-async calls of the buildserver.")
     boolean debug = false;
 
+    @Option(name = "--dexCacheDir",
+      usage = "Directory in which dexed runtime libraries are cached between builds.")
+    File dexCacheDir = null;
+
+    @Option(name = "--buildCacheDir",
+      usage = "Directory in which intermediate build results are cached between builds.")
+    File buildCacheDir = null;
+
+    @Option(name = "--buildCacheMaxMb",
+      usage = "Maximum size of the build cache, in MB. The least recently used results are " +
+        "removed when it is exceeded.")
+    long buildCacheMaxMb = 1024;
+
+    @Option(name = "--kawaCompileWorkers",
+      usage = "Maximum number of warm Kawa compile processes. 0 starts a new Kawa process " +
+        "for every build.")
+    int kawaCompileWorkers = 0;
+
+    @Option(name = "--kawaBuildsPerWorker",
+      usage = "Number of builds a warm Kawa compile process handles before it is replaced.")
+    int kawaBuildsPerWorker = 20;
+
+    @Option(name = "--kawaCompileTimeoutSeconds",
+      usage = "Time allowed for a warm Kawa compile process to compile one build, in seconds, " +
+        "after which the process is killed and replaced. 0 means no limit.")
+    int kawaCompileTimeoutSeconds = 600;
+
+    @Option(name = "--yailGeneratorWorkers",
+      usage = "Maximum number of YAIL generator processes kept running for generating YAIL.")
+    int yailGeneratorWorkers = 2;
+
+    @Option(name = "--yailGeneratorRequestsPerWorker",
+      usage = "Number of forms a YAIL generator process handles before it is replaced.")
+    int yailGeneratorRequestsPerWorker = 50;
+
+    @Option(name = "--yailGeneratorTimeoutSeconds",
+      usage = "Time allowed for generating YAIL for one form, in seconds, after which the YAIL " +
+        "generator process is killed and replaced. 0 means no limit.")
+    int yailGeneratorTimeoutSeconds = 120;
+
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -118,26 +177,29 @@ public class BuildServer {
   //The number of failed build requests for this server run
   private static int maximumActiveBuildTasks = 0;
 
+  // How often the queue position or progress of an async build is posted to its callback URL.
+  private static final int PROGRESS_REPORT_INTERVAL_SECONDS = 2;
+
+  // The timeout for posting a progress report, in milliseconds.
+  private static final int PROGRESS_REPORT_TIMEOUT_MILLIS = 10000;
+
+  // Posts progress reports for all running async builds. Reports are small and infrequent, so a
+  // single thread is enough.
+  private static final ScheduledExecutorService progressReporter =
+    Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "BuildProgressReporter");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
   // The build executor used to limit the number of simultaneous builds.
   // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
-
-  // The input zip file. It will be deleted in cleanUp.
-  private File inputZip;
-
-  // The built APK file for this build request, if any.
-  private File outputApk;
-
-  // The temp directory that we're building in.
-  private File outputDir;
-
-  // The android.keystore file generated by this build request, if necessary.
-  private File outputKeystore;
-
-  // The zip file where we put all the build results for this request.
-  private File outputZip;
+  private static FairQueuingExecutor buildExecutor;
 
   @GET
   @Path("health")
@@ -200,6 +262,44 @@ public class BuildServer {
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
     variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
 
+    // Build queue
+    int maxQueued = buildExecutor.getMaxQueuedTasks();
+    if (maxQueued == 0) {
+      variables.put("maximum-queued-build-tasks-allowed", "unlimited");
+    } else {
+      variables.put("maximum-queued-build-tasks-allowed", maxQueued + "");
+    }
+    variables.put("queued-build-tasks", buildExecutor.getQueuedTaskCount() + "");
+    variables.put("maximum-queued-build-tasks-occurred",
+      buildExecutor.getMaximumQueuedTaskCount() + "");
+    variables.put("rejected-build-tasks-queue-full", buildExecutor.getRejectedTaskCount() + "");
+    variables.put("rejected-build-tasks-overloaded", buildExecutor.getShedTaskCount() + "");
+    variables.put("average-build-queue-wait-in-ms", buildExecutor.getAverageWaitMillis() + "");
+    variables.put("maximum-build-queue-wait-in-ms", buildExecutor.getMaximumWaitMillis() + "");
+    variables.put("oldest-queued-build-wait-in-ms", buildExecutor.getOldestWaitMillis() + "");
+
+    // Dex cache
+    variables.put("dex-cache-hits", DexCache.getHitCount() + "");
+    variables.put("dex-cache-misses", DexCache.getMissCount() + "");
+
+    // Build cache
+    variables.put("build-cache-hits", BuildCache.getHitCount() + "");
+    variables.put("build-cache-misses", BuildCache.getMissCount() + "");
+
+    // Kawa compile
+    TimingStats kawaCompileTimes = Compiler.getKawaCompileTimes();
+    variables.put("kawa-compiles", kawaCompileTimes.getCount() + "");
+    variables.put("kawa-compile-time-p50-in-ms", kawaCompileTimes.getPercentile(50) + "");
+    variables.put("kawa-compile-time-p95-in-ms", kawaCompileTimes.getPercentile(95) + "");
+    variables.put("kawa-compile-workers", KawaCompilerPool.getWorkerCount() + "");
+    variables.put("kawa-compile-workers-started", KawaCompilerPool.getStartedWorkerCount() + "");
+
+    // YAIL generator workers
+    variables.put("yail-generator-workers", YailGeneratorPool.getWorkerCount() + "");
+    variables.put("yail-generator-workers-started",
+      YailGeneratorPool.getStartedWorkerCount() + "");
+    variables.put("yail-generator-requests", YailGeneratorPool.getCompletedRequestCount() + "");
+
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
     for (Map.Entry<String, String> variable : variables.entrySet()) {
@@ -210,6 +310,29 @@ public class BuildServer {
     return Response.ok(html.toString(), MediaType.TEXT_HTML_TYPE).build();
   }
 
+  /**
+   * Returns the status of the async builds that are queued or running, and of the last few that
+   * finished: their progress, how long they waited in the queue, the time taken by each stage and
+   * the number of child processes they are running.
+   */
+  @GET
+  @Path("builds")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response builds() throws JSONException {
+    JSONArray activeBuilds = new JSONArray();
+    for (BuildContext context : BuildRegistry.getActiveBuilds()) {
+      activeBuilds.put(context.toJson());
+    }
+    JSONArray finishedBuilds = new JSONArray();
+    for (BuildContext context : BuildRegistry.getFinishedBuilds()) {
+      finishedBuilds.put(context.toJson());
+    }
+    JSONObject builds = new JSONObject();
+    builds.put("active", activeBuilds);
+    builds.put("finished", finishedBuilds);
+    return Response.ok(builds.toString(), MediaType.APPLICATION_JSON_TYPE).build();
+  }
+
   /**
    * Build an APK file from the input zip file. The zip file needs to be a variant of the same
    * App Inventor source zip that's generated by the Download Source command.  The differences are
@@ -226,25 +349,27 @@ public class BuildServer {
   @Produces("application/vnd.android.package-archive;charset=utf-8")
   public Response buildFromZipFile(@QueryParam("uname") String userName, File zipFile)
     throws IOException {
-    // Set the inputZip field so we can delete the input zip file later in cleanUp.
-    inputZip = zipFile;
-    inputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
+    BuildContext context = new BuildContext(null);
+    // Set the input zip so we can delete the input zip file later in cleanUp.
+    context.setInputZip(zipFile);
 
     if(!commandLineOptions.debug)
       return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE)
         .entity("Entry point unavailable unless debugging.").build();
 
     try {
-      build(userName, zipFile);
+      context.setStatus(BuildContext.Status.BUILDING);
+      build(userName, zipFile, context);
+      File outputApk = context.getOutputApk();
       String attachedFilename = outputApk.getName();
       FileInputStream outputApkDeleteOnClose = new DeleteFileOnCloseFileInputStream(outputApk);
-      // Set the outputApk field to null so that it won't be deleted in cleanUp().
-      outputApk = null;
+      // Set the output APK to null so that it won't be deleted in cleanUp().
+      context.setOutputApk(null);
       return Response.ok(outputApkDeleteOnClose)
         .header("Content-Disposition", "attachment; filename=\"" + attachedFilename + "\"")
         .build();
     } finally {
-      cleanUp();
+      context.cleanUp();
     }
   }
 
@@ -269,25 +394,27 @@ public class BuildServer {
   @Produces("application/zip;charset=utf-8")
   public Response buildAllFromZipFile(@QueryParam("uname") String userName, File inputZipFile)
     throws IOException, JSONException {
-    // Set the inputZip field so we can delete the input zip file later in cleanUp.
-    inputZip = inputZipFile;
-    inputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
+    BuildContext context = new BuildContext(null);
+    // Set the input zip so we can delete the input zip file later in cleanUp.
+    context.setInputZip(inputZipFile);
 
     if(!commandLineOptions.debug)
       return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE)
         .entity("Entry point unavailable unless debugging.").build();
 
     try {
-      buildAndCreateZip(userName, inputZipFile);
+      context.setStatus(BuildContext.Status.BUILDING);
+      buildAndCreateZip(userName, inputZipFile, context);
+      File outputZip = context.getOutputZip();
       String attachedFilename = outputZip.getName();
       FileInputStream outputZipDeleteOnClose = new DeleteFileOnCloseFileInputStream(outputZip);
-      // Set the outputZip field to null so that it won't be deleted in cleanUp().
-      outputZip = null;
+      // Set the output zip to null so that it won't be deleted in cleanUp().
+      context.setOutputZip(null);
       return Response.ok(outputZipDeleteOnClose)
         .header("Content-Disposition", "attachment; filename=\"" + attachedFilename + "\"")
         .build();
     } finally {
-      cleanUp();
+      context.cleanUp();
     }
   }
 
@@ -315,6 +442,9 @@ public class BuildServer {
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
    * @param callbackUrlStr An url to send the build results back to.
+   * @param projectId  An identifier of the project being built, which tells apart the builds of
+   *     different projects of the same user. If it is missing, progress requests (with an empty
+   *     input zip) can't find the build.
    * @param inputZipFile  The zip file representing the App Inventor source code.
    * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503).
    */
@@ -325,16 +455,24 @@ public class BuildServer {
     @QueryParam("uname") final String userName,
     @QueryParam("callback") final String callbackUrlStr,
     @QueryParam("gitBuildVersion") final String gitBuildVersion,
+    @QueryParam("projectId") final String projectId,
     final File inputZipFile) throws IOException {
-    // Set the inputZip field so we can delete the input zip file later in
-    // cleanUp.
-    inputZip = inputZipFile;
-    inputZip.deleteOnExit(); // In case build server is killed before cleanUp executes.
+    String queueKey = getQueueKey(userName, projectId, callbackUrlStr);
+    final BuildContext context = new BuildContext(queueKey);
+    // Set the input zip so we can delete the input zip file later in cleanUp.
+    context.setInputZip(inputZipFile);
     String requesting_host = (new URL(callbackUrlStr)).getHost();
 
+    // The progress of this build.
+    int progress = 0;
+
     //for the request for update part, the file should be empty
-    if (inputZip.length() == 0L) {
-      cleanUp();
+    if (inputZipFile.length() == 0L) {
+      context.cleanUp();
+      BuildContext build = BuildRegistry.findActiveBuild(queueKey);
+      if (build != null) {
+        progress = build.getProgress();
+      }
     } else {
       if (commandLineOptions.requiredHosts != null) {
         boolean oktoproceed = false;
@@ -349,6 +487,7 @@ public class BuildServer {
         } else {
           // Return an error
           LOG.info("requesting host (" + requesting_host + ") is NOT in the allowed host list request will be rejected.");
+          context.cleanUp();
           return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE).entity("You are not permitted to use this build server.").build();
         }
       } else {
@@ -367,7 +506,7 @@ public class BuildServer {
           // This request was rejected because the gitBuildVersion parameter did not equal the
           // expected value.
           rejectedAsyncBuildRequests.incrementAndGet();
-          cleanUp();
+          context.cleanUp();
           // Here, we use CONFLICT (response code 409), which means (according to rfc2616, section
           // 10) "The request could not be completed due to a conflict with the current state of the
           // resource."
@@ -375,14 +514,25 @@ public class BuildServer {
         }
       }
 
+      // Reports the build's place in the queue while it waits, and its progress once it runs.
+      final ScheduledFuture<?> progressReports =
+        startProgressReports(callbackUrlStr, queueKey, context);
       Runnable buildTask = new Runnable() {
           @Override
           public void run() {
             int count = buildCount.incrementAndGet();
+            boolean succeeded = false;
             try {
-              LOG.info("START NEW BUILD " + count);
+              LOG.info("START NEW BUILD " + count + " (build id " + context.getId() + ")");
+              context.setStatus(BuildContext.Status.BUILDING);
               checkMemory();
-              buildAndCreateZip(userName, inputZipFile);
+              try {
+                succeeded = buildAndCreateZip(userName, inputZipFile, context);
+              } finally {
+                progressReports.cancel(false);
+              }
+              context.setStatus(BuildContext.Status.SENDING);
+              context.startStage("Sending results");
               // Send zip back to the callbackUrl
               LOG.info("CallbackURL: " + callbackUrlStr);
               URL callbackUrl = new URL(callbackUrlStr);
@@ -397,7 +547,7 @@ public class BuildServer {
               BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
               try {
                 BufferedInputStream bufferedInputStream = new BufferedInputStream(
-                  new FileInputStream(outputZip));
+                  new FileInputStream(context.getOutputZip()));
                 try {
                   ByteStreams.copy(bufferedInputStream,bufferedOutputStream);
                   checkMemory();
@@ -410,24 +560,32 @@ public class BuildServer {
               }
               if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {LOG.severe("Bad Response Code!: "+ connection.getResponseCode());
                 // TODO(user) Maybe do some retries
+                succeeded = false;
               }
             } catch (Exception e) {
               // TODO(user): Maybe send a failure callback
-              LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ inputZip.length());
+              succeeded = false;
+              LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ inputZipFile.length());
             } finally {
-              cleanUp();
+              context.setStatus(succeeded ? BuildContext.Status.SUCCEEDED : BuildContext.Status.FAILED);
+              context.cleanUp();
+              BuildRegistry.finish(context);
               checkMemory();
               LOG.info("BUILD " + count + " FINISHED");
             }
           }
         };
+      BuildRegistry.register(context);
       try {
-        buildExecutor.execute(buildTask);
+        buildExecutor.execute(userName, queueKey, buildTask);
       } catch (RejectedExecutionException e) {
-        // This request was rejected because all threads in the build
-        // executor are busy.
+        // This request was rejected because the build queue is full or the
+        // machine is overloaded.
         rejectedAsyncBuildRequests.incrementAndGet();
-        cleanUp();
+        progressReports.cancel(false);
+        context.setStatus(BuildContext.Status.FAILED);
+        context.cleanUp();
+        BuildRegistry.finish(context);
         // Here, we use SERVICE_UNAVAILABLE (response code 503), which
         // means (according to rfc2616, section 10) "The server is
         // currently unable to handle the request due to a temporary
@@ -437,28 +595,112 @@ public class BuildServer {
         return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.TEXT_PLAIN_TYPE).entity("The build server is currently at maximum capacity.").build();
       }
     }
-    return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
-      .entity("" + projectBuilder.getProgress()).build();
+    return Response.ok().type(MediaType.TEXT_PLAIN_TYPE).entity("" + progress).build();
+  }
+
+  /*
+   * Periodically posts the state of an async build to the callback URL, with an empty body, so
+   * that the App Engine server doesn't have to ask for it. While the build waits in the queue its
+   * position is posted as a queuePosition query parameter; once it runs its progress is posted as
+   * a progress query parameter. A report is only posted when the value has changed. The build
+   * results themselves are still posted to the callback URL when the build finishes.
+   */
+  private static ScheduledFuture<?> startProgressReports(final String callbackUrlStr,
+    final String queueKey, final BuildContext context) {
+    return progressReporter.scheduleWithFixedDelay(new Runnable() {
+      private int reportedQueuePosition = 0;
+      private int reportedProgress = -1;
+
+      @Override
+      public void run() {
+        if (context.getStatus() == BuildContext.Status.QUEUED) {
+          int queuePosition = buildExecutor.getQueuePosition(queueKey);
+          if (queuePosition > 0 && queuePosition != reportedQueuePosition &&
+              postReport(callbackUrlStr, "queuePosition", queuePosition)) {
+            reportedQueuePosition = queuePosition;
+          }
+          return;
+        }
+        int progress = context.getProgress();
+        if (progress != reportedProgress && postReport(callbackUrlStr, "progress", progress)) {
+          reportedProgress = progress;
+        }
+      }
+    }, 0, PROGRESS_REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private static boolean postReport(String callbackUrlStr, String name, int value) {
+    try {
+      URL reportUrl = new URL(callbackUrlStr + (callbackUrlStr.indexOf('?') < 0 ? "?" : "&") +
+        name + "=" + value);
+      HttpURLConnection connection = (HttpURLConnection) reportUrl.openConnection();
+      connection.setDoOutput(true);
+      connection.setRequestMethod("POST");
+      connection.setFixedLengthStreamingMode(0);
+      connection.setConnectTimeout(PROGRESS_REPORT_TIMEOUT_MILLIS);
+      connection.setReadTimeout(PROGRESS_REPORT_TIMEOUT_MILLIS);
+      connection.getOutputStream().close();
+      int responseCode = connection.getResponseCode();
+      connection.disconnect();
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        LOG.warning("Build " + name + " report got response code " + responseCode);
+        return false;
+      }
+      return true;
+    } catch (IOException e) {
+      // The report will be retried when it is next due.
+      LOG.warning("Unable to post build " + name + " report: " + e.getMessage());
+      return false;
+    }
+  }
+
+  /*
+   * Returns the key used to find a build in the build queue when its progress is requested.
+   * The encrypted user and project id in the callback URL differs from request to request, so
+   * the key is made of the user name, the project id and the trailing build folder and target of
+   * the callback path. Without a project id, the builds of a user's different projects can't be
+   * told apart, so the whole callback URL is used; it is unique to the build request.
+   */
+  private static String getQueueKey(String userName, String projectId, String callbackUrlStr) {
+    if (projectId == null || projectId.isEmpty()) {
+      return userName + ":" + callbackUrlStr;
+    }
+    String path = callbackUrlStr;
+    try {
+      path = new URL(callbackUrlStr).getPath();
+    } catch (MalformedURLException e) {
+      // Use the whole callback string.
+    }
+    int targetSlash = path.lastIndexOf('/');
+    int folderSlash = (targetSlash > 0) ? path.lastIndexOf('/', targetSlash - 1) : -1;
+    return userName + ":" + projectId + ":" + path.substring(folderSlash + 1);
   }
 
-  private void buildAndCreateZip(String userName, File inputZipFile)
+  /*
+   * Builds the project and writes the results to a new zip file, which is set as the context's
+   * output zip. Returns whether the build succeeded.
+   */
+  private boolean buildAndCreateZip(String userName, File inputZipFile, BuildContext context)
     throws IOException, JSONException {
-    Result buildResult = build(userName, inputZipFile);
+    Result buildResult = build(userName, inputZipFile, context);
     boolean buildSucceeded = buildResult.succeeded();
-    outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
-    outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
+    context.startStage("Creating output zip");
+    File outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
+    context.setOutputZip(outputZip);
     ZipOutputStream zipOutputStream =
       new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputZip)));
     if (buildSucceeded) {
+      File outputKeystore = context.getOutputKeystore();
       if (outputKeystore != null) {
         zipOutputStream.putNextEntry(new ZipEntry(outputKeystore.getName()));
         Files.copy(outputKeystore, zipOutputStream);
       }
+      File outputApk = context.getOutputApk();
       zipOutputStream.putNextEntry(new ZipEntry(outputApk.getName()));
       Files.copy(outputApk, zipOutputStream);
       successfulBuildRequests.getAndIncrement();
     } else {
-      LOG.severe("Build " + buildCount.get() + " Failed: " + buildResult.getResult() + " " + buildResult.getError());
+      LOG.severe("Build " + context.getId() + " Failed: " + buildResult.getResult() + " " + buildResult.getError());
       failedBuildRequests.getAndIncrement();
     }
     zipOutputStream.putNextEntry(new ZipEntry("build.out"));
@@ -468,6 +710,7 @@ public class BuildServer {
     zipPrintStream.flush();
     zipOutputStream.flush();
     zipOutputStream.close();
+    return buildSucceeded;
   }
 
   private String genBuildOutput(Result buildResult) throws JSONException {
@@ -481,49 +724,22 @@ public class BuildServer {
     return buildOutputJsonObj.toString();
   }
 
-  private Result build(String userName, File zipFile) throws IOException {
-    outputDir = Files.createTempDir();
-    // We call outputDir.deleteOnExit() here, in case build server is killed before cleanUp
-    // executes. However, it is likely that the directory won't be empty and therefore, won't
-    // actually be deleted. That's only if the build server is killed (via ctrl+c) while a build
-    // is happening, so we should be careful about that.
-    outputDir.deleteOnExit();
-    Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile), outputDir, false, false,
-      commandLineOptions.childProcessRamMb);
+  private Result build(String userName, File zipFile, BuildContext context) throws IOException {
+    context.setOutputDir(Files.createTempDir());
+    // Each build gets its own ProjectBuilder, since it keeps the output files of the build.
+    ProjectBuilder projectBuilder = new ProjectBuilder();
+    Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile),
+      context.getOutputDir(), false, false, commandLineOptions.childProcessRamMb, context);
     String buildOutput = buildResult.getOutput();
     LOG.info("Build output: " + buildOutput);
     String buildError = buildResult.getError();
     LOG.info("Build error output: " + buildError);
-    outputApk = projectBuilder.getOutputApk();
-    if (outputApk != null) {
-      outputApk.deleteOnExit();  // In case build server is killed before cleanUp executes.
-    }
-    outputKeystore = projectBuilder.getOutputKeystore();
-    if (outputKeystore != null) {
-      outputKeystore.deleteOnExit();  // In case build server is killed before cleanUp executes.
-    }
+    context.setOutputApk(projectBuilder.getOutputApk());
+    context.setOutputKeystore(projectBuilder.getOutputKeystore());
     checkMemory();
     return buildResult;
   }
 
-  private void cleanUp() {
-    if (inputZip != null) {
-      inputZip.delete();
-    }
-    if (outputKeystore != null) {
-      outputKeystore.delete();
-    }
-    if (outputApk != null) {
-      outputApk.delete();
-    }
-    if (outputZip != null) {
-      outputZip.delete();
-    }
-    if (outputDir != null) {
-      outputDir.delete();
-    }
-  }
-
   private static void checkMemory() {
     MemoryMXBean mBean = ManagementFactory.getMemoryMXBean();
     mBean.gc();
@@ -544,8 +760,21 @@ public class BuildServer {
       System.exit(1);
     }
 
+    if (commandLineOptions.dexCacheDir != null) {
+      DexCache.setCacheDirectory(commandLineOptions.dexCacheDir);
+    }
+    BuildCache.configure(commandLineOptions.buildCacheDir, commandLineOptions.buildCacheMaxMb);
+    YailGeneratorPool.configure(commandLineOptions.yailGeneratorWorkers,
+      commandLineOptions.yailGeneratorRequestsPerWorker,
+      commandLineOptions.yailGeneratorTimeoutSeconds);
+    KawaCompilerPool.configure(commandLineOptions.kawaCompileWorkers,
+      commandLineOptions.kawaBuildsPerWorker,
+      commandLineOptions.kawaCompileTimeoutSeconds);
+
     // Now that the command line options have been processed, we can create the buildExecutor.
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    buildExecutor = new FairQueuingExecutor(commandLineOptions.maxSimultaneousBuilds,
+      commandLineOptions.maxQueuedBuilds, commandLineOptions.minFreeMemoryMb,
+      commandLineOptions.maxLoadPerProcessor);
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
@@ -558,10 +787,17 @@ public class BuildServer {
     } else {
       LOG.info("Maximum simultanous builds = " + commandLineOptions.maxSimultaneousBuilds);
     }
+    if (commandLineOptions.maxQueuedBuilds == 0) {
+      LOG.info("Maximum queued builds = unlimited!");
+    } else {
+      LOG.info("Maximum queued builds = " + commandLineOptions.maxQueuedBuilds);
+    }
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/health for server health");
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/vars for server values");
+    LOG.info("Visit: http://" + hostAddress + ":" + port +
+      "/buildserver/builds for the status of builds");
     LOG.info("Server running");
   }
 
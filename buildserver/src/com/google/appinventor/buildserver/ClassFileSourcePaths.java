@@ -0,0 +1,244 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Removes directory prefixes from the source paths that Kawa records in class files.
+ *
+ * <p>Kawa names a class's source by the path it was compiled from in the class's JSR-45
+ * SourceDebugExtension attribute, and names anonymous procedures by that path and a line number
+ * in string constants. For a build, the path starts with the build's temp directory, so the same
+ * sources would otherwise produce different class files in every build. The SourceFile attribute,
+ * which is what stack traces show, holds only the file name and is left alone.</p>
+ */
+final class ClassFileSourcePaths {
+  private static final byte[] SOURCE_DEBUG_EXTENSION =
+      "SourceDebugExtension".getBytes(Charsets.UTF_8);
+
+  private ClassFileSourcePaths() {
+  }
+
+  /**
+   * Removes the given prefixes from every class file in a directory tree.
+   *
+   * @param directory  the directory tree
+   * @param prefixes  the prefixes to remove, for example the project's src directory followed by
+   *     a separator
+   */
+  static void removePrefixes(File directory, List<String> prefixes) throws IOException {
+    byte[][] prefixBytes = new byte[prefixes.size()][];
+    for (int i = 0; i < prefixBytes.length; i++) {
+      prefixBytes[i] = prefixes.get(i).getBytes(Charsets.UTF_8);
+    }
+    removePrefixes(directory, prefixBytes);
+  }
+
+  private static void removePrefixes(File directory, byte[][] prefixes) throws IOException {
+    File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        removePrefixes(child, prefixes);
+      } else if (child.getName().endsWith(".class")) {
+        byte[] classBytes = Files.toByteArray(child);
+        byte[] newClassBytes;
+        try {
+          newClassBytes = new Rewriter(classBytes, prefixes).rewrite();
+        } catch (ArrayIndexOutOfBoundsException e) {
+          throw new IOException("Malformed class file " + child);
+        }
+        if (newClassBytes != null) {
+          Files.write(newClassBytes, child);
+        }
+      }
+    }
+  }
+
+  /*
+   * Copies a class file (see the JVM specification, chapter 4), removing the prefixes from its
+   * UTF-8 constants and its SourceDebugExtension. Neither has anything pointing into it by
+   * offset, so they can change length.
+   */
+  private static class Rewriter {
+    private final byte[] in;
+    private final byte[][] prefixes;
+    private int position;
+    private final ByteArrayOutputStream bytes;
+    private final DataOutputStream out;
+    private boolean changed;
+
+    Rewriter(byte[] in, byte[][] prefixes) {
+      this.in = in;
+      this.prefixes = prefixes;
+      bytes = new ByteArrayOutputStream(in.length);
+      out = new DataOutputStream(bytes);
+    }
+
+    /*
+     * Returns the new class file, or null if nothing changed.
+     */
+    byte[] rewrite() throws IOException {
+      copy(8);  // magic, minor version, major version
+      int sourceDebugExtensionIndex = copyConstantPool();
+      copy(6);  // access flags, this class, super class
+      copy(2 * copyU2());  // interfaces
+      copyMembers();  // fields
+      copyMembers();  // methods
+      int attributeCount = copyU2();
+      for (int i = 0; i < attributeCount; i++) {
+        int nameIndex = copyU2();
+        int length = u4();
+        if (nameIndex == sourceDebugExtensionIndex) {
+          byte[] value = removePrefixes(position, length);
+          out.writeInt(value.length);
+          out.write(value);
+          position += length;
+        } else {
+          out.writeInt(length);
+          copy(length);
+        }
+      }
+      out.flush();
+      return changed ? bytes.toByteArray() : null;
+    }
+
+    /*
+     * Copies the constant pool and returns the index of the UTF-8 constant
+     * "SourceDebugExtension", or 0 if there is none.
+     */
+    private int copyConstantPool() throws IOException {
+      int sourceDebugExtensionIndex = 0;
+      int count = copyU2();
+      for (int i = 1; i < count; i++) {
+        int tag = in[position] & 0xff;
+        copy(1);
+        switch (tag) {
+          case 1:  // Utf8
+            int length = u2();
+            byte[] value = removePrefixes(position, length);
+            if (value.length > 0xffff) {
+              throw new IOException("UTF-8 constant too long");
+            }
+            out.writeShort(value.length);
+            out.write(value);
+            position += length;
+            if (Arrays.equals(value, SOURCE_DEBUG_EXTENSION)) {
+              sourceDebugExtensionIndex = i;
+            }
+            break;
+          case 3:  // Integer
+          case 4:  // Float
+          case 9:  // Fieldref
+          case 10:  // Methodref
+          case 11:  // InterfaceMethodref
+          case 12:  // NameAndType
+          case 18:  // InvokeDynamic
+            copy(4);
+            break;
+          case 5:  // Long
+          case 6:  // Double
+            copy(8);
+            i++;  // takes two entries
+            break;
+          case 7:  // Class
+          case 8:  // String
+          case 16:  // MethodType
+            copy(2);
+            break;
+          case 15:  // MethodHandle
+            copy(3);
+            break;
+          default:
+            throw new IOException("Unknown constant pool tag " + tag);
+        }
+      }
+      return sourceDebugExtensionIndex;
+    }
+
+    /*
+     * Copies a fields or methods table.
+     */
+    private void copyMembers() throws IOException {
+      int count = copyU2();
+      for (int i = 0; i < count; i++) {
+        copy(6);  // access flags, name, descriptor
+        int attributeCount = copyU2();
+        for (int j = 0; j < attributeCount; j++) {
+          copy(2);
+          int length = u4();
+          out.writeInt(length);
+          copy(length);
+        }
+      }
+    }
+
+    /*
+     * Returns the given bytes of the input without the prefixes.
+     */
+    private byte[] removePrefixes(int start, int length) {
+      ByteArrayOutputStream value = new ByteArrayOutputStream(length);
+      int end = start + length;
+      int i = start;
+      while (i < end) {
+        int prefixLength = matchPrefix(i, end);
+        if (prefixLength > 0) {
+          i += prefixLength;
+          changed = true;
+        } else {
+          value.write(in[i++]);
+        }
+      }
+      return value.toByteArray();
+    }
+
+    private int matchPrefix(int start, int end) {
+      for (byte[] prefix : prefixes) {
+        if (prefix.length > 0 && prefix.length <= end - start) {
+          int j = 0;
+          while (j < prefix.length && in[start + j] == prefix[j]) {
+            j++;
+          }
+          if (j == prefix.length) {
+            return prefix.length;
+          }
+        }
+      }
+      return 0;
+    }
+
+    private int u2() {
+      int value = ((in[position] & 0xff) << 8) | (in[position + 1] & 0xff);
+      position += 2;
+      return value;
+    }
+
+    private int u4() {
+      return (u2() << 16) | u2();
+    }
+
+    private int copyU2() throws IOException {
+      int value = u2();
+      out.writeShort(value);
+      return value;
+    }
+
+    private void copy(int count) throws IOException {
+      out.write(in, position, count);
+      position += count;
+    }
+  }
+}
@@ -10,6 +10,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 
@@ -52,11 +53,14 @@ import javax.imageio.ImageIO;
  * @author lizlooney@google.com (Liz Looney)
  */
 public final class Compiler {
-  public static int currentProgress = 10;
 
   // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
+  // Warm Kawa workers are limited by the size of the KawaCompilerPool instead.
   private static final Object SYNC_KAWA_OR_DX = new Object();
 
+  // Durations of the most recent Kawa compiles.
+  private static final TimingStats kawaCompileTimes = new TimingStats(1000);
+
   // TODO(sharon): temporary until we add support for new activities
   private static final String LIST_ACTIVITY_CLASS =
       "com.google.appinventor.components.runtime.ListPickerActivity";
@@ -171,6 +175,8 @@ public final class Compiler {
   private final boolean isForWireless;
   // Maximum ram that can be used by a child processes, in MB.
   private final int childProcessRamMb;
+  // The context of the build, which records its progress, stages and child processes
+  private final BuildContext context;
   private Set<String> librariesNeeded; // Set of component libraries
   private Set<String> nativeLibrariesNeeded; // Set of component native libraries
   private Set<String> assetsNeeded; // Set of component assets
@@ -592,6 +598,7 @@ public final class Compiler {
    * @param isForRepl {@code true}, if this compilation is for the special REPL app
    * @param keystoreFilePath
    * @param childProcessRam   maximum RAM for child processes, in MBs.
+   * @param context  the context of the build
    * @return  {@code true} if the compilation succeeds, {@code false} otherwise
    * @throws JSONException
    * @throws IOException
@@ -599,12 +606,13 @@ public final class Compiler {
   public static boolean compile(Project project, Set<String> componentTypes,
                                 PrintStream out, PrintStream err, PrintStream userErrors,
                                 boolean isForRepl, boolean isForWireless, String keystoreFilePath,
-                                int childProcessRam) throws IOException, JSONException {
+                                int childProcessRam, BuildContext context)
+      throws IOException, JSONException {
     long start = System.currentTimeMillis();
 
     // Create a new compiler instance for the compilation
     Compiler compiler = new Compiler(project, componentTypes, out, err, userErrors, isForRepl, isForWireless,
-                                     childProcessRam);
+                                     childProcessRam, context);
 
     // Get names of component-required libraries and assets.
     compiler.generateLibraryNames();
@@ -615,107 +623,101 @@ public final class Compiler {
     File buildDir = createDirectory(project.getBuildDirectory());
 
     // Prepare application icon.
-    out.println("________Preparing application icon");
+    compiler.startStage("Preparing application icon");
     File resDir = createDirectory(buildDir, "res");
     File drawableDir = createDirectory(resDir, "drawable");
     if (!compiler.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
       return false;
     }
-    setProgress(10);
+    compiler.setProgress(10);
 
     // Create anim directory and animation xml files
-    out.println("________Creating animation xml");
+    compiler.startStage("Creating animation xml");
     File animDir = createDirectory(resDir, "anim");
     if (!compiler.createAnimationXml(animDir)) {
       return false;
     }
 
     // Determine android permissions.
-    out.println("________Determining permissions");
+    compiler.startStage("Determining permissions");
     Set<String> permissionsNeeded = compiler.generatePermissions();
     if (permissionsNeeded == null) {
       return false;
     }
-    setProgress(15);
+    compiler.setProgress(15);
 
     // Generate AndroidManifest.xml
-    out.println("________Generating manifest file");
+    compiler.startStage("Generating manifest file");
     File manifestFile = new File(buildDir, "AndroidManifest.xml");
     if (!compiler.writeAndroidManifest(manifestFile, permissionsNeeded)) {
       return false;
     }
-    setProgress(20);
+    compiler.setProgress(20);
 
     // Insert native libraries
-    out.println("________Attaching native libraries");
+    compiler.startStage("Attaching native libraries");
     if (!compiler.insertNativeLibraries(buildDir)) {
       return false;
     }
 
     // Add raw assets to sub-directory of project assets.
-    out.println("________Attaching component assets");
+    compiler.startStage("Attaching component assets");
     if (!compiler.attachComponentAssets()) {
       return false;
     }
 
     // Create class files.
-    out.println("________Compiling source files");
+    compiler.startStage("Compiling source files");
     File classesDir = createDirectory(buildDir, "classes");
     if (!compiler.generateClasses(classesDir)) {
       return false;
     }
-    setProgress(35);
+    compiler.setProgress(35);
 
     // Invoke dx on class files
-    out.println("________Invoking DX");
-    // TODO(markf): Running DX is now pretty slow (~25 sec overhead the first time and ~15 sec
-    // overhead for subsequent runs).  I think it's because of the need to dx the entire
-    // kawa runtime every time.  We should probably only do that once and then copy all the
-    // kawa runtime dx files into the generated classes.dex (which would only contain the
-    // files compiled for this project).
-    // Aargh.  It turns out that there's no way to manipulate .dex files to do the above.  An
-    // Android guy suggested an alternate approach of shipping the kawa runtime .dex file as
-    // data with the application and then creating a new DexClassLoader using that .dex file
-    // and with the original app class loader as the parent of the new one.
+    compiler.startStage("Invoking DX");
+    // Dexing the kawa runtime and the component libraries used to account for ~15-25 sec of
+    // every build. Only the project's own classes are dexed now; the runtime comes from the
+    // DexCache and is merged in with dx's DexMerger.
     File tmpDir = createDirectory(buildDir, "tmp");
     String dexedClasses = tmpDir.getAbsolutePath() + File.separator + "classes.dex";
     if (!compiler.runDx(classesDir, dexedClasses)) {
       return false;
     }
-    setProgress(85);
+    compiler.setProgress(85);
 
     // Invoke aapt to package everything up
-    out.println("________Invoking AAPT");
+    compiler.startStage("Invoking AAPT");
     File deployDir = createDirectory(buildDir, "deploy");
     String tmpPackageName = deployDir.getAbsolutePath() + File.separatorChar +
         project.getProjectName() + ".ap_";
     if (!compiler.runAaptPackage(manifestFile, resDir, tmpPackageName)) {
       return false;
     }
-    setProgress(90);
+    compiler.setProgress(90);
 
     // Seal the apk with ApkBuilder
-    out.println("________Invoking ApkBuilder");
+    compiler.startStage("Invoking ApkBuilder");
     String apkAbsolutePath = deployDir.getAbsolutePath() + File.separatorChar +
         project.getProjectName() + ".apk";
     if (!compiler.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClasses)) {
       return false;
     }
-    setProgress(95);
+    compiler.setProgress(95);
 
     // Sign the apk file
-    out.println("________Signing the apk file");
+    compiler.startStage("Signing the apk file");
     if (!compiler.runJarSigner(apkAbsolutePath, keystoreFilePath)) {
       return false;
     }
 
     // ZipAlign the apk file
-    out.println("________ZipAligning the apk file");
+    compiler.startStage("ZipAligning the apk file");
     if (!compiler.runZipAlign(apkAbsolutePath, tmpDir)) {
       return false;
     }
 
-    setProgress(100);
+    compiler.setProgress(100);
 
     out.println("Build finished in " +
         ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
@@ -801,11 +803,12 @@ public final class Compiler {
    * @param userErrors stream to write user-visible error messages
    * @param isForRepl {@code true}, if this compilation is for the special REPL app
    * @param childProcessMaxRam  maximum RAM for child processes, in MBs.
+   * @param context  the context of the build
    */
   @VisibleForTesting
   Compiler(Project project, Set<String> componentTypes, PrintStream out, PrintStream err,
            PrintStream userErrors, boolean isForRepl, boolean isForWireless,
-           int childProcessMaxRam) {
+           int childProcessMaxRam, BuildContext context) {
     this.project = project;
     this.componentTypes = componentTypes;
     this.out = out;
@@ -814,6 +817,7 @@ public final class Compiler {
     this.isForRepl = isForRepl;
     this.isForWireless = isForWireless;
     this.childProcessRamMb = childProcessMaxRam;
+    this.context = context;
   }
 
   /*
@@ -882,43 +886,90 @@ public final class Compiler {
       System.out.println("Libraries Classpath = " + classpath);
 
       String yailRuntime = getResource(YAIL_RUNTIME);
-      List<String> kawaCommandArgs = Lists.newArrayList();
+      String packageName = Signatures.getPackageName(project.getMainClass());
+
+      // Kawa names the sources by their absolute paths, which start with this build's temp
+      // directory. Those prefixes are removed from the compiled classes and from the saved Kawa
+      // output, so that identical sources yield identical classes in every build.
+      List<String> sourcePathPrefixes = Lists.newArrayList(
+          new File(yailRuntime).getParent() + File.separator);
+      String firstSourceFileName = sourceFileNames.get(0);
+      int firstSrcIndex = firstSourceFileName.indexOf("/../src/");
+      if (firstSrcIndex != -1) {
+        sourcePathPrefixes.add(firstSourceFileName.substring(0, firstSrcIndex + 8));
+      }
+
+      // All of the forms are compiled in one Kawa run, so the classes are cached for the project
+      // as a whole, along with the Kawa output, whose warnings are shown to the user.
+      String cacheKey = getClassesCacheKey(sourceFileNames, classpath, yailRuntime, packageName);
+      String kawaOutputCacheKey = (cacheKey == null)
+          ? null
+          : BuildCache.newHasher("kawa-output").putString(cacheKey, Charsets.UTF_8).hash()
+              .toString();
+      File kawaOutputFile = new File(classesDir.getParentFile(), "kawa-output.txt");
+      if (cacheKey != null && BuildCache.restore(kawaOutputCacheKey, kawaOutputFile)
+          && BuildCache.restore(cacheKey, classesDir)) {
+        // The saved output names the sources relative to src, the way
+        // ProjectBuilder.processCompilerOutput shows them.
+        out.print(Files.toString(kawaOutputFile, Charsets.UTF_8));
+        out.println("Kawa compile skipped: the source files are unchanged since an earlier build");
+        return true;
+      }
+
+      List<String> kawaCompileArgs = Lists.newArrayList();
       int mx = childProcessRamMb - 200;
-      Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-mx" + mx + "M",
-          "-cp", classpath,
-          "kawa.repl",
-          "-f", yailRuntime,
+      Collections.addAll(kawaCompileArgs,
           "-d", classesDir.getAbsolutePath(),
-          "-P", Signatures.getPackageName(project.getMainClass()) + ".",
+          "-P", packageName + ".",
           "-C");
-      // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
-      // source file names. The resulting .class files contain references to the source file names,
-      // including the name of the tmp directory that contains them. We may be able to avoid that
-      // by using source file names that are relative to the project root and using the project
-      // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
-      String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+      // Kawa is given absolute source paths because a warm Kawa worker can't change its working
+      // directory. The resulting .class files contain those paths; they are made relative to src
+      // below.
+      kawaCompileArgs.addAll(sourceFileNames);
+      kawaCompileArgs.add(yailRuntime);
 
       long start = System.currentTimeMillis();
       // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
       // them to the protocol buffer for logging purposes. (See
       // YoungAndroidProjectBuilder.processCompilerOutout.
-      ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
+      String kawaOutput;
       boolean kawaSuccess;
-      synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
+      if (KawaCompilerPool.isEnabled()) {
+        // A warm worker already has the runtime loaded, so it only needs the compile arguments.
+        try {
+          ServerProcess.Response response =
+              KawaCompilerPool.compile(classpath, yailRuntime, mx, kawaCompileArgs);
+          kawaSuccess = response.status == 0;
+          kawaOutput = response.text;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for a Kawa compile worker");
+        }
+      } else {
+        List<String> kawaCommandArgs = Lists.newArrayList();
+        Collections.addAll(kawaCommandArgs,
+            System.getProperty("java.home") + "/bin/java",
+            "-mx" + mx + "M",
+            "-cp", classpath,
+            "kawa.repl",
+            "-f", yailRuntime);
+        kawaCommandArgs.addAll(kawaCompileArgs);
+        String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+        ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
+        synchronized (SYNC_KAWA_OR_DX) {
+          kawaSuccess = Execution.execute(null, kawaCommandLine,
+              System.out, new PrintStream(kawaOutputStream), context);
+        }
+        kawaOutput = kawaOutputStream.toString();
       }
       if (!kawaSuccess) {
         LOG.log(Level.SEVERE, "Kawa compile has failed.");
       }
-      String kawaOutput = kawaOutputStream.toString();
       out.print(kawaOutput);
+      long kawaCompileMillis = System.currentTimeMillis() - start;
+      kawaCompileTimes.record(kawaCompileMillis);
       String kawaCompileTimeMessage = "Kawa compile time: " +
-          ((System.currentTimeMillis() - start) / 1000.0) + " seconds";
+          (kawaCompileMillis / 1000.0) + " seconds";
       out.println(kawaCompileTimeMessage);
       LOG.info(kawaCompileTimeMessage);
 
@@ -934,6 +985,24 @@ public final class Compiler {
           return false;
         }
       }
+      if (kawaSuccess) {
+        try {
+          ClassFileSourcePaths.removePrefixes(classesDir, sourcePathPrefixes);
+        } catch (IOException e) {
+          // The classes still name the temp directory, so they must not be shared.
+          LOG.log(Level.WARNING, "Unable to remove source path prefixes from classes", e);
+          cacheKey = null;
+        }
+      }
+      if (kawaSuccess && cacheKey != null) {
+        String relativeKawaOutput = kawaOutput;
+        for (String prefix : sourcePathPrefixes) {
+          relativeKawaOutput = relativeKawaOutput.replace(prefix, "");
+        }
+        Files.write(relativeKawaOutput, kawaOutputFile, Charsets.UTF_8);
+        BuildCache.store(kawaOutputCacheKey, kawaOutputFile);
+        BuildCache.store(cacheKey, classesDir);
+      }
     } catch (IOException e) {
       e.printStackTrace();
       userErrors.print(String.format(ERROR_IN_STAGE, "compile"));
@@ -943,6 +1012,36 @@ public final class Compiler {
     return true;
   }
 
+  /*
+   * Returns the BuildCache key for the classes compiled from the given sources, or null if it
+   * can't be computed.
+   */
+  private static String getClassesCacheKey(List<String> sourceFileNames, String classpath,
+      String yailRuntime, String packageName) {
+    try {
+      Hasher hasher = BuildCache.newHasher("classes");
+      hasher.putString(packageName, Charsets.UTF_8);
+      for (String sourceFileName : sourceFileNames) {
+        // The path below src determines the class name.
+        int srcIndex = sourceFileName.indexOf("/../src/");
+        if (srcIndex == -1) {
+          LOG.warning("Not caching classes for source file outside src: " + sourceFileName);
+          return null;
+        }
+        hasher.putString("|" + sourceFileName.substring(srcIndex), Charsets.UTF_8);
+        BuildCache.putFile(hasher, new File(sourceFileName));
+      }
+      for (String jar : classpath.split(File.pathSeparator)) {
+        hasher.putString("|" + DexCache.hashFile(jar), Charsets.UTF_8);
+      }
+      hasher.putString("|" + DexCache.hashFile(yailRuntime), Charsets.UTF_8);
+      return hasher.hash().toString();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to compute build cache key for classes", e);
+      return null;
+    }
+  }
+
   private boolean runJarSigner(String apkAbsolutePath, String keystoreAbsolutePath) {
     // TODO(user): maybe make a command line flag for the jarsigner location
     String javaHome = System.getProperty("java.home");
@@ -974,7 +1073,7 @@ public final class Compiler {
         apkAbsolutePath,
         "AndroidKey"
     };
-    if (!Execution.execute(null, jarsignerCommandLine, System.out, System.err)) {
+    if (!Execution.execute(null, jarsignerCommandLine, System.out, System.err, context)) {
       LOG.warning("YAIL compiler - jarsigner execution failed.");
       err.println("YAIL compiler - jarsigner execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
@@ -1015,7 +1114,7 @@ public final class Compiler {
     long startAapt = System.currentTimeMillis();
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
-    if (!Execution.execute(null, zipAlignCommandLine, System.out, System.err)) {
+    if (!Execution.execute(null, zipAlignCommandLine, System.out, System.err, context)) {
       LOG.warning("YAIL compiler - ZIPALIGN execution failed.");
       err.println("YAIL compiler - ZIPALIGN execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
@@ -1068,41 +1167,53 @@ public final class Compiler {
     return true;
   }
 
+  /*
+   * Runs dx on the project's class files and merges the result with the dexed runtime and
+   * component libraries, which come from the DexCache whenever possible. If the cache can't be
+   * used, everything is dexed in a single dx run. If the class files and libraries are the same
+   * as in an earlier build, the merged dex file comes from the BuildCache instead.
+   */
   private boolean runDx(File classesDir, String dexedClasses) {
-    int mx = childProcessRamMb - 200;
-
-    List<String> commandLineList = new ArrayList<String>();
-    commandLineList.add(System.getProperty("java.home") + "/bin/java");
-    commandLineList.add("-mx" + mx + "M");
-    commandLineList.add("-jar");
-    commandLineList.add(getResource(DX_JAR));
-    commandLineList.add("--dex");
-    commandLineList.add("--positions=lines");
-    commandLineList.add("--output=" + dexedClasses);
-    commandLineList.add(classesDir.getAbsolutePath());
-    commandLineList.add(getResource(SIMPLE_ANDROID_RUNTIME_JAR));
-    commandLineList.add(getResource(KAWA_RUNTIME));
-    commandLineList.add(getResource(ACRA_RUNTIME));
-
-    // Add libraries to command line arguments
+    // The runtime jars are sorted so that the same set of jars always yields the same cache key.
+    List<String> runtimeJars = Lists.newArrayList();
+    runtimeJars.add(getResource(SIMPLE_ANDROID_RUNTIME_JAR));
+    runtimeJars.add(getResource(KAWA_RUNTIME));
+    runtimeJars.add(getResource(ACRA_RUNTIME));
     System.out.println("Libraries needed command line n = " + librariesNeeded.size());
-    for (String library : librariesNeeded) {
-      commandLineList.add(getResource(RUNTIME_FILES_DIR + library));
+    List<String> libraries = Lists.newArrayList(librariesNeeded);
+    Collections.sort(libraries);
+    for (String library : libraries) {
+      runtimeJars.add(getResource(RUNTIME_FILES_DIR + library));
     }
 
-    System.out.println("Libraries command line = " + commandLineList);
-
-    // Convert command line to an array
-    String[] dxCommandLine = new String[commandLineList.size()];
-    commandLineList.toArray(dxCommandLine);
+    String cacheKey = getDexCacheKey(classesDir, runtimeJars);
+    if (cacheKey != null && BuildCache.restore(cacheKey, new File(dexedClasses))) {
+      out.println("DX skipped: the class files are unchanged since an earlier build");
+      return true;
+    }
 
-   long startDx = System.currentTimeMillis();
-    // Using System.err and System.out on purpose. Don't want to pollute build messages with
-    // tools output
+    long startDx = System.currentTimeMillis();
     boolean dxSuccess;
     synchronized (SYNC_KAWA_OR_DX) {
       setProgress(50);
-      dxSuccess = Execution.execute(null, dxCommandLine, System.out, System.err);
+      File tmpDir = new File(dexedClasses).getParentFile();
+      File runtimeDex;
+      try {
+        runtimeDex = getDexedRuntime(runtimeJars, tmpDir);
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "YAIL compiler - dex cache unavailable.", e);
+        runtimeDex = null;
+      }
+      if (runtimeDex != null) {
+        String projectDex = new File(tmpDir, "project.dex").getAbsolutePath();
+        List<String> projectInputs = Lists.newArrayList(classesDir.getAbsolutePath());
+        dxSuccess = runDxCommand(projectInputs, projectDex) &&
+            runDexMerger(projectDex, runtimeDex.getAbsolutePath(), dexedClasses);
+      } else {
+        List<String> allInputs = Lists.newArrayList(classesDir.getAbsolutePath());
+        allInputs.addAll(runtimeJars);
+        dxSuccess = runDxCommand(allInputs, dexedClasses);
+      }
       setProgress(75);
     }
     if (!dxSuccess) {
@@ -1111,6 +1222,9 @@ public final class Compiler {
       userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
       return false;
     }
+    if (cacheKey != null) {
+      BuildCache.store(cacheKey, new File(dexedClasses));
+    }
     String dxTimeMessage = "DX time: " +
         ((System.currentTimeMillis() - startDx) / 1000.0) + " seconds";
     out.println(dxTimeMessage);
@@ -1119,6 +1233,105 @@ public final class Compiler {
     return true;
   }
 
+  /*
+   * Returns the BuildCache key for the dex file of the given classes and runtime jars, or null if
+   * it can't be computed.
+   */
+  private String getDexCacheKey(File classesDir, List<String> runtimeJars) {
+    try {
+      Hasher hasher = BuildCache.newHasher("dex");
+      BuildCache.putTree(hasher, classesDir);
+      hasher.putString("|" + DexCache.getKey(getResource(DX_JAR), runtimeJars), Charsets.UTF_8);
+      return hasher.hash().toString();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to compute build cache key for dex", e);
+      return null;
+    }
+  }
+
+  /*
+   * Returns a single dex file containing all of the given runtime jars, building it from the
+   * individually cached jars (dexing those that are missing) if the combination isn't cached
+   * yet. Returns null if dx fails.
+   */
+  private File getDexedRuntime(List<String> runtimeJars, File tmpDir) throws IOException {
+    String dxJar = getResource(DX_JAR);
+    String runtimeKey = DexCache.getKey(dxJar, runtimeJars);
+    File runtimeDex = DexCache.lookup(runtimeKey);
+    if (runtimeDex != null) {
+      return runtimeDex;
+    }
+
+    String mergedDex = null;
+    for (int i = 0; i < runtimeJars.size(); i++) {
+      String jar = runtimeJars.get(i);
+      String jarKey = DexCache.getKey(dxJar, Collections.singletonList(jar));
+      File jarDex = DexCache.lookup(jarKey);
+      if (jarDex == null) {
+        String dexOutput = new File(tmpDir, "runtime" + i + ".dex").getAbsolutePath();
+        if (!runDxCommand(Collections.singletonList(jar), dexOutput)) {
+          return null;
+        }
+        jarDex = DexCache.store(jarKey, new File(dexOutput));
+      }
+      if (mergedDex == null) {
+        mergedDex = jarDex.getAbsolutePath();
+      } else {
+        String mergeOutput = new File(tmpDir, "merged" + i + ".dex").getAbsolutePath();
+        if (!runDexMerger(mergedDex, jarDex.getAbsolutePath(), mergeOutput)) {
+          return null;
+        }
+        mergedDex = mergeOutput;
+      }
+    }
+    return DexCache.store(runtimeKey, new File(mergedDex));
+  }
+
+  /*
+   * Dexes the given class directories and jars into a single dex file.
+   */
+  private boolean runDxCommand(List<String> inputs, String dexOutput) {
+    int mx = childProcessRamMb - 200;
+
+    List<String> commandLineList = new ArrayList<String>();
+    commandLineList.add(System.getProperty("java.home") + "/bin/java");
+    commandLineList.add("-mx" + mx + "M");
+    commandLineList.add("-jar");
+    commandLineList.add(getResource(DX_JAR));
+    commandLineList.add("--dex");
+    commandLineList.add("--positions=lines");
+    commandLineList.add("--output=" + dexOutput);
+    commandLineList.addAll(inputs);
+
+    System.out.println("Libraries command line = " + commandLineList);
+
+    // Convert command line to an array
+    String[] dxCommandLine = new String[commandLineList.size()];
+    commandLineList.toArray(dxCommandLine);
+
+    // Using System.err and System.out on purpose. Don't want to pollute build messages with
+    // tools output
+    return Execution.execute(null, dxCommandLine, System.out, System.err, context);
+  }
+
+  /*
+   * Merges two dex files with dx's DexMerger. If both define the same class, the copy in
+   * firstDex wins.
+   */
+  private boolean runDexMerger(String firstDex, String secondDex, String dexOutput) {
+    int mx = childProcessRamMb - 200;
+    String[] mergerCommandLine = {
+        System.getProperty("java.home") + "/bin/java",
+        "-mx" + mx + "M",
+        "-cp", getResource(DX_JAR),
+        "com.android.dx.merge.DexMerger",
+        dexOutput,
+        firstDex,
+        secondDex
+    };
+    return Execution.execute(null, mergerCommandLine, System.out, System.err, context);
+  }
+
   private boolean runAaptPackage(File manifestFile, File resDir, String tmpPackageName) {
     // Need to make sure assets directory exists otherwise aapt will fail.
     createDirectory(project.getAssetsDirectory());
@@ -1136,6 +1349,11 @@ public final class Compiler {
       userErrors.print(String.format(ERROR_IN_STAGE, "AAPT"));
       return false;
     }
+    String cacheKey = getAaptCacheKey(manifestFile, resDir, aaptTool);
+    if (cacheKey != null && BuildCache.restore(cacheKey, new File(tmpPackageName))) {
+      out.println("AAPT skipped: the resources are unchanged since an earlier build");
+      return true;
+    }
     String[] aaptPackageCommandLine = {
         getResource(aaptTool),
         "package",
@@ -1150,12 +1368,15 @@ public final class Compiler {
     long startAapt = System.currentTimeMillis();
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
-    if (!Execution.execute(null, aaptPackageCommandLine, System.out, System.err)) {
+    if (!Execution.execute(null, aaptPackageCommandLine, System.out, System.err, context)) {
       LOG.warning("YAIL compiler - AAPT execution failed.");
       err.println("YAIL compiler - AAPT execution failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "AAPT"));
       return false;
     }
+    if (cacheKey != null) {
+      BuildCache.store(cacheKey, new File(tmpPackageName));
+    }
     String aaptTimeMessage = "AAPT time: " +
         ((System.currentTimeMillis() - startAapt) / 1000.0) + " seconds";
     out.println(aaptTimeMessage);
@@ -1164,6 +1385,26 @@ public final class Compiler {
     return true;
   }
 
+  /*
+   * Returns the BuildCache key for the resource package made from the given manifest, resources
+   * and the project's assets, or null if it can't be computed.
+   */
+  private String getAaptCacheKey(File manifestFile, File resDir, String aaptTool) {
+    try {
+      Hasher hasher = BuildCache.newHasher("aapt");
+      BuildCache.putFile(hasher, manifestFile);
+      BuildCache.putTree(hasher, resDir);
+      hasher.putString("|assets", Charsets.UTF_8);
+      BuildCache.putTree(hasher, project.getAssetsDirectory());
+      hasher.putString("|" + DexCache.hashFile(getResource(aaptTool)), Charsets.UTF_8);
+      hasher.putString("|" + DexCache.hashFile(getResource(ANDROID_RUNTIME)), Charsets.UTF_8);
+      return hasher.hash().toString();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to compute build cache key for AAPT", e);
+      return null;
+    }
+  }
+
   private boolean insertNativeLibraries(File buildDir){
     out.println("________Copying native libraries");
     libsDir = createDirectory(buildDir, LIBS_DIR_NAME);
@@ -1336,19 +1577,20 @@ public final class Compiler {
     return dir;
   }
 
-  private static int setProgress(int increments) {
-    Compiler.currentProgress = increments;
-    LOG.info("The current progress is "
-              + Compiler.currentProgress + "%");
-    return Compiler.currentProgress;
+  private void setProgress(int progress) {
+    context.setProgress(progress);
   }
 
-  public static int getProgress() {
-    if (Compiler.currentProgress==100) {
-      Compiler.currentProgress = 10;
-      return 100;
-    } else {
-      return Compiler.currentProgress;
-    }
+  /*
+   * Writes the description of the next stage of the build to the output and records its start in
+   * the build's context.
+   */
+  private void startStage(String description) {
+    out.println("________" + description);
+    context.startStage(description);
+  }
+
+  static TimingStats getKawaCompileTimes() {
+    return kawaCompileTimes;
   }
 }
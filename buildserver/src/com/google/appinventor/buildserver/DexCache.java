@@ -0,0 +1,148 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A persistent, content-addressed cache of dexed runtime and component library jars.
+ *
+ * <p>The runtime jars (AndroidRuntime.jar, kawa.jar, ACRA and the component libraries) only
+ * change when the build server is redeployed, but they make up almost all of the work done by
+ * dx.  Entries are keyed by the SHA-1 of the dexed jars together with the SHA-1 of dx.jar, so a
+ * new runtime or a new dx simply produces new entries and stale ones are never reused.
+ *
+ * <p>Entries are written to a temp file and renamed into place, so concurrent builds (or
+ * several build servers sharing the directory) never observe a partially written dex file.
+ */
+final class DexCache {
+  private static final String DEX_EXTENSION = ".dex";
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(DexCache.class.getName());
+
+  // The directory holding the cached dex files. It survives build server restarts.
+  private static File cacheDirectory =
+      new File(System.getProperty("java.io.tmpdir"), "appinventor-dex-cache");
+
+  // SHA-1 of the files we've already hashed, keyed by absolute path. The runtime files are
+  // extracted once per server run by Compiler.getResource, so their contents never change.
+  private static final ConcurrentMap<String, String> fileHashes =
+      new ConcurrentHashMap<String, String>();
+
+  private static final AtomicInteger hitCount = new AtomicInteger(0);
+  private static final AtomicInteger missCount = new AtomicInteger(0);
+
+  private DexCache() {
+  }
+
+  /**
+   * Sets the directory used to store cached dex files.
+   *
+   * @param directory  the cache directory; it is created if necessary
+   */
+  static synchronized void setCacheDirectory(File directory) {
+    cacheDirectory = directory;
+  }
+
+  private static synchronized File getCacheDirectory() throws IOException {
+    if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+      throw new IOException("Unable to create dex cache directory " + cacheDirectory);
+    }
+    return cacheDirectory;
+  }
+
+  /**
+   * Computes the cache key for the dexed form of the given jars.
+   *
+   * @param dxJarPath  path to the dx.jar used to produce the dex file
+   * @param jarPaths  paths to the jars, in the order they are dexed
+   * @return the cache key
+   */
+  static String getKey(String dxJarPath, List<String> jarPaths) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString("dx:" + hashFile(dxJarPath), Charsets.UTF_8);
+    for (String jarPath : jarPaths) {
+      hasher.putString("|" + hashFile(jarPath), Charsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Looks up a cached dex file.
+   *
+   * @param key  a key returned by {@link #getKey}
+   * @return the cached dex file, or {@code null} if there is no entry for the key
+   */
+  static File lookup(String key) throws IOException {
+    File cachedDex = new File(getCacheDirectory(), key + DEX_EXTENSION);
+    if (cachedDex.isFile()) {
+      hitCount.incrementAndGet();
+      return cachedDex;
+    }
+    missCount.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Adds a dex file to the cache.
+   *
+   * @param key  a key returned by {@link #getKey}
+   * @param dexFile  the dex file to store; it is copied, not moved
+   * @return the cached dex file
+   */
+  static File store(String key, File dexFile) throws IOException {
+    File directory = getCacheDirectory();
+    File cachedDex = new File(directory, key + DEX_EXTENSION);
+    File tmpFile = File.createTempFile(key, ".tmp", directory);
+    try {
+      Files.copy(dexFile, tmpFile);
+      // If another build stored the same entry first, its copy is identical to ours.
+      if (!tmpFile.renameTo(cachedDex) && !cachedDex.isFile()) {
+        throw new IOException("Unable to store " + cachedDex);
+      }
+    } finally {
+      tmpFile.delete();
+    }
+    LOG.info("Stored dex cache entry " + cachedDex);
+    return cachedDex;
+  }
+
+  static int getHitCount() {
+    return hitCount.get();
+  }
+
+  static int getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns the SHA-1 of a runtime file. The result is remembered for the life of the server, so
+   * this must only be used for files that never change, such as those returned by
+   * {@link Compiler#getResource}.
+   *
+   * @param path  the path of the file
+   */
+  static String hashFile(String path) throws IOException {
+    String hash = fileHashes.get(path);
+    if (hash == null) {
+      hash = Files.hash(new File(path), Hashing.sha1()).toString();
+      fileHashes.put(path, hash);
+    }
+    return hash;
+  }
+}
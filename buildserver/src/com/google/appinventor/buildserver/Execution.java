@@ -100,6 +100,23 @@ public final class Execution {
    */
   public static boolean execute(File workingDir, String[] command, PrintStream out,
       PrintStream err) {
+    return execute(workingDir, command, out, err, null);
+  }
+
+  /**
+   * Executes a command in a command shell on behalf of a build. The process
+   * is recorded in the build's context while it runs, so that it can be
+   * stopped if the build is cleaned up.
+   *
+   * @param workingDir  working directory for the command
+   * @param command  command to execute and its arguments
+   * @param out  standard output stream to redirect to
+   * @param err  standard error stream to redirect to
+   * @param context  the context of the build, or null
+   * @return  {@code true} if the command succeeds, {@code false} otherwise
+   */
+  static boolean execute(File workingDir, String[] command, PrintStream out,
+      PrintStream err, BuildContext context) {
     LOG.log(Level.INFO, "____Executing " + joiner.join(command));
     if (System.getProperty("os.name").startsWith("Windows")){
     	for(int i =0; i < command.length; i++){
@@ -108,9 +125,18 @@ public final class Execution {
     }
     try {
       Process process = Runtime.getRuntime().exec(command, null, workingDir);
-      new RedirectStreamHandler(new PrintWriter(out, true), process.getInputStream());
-      new RedirectStreamHandler(new PrintWriter(err, true), process.getErrorStream());
-      return process.waitFor() == 0;
+      if (context != null) {
+        context.addProcess(process);
+      }
+      try {
+        new RedirectStreamHandler(new PrintWriter(out, true), process.getInputStream());
+        new RedirectStreamHandler(new PrintWriter(err, true), process.getErrorStream());
+        return process.waitFor() == 0;
+      } finally {
+        if (context != null) {
+          context.removeProcess(process);
+        }
+      }
     } catch (Exception e) {
       LOG.log(Level.WARNING, "____Execution failure: ", e);
       return false;
@@ -0,0 +1,313 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+package com.google.appinventor.buildserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs build tasks on a reusable pool of worker threads, queueing the tasks that can't start
+ * right away.
+ *
+ * <p>At most {@code maxActiveTasks} tasks run at once. Waiting tasks are kept in a bounded queue
+ * per user, and the next task to run always comes from the user with the fewest running tasks
+ * (ties go round-robin), so one user submitting many builds can't starve everybody else.</p>
+ *
+ * <p>New tasks are rejected when the queue is full, or when tasks are already running and the
+ * machine is short on free physical memory or CPU, as configured.</p>
+ */
+final class FairQueuingExecutor {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(FairQueuingExecutor.class.getName());
+
+  private static final long BYTES_PER_MB = 1024 * 1024;
+
+  // The maximum number of active tasks. 0 means unlimited.
+  private final int maxActiveTasks;
+
+  // The maximum number of waiting tasks. 0 means unlimited.
+  private final int maxQueuedTasks;
+
+  // New tasks are rejected if there is less free physical memory than this. 0 disables the check.
+  private final int minFreeMemoryMb;
+
+  // New tasks are rejected if the load average per processor is above this. 0 disables the check.
+  private final double maxLoadPerProcessor;
+
+  private final ExecutorService workers = Executors.newCachedThreadPool();
+
+  // Waiting tasks for each user. The iteration order of the map is the round-robin order.
+  private final LinkedHashMap<String, LinkedList<QueuedTask>> waitingTasks =
+      new LinkedHashMap<String, LinkedList<QueuedTask>>();
+  private final Map<String, Integer> activeTasksPerUser = new HashMap<String, Integer>();
+
+  // All of the following are guarded by this.
+  private int activeTaskCount = 0;
+  private int queuedTaskCount = 0;
+  private int completedTaskCount = 0;
+  private int rejectedTaskCount = 0;
+  private int shedTaskCount = 0;
+  private int maximumQueuedTaskCount = 0;
+  private int startedTaskCount = 0;
+  private long totalWaitMillis = 0;
+  private long maximumWaitMillis = 0;
+
+  /**
+   * Creates a FairQueuingExecutor.
+   *
+   * @param maxActiveTasks the maximum number of active tasks, 0 for unlimited
+   * @param maxQueuedTasks the maximum number of waiting tasks, 0 for unlimited
+   * @param minFreeMemoryMb the free physical memory below which new tasks are rejected,
+   *     0 to disable
+   * @param maxLoadPerProcessor the load average per processor above which new tasks are
+   *     rejected, 0 to disable
+   */
+  FairQueuingExecutor(int maxActiveTasks, int maxQueuedTasks, int minFreeMemoryMb,
+      double maxLoadPerProcessor) {
+    this.maxActiveTasks = maxActiveTasks;
+    this.maxQueuedTasks = maxQueuedTasks;
+    this.minFreeMemoryMb = minFreeMemoryMb;
+    this.maxLoadPerProcessor = maxLoadPerProcessor;
+  }
+
+  /**
+   * Runs the given task now or queues it.
+   *
+   * @param user the user the task is run for
+   * @param taskId an identifier for the task, used by {@link #getQueuePosition}
+   * @param runnable the task
+   * @return the task's position in the queue, 0 if it started right away
+   * @throws RejectedExecutionException if the queue is full, or if tasks are running and the
+   *     machine is overloaded
+   */
+  synchronized int execute(String user, String taskId, Runnable runnable) {
+    // When no tasks are running, the load isn't ours and turning the task away won't relieve it.
+    String overload = (activeTaskCount == 0) ? null : checkLoad();
+    if (overload != null) {
+      shedTaskCount++;
+      LOG.warning("Rejecting build task for " + user + ": " + overload);
+      throw new RejectedExecutionException(overload);
+    }
+
+    QueuedTask task = new QueuedTask(user, taskId, runnable);
+    if (hasCapacity() && queuedTaskCount == 0) {
+      start(task);
+      return 0;
+    }
+    if (maxQueuedTasks != 0 && queuedTaskCount >= maxQueuedTasks) {
+      rejectedTaskCount++;
+      throw new RejectedExecutionException("The build queue is full.");
+    }
+
+    LinkedList<QueuedTask> tasks = waitingTasks.get(user);
+    if (tasks == null) {
+      tasks = new LinkedList<QueuedTask>();
+      waitingTasks.put(user, tasks);
+    }
+    tasks.add(task);
+    queuedTaskCount++;
+    maximumQueuedTaskCount = Math.max(maximumQueuedTaskCount, queuedTaskCount);
+    return getQueuePosition(taskId);
+  }
+
+  /**
+   * Returns the estimated position of the given task in the queue: 1 if it is the next task to
+   * run, 2 if it is the one after that, and so on. Returns 0 if the task is not waiting.
+   *
+   * @param taskId the identifier passed to {@link #execute}
+   */
+  synchronized int getQueuePosition(String taskId) {
+    List<QueuedTask> order = getDispatchOrder();
+    for (int i = 0; i < order.size(); i++) {
+      if (order.get(i).taskId.equals(taskId)) {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  /*
+   * Returns the waiting tasks in the order they will be started, assuming no new tasks arrive and
+   * no running tasks finish. The next task always comes from the user with the fewest running
+   * tasks; ties are broken by the round-robin order of waitingTasks.
+   */
+  private List<QueuedTask> getDispatchOrder() {
+    LinkedHashMap<String, LinkedList<QueuedTask>> remaining =
+        new LinkedHashMap<String, LinkedList<QueuedTask>>();
+    for (Map.Entry<String, LinkedList<QueuedTask>> entry : waitingTasks.entrySet()) {
+      remaining.put(entry.getKey(), new LinkedList<QueuedTask>(entry.getValue()));
+    }
+    Map<String, Integer> active = new HashMap<String, Integer>(activeTasksPerUser);
+
+    List<QueuedTask> order = new ArrayList<QueuedTask>(queuedTaskCount);
+    while (!remaining.isEmpty()) {
+      String nextUser = null;
+      int fewestActive = Integer.MAX_VALUE;
+      for (String user : remaining.keySet()) {
+        int userActive = active.containsKey(user) ? active.get(user) : 0;
+        if (userActive < fewestActive) {
+          nextUser = user;
+          fewestActive = userActive;
+        }
+      }
+      LinkedList<QueuedTask> tasks = remaining.remove(nextUser);
+      order.add(tasks.removeFirst());
+      active.put(nextUser, fewestActive + 1);
+      if (!tasks.isEmpty()) {
+        // Put the user at the end of the round-robin order.
+        remaining.put(nextUser, tasks);
+      }
+    }
+    return order;
+  }
+
+  private boolean hasCapacity() {
+    return maxActiveTasks == 0 || activeTaskCount < maxActiveTasks;
+  }
+
+  /*
+   * Returns a description of the resource that is exhausted, or null if the machine can take
+   * more work.
+   */
+  private String checkLoad() {
+    OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+    if (maxLoadPerProcessor > 0) {
+      double loadPerProcessor =
+          osBean.getSystemLoadAverage() / osBean.getAvailableProcessors();
+      if (loadPerProcessor > maxLoadPerProcessor) {
+        return "load average per processor is " + loadPerProcessor;
+      }
+    }
+    if (minFreeMemoryMb > 0 && osBean instanceof com.sun.management.OperatingSystemMXBean) {
+      long freeMemoryMb = ((com.sun.management.OperatingSystemMXBean) osBean)
+          .getFreePhysicalMemorySize() / BYTES_PER_MB;
+      if (freeMemoryMb < minFreeMemoryMb) {
+        return "free physical memory is " + freeMemoryMb + " MB";
+      }
+    }
+    return null;
+  }
+
+  private void start(final QueuedTask task) {
+    long waitMillis = System.currentTimeMillis() - task.queuedTime;
+    startedTaskCount++;
+    totalWaitMillis += waitMillis;
+    maximumWaitMillis = Math.max(maximumWaitMillis, waitMillis);
+    activeTaskCount++;
+    Integer userActive = activeTasksPerUser.get(task.user);
+    activeTasksPerUser.put(task.user, userActive == null ? 1 : userActive + 1);
+
+    workers.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.runnable.run();
+        } catch (RuntimeException e) {
+          LOG.log(Level.SEVERE, "Build task for " + task.user + " failed", e);
+        } finally {
+          finished(task);
+        }
+      }
+    });
+  }
+
+  private synchronized void finished(QueuedTask task) {
+    activeTaskCount--;
+    completedTaskCount++;
+
+    // The finished task still counts against its user while we pick the next tasks, so the free
+    // slot goes to another user if one is waiting.
+    while (hasCapacity() && queuedTaskCount > 0) {
+      QueuedTask next = getDispatchOrder().get(0);
+      LinkedList<QueuedTask> tasks = waitingTasks.remove(next.user);
+      tasks.removeFirst();
+      if (!tasks.isEmpty()) {
+        waitingTasks.put(next.user, tasks);
+      }
+      queuedTaskCount--;
+      start(next);
+    }
+
+    int userActive = activeTasksPerUser.get(task.user) - 1;
+    if (userActive == 0) {
+      activeTasksPerUser.remove(task.user);
+    } else {
+      activeTasksPerUser.put(task.user, userActive);
+    }
+  }
+
+  public int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  public int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  public synchronized int getActiveTaskCount() {
+    return activeTaskCount;
+  }
+
+  public synchronized int getCompletedTaskCount() {
+    return completedTaskCount;
+  }
+
+  public synchronized int getQueuedTaskCount() {
+    return queuedTaskCount;
+  }
+
+  public synchronized int getMaximumQueuedTaskCount() {
+    return maximumQueuedTaskCount;
+  }
+
+  public synchronized int getRejectedTaskCount() {
+    return rejectedTaskCount;
+  }
+
+  public synchronized int getShedTaskCount() {
+    return shedTaskCount;
+  }
+
+  public synchronized long getAverageWaitMillis() {
+    return startedTaskCount == 0 ? 0 : totalWaitMillis / startedTaskCount;
+  }
+
+  public synchronized long getMaximumWaitMillis() {
+    return maximumWaitMillis;
+  }
+
+  public synchronized long getOldestWaitMillis() {
+    long now = System.currentTimeMillis();
+    long oldest = 0;
+    for (LinkedList<QueuedTask> tasks : waitingTasks.values()) {
+      oldest = Math.max(oldest, now - tasks.getFirst().queuedTime);
+    }
+    return oldest;
+  }
+
+  private static class QueuedTask {
+    final String user;
+    final String taskId;
+    final Runnable runnable;
+    final long queuedTime = System.currentTimeMillis();
+
+    QueuedTask(String user, String taskId, Runnable runnable) {
+      this.user = user;
+      this.taskId = taskId;
+      this.runnable = runnable;
+    }
+  }
+}
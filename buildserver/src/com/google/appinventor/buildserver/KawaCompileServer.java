@@ -0,0 +1,194 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilePermission;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketPermission;
+import java.security.Permission;
+
+/**
+ * Main class of a Kawa compile worker process, started by {@link KawaCompilerPool}.
+ *
+ * <p>The worker loads the YAIL runtime once and then handles compile requests using the
+ * protocol described in {@link ServerProcess}. Each request is a list of kawa.repl arguments
+ * (-d, -P, -C and the source files). The response status is the exit status kawa.repl would
+ * have returned, and the response text is what Kawa printed to stderr.</p>
+ *
+ * <p>While a request runs, the worker may write files only inside the request's -d directory,
+ * and may not open sockets or start processes. Reading files is allowed.</p>
+ *
+ * <p>This class runs in the worker process, whose class path is the build server's own code
+ * location followed by the Kawa compile class path. The build server's libraries are not on it,
+ * so this class uses nothing but the JDK and calls Kawa through reflection.</p>
+ */
+public final class KawaCompileServer {
+  // Status used when Kawa fails with an exception instead of exiting.
+  private static final int STATUS_UNEXPECTED_ERROR = -1;
+
+  /*
+   * Thrown in place of exiting the JVM when Kawa calls System.exit.
+   */
+  private static class ExitTrappedException extends SecurityException {
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+
+    ExitTrappedException(int status) {
+      super("System.exit(" + status + ")");
+      this.status = status;
+    }
+  }
+
+  /*
+   * Sandbox for Kawa: exits are trapped, and files may be written only under writableDirPrefix.
+   */
+  private static class KawaSecurityManager extends SecurityManager {
+    // The canonical path of the current request's -d directory followed by a separator, or null
+    // if no file may be written.
+    private volatile String writableDirPrefix;
+
+    void setWritableDir(String dir) throws IOException {
+      writableDirPrefix = (dir == null)
+          ? null
+          : new File(dir).getCanonicalPath() + File.separator;
+    }
+
+    @Override
+    public void checkPermission(Permission permission) {
+      if (permission instanceof SocketPermission) {
+        throw new SecurityException("Network access denied: " + permission);
+      }
+      if (permission instanceof FilePermission) {
+        checkFilePermission((FilePermission) permission);
+      }
+      if (permission instanceof RuntimePermission
+          && permission.getName().equals("setSecurityManager")) {
+        throw new SecurityException("Replacing the security manager denied");
+      }
+    }
+
+    @Override
+    public void checkPermission(Permission permission, Object context) {
+      checkPermission(permission);
+    }
+
+    @Override
+    public void checkExit(int status) {
+      throw new ExitTrappedException(status);
+    }
+
+    private void checkFilePermission(FilePermission permission) {
+      String actions = permission.getActions();
+      if (actions.contains("execute")) {
+        throw new SecurityException("Process execution denied: " + permission.getName());
+      }
+      if (actions.contains("write") || actions.contains("delete")) {
+        String prefix = writableDirPrefix;
+        String path;
+        try {
+          // Canonicalizing resolves any .. in the path. It only asks for read permission.
+          path = new File(permission.getName()).getCanonicalPath();
+        } catch (IOException e) {
+          path = null;
+        }
+        if (prefix == null || path == null
+            || !(path + File.separator).startsWith(prefix)) {
+          throw new SecurityException("File write denied: " + permission.getName());
+        }
+      }
+    }
+  }
+
+  private KawaCompileServer() {
+  }
+
+  /**
+   * Entry point for the worker process.
+   *
+   * @param args  the path of runtime.scm
+   */
+  public static void main(String[] args) throws Exception {
+    PrintStream responseStream = System.out;
+    // Kawa's progress messages are not needed.
+    System.setOut(new PrintStream(new ByteArrayOutputStream()));
+    ByteArrayOutputStream kawaErrors = new ByteArrayOutputStream();
+    System.setErr(new PrintStream(kawaErrors, true));
+
+    // kawa.repl calls System.exit when compilation fails, which must not end the worker.
+    KawaSecurityManager securityManager = new KawaSecurityManager();
+    System.setSecurityManager(securityManager);
+
+    Method processArgs = Class.forName("kawa.repl")
+        .getMethod("processArgs", String[].class, int.class, int.class);
+
+    // Load the runtime once. Its macros are what makes the YAIL sources compile.
+    if (runKawa(processArgs, new String[] { "-f", args[0] }) != 0) {
+      return;
+    }
+
+    BufferedReader requests = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+    DataOutputStream responses = new DataOutputStream(new BufferedOutputStream(responseStream));
+    String request;
+    while ((request = requests.readLine()) != null) {
+      kawaErrors.reset();
+      String[] kawaArgs = request.split("\t");
+      securityManager.setWritableDir(getOutputDir(kawaArgs));
+      int status;
+      try {
+        status = runKawa(processArgs, kawaArgs);
+      } finally {
+        securityManager.setWritableDir(null);
+      }
+      System.err.flush();
+      byte[] text = kawaErrors.toByteArray();
+      responses.writeInt(status);
+      responses.writeInt(text.length);
+      responses.write(text);
+      responses.flush();
+    }
+  }
+
+  /*
+   * Returns the value of the -d argument, or null if there is none.
+   */
+  private static String getOutputDir(String[] kawaArgs) {
+    for (int i = 0; i + 1 < kawaArgs.length; i++) {
+      if (kawaArgs[i].equals("-d")) {
+        return kawaArgs[i + 1];
+      }
+    }
+    return null;
+  }
+
+  /*
+   * Runs kawa.repl.processArgs and returns the exit status it would have had.
+   */
+  private static int runKawa(Method processArgs, String[] kawaArgs) {
+    try {
+      processArgs.invoke(null, kawaArgs, 0, kawaArgs.length);
+      return 0;
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof ExitTrappedException) {
+        return ((ExitTrappedException) e.getCause()).status;
+      }
+      e.getCause().printStackTrace();
+      return STATUS_UNEXPECTED_ERROR;
+    } catch (IllegalAccessException e) {
+      e.printStackTrace();
+      return STATUS_UNEXPECTED_ERROR;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.buildserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of warm Kawa compile workers (see {@link KawaCompileServer}).
+ *
+ * <p>A worker's class path is fixed when it starts, and it depends on the component libraries a
+ * project uses, so idle workers are kept per class path. When the pool is full, the idle worker
+ * that has been unused the longest is replaced. Workers are recycled after a number of builds,
+ * and after any failed compile, to bound their memory use and to drop any state a failure may
+ * have left behind.</p>
+ *
+ * <p>The pool is disabled (size 0) unless configured, in which case Compiler starts a new Kawa
+ * process for every build.</p>
+ */
+final class KawaCompilerPool {
+  private static final Object lock = new Object();
+
+  // The following are guarded by lock.
+  private static int maxWorkers = 0;
+  private static int maxBuildsPerWorker = 20;
+  private static long timeoutMillis = 600000;
+  private static int workerCount = 0;
+  // Idle workers for each class path, least recently used class path first.
+  private static final LinkedHashMap<String, LinkedList<ServerProcess>> idleWorkers =
+      new LinkedHashMap<String, LinkedList<ServerProcess>>(16, 0.75f, true);
+
+  private static final AtomicInteger startedWorkers = new AtomicInteger(0);
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        synchronized (lock) {
+          for (LinkedList<ServerProcess> workers : idleWorkers.values()) {
+            for (ServerProcess worker : workers) {
+              worker.destroy();
+            }
+          }
+          idleWorkers.clear();
+        }
+      }
+    });
+  }
+
+  private KawaCompilerPool() {
+  }
+
+  /**
+   * Sets the size of the pool.
+   *
+   * @param workers  the maximum number of Kawa worker processes, 0 to disable the pool
+   * @param buildsPerWorker  the number of builds after which a worker is replaced
+   * @param timeoutSeconds  how long to wait for a worker to compile one build before killing it;
+   *     0 means forever
+   */
+  static void configure(int workers, int buildsPerWorker, int timeoutSeconds) {
+    synchronized (lock) {
+      maxWorkers = Math.max(0, workers);
+      maxBuildsPerWorker = Math.max(1, buildsPerWorker);
+      timeoutMillis = Math.max(0, timeoutSeconds) * 1000L;
+    }
+  }
+
+  static boolean isEnabled() {
+    synchronized (lock) {
+      return maxWorkers > 0;
+    }
+  }
+
+  /**
+   * Compiles YAIL sources with a warm worker, waiting for one if necessary.
+   *
+   * @param classpath  the Kawa compile class path
+   * @param yailRuntime  the path of runtime.scm
+   * @param maxRamMb  the maximum heap of a new worker, in MB
+   * @param kawaArgs  the kawa.repl arguments for the compilation (-d, -P, -C and sources)
+   * @return the response: the Kawa exit status and Kawa's error output
+   */
+  static ServerProcess.Response compile(String classpath, String yailRuntime, int maxRamMb,
+      List<String> kawaArgs) throws IOException, InterruptedException {
+    long timeout;
+    synchronized (lock) {
+      timeout = timeoutMillis;
+    }
+    ServerProcess worker = acquireWorker(classpath, yailRuntime, maxRamMb);
+    boolean reusable = false;
+    try {
+      // If the worker hangs it is killed, and releaseWorker drops it from the pool.
+      ServerProcess.Response response = worker.request(kawaArgs, timeout);
+      reusable = response.status == 0;
+      return response;
+    } finally {
+      releaseWorker(classpath, worker, reusable);
+    }
+  }
+
+  static int getWorkerCount() {
+    synchronized (lock) {
+      return workerCount;
+    }
+  }
+
+  static int getStartedWorkerCount() {
+    return startedWorkers.get();
+  }
+
+  private static ServerProcess acquireWorker(String classpath, String yailRuntime, int maxRamMb)
+      throws IOException, InterruptedException {
+    synchronized (lock) {
+      while (true) {
+        LinkedList<ServerProcess> workers = idleWorkers.get(classpath);
+        if (workers != null && !workers.isEmpty()) {
+          return workers.removeFirst();
+        }
+        if (workerCount < maxWorkers) {
+          break;
+        }
+        if (!destroyLeastRecentlyUsedIdleWorker()) {
+          lock.wait();
+        }
+      }
+      workerCount++;
+    }
+
+    ServerProcess worker = null;
+    try {
+      String serverClasspath = new File(KawaCompileServer.class.getProtectionDomain()
+          .getCodeSource().getLocation().toURI()).getAbsolutePath();
+      String[] commandLine = {
+        System.getProperty("java.home") + "/bin/java",
+        "-mx" + maxRamMb + "M",
+        "-cp", serverClasspath + File.pathSeparator + classpath,
+        KawaCompileServer.class.getName(),
+        yailRuntime
+      };
+      worker = new ServerProcess("Kawa compile worker", commandLine);
+      startedWorkers.incrementAndGet();
+      return worker;
+    } catch (URISyntaxException e) {
+      throw new IOException(e.getMessage());
+    } finally {
+      if (worker == null) {
+        synchronized (lock) {
+          workerCount--;
+          lock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /*
+   * Destroys an idle worker for the class path that was used least recently. Returns false if
+   * there are no idle workers. Must be called with lock held.
+   */
+  private static boolean destroyLeastRecentlyUsedIdleWorker() {
+    Iterator<LinkedList<ServerProcess>> iterator = idleWorkers.values().iterator();
+    while (iterator.hasNext()) {
+      LinkedList<ServerProcess> workers = iterator.next();
+      if (!workers.isEmpty()) {
+        workers.removeLast().destroy();
+        workerCount--;
+        if (workers.isEmpty()) {
+          iterator.remove();
+        }
+        return true;
+      }
+      iterator.remove();
+    }
+    return false;
+  }
+
+  private static void releaseWorker(String classpath, ServerProcess worker, boolean reusable) {
+    synchronized (lock) {
+      if (reusable && worker.getRequestCount() < maxBuildsPerWorker) {
+        LinkedList<ServerProcess> workers = idleWorkers.get(classpath);
+        if (workers == null) {
+          workers = new LinkedList<ServerProcess>();
+          idleWorkers.put(classpath, workers);
+        }
+        workers.addFirst(worker);
+      } else {
+        worker.destroy();
+        workerCount--;
+      }
+      lock.notifyAll();
+    }
+  }
+}
@@ -44,6 +44,18 @@ public final class Main {
     @Option(name = "--childProcessRamMb",
             usage = "Maximum ram that can be used by a child processes, in MB.")
     int childProcessRamMb = 2048;
+
+    @Option(name = "--dexCacheDir",
+            usage = "Directory in which dexed runtime libraries are cached between builds.")
+    File dexCacheDir = null;
+
+    @Option(name = "--buildCacheDir",
+            usage = "Directory in which intermediate build results are cached between builds.")
+    File buildCacheDir = null;
+
+    @Option(name = "--buildCacheMaxMb",
+            usage = "Maximum size of the build cache, in MB.")
+    long buildCacheMaxMb = 1024;
   }
 
   private static CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -70,6 +82,11 @@ public final class Main {
       System.exit(1);
     }
 
+    if (commandLineOptions.dexCacheDir != null) {
+      DexCache.setCacheDirectory(commandLineOptions.dexCacheDir);
+    }
+    BuildCache.configure(commandLineOptions.buildCacheDir, commandLineOptions.buildCacheMaxMb);
+
     ProjectBuilder projectBuilder = new ProjectBuilder();
     ZipFile zip = null;
     try {
@@ -83,7 +100,8 @@ public final class Main {
                                          commandLineOptions.outputDir,
                                          commandLineOptions.isForStemCellApp,
                                          commandLineOptions.isForWireless,
-                                         commandLineOptions.childProcessRamMb);
+                                         commandLineOptions.childProcessRamMb,
+                                         new BuildContext(null));
     System.exit(result.getResult());
   }
 
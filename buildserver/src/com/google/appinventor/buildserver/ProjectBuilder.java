@@ -13,6 +13,7 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
 import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
 import com.google.common.io.Resources;
@@ -28,6 +29,12 @@ import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -71,6 +78,10 @@ public final class ProjectBuilder {
   private static final String ALL_COMPONENT_TYPES =
       Compiler.RUNTIME_FILES_DIR + "simple_components.txt";
 
+  // Runs the YAIL generation for the forms of a project in parallel. The number of forms that are
+  // actually generated at the same time is limited by the YailGeneratorPool.
+  private static final ExecutorService yailGenerationExecutor = Executors.newCachedThreadPool();
+
   public File getOutputApk() {
     return outputApk;
   }
@@ -112,9 +123,10 @@ public final class ProjectBuilder {
   }
 
     Result build(String userName, ZipFile inputZip, File outputDir, boolean isForRepl, boolean isForWireless,
-               int childProcessRam) {
+               int childProcessRam, BuildContext context) {
     try {
       // Download project files into a temporary directory
+      context.startStage("Extracting project files");
       File projectRoot = createNewTempDir();
       LOG.info("temporary project root: " + projectRoot.getAbsolutePath());
       try {
@@ -126,8 +138,15 @@ public final class ProjectBuilder {
           return Result.createFailingResult("", "Problems processing zip file.");
         }
 
+        // Prepare for redirection of compiler message output
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream console = new PrintStream(output);
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream userErrors = new PrintStream(errors);
+
+        context.startStage("Generating YAIL");
         try {
-          genYailFilesIfNecessary(sourceFiles);
+          genYailFilesIfNecessary(projectRoot, sourceFiles, console);
         } catch (YailGenerationException e) {
           // Note that we're using a special result code here for the case of a Yail gen error.
           return new Result(Result.YAIL_GENERATION_ERROR, "", e.getMessage(), e.getFormName());
@@ -140,7 +159,8 @@ public final class ProjectBuilder {
         File keyStoreFile = new File(projectRoot, KEYSTORE_FILE_NAME);
         String keyStorePath = keyStoreFile.getPath();
         if (!keyStoreFile.exists()) {
-          keyStorePath = createKeyStore(userName, projectRoot, KEYSTORE_FILE_NAME);
+          context.startStage("Creating keystore");
+          keyStorePath = createKeyStore(userName, projectRoot, KEYSTORE_FILE_NAME, context);
           saveKeystore = true;
         }
 
@@ -150,19 +170,13 @@ public final class ProjectBuilder {
         File buildTmpDir = new File(projectRoot, "build/tmp");
         buildTmpDir.mkdirs();
 
-        // Prepare for redirection of compiler message output
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        PrintStream console = new PrintStream(output);
-        ByteArrayOutputStream errors = new ByteArrayOutputStream();
-        PrintStream userErrors = new PrintStream(errors);
-
         Set<String> componentTypes =
             (isForRepl || isForWireless) ? getAllComponentTypes() : getComponentTypes(sourceFiles);
 
         // Invoke YoungAndroid compiler
         boolean success =
             Compiler.compile(project, componentTypes, console, console, userErrors, isForRepl, isForWireless,
-                             keyStorePath, childProcessRam);
+                             keyStorePath, childProcessRam, context);
         console.close();
         userErrors.close();
 
@@ -201,8 +215,14 @@ public final class ProjectBuilder {
     }
   }
 
-  private void genYailFilesIfNecessary(List<String> sourceFiles)
-      throws IOException, YailGenerationException {
+  /*
+   * Generates YAIL for every form that doesn't have a .yail file yet. The forms are generated in
+   * parallel by the YailGeneratorPool, unless the BuildCache has YAIL for an identical form, and
+   * the time taken for each form is written to console.
+   */
+  private void genYailFilesIfNecessary(final File projectRoot, List<String> sourceFiles,
+      PrintStream console)
+      throws IOException, YailGenerationException, InterruptedException {
     // Filter out the files that aren't really source files (i.e. that don't end in .scm or .yail)
     Collection<String> formAndYailSourceFiles = Collections2.filter(
         sourceFiles,
@@ -212,18 +232,50 @@ public final class ProjectBuilder {
             return input.endsWith(FORM_PROPERTIES_EXTENSION) || input.endsWith(YAIL_EXTENSION);
           }
         });
+    Set<String> sourceFileSet = Sets.newHashSet(sourceFiles);
+    List<Future<String>> yailFutures = Lists.newArrayList();
     for (String sourceFile : formAndYailSourceFiles) {
       if (sourceFile.endsWith(FORM_PROPERTIES_EXTENSION)) {
-        String rootPath = sourceFile.substring(0, sourceFile.length()
+        final String rootPath = sourceFile.substring(0, sourceFile.length()
                                                   - FORM_PROPERTIES_EXTENSION.length());
         String yailFilePath = rootPath + YAIL_EXTENSION;
-        // Note: Famous last words: The following contains() makes this method O(n**2) but n should
-        // be pretty small.
-        if (!sourceFiles.contains(yailFilePath)) {
-          generateYail(rootPath);
+        if (!sourceFileSet.contains(yailFilePath)) {
+          yailFutures.add(yailGenerationExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+              long start = System.currentTimeMillis();
+              generateYail(projectRoot, rootPath);
+              return "YAIL generation time for " + PathUtil.basename(rootPath) + ": " +
+                  ((System.currentTimeMillis() - start) / 1000.0) + " seconds";
+            }
+          }));
+        }
+      }
+    }
+
+    // Wait for all of the forms, so that no generation is still running when the project
+    // directory is deleted. The first failure (in form order) is reported.
+    Exception failure = null;
+    for (Future<String> yailFuture : yailFutures) {
+      try {
+        String timeMessage = yailFuture.get();
+        console.println(timeMessage);
+        LOG.info(timeMessage);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
         }
       }
     }
+    if (failure instanceof YailGenerationException) {
+      throw (YailGenerationException) failure;
+    } else if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure != null) {
+      throw new RuntimeException(failure);
+    }
   }
 
   private static Set<String> getAllComponentTypes() throws IOException {
@@ -271,8 +323,8 @@ public final class ProjectBuilder {
     return componentTypes;
   }
 
-  static String createKeyStore(String userName, File projectRoot, String keystoreFileName)
-      throws IOException {
+  static String createKeyStore(String userName, File projectRoot, String keystoreFileName,
+      BuildContext context) throws IOException {
     File keyStoreFile = new File(projectRoot.getPath(), keystoreFileName);
 
     /* Note: must expire after October 22, 2033, to be in the Android
@@ -293,7 +345,7 @@ public final class ProjectBuilder {
         "-keypass", "android"
     };
 
-    if (Execution.execute(null, keytoolCommandline, System.out, System.err)) {
+    if (Execution.execute(null, keytoolCommandline, System.out, System.err, context)) {
       if (keyStoreFile.length() > 0) {
         return keyStoreFile.getAbsolutePath();
       }
@@ -412,46 +464,68 @@ public final class ProjectBuilder {
     return new Project(projectRoot.getAbsolutePath() + "/" + PROJECT_PROPERTIES_FILE_NAME);
   }
 
-  private File generateYail(String rootName) throws IOException, YailGenerationException {
+  private File generateYail(File projectRoot, String rootName)
+      throws IOException, YailGenerationException, InterruptedException {
     String formPropertiesPath = rootName + FORM_PROPERTIES_EXTENSION;
     String codeblocksSourcePath = rootName + CODEBLOCKS_SOURCE_EXTENSION;
     String yailPath = rootName + YAIL_EXTENSION;
 
-    String[] commandLine = {
-      System.getProperty("java.home") + "/bin/java",
-      "-mx1024M",
-      "-jar",
-      Compiler.getResource(Compiler.RUNTIME_FILES_DIR + "YailGenerator.jar"),
-      new File(formPropertiesPath).getAbsolutePath(),
-      new File(codeblocksSourcePath).getAbsolutePath(),
-      yailPath
-    };
-    StringBuffer out = new StringBuffer();
-    StringBuffer err = new StringBuffer();
-    int exitValue = Execution.execute(null, commandLine, out, err);
-    if (exitValue == 0) {
-      String generatedYailString = out.toString();
+    String cacheKey = getYailCacheKey(projectRoot, rootName);
+    if (cacheKey != null && BuildCache.restore(cacheKey, new File(yailPath))) {
+      return new File(yailPath);
+    }
+
+    ServerProcess.Response response = YailGeneratorPool.generateYail(
+        new File(formPropertiesPath).getAbsolutePath(),
+        new File(codeblocksSourcePath).getAbsolutePath(),
+        yailPath);
+    if (response.status == 0) {
       File generatedYailFile = new File(yailPath);
-      Files.write(generatedYailString, generatedYailFile, Charsets.UTF_8);
+      Files.write(response.text, generatedYailFile, Charsets.UTF_8);
+      if (cacheKey != null) {
+        BuildCache.store(cacheKey, generatedYailFile);
+      }
       return generatedYailFile;
     } else {
       String formName = PathUtil.trimOffExtension(PathUtil.basename(formPropertiesPath));
-      if (exitValue == 1) {
+      if (response.status == 1) {
         // Failed to generate yail for legitimate reasons, such as empty sockets.
         throw new YailGenerationException("Unable to generate code for " + formName + "."
-            + "\n -- err is " + err.toString()
-            + "\n -- out is" + out.toString(),
+            + "\n -- err is " + response.text,
             formName);
       } else {
-        // Any other exit value is unexpected.
+        // Any other status is unexpected.
         throw new RuntimeException("YailGenerator for form " + formName
-            + " exited with code " + exitValue
-            + "\n -- err is " + err.toString()
-            + "\n -- out is" + out.toString());
+            + " failed with status " + response.status
+            + "\n -- err is " + response.text);
       }
     }
   }
 
+  /*
+   * Returns the BuildCache key for the YAIL of a form, or null if it can't be computed. The YAIL
+   * depends only on the form's .scm and .blk files, on the form's path in the project (which
+   * determines its package name) and on the YailGenerator.
+   */
+  private static String getYailCacheKey(File projectRoot, String rootName) {
+    try {
+      Hasher hasher = BuildCache.newHasher("yail");
+      hasher.putString(rootName.substring(projectRoot.getPath().length()), Charsets.UTF_8);
+      hasher.putString("|" + DexCache.hashFile(
+          Compiler.getResource(Compiler.RUNTIME_FILES_DIR + "YailGenerator.jar")),
+          Charsets.UTF_8);
+      BuildCache.putFile(hasher, new File(rootName + FORM_PROPERTIES_EXTENSION));
+      File codeblocksSourceFile = new File(rootName + CODEBLOCKS_SOURCE_EXTENSION);
+      if (codeblocksSourceFile.exists()) {
+        BuildCache.putFile(hasher, codeblocksSourceFile);
+      }
+      return hasher.hash().toString();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to compute build cache key for " + rootName, e);
+      return null;
+    }
+  }
+
   private static class YailGenerationException extends Exception {
     // The name of the form being built when an error occurred
     private final String formName;
@@ -468,8 +542,4 @@ public final class ProjectBuilder {
       return formName;
     }
   }
-
-  public int getProgress() {
-    return Compiler.getProgress();
-  }
 }
@@ -0,0 +1,161 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A long-running child process that handles a sequence of requests.
+ *
+ * <p>Each request is written to the process's stdin as a single line of tab-separated
+ * arguments. Each response is read from its stdout as an int status, an int byte count and that
+ * many bytes of UTF-8 text. Both the YailGenerator and the Kawa compile server speak this
+ * protocol.</p>
+ */
+final class ServerProcess {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(ServerProcess.class.getName());
+
+  // Kills server processes that take too long to respond. Killing a process is quick, so a
+  // single thread is enough.
+  private static final ScheduledExecutorService watchdog =
+    Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "ServerProcessWatchdog");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+  /**
+   * The response to one request.
+   */
+  static final class Response {
+    final int status;
+    final String text;
+
+    Response(int status, String text) {
+      this.status = status;
+      this.text = text;
+    }
+  }
+
+  private final String name;
+  private final Process process;
+  private final OutputStream requests;
+  private final DataInputStream responses;
+  private int requestCount = 0;
+
+  /**
+   * Starts a server process.
+   *
+   * @param name  a name for the process, used in log messages
+   * @param commandLine  the command to run
+   */
+  ServerProcess(final String name, String[] commandLine) throws IOException {
+    this.name = name;
+    LOG.info("Starting " + name + ": " + Joiner.on(" ").join(commandLine));
+    process = Runtime.getRuntime().exec(commandLine);
+    requests = new BufferedOutputStream(process.getOutputStream());
+    responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    // Server processes report errors in their responses, so this is only for messages from the
+    // JVM itself.
+    final InputStream errors = process.getErrorStream();
+    Thread errorDrainer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          String message = new String(ByteStreams.toByteArray(errors), Charsets.UTF_8);
+          if (!message.isEmpty()) {
+            LOG.warning(name + " stderr: " + message);
+          }
+        } catch (IOException e) {
+          // The process is gone.
+        }
+      }
+    };
+    errorDrainer.setDaemon(true);
+    errorDrainer.start();
+  }
+
+  /**
+   * Sends a request and waits for the response.
+   *
+   * <p>If the response doesn't arrive within the timeout, the process is killed and an
+   * IOException is thrown; the process can't be used after that.</p>
+   *
+   * @param arguments  the request arguments; they must not contain tabs or newlines
+   * @param timeoutMillis  how long to wait for the response, in milliseconds; 0 means forever
+   */
+  Response request(List<String> arguments, long timeoutMillis) throws IOException {
+    requestCount++;
+    String request = Joiner.on("\t").join(arguments) + "\n";
+    final AtomicBoolean timedOut = new AtomicBoolean(false);
+    ScheduledFuture<?> kill = null;
+    if (timeoutMillis > 0) {
+      kill = watchdog.schedule(new Runnable() {
+        @Override
+        public void run() {
+          timedOut.set(true);
+          process.destroy();
+        }
+      }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    try {
+      requests.write(request.getBytes(Charsets.UTF_8));
+      requests.flush();
+      int status = responses.readInt();
+      byte[] text = new byte[responses.readInt()];
+      responses.readFully(text);
+      return new Response(status, new String(text, Charsets.UTF_8));
+    } catch (IOException e) {
+      if (timedOut.get()) {
+        // Killing the process is what ended the read, so report the timeout rather than the
+        // resulting end of stream.
+        e = new IOException(name + " timed out after " + timeoutMillis + " ms");
+      }
+      LOG.log(Level.WARNING, name + " failed", e);
+      throw e;
+    } finally {
+      if (kill != null) {
+        kill.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of requests sent to this process.
+   */
+  int getRequestCount() {
+    return requestCount;
+  }
+
+  /**
+   * Kills the process.
+   */
+  void destroy() {
+    process.destroy();
+  }
+}
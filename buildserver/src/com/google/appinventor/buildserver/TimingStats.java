@@ -0,0 +1,61 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.buildserver;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent durations of some operation and reports their percentiles.
+ */
+final class TimingStats {
+  private final long[] samples;
+  private int sampleCount = 0;
+  private int nextSample = 0;
+  private long totalCount = 0;
+
+  /**
+   * Creates a TimingStats.
+   *
+   * @param windowSize  the number of most recent durations used for percentiles
+   */
+  TimingStats(int windowSize) {
+    samples = new long[windowSize];
+  }
+
+  /**
+   * Records one duration.
+   *
+   * @param millis  the duration, in milliseconds
+   */
+  synchronized void record(long millis) {
+    samples[nextSample] = millis;
+    nextSample = (nextSample + 1) % samples.length;
+    sampleCount = Math.min(sampleCount + 1, samples.length);
+    totalCount++;
+  }
+
+  /**
+   * Returns the given percentile of the recent durations, or 0 if nothing has been recorded.
+   *
+   * @param percentile  a number between 0 and 100
+   */
+  synchronized long getPercentile(int percentile) {
+    if (sampleCount == 0) {
+      return 0;
+    }
+    long[] sorted = Arrays.copyOf(samples, sampleCount);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100.0 * sampleCount) - 1;
+    return sorted[Math.max(0, Math.min(index, sampleCount - 1))];
+  }
+
+  /**
+   * Returns the number of durations recorded since the server started.
+   */
+  synchronized long getCount() {
+    return totalCount;
+  }
+}
@@ -0,0 +1,154 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of warm YailGenerator processes.
+ *
+ * <p>Each worker runs {@code YailGenerator --server}, which loads the block language definition
+ * once and then generates YAIL for one form per request. Workers are recycled after a number of
+ * requests to bound their memory use, and replaced if they fail.</p>
+ */
+final class YailGeneratorPool {
+  private static final Object lock = new Object();
+
+  // The following are guarded by lock.
+  private static int maxWorkers = 2;
+  private static int maxRequestsPerWorker = 50;
+  private static long timeoutMillis = 120000;
+  private static int workerCount = 0;
+  private static final LinkedList<ServerProcess> idleWorkers = new LinkedList<ServerProcess>();
+
+  private static final AtomicInteger startedWorkers = new AtomicInteger(0);
+  private static final AtomicInteger completedRequests = new AtomicInteger(0);
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        synchronized (lock) {
+          for (ServerProcess worker : idleWorkers) {
+            worker.destroy();
+          }
+          idleWorkers.clear();
+        }
+      }
+    });
+  }
+
+  private YailGeneratorPool() {
+  }
+
+  /**
+   * Sets the size of the pool.
+   *
+   * @param workers  the maximum number of YailGenerator processes
+   * @param requestsPerWorker  the number of requests after which a process is replaced
+   * @param timeoutSeconds  how long to wait for a process to generate YAIL for one form before
+   *     killing it; 0 means forever
+   */
+  static void configure(int workers, int requestsPerWorker, int timeoutSeconds) {
+    synchronized (lock) {
+      maxWorkers = Math.max(1, workers);
+      maxRequestsPerWorker = Math.max(1, requestsPerWorker);
+      timeoutMillis = Math.max(0, timeoutSeconds) * 1000L;
+    }
+  }
+
+  /**
+   * Generates YAIL for one form, waiting for a free worker if necessary.
+   *
+   * @param formPropertiesPath  the path of the .scm file
+   * @param codeblocksSourcePath  the path of the .blk file
+   * @param yailPath  the path of the .yail file, used in the generated prelude
+   * @return the response: status 0 and the generated YAIL on success, status 1 and an error
+   *     message if the blocks can't be compiled, any other status for unexpected failures
+   */
+  static ServerProcess.Response generateYail(String formPropertiesPath,
+      String codeblocksSourcePath, String yailPath) throws IOException, InterruptedException {
+    long timeout;
+    synchronized (lock) {
+      timeout = timeoutMillis;
+    }
+    ServerProcess worker = acquireWorker();
+    boolean reusable = false;
+    try {
+      // If the worker hangs it is killed, and releaseWorker replaces it.
+      ServerProcess.Response response = worker.request(
+          Lists.newArrayList(formPropertiesPath, codeblocksSourcePath, yailPath), timeout);
+      completedRequests.incrementAndGet();
+      // After an unexpected error the worker's state can't be trusted.
+      reusable = response.status == 0 || response.status == 1;
+      return response;
+    } finally {
+      releaseWorker(worker, reusable);
+    }
+  }
+
+  static int getWorkerCount() {
+    synchronized (lock) {
+      return workerCount;
+    }
+  }
+
+  static int getStartedWorkerCount() {
+    return startedWorkers.get();
+  }
+
+  static int getCompletedRequestCount() {
+    return completedRequests.get();
+  }
+
+  private static ServerProcess acquireWorker() throws IOException, InterruptedException {
+    synchronized (lock) {
+      while (idleWorkers.isEmpty() && workerCount >= maxWorkers) {
+        lock.wait();
+      }
+      if (!idleWorkers.isEmpty()) {
+        return idleWorkers.removeFirst();
+      }
+      workerCount++;
+    }
+    ServerProcess worker = null;
+    try {
+      String[] commandLine = {
+        System.getProperty("java.home") + "/bin/java",
+        "-mx1024M",
+        "-jar",
+        Compiler.getResource(Compiler.RUNTIME_FILES_DIR + "YailGenerator.jar"),
+        "--server"
+      };
+      worker = new ServerProcess("YailGenerator worker", commandLine);
+      startedWorkers.incrementAndGet();
+      return worker;
+    } finally {
+      if (worker == null) {
+        synchronized (lock) {
+          workerCount--;
+          lock.notifyAll();
+        }
+      }
+    }
+  }
+
+  private static void releaseWorker(ServerProcess worker, boolean reusable) {
+    synchronized (lock) {
+      if (reusable && worker.getRequestCount() < maxRequestsPerWorker) {
+        idleWorkers.addFirst(worker);
+      } else {
+        worker.destroy();
+        workerCount--;
+      }
+      lock.notifyAll();
+    }
+  }
+}
@@ -5,6 +5,7 @@
 
 package com.google.appinventor.yailgenerator;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.io.Files;
 
@@ -14,6 +15,7 @@ import openblocks.codeblockutil.AIDirectory;
 import openblocks.renderable.RenderableBlock;
 import openblocks.workspace.Workspace;
 import openblocks.yacodeblocks.AndroidController;
+import openblocks.yacodeblocks.BlockParser;
 import openblocks.yacodeblocks.BlockSaveFile;
 import openblocks.yacodeblocks.ComponentBlockManager;
 import openblocks.yacodeblocks.IWorkspaceController;
@@ -30,10 +32,18 @@ import org.json.JSONObject;
 import org.w3c.dom.Element;
 
 import java.awt.event.MouseEvent;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -49,6 +59,14 @@ public class YailGenerator implements IWorkspaceController {
   // Default character encoding
   private static final String DEFAULT_CHARSET = "Cp1252";
 
+  // Command line flag that makes YailGenerator handle a sequence of requests. See serve().
+  private static final String SERVER_FLAG = "--server";
+
+  // Status codes, used both as exit values and in server responses.
+  private static final int STATUS_OK = 0;
+  private static final int STATUS_YAIL_GENERATION_ERROR = 1;
+  private static final int STATUS_UNEXPECTED_ERROR = -1;
+
   private static final Object generateYailLock = new Object();
 
   private final Workspace workspace;
@@ -70,8 +88,26 @@ public class YailGenerator implements IWorkspaceController {
    * </ol>
    *
    * <p>The generated YAIL is printed to stdout.</p>
+   *
+   * <p>Alternatively, the single argument {@code --server} makes YailGenerator stay running and
+   * handle one request per line of stdin, so that the language definition is loaded only once
+   * for many forms. See {@link #serve}.</p>
    */
   public static void main(String[] args) {
+    if (args.length == 1 && args[0].equals(SERVER_FLAG)) {
+      PrintStream saveSystemOut = System.out;
+      // Output from codeblocks is discarded after every request.
+      ByteArrayOutputStream codeblocksOutput = new ByteArrayOutputStream();
+      System.setOut(new PrintStream(codeblocksOutput, true));
+      System.setErr(new PrintStream(codeblocksOutput, true));
+      try {
+        serve(System.in, saveSystemOut, codeblocksOutput);
+        System.exit(STATUS_OK);
+      } catch (Throwable e) {
+        System.exit(STATUS_UNEXPECTED_ERROR);
+      }
+    }
+
     if (args.length != 3) {
       System.err.println("YailGenerator error - expected exactly 3 command line arguments");
       System.exit(-1);
@@ -94,25 +130,81 @@ public class YailGenerator implements IWorkspaceController {
         String yail = generateYail(formPropertiesSource, codeblocksSource,
             yailPath);
         saveSystemOut.print(yail);
-        System.exit(0);
+        System.exit(STATUS_OK);
       } catch (YailGenerationException e) {
         saveSystemErr.println(e.getMessage());
-        System.exit(1);
+        System.exit(STATUS_YAIL_GENERATION_ERROR);
       }
 
     } catch (Throwable e) {
       e.printStackTrace(saveSystemErr);
-      System.exit(-1);
+      System.exit(STATUS_UNEXPECTED_ERROR);
+    }
+  }
+
+  /**
+   * Handles YAIL generation requests until the input stream is closed.
+   *
+   * <p>Each request is a line containing the form properties path, the codeblocks path and the
+   * yail path, separated by tabs. Each response is an int status (the exit value the
+   * single-request mode would have used), an int byte count, and that many bytes of UTF-8 text:
+   * the generated YAIL if the status is 0, an error message otherwise.</p>
+   *
+   * @param requests  the stream to read requests from
+   * @param responses  the stream to write responses to
+   * @param codeblocksOutput  the stream that System.out and System.err write to; it is reset
+   *     before each request so that it doesn't grow without bound
+   */
+  static void serve(InputStream requests, OutputStream responses,
+      ByteArrayOutputStream codeblocksOutput) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(requests, Charsets.UTF_8));
+    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(responses));
+    String request;
+    while ((request = reader.readLine()) != null) {
+      System.out.flush();
+      System.err.flush();
+      codeblocksOutput.reset();
+      int status;
+      String text;
+      try {
+        String[] paths = request.split("\t");
+        if (paths.length != 3) {
+          throw new IllegalArgumentException("Expected 3 paths, got: " + request);
+        }
+        String formPropertiesSource = Files.toString(new File(paths[0]),
+            Charset.forName(DEFAULT_CHARSET));
+        String codeblocksSource = Files.toString(new File(paths[1]),
+            Charset.forName(DEFAULT_CHARSET));
+        text = generateYail(formPropertiesSource, codeblocksSource, paths[2]);
+        status = STATUS_OK;
+      } catch (YailGenerationException e) {
+        text = String.valueOf(e.getMessage());
+        status = STATUS_YAIL_GENERATION_ERROR;
+      } catch (Exception e) {
+        StringWriter stackTrace = new StringWriter();
+        e.printStackTrace(new PrintWriter(stackTrace));
+        text = stackTrace.toString();
+        status = STATUS_UNEXPECTED_ERROR;
+      }
+      byte[] bytes = text.getBytes(Charsets.UTF_8);
+      writer.writeInt(status);
+      writer.writeInt(bytes.length);
+      writer.write(bytes);
+      writer.flush();
     }
   }
 
   public static String generateYail(
       String formPropertiesSource, String codeblocksSource, String yailPath)
       throws YailGenerationException {
-    // Currently when YailGenerator is executed as a separate process, this method is called only
-    // once. However, in tests (see YailGeneratorTest.java), it may called multiple times in
-    // parallel.
+    // When YailGenerator is executed as a separate process for a single form, this method is
+    // called only once. In server mode and in tests (see YailGeneratorTest.java), it is called
+    // many times, and in tests it may be called multiple times in parallel.
+    return getInstance().loadBlocksAndGenerateYail(formPropertiesSource, codeblocksSource,
+        yailPath, new BlockParser(false), null);  // not for REPL
+  }
 
+  private static YailGenerator getInstance() {
     // Give the WorkspaceControllerHolder a factory that will create a YailGenerator.
     // This ensures that only one workspace controller will be created and that it will be the
     // appropriate implementation: YailGenerator.
@@ -123,25 +215,48 @@ public class YailGenerator implements IWorkspaceController {
       }
     };
     WorkspaceControllerHolder.setFactory(factory, true);  // headless
-    YailGenerator yailGenerator = (YailGenerator) WorkspaceControllerHolder.get();
+    return (YailGenerator) WorkspaceControllerHolder.get();
+  }
 
-    return yailGenerator.loadBlocksAndGenerateYail(formPropertiesSource, codeblocksSource,
-        yailPath);
+  /**
+   * Loads a form once and then generates its YAIL the given number of times with one parser,
+   * timing each generation. Used by {@link YailGeneratorBenchmark}.
+   *
+   * @param memoize  whether the parser keeps the code of each declaration between generations
+   * @param runs  the number of generations
+   * @return the time taken by each generation, in nanoseconds
+   */
+  static long[] timeYailGeneration(String formPropertiesSource, String codeblocksSource,
+      boolean memoize, int runs) throws YailGenerationException {
+    long[] generationNanos = new long[runs];
+    getInstance().loadBlocksAndGenerateYail(formPropertiesSource, codeblocksSource,
+        "benchmark.yail", new BlockParser(false, memoize), generationNanos);
+    return generationNanos;
   }
 
   private YailGenerator() {
     workspace = Workspace.getInstance();
     cbm = new ComponentBlockManager(workspace, this);
-    pbm = new ProcedureBlockManager(workspace);
+    pbm = new ProcedureBlockManager(workspace, this);
   }
 
+  /*
+   * Loads the form and generates its YAIL with the given parser. If generationNanos is not null,
+   * the YAIL is generated generationNanos.length times, and the time taken by each generation is
+   * stored in it.
+   */
   private String loadBlocksAndGenerateYail(String formPropertiesSource, String codeblocksSource,
-      String yailPath) throws YailGenerationException {
-    // Currently when YailGenerator is executed as a separate process, this method is called only
-    // once. However, in tests (see YailGeneratorTest.java), it may called multiple times in
-    // parallel. We use synchronized here to handle (prevent) concurreny.
+      String yailPath, BlockParser parser, long[] generationNanos)
+      throws YailGenerationException {
+    // When YailGenerator is executed as a separate process for a single form, this method is
+    // called only once. In server mode it is called once per request, reusing the language
+    // definition loaded by the first call. In tests (see YailGeneratorTest.java), it may be
+    // called multiple times in parallel. We use synchronized here to handle (prevent) concurreny.
     synchronized (generateYailLock) {
       try {
+        // In server mode a previous request may have failed part way through, so start from a
+        // clean slate rather than trusting that its cleanup left nothing behind.
+        resetFormState();
 
         // The first time this method is called, langDefRoot will be null.
         if (langDefRoot == null) {
@@ -188,19 +303,26 @@ public class YailGenerator implements IWorkspaceController {
           throw new YailGenerationException("There are bad blocks in " + formName + ".");
         }
 
-        ComplaintDepartment.clearComplaints();
-
-        HashMap<String, ArrayList<RenderableBlock>> componentMap =
-            new HashMap<String, ArrayList<RenderableBlock>>();
-        Map<Block, String> warnings = new HashMap<Block, String>();
-        List<String> errors = new ArrayList<String>();
-        WorkspaceUtils.populateComponentMap(componentMap, warnings, errors,
-            false, // not for REPL
-            false, // don't compile unattached blocks
-            cbm);
-
-        String code = YABlockCompiler.generateYailForProject(formProperties, componentMap,
-            false); // not for REPL
+        String code = null;
+        int runs = (generationNanos == null) ? 1 : generationNanos.length;
+        for (int run = 0; run < runs; run++) {
+          long start = System.nanoTime();
+          ComplaintDepartment.clearComplaints();
+
+          HashMap<String, ArrayList<RenderableBlock>> componentMap =
+              new HashMap<String, ArrayList<RenderableBlock>>();
+          Map<Block, String> warnings = new HashMap<Block, String>();
+          List<String> errors = new ArrayList<String>();
+          WorkspaceUtils.populateComponentMap(componentMap, warnings, errors,
+              false, // not for REPL
+              false, // don't compile unattached blocks
+              cbm);
+
+          code = YABlockCompiler.generateYailForProject(formProperties, componentMap, parser);
+          if (generationNanos != null) {
+            generationNanos[run] = System.nanoTime() - start;
+          }
+        }
         String[] compileErrors = ComplaintDepartment.getCompileErrors();
         if (compileErrors.length > 0) {
           String errorMessages = Joiner.on("\n").join(compileErrors);
@@ -216,13 +338,22 @@ public class YailGenerator implements IWorkspaceController {
 
       } finally {
         projectLoaded = false;
-        workspace.reset();
-        cbm.reset();
-        pbm.reset();
+        resetFormState();
       }
     }
   }
 
+  /**
+   * Clears everything that was loaded for a form, including the static block and complaint
+   * state, so that nothing carries over to the next form. The language definition is kept.
+   */
+  private void resetFormState() {
+    ComplaintDepartment.clearComplaints();
+    workspace.reset();
+    cbm.reset();
+    pbm.reset();
+  }
+
   private void loadBlocks(Element blocksRoot) {
     loadingBlocks = true;
     try {
@@ -268,6 +399,11 @@ public class YailGenerator implements IWorkspaceController {
     // Nothing to do.
   }
 
+  @Override
+  public void procedureRenamed(String oldName, String newName) {
+    // Nothing to do.
+  }
+
   @Override
   public void mouseMovedOnCanvas(MouseEvent e) {
     // Nothing to do.
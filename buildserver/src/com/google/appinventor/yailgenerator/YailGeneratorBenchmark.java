@@ -0,0 +1,103 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.yailgenerator;
+
+import com.google.common.io.Files;
+
+import openblocks.yacodeblocks.YailGenerationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures YAIL generation for a set of forms, with and without a memoizing
+ * {@link openblocks.yacodeblocks.BlockParser}.
+ *
+ * <p>Usage: {@code java -cp YailGenerator.jar
+ * com.google.appinventor.yailgenerator.YailGeneratorBenchmark [-runs N] Form.blk ...}</p>
+ *
+ * <p>The form properties of each form are read from the .scm file next to its .blk file. For
+ * every form, the benchmark prints the time of the first generation and the mean time of the
+ * following ones, in milliseconds. Large .blk files make the difference clearest.</p>
+ */
+public final class YailGeneratorBenchmark {
+  private static final String CHARSET = "Cp1252";
+  private static final int DEFAULT_RUNS = 20;
+  private static final int WARMUP_RUNS = 3;
+
+  private YailGeneratorBenchmark() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    int runs = DEFAULT_RUNS;
+    List<File> blkFiles = new ArrayList<File>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-runs") && i + 1 < args.length) {
+        runs = Integer.parseInt(args[++i]);
+      } else {
+        blkFiles.add(new File(args[i]));
+      }
+    }
+    if (blkFiles.isEmpty() || runs < 2) {
+      System.err.println("Usage: YailGeneratorBenchmark [-runs N (at least 2)] Form.blk ...");
+      System.exit(-1);
+    }
+
+    List<String> names = new ArrayList<String>();
+    List<String> formPropertiesSources = new ArrayList<String>();
+    List<String> codeblocksSources = new ArrayList<String>();
+    for (File blkFile : blkFiles) {
+      String path = blkFile.getPath();
+      File scmFile = new File(path.substring(0, path.length() - ".blk".length()) + ".scm");
+      names.add(path);
+      formPropertiesSources.add(Files.toString(scmFile, Charset.forName(CHARSET)));
+      codeblocksSources.add(Files.toString(blkFile, Charset.forName(CHARSET)));
+    }
+
+    // Codeblocks prints progress messages; keep them out of the report.
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new ByteArrayOutputStream()));
+    System.setErr(new PrintStream(new ByteArrayOutputStream()));
+
+    try {
+      // Load the language definition and let the JIT compile the generator before timing.
+      for (int i = 0; i < names.size(); i++) {
+        YailGenerator.timeYailGeneration(formPropertiesSources.get(i), codeblocksSources.get(i),
+            false, WARMUP_RUNS);
+      }
+
+      out.println("form\tplain first\tplain mean\tmemo first\tmemo mean   (ms)");
+      for (int i = 0; i < names.size(); i++) {
+        long[] plain = YailGenerator.timeYailGeneration(formPropertiesSources.get(i),
+            codeblocksSources.get(i), false, runs);
+        long[] memo = YailGenerator.timeYailGeneration(formPropertiesSources.get(i),
+            codeblocksSources.get(i), true, runs);
+        out.println(names.get(i) + "\t" + millis(plain[0]) + "\t" + millis(meanAfterFirst(plain))
+            + "\t" + millis(memo[0]) + "\t" + millis(meanAfterFirst(memo)));
+      }
+      System.exit(0);
+    } catch (YailGenerationException e) {
+      out.println(e.getMessage());
+      System.exit(-1);
+    }
+  }
+
+  private static long meanAfterFirst(long[] nanos) {
+    long total = 0;
+    for (int i = 1; i < nanos.length; i++) {
+      total += nanos[i];
+    }
+    return total / (nanos.length - 1);
+  }
+
+  private static String millis(long nanos) {
+    return String.format("%.3f", nanos / 1e6);
+  }
+}
@@ -229,7 +229,10 @@ public class YaVersion {
   // - NEARFIELD_COMPONENT_VERSION was incremented to 1
   // For YOUNG_ANDROID_VERSION 79:
   // - FORM_COMPONENT_VERSION was incremented to 11.
-  public static final int YOUNG_ANDROID_VERSION = 79;
+  // For YOUNG_ANDROID_VERSION 80:
+  // - BLUETOOTHCLIENT_COMPONENT_VERSION was incremented to 6.
+  // - BLUETOOTHSERVER_COMPONENT_VERSION was incremented to 6.
+  public static final int YOUNG_ANDROID_VERSION = 80;
 
   // ............................... Blocks Language Version Number ...............................
 
@@ -336,7 +339,11 @@ public class YaVersion {
   // - The BluetoothClient.DelimiterByte property was added.
   // For BLUETOOTHCLIENT_COMPONENT_VERSION 5:
   // - The BluetoothClient.Secure property was added.
-  public static final int BLUETOOTHCLIENT_COMPONENT_VERSION = 5;
+  // For BLUETOOTHCLIENT_COMPONENT_VERSION 6:
+  // - The BluetoothClient.BytesReceived and BluetoothClient.DelimiterReceived events were added.
+  // - The BluetoothClient.ReceiveAvailableText, BluetoothClient.ReceiveAvailableSignedBytes, and
+  //   BluetoothClient.ReceiveAvailableUnsignedBytes methods were added.
+  public static final int BLUETOOTHCLIENT_COMPONENT_VERSION = 6;
 
   // For BLUETOOTHSERVER_COMPONENT_VERSION 2:
   // - The BluetoothServer.Enabled property was added.
@@ -346,7 +353,11 @@ public class YaVersion {
   // - The BluetoothServer.DelimiterByte property was added.
   // For BLUETOOTHSERVER_COMPONENT_VERSION 5:
   // - The BluetoothServer.Secure property was added.
-  public static final int BLUETOOTHSERVER_COMPONENT_VERSION = 5;
+  // For BLUETOOTHSERVER_COMPONENT_VERSION 6:
+  // - The BluetoothServer.BytesReceived and BluetoothServer.DelimiterReceived events were added.
+  // - The BluetoothServer.ReceiveAvailableText, BluetoothServer.ReceiveAvailableSignedBytes, and
+  //   BluetoothServer.ReceiveAvailableUnsignedBytes methods were added.
+  public static final int BLUETOOTHSERVER_COMPONENT_VERSION = 6;
 
   // For BUTTON_COMPONENT_VERSION 2:
   // - The Alignment property was renamed to TextAlignment.
@@ -15,6 +15,8 @@ import com.google.appinventor.components.annotations.SimpleProperty;
 import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.components.runtime.util.EventRateLimiter;
+import com.google.appinventor.components.runtime.util.SensorPipeline;
 
 import android.content.Context;
 import android.hardware.Sensor;
@@ -22,9 +24,7 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 
 /**
  * Physical world component that can detect shaking and measure
@@ -72,10 +72,12 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
   private static final double SHAKE_THRESHOLD = 8.0;
 
   // Cache for shake detection
+  private static final int DIMENSIONS = 3;
   private static final int SENSOR_CACHE_SIZE = 10;
-  private final Queue<Float> X_CACHE = new LinkedList<Float>();
-  private final Queue<Float> Y_CACHE = new LinkedList<Float>();
-  private final Queue<Float> Z_CACHE = new LinkedList<Float>();
+  private final SensorPipeline sensorCache = new SensorPipeline(DIMENSIONS, SENSOR_CACHE_SIZE);
+
+  // Keeps slow AccelerationChanged handlers from falling behind the sensor
+  private final EventRateLimiter accelerationChangedLimiter = new EventRateLimiter(0);
 
   // Backing for sensor values
   private float xAccel;
@@ -152,20 +154,6 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
     this.yAccel = yAccel;
     this.zAccel = zAccel;
 
-    addToSensorCache(X_CACHE, xAccel);
-    addToSensorCache(Y_CACHE, yAccel);
-    addToSensorCache(Z_CACHE, zAccel);
-    
-    long currentTime = System.currentTimeMillis();
-
-    //Checks whether the phone is shaking and the minimum interval
-    //has elapsed since the last registered a shaking event.
-    if ((isShaking(X_CACHE, xAccel) || isShaking(Y_CACHE, yAccel) || isShaking(Z_CACHE, zAccel))
-        && (timeLastShook == 0 || currentTime >= timeLastShook + minimumInterval)){
-      timeLastShook = currentTime;
-      Shaking();
-    }
-
     EventDispatcher.dispatchEvent(this, "AccelerationChanged", xAccel, yAccel, zAccel);
   }
 
@@ -211,6 +199,8 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
   // Assumes that sensorManager has been initialized, which happens in constructor
   private void stopListening() {
     sensorManager.unregisterListener(this);
+    // Throw out sensor readings that will go stale.
+    sensorCache.clear();
   }
 
   /**
@@ -273,13 +263,16 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
   }
 
   /*
-   * Updating sensor cache, replacing oldest values.
+   * Checks whether the phone is shaking and the minimum interval
+   * has elapsed since the last registered a shaking event.
    */
-  private void addToSensorCache(Queue<Float> cache, float value) {
-    if (cache.size() >= SENSOR_CACHE_SIZE) {
-      cache.remove();
+  private void checkShaking() {
+    long currentTime = System.currentTimeMillis();
+    if ((isShaking(0) || isShaking(1) || isShaking(2))
+        && (timeLastShook == 0 || currentTime >= timeLastShook + minimumInterval)){
+      timeLastShook = currentTime;
+      Shaking();
     }
-    cache.add(value);
   }
 
   /*
@@ -287,15 +280,8 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
    */
   // TODO(user): Maybe this can be improved.
   // See http://www.utdallas.edu/~rxb023100/pubs/Accelerometer_WBSN.pdf.
-  private boolean isShaking(Queue<Float> cache, float currentValue) {
-    float average = 0;
-    for (float value : cache) {
-      average += value;
-    }
-
-    average /= cache.size();
-
-    return Math.abs(average - currentValue) > SHAKE_THRESHOLD;
+  private boolean isShaking(int axis) {
+    return Math.abs(sensorCache.getMean(axis) - sensorCache.getLatest(axis)) > SHAKE_THRESHOLD;
   }
 
   // SensorListener implementation
@@ -307,7 +293,13 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
       yAccel = values[1];
       zAccel = values[2];
       accuracy = sensorEvent.accuracy;
-      AccelerationChanged(xAccel, yAccel, zAccel);
+      // Shaking is detected from every reading, even when AccelerationChanged is skipped.
+      sensorCache.add(values, sensorEvent.timestamp);
+      checkShaking();
+      if (accelerationChangedLimiter.tryStart()) {
+        AccelerationChanged(xAccel, yAccel, zAccel);
+        accelerationChangedLimiter.finish();
+      }
     }
   }
 
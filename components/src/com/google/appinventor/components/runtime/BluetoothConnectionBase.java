@@ -12,14 +12,15 @@ import com.google.appinventor.components.annotations.SimpleFunction;
 import com.google.appinventor.components.annotations.SimpleObject;
 import com.google.appinventor.components.annotations.SimpleProperty;
 import com.google.appinventor.components.common.PropertyTypeConstants;
+import com.google.appinventor.components.runtime.util.AsynchUtil;
 import com.google.appinventor.components.runtime.util.BluetoothReflection;
+import com.google.appinventor.components.runtime.util.ByteRingBuffer;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.SdkLevel;
 import com.google.appinventor.components.runtime.util.YailList;
 
 import android.util.Log;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -29,29 +30,48 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * An abstract base class for the BluetoothClient and BluetoothServer
  * component.
  *
+ * <p>While connected, a background thread receives bytes from the connected
+ * device into a bounded buffer, so the Receive functions only wait when the
+ * bytes they ask for haven't arrived yet, and the BytesReceived and
+ * DelimiterReceived events tell the app when it can receive without waiting.
+ *
  * @author lizlooney@google.com (Liz Looney)
  */
 @SimpleObject
 public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     implements Component, OnDestroyListener, Deleteable {
 
+  // The most bytes held until the app receives them. When the buffer is full, the receiving
+  // thread stops reading from the connection until the app catches up.
+  private static final int RECEIVE_BUFFER_SIZE = 16 * 1024;
+  // The most bytes the receiving thread reads from the connection at once.
+  private static final int RECEIVE_CHUNK_SIZE = 1024;
+
   protected final String logTag;
   private final List<BluetoothConnectionListener> bluetoothConnectionListeners =
       new ArrayList<BluetoothConnectionListener>();
 
   private ByteOrder byteOrder;
   private String encoding;
-  private byte delimiter;
+  // Read by the receiving thread.
+  private volatile byte delimiter;
   protected boolean secure;
 
   private Object connectedBluetoothSocket;
-  private InputStream inputStream;
   private OutputStream outputStream;
+  // The bytes received from the connection. Replaced for each connection.
+  private ByteRingBuffer receiveBuffer;
+
+  // Whether a BytesReceived or DelimiterReceived event has been posted to the UI thread and not
+  // yet raised, so that a burst of bytes raises each event once.
+  private final AtomicBoolean bytesReceivedPosted = new AtomicBoolean();
+  private final AtomicBoolean delimiterReceivedPosted = new AtomicBoolean();
 
   /**
    * Creates a new BluetoothConnectionBase.
@@ -78,7 +98,7 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     this((Form) null, (String) null);
     this.connectedBluetoothSocket = "Not Null";
     this.outputStream = outputStream;
-    this.inputStream = inputStream;
+    startReceiving(inputStream);
   }
 
   /**
@@ -161,13 +181,85 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
 
   protected final void setConnection(Object bluetoothSocket) throws IOException {
     connectedBluetoothSocket = bluetoothSocket;
-    inputStream = new BufferedInputStream(
-        BluetoothReflection.getInputStream(connectedBluetoothSocket));
     outputStream = new BufferedOutputStream(
         BluetoothReflection.getOutputStream(connectedBluetoothSocket));
+    startReceiving(BluetoothReflection.getInputStream(connectedBluetoothSocket));
     fireAfterConnectEvent();
   }
 
+  /*
+   * Starts a thread that receives bytes from the given stream into a new receive buffer until
+   * the stream ends or fails, or the connection is closed.
+   */
+  private void startReceiving(final InputStream inputStream) {
+    final ByteRingBuffer buffer = new ByteRingBuffer(RECEIVE_BUFFER_SIZE);
+    receiveBuffer = buffer;
+    AsynchUtil.runInNewThread(new Runnable() {
+      public void run() {
+        byte[] chunk = new byte[RECEIVE_CHUNK_SIZE];
+        IOException closeReason = null;
+        try {
+          while (!buffer.isClosed()) {
+            int count = inputStream.read(chunk);
+            if (count == -1) {
+              break;
+            }
+            buffer.write(chunk, 0, count);
+            bytesReceived(buffer, chunk, count);
+          }
+        } catch (IOException e) {
+          // Disconnect closes the buffer before the socket, so this is only a failure if the
+          // buffer is still open.
+          if (!buffer.isClosed()) {
+            Log.w(logTag, "Error while receiving: " + e.getMessage());
+            closeReason = e;
+          }
+        } catch (InterruptedException e) {
+          // Stop receiving.
+        }
+        buffer.close(closeReason);
+      }
+    });
+  }
+
+  /*
+   * Called on the receiving thread after bytes have been added to the receive buffer. Posts the
+   * BytesReceived event, and the DelimiterReceived event if the delimiter byte was received,
+   * unless they are already posted.
+   */
+  private void bytesReceived(final ByteRingBuffer buffer, byte[] chunk, int count) {
+    if (form == null) {
+      return;
+    }
+    if (bytesReceivedPosted.compareAndSet(false, true)) {
+      form.runOnUiThread(new Runnable() {
+        public void run() {
+          bytesReceivedPosted.set(false);
+          int available = buffer.available();
+          if (buffer == receiveBuffer && available > 0) {
+            BytesReceived(available);
+          }
+        }
+      });
+    }
+    byte delimiterByte = delimiter;
+    for (int i = 0; i < count; i++) {
+      if (chunk[i] == delimiterByte) {
+        if (delimiterReceivedPosted.compareAndSet(false, true)) {
+          form.runOnUiThread(new Runnable() {
+            public void run() {
+              delimiterReceivedPosted.set(false);
+              if (buffer == receiveBuffer && buffer.indexOf(delimiter) != -1) {
+                DelimiterReceived();
+              }
+            }
+          });
+        }
+        break;
+      }
+    }
+  }
+
   /**
    * Disconnects from the connected Bluetooth device.
    */
@@ -175,6 +267,10 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
   public final void Disconnect() {
     if (connectedBluetoothSocket != null) {
       fireBeforeDisconnectEvent();
+      // Stop the receiving thread. Closing the socket below wakes it if it is waiting for bytes.
+      if (receiveBuffer != null) {
+        receiveBuffer.close(null);
+      }
       try {
         BluetoothReflection.closeBluetoothSocket(connectedBluetoothSocket);
         Log.i(logTag, "Disconnected from Bluetooth device.");
@@ -183,7 +279,7 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
       }
       connectedBluetoothSocket = null;
     }
-    inputStream = null;
+    receiveBuffer = null;
     outputStream = null;
   }
 
@@ -524,10 +620,11 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
   }
 
   /**
-   * Returns number of bytes available from the input stream.
+   * Returns the number of bytes that have been received and not yet read.
+   * They are held in a buffer, so the count is exact.
    */
-  @SimpleFunction(description = "Returns an estimate of the number of bytes that can be " +
-      "received without blocking")
+  @SimpleFunction(description = "Returns the number of bytes that have been received and " +
+      "can be read without blocking")
   public int BytesAvailableToReceive() {
     String functionName = "BytesAvailableToReceive";
     if (!IsConnected()) {
@@ -536,13 +633,48 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
       return 0;
     }
 
-    try {
-      return inputStream.available();
-    } catch (IOException e) {
-      bluetoothError(functionName,
-          ErrorMessages.ERROR_BLUETOOTH_UNABLE_TO_READ, e.getMessage());
-      return 0;
-    }
+    return receiveBuffer.available();
+  }
+
+  /**
+   * Indicates that bytes have been received from the connected device.
+   *
+   * @param numberOfBytes the number of bytes that can be received without
+   *        blocking
+   */
+  @SimpleEvent(description = "Bytes have been received from the connected Bluetooth device. " +
+      "numberOfBytes is the number of bytes that can be received without blocking.")
+  public void BytesReceived(int numberOfBytes) {
+    EventDispatcher.dispatchEvent(this, "BytesReceived", numberOfBytes);
+  }
+
+  /**
+   * Indicates that the delimiter byte has been received from the connected
+   * device, so calling ReceiveText, ReceiveSignedBytes, or
+   * ReceiveUnsignedBytes with a negative numberOfBytes won't block.
+   */
+  @SimpleEvent(description = "The delimiter byte has been received from the connected " +
+      "Bluetooth device. Receiving with a numberOfBytes less than 0 won't block.")
+  public void DelimiterReceived() {
+    EventDispatcher.dispatchEvent(this, "DelimiterReceived");
+  }
+
+  /**
+   * Returns the number of bytes received and not yet read, for components
+   * that must not block. Returns 0 if not connected.
+   */
+  int bytesBuffered() {
+    return (receiveBuffer == null) ? 0 : receiveBuffer.available();
+  }
+
+  /**
+   * Returns a byte received and not yet read, without removing it.
+   *
+   * @param index  the position of the byte, 0 for the next byte to be read
+   * @return the byte, from 0 to 255
+   */
+  int peekBuffered(int index) {
+    return receiveBuffer.peek(index);
   }
 
   /**
@@ -570,6 +702,23 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     }
   }
 
+  /**
+   * Reads the bytes that have been received and converts them to text,
+   * without blocking.
+   */
+  @SimpleFunction(description = "Receive the text that has already been received from the " +
+      "connected Bluetooth device, without waiting for more. A character whose bytes have not " +
+      "all been received yet may be split.")
+  public String ReceiveAvailableText() {
+    byte[] bytes = readAvailable("ReceiveAvailableText");
+    try {
+      return new String(bytes, encoding);
+    } catch (UnsupportedEncodingException e) {
+      Log.w(logTag, "UnsupportedEncodingException: " + e.getMessage());
+      return new String(bytes);
+    }
+  }
+
   /**
    * Reads a signed 1-byte number.
    */
@@ -728,6 +877,38 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     return list;
   }
 
+  /**
+   * Reads the signed bytes that have been received and returns them as a
+   * List, without blocking.
+   */
+  @SimpleFunction(description = "Receive the signed byte values that have already been " +
+      "received from the connected Bluetooth device, without waiting for more.")
+  public List<Integer> ReceiveAvailableSignedBytes() {
+    byte[] bytes = readAvailable("ReceiveAvailableSignedBytes");
+    List<Integer> list = new ArrayList<Integer>();
+    for (int i = 0; i < bytes.length; i++) {
+      int n = bytes[i];
+      list.add(n);
+    }
+    return list;
+  }
+
+  /**
+   * Reads the unsigned bytes that have been received and returns them as a
+   * List, without blocking.
+   */
+  @SimpleFunction(description = "Receive the unsigned byte values that have already been " +
+      "received from the connected Bluetooth device, without waiting for more.")
+  public List<Integer> ReceiveAvailableUnsignedBytes() {
+    byte[] bytes = readAvailable("ReceiveAvailableUnsignedBytes");
+    List<Integer> list = new ArrayList<Integer>();
+    for (int i = 0; i < bytes.length; i++) {
+      int n = bytes[i] & 0xFF;
+      list.add(n);
+    }
+    return list;
+  }
+
   /**
    * Reads a number of bytes from the input stream.
    *
@@ -745,51 +926,71 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
       return new byte[0];
     }
 
-    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-    if (numberOfBytes >= 0) {
-      // Read <numberOfBytes> bytes.
-      byte[] bytes = new byte[numberOfBytes];
-      int totalBytesRead = 0;
-      while (totalBytesRead < numberOfBytes) {
-        try {
-          int numBytesRead = inputStream.read(bytes, totalBytesRead, bytes.length - totalBytesRead);
-          if (numBytesRead == -1) {
-            bluetoothError(functionName,
-                ErrorMessages.ERROR_BLUETOOTH_END_OF_STREAM);
-            break;
-          }
-          totalBytesRead += numBytesRead;
-        } catch (IOException e) {
-          bluetoothError(functionName,
-              ErrorMessages.ERROR_BLUETOOTH_UNABLE_TO_READ, e.getMessage());
-          break;
-        }
-      }
-      buffer.write(bytes, 0, totalBytesRead);
-    } else {
-      // Read one byte at a time until a delimiter byte is read.
-      while (true) {
-        try {
-          int value = inputStream.read();
-          if (value == -1) {
-            bluetoothError(functionName,
-                ErrorMessages.ERROR_BLUETOOTH_END_OF_STREAM);
-            break;
-          }
-          buffer.write(value);
-          if (value == delimiter) {
-            break;
-          }
-        } catch (IOException e) {
-          bluetoothError(functionName,
-              ErrorMessages.ERROR_BLUETOOTH_UNABLE_TO_READ, e.getMessage());
-          break;
+    ByteRingBuffer buffer = receiveBuffer;
+    byte delimiterByte = delimiter;
+    ByteArrayOutputStream received = new ByteArrayOutputStream();
+    byte[] chunk = new byte[RECEIVE_CHUNK_SIZE];
+    boolean complete = (numberOfBytes == 0);
+    try {
+      // Take the bytes from the buffer as they arrive, so that more bytes than it holds can be
+      // received.
+      while (!complete && buffer.awaitAvailable(1)) {
+        int length;
+        if (numberOfBytes >= 0) {
+          // Read <numberOfBytes> bytes.
+          length = Math.min(numberOfBytes - received.size(), chunk.length);
+        } else {
+          // Read until a delimiter byte is read.
+          int index = buffer.indexOf(delimiterByte);
+          length = (index != -1) ? Math.min(index + 1, chunk.length) : chunk.length;
         }
+        int count = buffer.read(chunk, 0, length);
+        received.write(chunk, 0, count);
+        complete = (numberOfBytes >= 0)
+            ? received.size() == numberOfBytes
+            : count > 0 && chunk[count - 1] == delimiterByte;
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (!complete) {
+      // The connection ended before all the bytes were received.
+      receiveError(functionName, buffer);
+    }
+    return received.toByteArray();
+  }
+
+  /**
+   * Reads the bytes that have been received, without blocking.
+   *
+   * @param functionName the name of the SimpleFunction calling this method
+   */
+  private byte[] readAvailable(String functionName) {
+    if (!IsConnected()) {
+      bluetoothError(functionName,
+          ErrorMessages.ERROR_BLUETOOTH_NOT_CONNECTED_TO_DEVICE);
+      return new byte[0];
     }
 
-    return buffer.toByteArray();
+    ByteRingBuffer buffer = receiveBuffer;
+    byte[] bytes = new byte[buffer.available()];
+    buffer.read(bytes, 0, bytes.length);
+    if (bytes.length == 0 && buffer.isClosed()) {
+      receiveError(functionName, buffer);
+    }
+    return bytes;
+  }
+
+  private void receiveError(String functionName, ByteRingBuffer buffer) {
+    IOException closeReason = buffer.getCloseReason();
+    if (closeReason != null) {
+      bluetoothError(functionName,
+          ErrorMessages.ERROR_BLUETOOTH_UNABLE_TO_READ, closeReason.getMessage());
+    } else {
+      bluetoothError(functionName,
+          ErrorMessages.ERROR_BLUETOOTH_END_OF_STREAM);
+    }
   }
 
   // OnDestroyListener implementation
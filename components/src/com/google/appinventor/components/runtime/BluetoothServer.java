@@ -111,7 +111,8 @@ public final class BluetoothServer extends BluetoothConnectionBase {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    // Accepting blocks until a client connects, so it gets a thread of its own.
+    AsynchUtil.runInNewThread(new Runnable() {
       public void run() {
         Object acceptedBluetoothSocket = null;
 
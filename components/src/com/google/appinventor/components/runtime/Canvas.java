@@ -22,6 +22,7 @@ import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FileUtil;
 import com.google.appinventor.components.runtime.util.MediaUtil;
 import com.google.appinventor.components.runtime.util.PaintUtil;
+import com.google.appinventor.components.runtime.util.SpatialGrid;
 
 import android.app.Activity;
 import android.content.Context;
@@ -32,6 +33,7 @@ import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -43,8 +45,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * <p>A two-dimensional touch-sensitive rectangular panel on which drawing can
@@ -112,10 +117,27 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   private static final int DEFAULT_BACKGROUND_COLOR = Component.COLOR_WHITE;
   private static final int FLING_INTERVAL = 1000;  // ms
 
+  // Width and height of the cells of spriteGrid, in pixels.  Most sprites
+  // are about this size or smaller, so each occupies only a few cells.
+  private static final int SPRITE_GRID_CELL_SIZE = 64;
+
   // Keep track of enclosed sprites.  This list should always be
   // sorted by increasing sprite.Z().
   private final List<Sprite> sprites;
 
+  // Index of the sprites' bounding boxes, so that collisions are only
+  // checked between sprites that are near each other.  A sprite is added
+  // when it first registers a change and kept up to date as it moves.
+  private final SpatialGrid<Sprite> spriteGrid;
+
+  // Sprites that have changed since collisions were last checked.  Checks
+  // are batched so that sprites moved by the same tick are checked once,
+  // after all of them have moved.
+  private final Set<Sprite> changedSprites;
+  private final Handler androidUIHandler;
+  private final Runnable collisionCheck;
+  private boolean collisionCheckPosted;
+
   // Handle touches and drags
   private final MotionEventParser motionEventParser;
 
@@ -654,6 +676,15 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     FontSize(Component.FONT_DEFAULT_SIZE);
 
     sprites = new LinkedList<Sprite>();
+    spriteGrid = new SpatialGrid<Sprite>(SPRITE_GRID_CELL_SIZE);
+    changedSprites = new LinkedHashSet<Sprite>();
+    androidUIHandler = new Handler();
+    collisionCheck = new Runnable() {
+      public void run() {
+        collisionCheckPosted = false;
+        checkPendingCollisions();
+      }
+    };
     motionEventParser = new MotionEventParser();
     mGestureDetector = new GestureDetector(context, new FlingGestureListener());
   }
@@ -709,6 +740,8 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    */
   void removeSprite(Sprite sprite) {
     sprites.remove(sprite);
+    spriteGrid.remove(sprite);
+    changedSprites.remove(sprite);
   }
 
   /**
@@ -718,7 +751,8 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param Sprite the Sprite whose Z property has changed
    */
   void changeSpriteLayer(Sprite sprite) {
-    removeSprite(sprite);
+    // The sprite hasn't moved, so it stays in spriteGrid.
+    sprites.remove(sprite);
     addSprite(sprite);
     view.invalidate();
   }
@@ -752,13 +786,37 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
 
   /**
    * Indicates that a sprite has changed, triggering invalidation of the view
-   * and a check for collisions.
+   * and, once the current event has been handled, a check for collisions.
    *
    * @param sprite the sprite whose location, size, or appearance has changed
    */
   void registerChange(Sprite sprite) {
     view.invalidate();
-    findSpriteCollisions(sprite);
+    spriteGrid.update(sprite, sprite.getBoundingBox(1));
+    changedSprites.add(sprite);
+    if (!collisionCheckPosted) {
+      collisionCheckPosted = true;
+      androidUIHandler.post(collisionCheck);
+    }
+  }
+
+  /**
+   * Checks for collisions of all sprites that have changed since the last
+   * check.  This is called shortly after a sprite changes and, so that
+   * {@link Sprite#CollidingWith(Sprite)} is always up to date, whenever
+   * that is called.  A pair of sprites that both changed is checked once.
+   */
+  void checkPendingCollisions() {
+    if (changedSprites.isEmpty()) {
+      return;
+    }
+    List<Sprite> movedSprites = new ArrayList<Sprite>(changedSprites);
+    changedSprites.clear();
+    Set<Sprite> checkedSprites = new HashSet<Sprite>();
+    for (Sprite movedSprite : movedSprites) {
+      findSpriteCollisions(movedSprite, checkedSprites);
+      checkedSprites.add(movedSprite);
+    }
   }
 
 
@@ -780,10 +838,27 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param movedSprite the sprite that has just changed position
    */
   protected void findSpriteCollisions(Sprite movedSprite) {
-    for (Sprite sprite : sprites) {
-      if (sprite != movedSprite) {
+    findSpriteCollisions(movedSprite, new HashSet<Sprite>());
+  }
+
+  /*
+   * Like findSpriteCollisions(Sprite), but skips the sprites in
+   * alreadyChecked.  Only sprites near movedSprite in spriteGrid, and
+   * sprites it was colliding with, can have changed their collision state.
+   */
+  private void findSpriteCollisions(Sprite movedSprite, Set<Sprite> alreadyChecked) {
+    Set<Sprite> candidates = new LinkedHashSet<Sprite>();
+    spriteGrid.query(movedSprite.getBoundingBox(1), candidates);
+    for (Sprite sprite : movedSprite.getRegisteredCollisions()) {
+      // Skip sprites that have been deleted, as before the grid was added.
+      if (spriteGrid.contains(sprite)) {
+        candidates.add(sprite);
+      }
+    }
+    for (Sprite sprite : candidates) {
+      if (sprite != movedSprite && !alreadyChecked.contains(sprite)) {
         // Check whether we already raised an event for their collision.
-        if (movedSprite.CollidingWith(sprite)) {
+        if (movedSprite.isCollisionRegistered(sprite)) {
           // If they no longer conflict, note that.
           if (!movedSprite.Visible() || !movedSprite.Enabled() ||
               !sprite.Visible() || !sprite.Enabled() ||
@@ -55,6 +55,7 @@ import com.google.appinventor.components.runtime.collect.Maps;
 import com.google.appinventor.components.runtime.collect.Sets;
 import com.google.appinventor.components.runtime.util.AlignmentUtil;
 import com.google.appinventor.components.runtime.util.AnimationUtil;
+import com.google.appinventor.components.runtime.util.AsynchUtil;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FullScreenVideoUtil;
 import com.google.appinventor.components.runtime.util.JsonUtil;
@@ -134,6 +135,9 @@ public class Form extends Activity
   // reason, we cannot assume that the activeForm is the foreground activity.
   private static Form activeForm;
 
+  // The number of Forms that have been created and not yet destroyed.
+  private static int liveFormCount;
+
   // applicationIsBeingClosed is set to true during closeApplication.
   private static boolean applicationIsBeingClosed;
 
@@ -220,6 +224,7 @@ public class Form extends Activity
 
     activeForm = this;
     Log.i(LOG_TAG, "activeForm is now " + activeForm.formName);
+    liveFormCount++;
 
     viewLayout = new LinearLayout(this, ComponentConstants.LAYOUT_ORIENTATION_VERTICAL);
     alignmentSetter = new AlignmentUtil(viewLayout);
@@ -744,6 +749,14 @@ public class Form extends Activity
     onStopListeners.add(component);
   }
 
+  @Override
+  public void onLowMemory() {
+    super.onLowMemory();
+    Log.i(LOG_TAG, "Form " + formName + " got onLowMemory, bitmap cache: "
+        + MediaUtil.getBitmapCacheStats());
+    MediaUtil.clearBitmapCache();
+  }
+
   @Override
   protected void onDestroy() {
     super.onDestroy();
@@ -756,6 +769,11 @@ public class Form extends Activity
     for (OnDestroyListener onDestroyListener : onDestroyListeners) {
       onDestroyListener.onDestroy();
     }
+
+    // The app is finishing, so no more asynchronous calls are needed.
+    if (--liveFormCount == 0) {
+      AsynchUtil.shutdown();
+    }
   }
 
   public void registerForOnDestroy(OnDestroyListener component) {
@@ -619,7 +619,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "InstancesInvited lists. This procedure can be called " +
                 "before setting the InstanceId.")
   public void GetInstanceLists() {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
         public void run() { postGetInstanceLists(); }});
   }
 
@@ -703,7 +703,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(
       description = "Retrieves messages of the specified type.")
   public void GetMessages(final String type, final int count) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() { postGetMessages(type, count); }});
   }
 
@@ -772,7 +772,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(
       description = "Invites a player to this game instance.")
   public void Invite(final String playerEmail) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() { postInvite(playerEmail); }});
   }
 
@@ -828,7 +828,7 @@ public class GameClient extends AndroidNonvisibleComponent
    */
   @SimpleFunction(description = "Leaves the current instance.")
   public void LeaveInstance() {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         postLeaveInstance();
       }
@@ -879,7 +879,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Asks the server to create a new " +
                 "instance of this game.")
   public void MakeNewInstance(final String instanceId, final boolean makePublic) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() { postMakeNewInstance(instanceId, makePublic); }});
   }
 
@@ -926,7 +926,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "recipients in the recipients list. The message will " +
                 "consist of the contents list.")
   public void SendMessage(final String type, final YailList recipients, final YailList contents) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() { postNewMessage(type, recipients, contents); }});
   }
 
@@ -974,7 +974,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Sends the specified command to " +
                 "the game server.")
   public void ServerCommand(final String command, final YailList arguments) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() { postServerCommand(command, arguments); }});
   }
 
@@ -1017,7 +1017,7 @@ public class GameClient extends AndroidNonvisibleComponent
   @SimpleFunction(description = "Sets InstanceId and joins the " +
                 "specified instance.")
   public void SetInstance(final String instanceId) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         if (instanceId.equals("")) {
           Log.d(LOG_TAG, "Instance id set to empty string.");
@@ -1070,7 +1070,7 @@ public class GameClient extends AndroidNonvisibleComponent
                 "leader to playerId. Only the current leader may " +
                 "successfully set a new leader.")
   public void SetLeader(final String playerEmail) {
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() { postSetLeader(playerEmail); }});
   }
 
@@ -161,6 +161,8 @@ public class LegoMindstormsNxtBase extends AndroidNonvisibleComponent
     copyUBYTEValueToBytes(sensorType, command, 3);
     copyUBYTEValueToBytes(sensorMode, command, 4);
     sendCommand(functionName, command);
+    // Input values polled before the mode changed are stale.
+    NxtInputPoller.discardAnswers(bluetooth, functionName, port);
   }
 
   protected final byte[] getInputValues(String functionName, int port) {
@@ -169,7 +171,22 @@ public class LegoMindstormsNxtBase extends AndroidNonvisibleComponent
     command[1] = (byte) 0x07;  // GETINPUTVALUES command
     copyUBYTEValueToBytes(port, command, 2);
     byte[] returnPackage = sendCommandAndReceiveReturnPackage(functionName, command);
-    if (evaluateStatus(functionName, returnPackage, command[1])) {
+    return checkInputValues(functionName, returnPackage);
+  }
+
+  /*
+   * Returns the input values of the given port that have arrived since the last call, or null
+   * if none have, and asks for them again. Unlike getInputValues, this never waits for the robot
+   * to answer, and the requests of all the components polling through the same BluetoothClient
+   * share one round trip. See NxtInputPoller.
+   */
+  protected final byte[] pollInputValues(String functionName, int port) {
+    byte[] returnPackage = NxtInputPoller.forClient(bluetooth).poll(bluetooth, functionName, port);
+    return (returnPackage == null) ? null : checkInputValues(functionName, returnPackage);
+  }
+
+  private byte[] checkInputValues(String functionName, byte[] returnPackage) {
+    if (evaluateStatus(functionName, returnPackage, (byte) 0x07)) {  // GETINPUTVALUES command
       if (returnPackage.length == 16) {
         return returnPackage;
       } else {
@@ -265,13 +282,16 @@ public class LegoMindstormsNxtBase extends AndroidNonvisibleComponent
   }
 
   protected final void sendCommand(String functionName, byte[] command) {
-    byte[] header = new byte[2];
-    copyUWORDValueToBytes(command.length, header, 0);
-    bluetooth.write(functionName, header);
-    bluetooth.write(functionName, command);
+    // Send the length and the command in one write.
+    byte[] telegram = new byte[2 + command.length];
+    copyUWORDValueToBytes(command.length, telegram, 0);
+    System.arraycopy(command, 0, telegram, 2, command.length);
+    bluetooth.write(functionName, telegram);
   }
 
   private byte[] receiveReturnPackage(String functionName) {
+    // The answers to the requests sent by the poller come first.
+    NxtInputPoller.finishReads(bluetooth, functionName);
     byte[] header = bluetooth.read(functionName, 2);
     if (header.length == 2) {
       int length = getUWORDValueFromBytes(header, 0);
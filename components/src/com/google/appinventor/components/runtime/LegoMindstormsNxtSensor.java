@@ -51,6 +51,9 @@ public abstract class LegoMindstormsNxtSensor extends LegoMindstormsNxtBase {
   static final int SENSOR_MODE_MASK_SLOPE = 0x1F;
   static final int SENSOR_MODE_MASK_MODE = 0xE0;
 
+  // How often a sensor whose events are enabled checks for new input values.
+  static final int POLL_INTERVAL_MILLIS = 10;
+
   private String sensorPortLetter; // "1" - "4"
   protected int port;
 
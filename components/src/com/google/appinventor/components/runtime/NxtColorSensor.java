@@ -96,7 +96,7 @@ public class NxtColorSensor extends LegoMindstormsNxtSensor implements Deleteabl
         if (bluetooth != null && bluetooth.IsConnected()) {
           if (detectColor) {
             // Detecting color
-            SensorValue<Integer> sensorValue = getColorValue("");
+            SensorValue<Integer> sensorValue = getColorValue(pollInputValues("", port));
             if (sensorValue.valid) {
               int currentColor = sensorValue.value;
 
@@ -109,7 +109,7 @@ public class NxtColorSensor extends LegoMindstormsNxtSensor implements Deleteabl
 
           } else {
             // Detecting light
-            SensorValue<Integer> sensorValue = getLightValue("");
+            SensorValue<Integer> sensorValue = getLightValue(pollInputValues("", port));
             if (sensorValue.valid) {
               State currentState;
               if (sensorValue.value < bottomOfRange) {
@@ -137,7 +137,7 @@ public class NxtColorSensor extends LegoMindstormsNxtSensor implements Deleteabl
           }
         }
         if (isHandlerNeeded()) {
-          handler.post(sensorReader);
+          handler.postDelayed(sensorReader, POLL_INTERVAL_MILLIS);
         }
       }
     };
@@ -249,7 +249,10 @@ public class NxtColorSensor extends LegoMindstormsNxtSensor implements Deleteabl
   }
 
   private SensorValue<Integer> getColorValue(String functionName) {
-    byte[] returnPackage = getInputValues(functionName, port);
+    return getColorValue(getInputValues(functionName, port));
+  }
+
+  private SensorValue<Integer> getColorValue(byte[] returnPackage) {
     if (returnPackage != null) {
       boolean valid = getBooleanValueFromBytes(returnPackage, 4);
       if (valid) {
@@ -329,7 +332,10 @@ public class NxtColorSensor extends LegoMindstormsNxtSensor implements Deleteabl
   }
 
   private SensorValue<Integer> getLightValue(String functionName) {
-    byte[] returnPackage = getInputValues(functionName, port);
+    return getLightValue(getInputValues(functionName, port));
+  }
+
+  private SensorValue<Integer> getLightValue(byte[] returnPackage) {
     if (returnPackage != null) {
       boolean valid = getBooleanValueFromBytes(returnPackage, 4);
       if (valid) {
@@ -0,0 +1,187 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.components.runtime;
+
+import android.os.Handler;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Reads the input values of the NXT sensors whose events are enabled, for
+ * the NXT connected through one {@link BluetoothClient}.
+ *
+ * <p>Instead of each sensor sending a GETINPUTVALUES direct command and
+ * waiting for the answer in turn, the requests of all the sensors that poll
+ * at about the same time are sent together in one write, and their answers
+ * are read as they arrive, without blocking the UI thread. The NXT answers
+ * direct commands in order, so a component that sends a command and waits
+ * for its answer first reads the answers to the requests sent before it;
+ * see {@link #finishReads}.
+ *
+ * <p>An NxtInputPoller is only used on the UI thread.
+ *
+ */
+final class NxtInputPoller implements BluetoothConnectionListener {
+  // A GETINPUTVALUES direct command telegram, preceded by its length, for port 0.
+  private static final byte[] GET_INPUT_VALUES_TELEGRAM = {
+    0x03, 0x00,  // length
+    0x00,        // Direct command telegram, response required
+    0x07,        // GETINPUTVALUES command
+    0x00,        // port
+  };
+  private static final int PORT_OFFSET = 4;
+
+  // The poller of each BluetoothClient.
+  private static final Map<BluetoothClient, NxtInputPoller> pollers =
+      new WeakHashMap<BluetoothClient, NxtInputPoller>();
+
+  private final Handler handler = new Handler();
+
+  // The ports whose input values have been asked for but not yet requested from the NXT.
+  private final Set<Integer> portsToRequest = new LinkedHashSet<Integer>();
+  // The ports whose input values have been requested from the NXT, in the order the answers
+  // will arrive.
+  private final LinkedList<Integer> awaitedPorts = new LinkedList<Integer>();
+  // The answers that have arrived and haven't been taken by a sensor, by port.
+  private final Map<Integer, byte[]> answers = new HashMap<Integer, byte[]>();
+
+  // The client whose requests are sent by the posted sendRequests, or null if it isn't posted.
+  private BluetoothClient clientToSend;
+  private final Runnable sendRequests = new Runnable() {
+    public void run() {
+      BluetoothClient bluetooth = clientToSend;
+      clientToSend = null;
+      if (bluetooth != null) {
+        sendRequests(bluetooth);
+      }
+    }
+  };
+
+  private NxtInputPoller() {
+  }
+
+  /**
+   * Returns the poller of the given BluetoothClient, creating it if necessary.
+   */
+  static NxtInputPoller forClient(BluetoothClient bluetooth) {
+    NxtInputPoller poller = pollers.get(bluetooth);
+    if (poller == null) {
+      poller = new NxtInputPoller();
+      pollers.put(bluetooth, poller);
+      bluetooth.addBluetoothConnectionListener(poller);
+    }
+    return poller;
+  }
+
+  /**
+   * Reads the answers to the requests sent by the poller of the given
+   * BluetoothClient, if it has one, waiting for them to arrive. Must be
+   * called before reading the answer to a direct command.
+   */
+  static void finishReads(BluetoothClient bluetooth, String functionName) {
+    NxtInputPoller poller = pollers.get(bluetooth);
+    if (poller != null) {
+      poller.readAnswers(bluetooth, functionName, true);
+    }
+  }
+
+  /**
+   * Throws away the input values of the given port that the poller of the
+   * given BluetoothClient, if it has one, has requested, waiting for them to
+   * arrive. Called when the sensor's mode changes.
+   */
+  static void discardAnswers(BluetoothClient bluetooth, String functionName, int port) {
+    NxtInputPoller poller = pollers.get(bluetooth);
+    if (poller != null) {
+      poller.readAnswers(bluetooth, functionName, true);
+      poller.answers.remove(port);
+    }
+  }
+
+  /**
+   * Returns the latest input values of the given port, or null if none have
+   * arrived since the last call. Unless a request for the port is already on
+   * its way, the input values are requested again, so calling this
+   * periodically polls the port. Never waits for the NXT to answer.
+   *
+   * @return the return package of a GETINPUTVALUES command, or null
+   */
+  byte[] poll(BluetoothClient bluetooth, String functionName, int port) {
+    readAnswers(bluetooth, functionName, false);
+    byte[] answer = answers.remove(port);
+    if (!awaitedPorts.contains(port) && portsToRequest.add(port) && clientToSend == null) {
+      // Send the requests once the other sensors waiting to run have asked for theirs too.
+      clientToSend = bluetooth;
+      handler.post(sendRequests);
+    }
+    return answer;
+  }
+
+  private void sendRequests(BluetoothClient bluetooth) {
+    if (portsToRequest.isEmpty() || !bluetooth.IsConnected()) {
+      portsToRequest.clear();
+      return;
+    }
+    ByteArrayOutputStream telegrams =
+        new ByteArrayOutputStream(portsToRequest.size() * GET_INPUT_VALUES_TELEGRAM.length);
+    for (int port : portsToRequest) {
+      byte[] telegram = GET_INPUT_VALUES_TELEGRAM.clone();
+      telegram[PORT_OFFSET] = (byte) port;
+      telegrams.write(telegram, 0, telegram.length);
+    }
+    awaitedPorts.addAll(portsToRequest);
+    portsToRequest.clear();
+    bluetooth.write("", telegrams.toByteArray());
+  }
+
+  // Reads the answers that have arrived, or, if wait is true, all the awaited answers.
+  private void readAnswers(BluetoothClient bluetooth, String functionName, boolean wait) {
+    while (!awaitedPorts.isEmpty()) {
+      if (!bluetooth.IsConnected()) {
+        awaitedPorts.clear();
+        return;
+      }
+      if (!wait) {
+        int buffered = bluetooth.bytesBuffered();
+        if (buffered < 2 ||
+            buffered < 2 + (bluetooth.peekBuffered(0) | (bluetooth.peekBuffered(1) << 8))) {
+          return;
+        }
+      }
+      int port = awaitedPorts.removeFirst();
+      byte[] header = bluetooth.read(functionName, 2);
+      if (header.length != 2) {
+        // The connection failed, and the error has been reported.
+        awaitedPorts.clear();
+        return;
+      }
+      byte[] answer = bluetooth.read(functionName, (header[0] & 0xFF) | ((header[1] & 0xFF) << 8));
+      if (answer.length >= 3) {
+        answers.put(port, answer);
+      }
+    }
+  }
+
+  // BluetoothConnectionListener implementation
+
+  @Override
+  public void afterConnect(BluetoothConnectionBase bluetoothConnection) {
+  }
+
+  @Override
+  public void beforeDisconnect(BluetoothConnectionBase bluetoothConnection) {
+    // The answers still on their way will never be read.
+    portsToRequest.clear();
+    awaitedPorts.clear();
+    answers.clear();
+  }
+}
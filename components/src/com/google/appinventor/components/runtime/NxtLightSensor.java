@@ -57,7 +57,7 @@ public class NxtLightSensor extends LegoMindstormsNxtSensor implements Deleteabl
     sensorReader = new Runnable() {
       public void run() {
         if (bluetooth != null && bluetooth.IsConnected()) {
-          SensorValue<Integer> sensorValue = getLightValue("");
+          SensorValue<Integer> sensorValue = getLightValue(pollInputValues("", port));
           if (sensorValue.valid) {
             State currentState;
             if (sensorValue.value < bottomOfRange) {
@@ -84,7 +84,7 @@ public class NxtLightSensor extends LegoMindstormsNxtSensor implements Deleteabl
           }
         }
         if (isHandlerNeeded()) {
-          handler.post(sensorReader);
+          handler.postDelayed(sensorReader, POLL_INTERVAL_MILLIS);
         }
       }
     };
@@ -155,7 +155,10 @@ public class NxtLightSensor extends LegoMindstormsNxtSensor implements Deleteabl
   }
 
   private SensorValue<Integer> getLightValue(String functionName) {
-    byte[] returnPackage = getInputValues(functionName, port);
+    return getLightValue(getInputValues(functionName, port));
+  }
+
+  private SensorValue<Integer> getLightValue(byte[] returnPackage) {
     if (returnPackage != null) {
       boolean valid = getBooleanValueFromBytes(returnPackage, 4);
       if (valid) {
@@ -56,7 +56,7 @@ public class NxtSoundSensor extends LegoMindstormsNxtSensor implements Deleteabl
     sensorReader = new Runnable() {
       public void run() {
         if (bluetooth != null && bluetooth.IsConnected()) {
-          SensorValue<Integer> sensorValue = getSoundValue("");
+          SensorValue<Integer> sensorValue = getSoundValue(pollInputValues("", port));
           if (sensorValue.valid) {
             State currentState;
             if (sensorValue.value < bottomOfRange) {
@@ -83,7 +83,7 @@ public class NxtSoundSensor extends LegoMindstormsNxtSensor implements Deleteabl
           }
         }
         if (isHandlerNeeded()) {
-          handler.post(sensorReader);
+          handler.postDelayed(sensorReader, POLL_INTERVAL_MILLIS);
         }
       }
     };
@@ -130,7 +130,10 @@ public class NxtSoundSensor extends LegoMindstormsNxtSensor implements Deleteabl
   }
 
   private SensorValue<Integer> getSoundValue(String functionName) {
-    byte[] returnPackage = getInputValues(functionName, port);
+    return getSoundValue(getInputValues(functionName, port));
+  }
+
+  private SensorValue<Integer> getSoundValue(byte[] returnPackage) {
     if (returnPackage != null) {
       boolean valid = getBooleanValueFromBytes(returnPackage, 4);
       if (valid) {
@@ -52,7 +52,7 @@ public class NxtTouchSensor extends LegoMindstormsNxtSensor implements Deleteabl
     sensorReader = new Runnable() {
       public void run() {
         if (bluetooth != null && bluetooth.IsConnected()) {
-          SensorValue<Boolean> sensorValue = getPressedValue("");
+          SensorValue<Boolean> sensorValue = getPressedValue(pollInputValues("", port));
           if (sensorValue.valid) {
             State currentState = sensorValue.value ? State.PRESSED : State.RELEASED;
 
@@ -69,7 +69,7 @@ public class NxtTouchSensor extends LegoMindstormsNxtSensor implements Deleteabl
           }
         }
         if (isHandlerNeeded()) {
-          handler.post(sensorReader);
+          handler.postDelayed(sensorReader, POLL_INTERVAL_MILLIS);
         }
       }
     };
@@ -111,7 +111,10 @@ public class NxtTouchSensor extends LegoMindstormsNxtSensor implements Deleteabl
   }
 
   private SensorValue<Boolean> getPressedValue(String functionName) {
-    byte[] returnPackage = getInputValues(functionName, port);
+    return getPressedValue(getInputValues(functionName, port));
+  }
+
+  private SensorValue<Boolean> getPressedValue(byte[] returnPackage) {
     if (returnPackage != null) {
       boolean valid = getBooleanValueFromBytes(returnPackage, 4);
       if (valid) {
@@ -14,9 +14,11 @@ import com.google.appinventor.components.annotations.SimpleProperty;
 import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.components.runtime.util.EventRateLimiter;
 import com.google.appinventor.components.runtime.util.FroyoUtil;
 import com.google.appinventor.components.runtime.util.OrientationSensorUtil;
 import com.google.appinventor.components.runtime.util.SdkLevel;
+import com.google.appinventor.components.runtime.util.SensorPipeline;
 
 import android.content.Context;
 import android.hardware.Sensor;
@@ -78,15 +80,18 @@ public class OrientationSensor extends AndroidNonvisibleComponent
   private final Sensor magneticFieldSensor;
   private boolean listening;
 
+  // The latest readings of each sensor. They are added in onSensorChanged and cleared in
+  // stopListening.
+  private final SensorPipeline accelReadings = new SensorPipeline(DIMENSIONS, 1);
+  private final SensorPipeline magReadings = new SensorPipeline(DIMENSIONS, 1);
+
   // Pre-allocated arrays to hold sensor data so that we don't cause so many garbage collections
   // while processing sensor events. All are used only in onSensorChanged.
   private final float[] accels = new float[DIMENSIONS];  // acceleration vector
   private final float[] mags = new float[DIMENSIONS];    // magnetic field vector
 
-  // Flags to tell whether the above arrays are filled. They are set in onSensorChanged and cleared
-  // in stopListening.
-  private boolean accelsFilled;
-  private boolean magsFilled;
+  // Both sensors raise OrientationChanged, so keep slow handlers from falling behind them.
+  private final EventRateLimiter orientationChangedLimiter = new EventRateLimiter(0);
 
   // Pre-allocated matrixes used to compute orientation values from acceleration and magnetic
   // field data.
@@ -132,8 +137,8 @@ public class OrientationSensor extends AndroidNonvisibleComponent
       listening = false;
 
       // Throw out sensor information that will go stale.
-      accelsFilled = false;
-      magsFilled = false;
+      accelReadings.clear();
+      magReadings.clear();
     }
   }
 
@@ -335,17 +340,13 @@ public class OrientationSensor extends AndroidNonvisibleComponent
       // Save the new sensor information about acceleration or the magnetic field.
       switch (eventType) {
         case Sensor.TYPE_ACCELEROMETER:
-          // Update acceleration array.
-          System.arraycopy(sensorEvent.values, 0, accels, 0, DIMENSIONS);
-          accelsFilled = true;
+          accelReadings.add(sensorEvent.values, sensorEvent.timestamp);
           // Only update the accuracy property for the accelerometer.
           accuracy = sensorEvent.accuracy;
           break;
 
         case Sensor.TYPE_MAGNETIC_FIELD:
-          // Update magnetic field array.
-          System.arraycopy(sensorEvent.values, 0, mags, 0, DIMENSIONS);
-          magsFilled = true;
+          magReadings.add(sensorEvent.values, sensorEvent.timestamp);
           break;
 
         default:
@@ -354,7 +355,9 @@ public class OrientationSensor extends AndroidNonvisibleComponent
       }
 
       // If we have both acceleration and magnetic information, recompute values.
-      if (accelsFilled && magsFilled) {
+      if (accelReadings.size() > 0 && magReadings.size() > 0) {
+        accelReadings.getLatest(accels);
+        magReadings.getLatest(mags);
         SensorManager.getRotationMatrix(rotationMatrix,    // output
                                         inclinationMatrix, // output
                                         accels,
@@ -395,8 +398,11 @@ public class OrientationSensor extends AndroidNonvisibleComponent
             break;
         }
 
-        // Raise event.
-        OrientationChanged(azimuth, pitch, roll);
+        // Raise event. The properties above are up to date even if it is skipped.
+        if (orientationChangedLimiter.tryStart()) {
+          OrientationChanged(azimuth, pitch, roll);
+          orientationChangedLimiter.finish();
+        }
       }
     }
   }
@@ -16,6 +16,7 @@ import com.google.appinventor.components.annotations.UsesPermissions;
 import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.components.runtime.util.SensorPipeline;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -49,6 +50,8 @@ public class Pedometer extends AndroidNonvisibleComponent
   private static final int INTERVAL_VARIATION = 250;
   private static final int NUM_INTERVALS = 2;
   private static final int WIN_SIZE = 20;
+  // The age of the reading in the middle of the window.
+  private static final int WIN_MIDDLE = WIN_SIZE - 1 - WIN_SIZE / 2;
   private static final int MIN_SATELLITES = 4;
   private static final float STRIDE_LENGTH = (float) 0.73;
   private static final float PEAK_VALLEY_RANGE = (float) 4.0;
@@ -62,13 +65,13 @@ public class Pedometer extends AndroidNonvisibleComponent
   private Location locationWhenGPSLost;
 
   private int       stopDetectionTimeout = 2000;
-  private int       winPos = 0, intervalPos = 0;
+  private int       intervalPos = 0;
   private int       numStepsWithFilter = 0, numStepsRaw = 0;
   private int       lastNumSteps = 0;
   private int[]     peak = new int[DIMENSIONS];
   private int[]     valley = new int[DIMENSIONS];
   private float[]   lastValley = new float[DIMENSIONS];
-  private float[][] lastValues = new float[WIN_SIZE][DIMENSIONS];
+  private final SensorPipeline lastValues = new SensorPipeline(DIMENSIONS, WIN_SIZE);
   private float[]   prevDiff = new float[DIMENSIONS];
   private float     strideLength = STRIDE_LENGTH;
   private float     totalDistance = 0;
@@ -80,7 +83,6 @@ public class Pedometer extends AndroidNonvisibleComponent
   private long      startTime = 0, prevStopClockTime = 0;
   private long      gpsStepTime = 0;
   private boolean[] foundValley = new boolean[DIMENSIONS];
-  private boolean   startPeaking = false;
   private boolean   foundNonStep = true;
   private boolean   gpsAvailable = false;
   private boolean   calibrateSteps = true;
@@ -94,8 +96,6 @@ public class Pedometer extends AndroidNonvisibleComponent
     super(container.$form());
     context = container.$context();
     // some initialization
-    winPos = 0;
-    startPeaking = false;
     numStepsWithFilter = 0;
     numStepsRaw = 0;
 
@@ -446,35 +446,27 @@ public class Pedometer extends AndroidNonvisibleComponent
   }
 
   /**
-   * Checks if the current middle of the window is the local peak.
-   * TODO(user): Combine getPeak and getValley into one method.
+   * Checks if the current middle of the window is the local peak or valley.
+   * Peaks and valleys are given as ages of readings in the window, or -1.
    */
-  private void getPeak() {
-    int mid = (winPos + WIN_SIZE / 2) % WIN_SIZE;
+  private void getPeakAndValley() {
     for (int k = 0; k < DIMENSIONS; k++) {
-      peak[k] = mid;
-      for (int i = 0; i < WIN_SIZE; i++) {
-        if (i != mid && lastValues[i][k] >= lastValues[mid][k]) {
-          peak[k] = -1;
-          break;
-        }
-      }
-    }
-  }
-
-  /**
-   * Checks if the current middle of the window is the local valley.
-   */
-  private void getValley() {
-    int mid = (winPos + WIN_SIZE / 2) % WIN_SIZE;
-    for (int k = 0; k < DIMENSIONS; k++) {
-      valley[k] = mid;
-      for (int i = 0; i < WIN_SIZE; i++) {
-        if (i != mid && lastValues[i][k] <= lastValues[mid][k]) {
-          valley[k] = -1;
-          break;
+      float middle = lastValues.get(WIN_MIDDLE, k);
+      boolean isPeak = true;
+      boolean isValley = true;
+      for (int age = 0; age < WIN_SIZE && (isPeak || isValley); age++) {
+        if (age != WIN_MIDDLE) {
+          float value = lastValues.get(age, k);
+          if (value >= middle) {
+            isPeak = false;
+          }
+          if (value <= middle) {
+            isValley = false;
+          }
         }
       }
+      peak[k] = isPeak ? WIN_MIDDLE : -1;
+      valley[k] = isValley ? WIN_MIDDLE : -1;
     }
   }
 
@@ -501,11 +493,11 @@ public class Pedometer extends AndroidNonvisibleComponent
       return;
     }
     float[] values = event.values;
-    // Check if the middle reading within the current window represents
-    // a peak/valley.
+    // Once the window is full, check if the middle reading within the
+    // current window represents a peak/valley.
+    boolean startPeaking = lastValues.isFull();
     if (startPeaking) {
-      getPeak();
-      getValley();
+      getPeakAndValley();
     }
     // Find largest peak-valley range amongst the three
     // accelerometer axis
@@ -516,7 +508,7 @@ public class Pedometer extends AndroidNonvisibleComponent
       // Peak is detected
       if (startPeaking && peak[k] >= 0) {
         if (foundValley[k] &&
-            lastValues[peak[k]][k] - lastValley[k] > PEAK_VALLEY_RANGE) {
+            lastValues.get(peak[k], k) - lastValley[k] > PEAK_VALLEY_RANGE) {
           // Step detected on axis k with maximum peak-valley range.
           if (argmax == k) {
             long timestamp = System.currentTimeMillis();
@@ -547,7 +539,7 @@ public class Pedometer extends AndroidNonvisibleComponent
             }
           }
           foundValley[k] = false;
-          prevDiff[k] = lastValues[peak[k]][k] - lastValley[k];
+          prevDiff[k] = lastValues.get(peak[k], k) - lastValley[k];
         } else {
           prevDiff[k] = 0;
         }
@@ -555,11 +547,11 @@ public class Pedometer extends AndroidNonvisibleComponent
       // Valley is detected
       if (startPeaking && valley[k] >= 0) {
         foundValley[k] = true;
-        lastValley[k] = lastValues[valley[k]][k];
+        lastValley[k] = lastValues.get(valley[k], k);
       }
-      // Store latest accelerometer reading in the window.
-      lastValues[winPos][k] = values[k];
     }
+    // Store latest accelerometer reading in the window, replacing the oldest.
+    lastValues.add(values, event.timestamp);
     elapsedTimestamp = System.currentTimeMillis();
     if (elapsedTimestamp - stepTimestamp > stopDetectionTimeout) {
       if (statusMoving) {
@@ -570,18 +562,13 @@ public class Pedometer extends AndroidNonvisibleComponent
     }
     // Force inequality with previous value. This helps with better
     // peak/valley detection.
-    int prev = winPos - 1 < 0 ? WIN_SIZE - 1 : winPos - 1;
-    for (int k = 0; k < DIMENSIONS; k++) {
-      if (lastValues[prev][k] == lastValues[winPos][k]) {
-        lastValues[winPos][k] += 0.001;
+    if (lastValues.size() > 1) {
+      for (int k = 0; k < DIMENSIONS; k++) {
+        if (lastValues.get(1, k) == lastValues.getLatest(k)) {
+          lastValues.setLatest(k, lastValues.getLatest(k) + 0.001f);
+        }
       }
     }
-    // Once the buffer is full, start peak/valley detection.
-    if (winPos == WIN_SIZE - 1 && !startPeaking) {
-      startPeaking = true;
-    }
-    // Increment position within the window.
-    winPos = (winPos + 1) % WIN_SIZE;
   }
 
   // LocationListener implementation
@@ -18,21 +18,19 @@ import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.MediaUtil;
+import com.google.appinventor.components.runtime.util.SoundEngine;
 
 import android.content.Context;
 import android.media.AudioManager;
-import android.media.SoundPool;
 import android.os.Vibrator;
 import android.util.Log;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Multimedia component that plays sounds and optionally vibrates.  A
- * sound is specified via filename.  See also
- * {@link android.media.SoundPool}.
+ * sound is specified via filename.  All the Sound components of a form
+ * share the form's {@link SoundEngine}.
  *
  * @author sharon@google.com (Sharon Perl)
  */
@@ -53,20 +51,14 @@ import java.util.Map;
 @SimpleObject
 @UsesPermissions(permissionNames = "android.permission.VIBRATE, android.permission.INTERNET")
 public class Sound extends AndroidNonvisibleComponent
-    implements Component, OnResumeListener, OnStopListener, OnDestroyListener, Deleteable {
+    implements Component, OnResumeListener, OnStopListener, OnDestroyListener, Deleteable,
+    SoundEngine.Player {
 
-  private static final int MAX_STREAMS = 10;
-  private static final float VOLUME_FULL = 1.0f;
-  private static final int LOOP_MODE_NO_LOOP = 0;
-  private static final float PLAYBACK_RATE_NORMAL = 1.0f;
-
-  private SoundPool soundPool;
-  // soundMap maps sounds (assets, etc) that are loaded into soundPool to their respective
-  // soundIds.
-  private final Map<String, Integer> soundMap;
+  // The engine that loads and plays the sounds of all the Sound components in the form.
+  private final SoundEngine soundEngine;
 
   private String sourcePath;              // name of source
-  private int soundId;                    // id of sound in the soundPool
+  private int soundId;                    // id of sound in the soundEngine
   private int streamId;                   // stream id returned from last call to SoundPool.play
   private int minimumInterval;            // minimum interval between Play() calls
   private long timeLastPlayed;            // the system time when Play() was last called
@@ -75,8 +67,7 @@ public class Sound extends AndroidNonvisibleComponent
 
   public Sound(ComponentContainer container) {
     super(container.$form());
-    soundPool = new SoundPool(MAX_STREAMS, AudioManager.STREAM_MUSIC, 0);
-    soundMap = new HashMap<String, Integer>();
+    soundEngine = SoundEngine.forForm(form);
     vibe = (Vibrator) form.getSystemService(Context.VIBRATOR_SERVICE);
     sourcePath = "";
     form.registerForOnResume(this);
@@ -118,32 +109,27 @@ public class Sound extends AndroidNonvisibleComponent
 
     // Clear the previous sound.
     if (streamId != 0) {
-      soundPool.stop(streamId);
+      soundEngine.stop(streamId);
       streamId = 0;
     }
-    soundId = 0;
+    if (soundId != 0) {
+      soundEngine.release(soundId, this);
+      soundId = 0;
+    }
 
     if (sourcePath.length() != 0) {
-      Integer existingSoundId = soundMap.get(sourcePath);
-      if (existingSoundId != null) {
-        soundId = existingSoundId;
-
-      } else {
-        Log.i("Sound", "No existing sound with path " + sourcePath + ".");
-        try {
-          int newSoundId = MediaUtil.loadSoundPool(soundPool, form, sourcePath);
-          if (newSoundId != 0) {
-            soundMap.put(sourcePath, newSoundId);
-            Log.i("Sound", "Successfully loaded sound: setting soundId to " + newSoundId + ".");
-            soundId = newSoundId;
-          } else {
-            form.dispatchErrorOccurredEvent(this, "Source",
-                ErrorMessages.ERROR_UNABLE_TO_LOAD_MEDIA, sourcePath);
-          }
-        } catch (IOException e) {
+      // The engine starts loading the sound now, or shares it if another Sound already loaded it.
+      try {
+        soundId = soundEngine.acquire(sourcePath);
+        if (soundId != 0) {
+          Log.i("Sound", "Successfully loaded sound: setting soundId to " + soundId + ".");
+        } else {
           form.dispatchErrorOccurredEvent(this, "Source",
               ErrorMessages.ERROR_UNABLE_TO_LOAD_MEDIA, sourcePath);
         }
+      } catch (IOException e) {
+        form.dispatchErrorOccurredEvent(this, "Source",
+            ErrorMessages.ERROR_UNABLE_TO_LOAD_MEDIA, sourcePath);
       }
     }
   }
@@ -185,10 +171,12 @@ public class Sound extends AndroidNonvisibleComponent
       long currentTime = System.currentTimeMillis();
       if (timeLastPlayed == 0 || currentTime >= timeLastPlayed + minimumInterval) {
         timeLastPlayed = currentTime;
-        streamId = soundPool.play(soundId, VOLUME_FULL, VOLUME_FULL, 0, LOOP_MODE_NO_LOOP,
-            PLAYBACK_RATE_NORMAL);
-        Log.i("Sound", "SoundPool.play returned stream id " + streamId);
-        if (streamId == 0) {
+        streamId = soundEngine.play(soundId, this);
+        Log.i("Sound", "SoundEngine.play returned stream id " + streamId);
+        if (streamId == SoundEngine.PLAY_PENDING) {
+          // onPendingPlay is called once the sound has loaded.
+          streamId = 0;
+        } else if (streamId == 0) {
           form.dispatchErrorOccurredEvent(this, "Play",
               ErrorMessages.ERROR_UNABLE_TO_PLAY_MEDIA, sourcePath);
         }
@@ -206,7 +194,7 @@ public class Sound extends AndroidNonvisibleComponent
   @SimpleFunction
   public void Pause() {
     if (streamId != 0) {
-      soundPool.pause(streamId);
+      soundEngine.pause(streamId);
     } else {
       Log.i("Sound", "Unable to pause. Did you remember to call the Play function?");
     }
@@ -218,7 +206,7 @@ public class Sound extends AndroidNonvisibleComponent
   @SimpleFunction
   public void Resume() {
     if (streamId != 0) {
-      soundPool.resume(streamId);
+      soundEngine.resume(streamId);
     } else {
       Log.i("Sound", "Unable to resume. Did you remember to call the Play function?");
     }
@@ -230,8 +218,10 @@ public class Sound extends AndroidNonvisibleComponent
   @SimpleFunction
   public void Stop() {
     if (streamId != 0) {
-      soundPool.stop(streamId);
+      soundEngine.stop(streamId);
       streamId = 0;
+    } else if (soundEngine.cancelPendingPlay(soundId, this)) {
+      Log.i("Sound", "Canceled play waiting for the sound to load");
     } else {
       Log.i("Sound", "Unable to stop. Did you remember to call the Play function?");
     }
@@ -251,13 +241,25 @@ public class Sound extends AndroidNonvisibleComponent
   public void SoundError(String message) {
   }
 
+  // SoundEngine.Player implementation
+
+  @Override
+  public void onPendingPlay(int streamId) {
+    Log.i("Sound", "SoundEngine played loaded sound with stream id " + streamId);
+    this.streamId = streamId;
+    if (streamId == 0) {
+      form.dispatchErrorOccurredEvent(this, "Play",
+          ErrorMessages.ERROR_UNABLE_TO_PLAY_MEDIA, sourcePath);
+    }
+  }
+
   // OnStopListener implementation
 
   @Override
   public void onStop() {
     Log.i("Sound", "Got onStop");
     if (streamId != 0) {
-      soundPool.pause(streamId);
+      soundEngine.pause(streamId);
     }
   }
 
@@ -267,7 +269,7 @@ public class Sound extends AndroidNonvisibleComponent
   public void onResume() {
     Log.i("Sound", "Got onResume");
     if (streamId != 0) {
-      soundPool.resume(streamId);
+      soundEngine.resume(streamId);
     }
   }
 
@@ -287,12 +289,15 @@ public class Sound extends AndroidNonvisibleComponent
 
   private void prepareToDie() {
     if (streamId != 0) {
-      soundPool.stop(streamId);
-      soundPool.unload(streamId);
+      soundEngine.stop(streamId);
+      streamId = 0;
+    }
+    if (soundId != 0) {
+      // The engine unloads the sound when no other Sound uses it, and releases its pool when
+      // the form is destroyed.
+      soundEngine.release(soundId, this);
+      soundId = 0;
     }
-    soundPool.release();
     vibe.cancel();
-    // The documentation for SoundPool suggests setting the reference to null;
-    soundPool = null;
   }
 }
@@ -575,9 +575,30 @@ public abstract class Sprite extends VisibleComponent
    */
   @SimpleFunction
   public boolean CollidingWith(Sprite other) {
+    // Collision checks are batched, so make sure recent moves are reflected.
+    canvas.checkPendingCollisions();
     return registeredCollisions.contains(other);
   }
 
+  /**
+   * Indicates whether a collision has been registered between this sprite
+   * and the passed sprite, without first checking pending collisions.
+   * This is used by the Canvas while it is checking them.
+   *
+   * @param other the sprite to check for collision with this sprite
+   */
+  boolean isCollisionRegistered(Sprite other) {
+    return registeredCollisions.contains(other);
+  }
+
+  /**
+   * Returns the sprites with which a collision has been registered.
+   * Modifying the returned value does not affect this sprite.
+   */
+  Set<Sprite> getRegisteredCollisions() {
+    return new HashSet<Sprite>(registeredCollisions);
+  }
+
   /**
    * Moves the sprite back in bounds if part of it extends out of bounds,
    * having no effect otherwise. If the sprite is too wide to fit on the
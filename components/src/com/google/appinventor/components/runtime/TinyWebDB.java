@@ -152,7 +152,7 @@ public class TinyWebDB extends AndroidNonvisibleComponent implements Component {
   public void StoreValue(final String tag, final Object valueToStore) {
     final Runnable call = new Runnable() {
       public void run() { postStoreValue(tag, valueToStore); }};
-      AsynchUtil.runAsynchronously(call);
+      AsynchUtil.runAsynchronously(this, call);
   }
 
   // Here's part (b): The actual communication, which runs
@@ -258,7 +258,7 @@ public class TinyWebDB extends AndroidNonvisibleComponent implements Component {
   @SimpleFunction
   public void GetValue(final String tag) {
     final Runnable call = new Runnable() { public void run() { postGetValue(tag); }};
-    AsynchUtil.runAsynchronously(call);
+    AsynchUtil.runAsynchronously(this, call);
   }
 
   private void postGetValue(final String tag) {
@@ -267,7 +267,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
     }
     final String myConsumerKey = consumerKey;
     final String myConsumerSecret = consumerSecret;
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         if (checkAccessToken(myConsumerKey, myConsumerSecret)) {
           handler.post(new Runnable() {
@@ -320,7 +320,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
   public void CheckAuthorized() {
     final String myConsumerKey = consumerKey;
     final String myConsumerSecret = consumerSecret;
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         if (checkAccessToken(myConsumerKey, myConsumerSecret)) {
           handler.post(new Runnable() {
@@ -354,7 +354,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
         }
         if (requestToken != null && oauthVerifier != null
             && oauthVerifier.length() != 0) {
-          AsynchUtil.runAsynchronously(new Runnable() {
+          AsynchUtil.runAsynchronously(this, new Runnable() {
             public void run() {
               try {
                 AccessToken resultAccessToken;
@@ -464,7 +464,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
     // and invalidate the authorization credentials for myTwitter, causing
     // the call below to fail. If we want to prevent this we could consider
     // using an ExecutorService object to serialize calls to Twitter.
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         try {
           twitter.updateStatus(status);
@@ -493,7 +493,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         try {
           ConfigurationBuilder builder = new ConfigurationBuilder().setMediaProviderAPIKey(TwitPic_API_Key);
@@ -535,7 +535,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           ErrorMessages.ERROR_TWITTER_REQUEST_MENTIONS_FAILED, "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       List<Status> replies = Collections.emptyList();
 
       public void run() {
@@ -598,7 +598,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       List<User> friends = new ArrayList<User>();
 
       public void run() {
@@ -673,7 +673,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       List<DirectMessage> messages = Collections.emptyList();
 
       @Override
@@ -747,7 +747,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           ErrorMessages.ERROR_TWITTER_DIRECT_MESSAGE_FAILED, "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         try {
           twitter.sendDirectMessage(user, message);
@@ -769,7 +769,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           ErrorMessages.ERROR_TWITTER_FOLLOW_FAILED, "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         try {
           twitter.createFriendship(user);
@@ -791,7 +791,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           ErrorMessages.ERROR_TWITTER_STOP_FOLLOWING_FAILED, "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       public void run() {
         try {
           twitter.destroyFriendship(user);
@@ -814,7 +814,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       List<Status> messages = Collections.emptyList();
 
       public void run() {
@@ -886,7 +886,7 @@ public final class Twitter extends AndroidNonvisibleComponent implements
           ErrorMessages.ERROR_TWITTER_SEARCH_FAILED, "Need to login?");
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() { 
+    AsynchUtil.runAsynchronously(this, new Runnable() { 
       List<Status> tweets = Collections.emptyList();
 
       public void run() {
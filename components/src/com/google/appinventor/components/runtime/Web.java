@@ -49,8 +49,10 @@ import java.net.ProtocolException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The Original Web component provided functions for HTTP GET and POST requests.
@@ -65,7 +67,7 @@ import java.util.Map;
     iconName = "images/web.png")
 @SimpleObject
 @UsesPermissions(permissionNames = "android.permission.INTERNET")
-public class Web extends AndroidNonvisibleComponent implements Component {
+public class Web extends AndroidNonvisibleComponent implements Component, OnDestroyListener {
   /**
    * InvalidRequestHeadersException can be thrown from processRequestHeaders.
    * It is thrown if the list passed to processRequestHeaders contains an item that is not a list.
@@ -145,6 +147,15 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       }
       cookies = cookiesTemp;
     }
+
+    /**
+     * Returns a key that is equal for two requests if and only if the same
+     * request would be sent and the response handled the same way.
+     */
+    String getRequestKey() {
+      return urlString + "|" + requestHeaders + "|" + cookies + "|" + saveResponse + "|" +
+          responseFileName;
+    }
   }
 
   private static final String LOG_TAG = "Web";
@@ -176,6 +187,9 @@ public class Web extends AndroidNonvisibleComponent implements Component {
   private boolean saveResponse;
   private String responseFileName = "";
 
+  // Keys of the GET requests in progress; see CapturedProperties.getRequestKey.
+  private final Set<String> getsInProgress = new HashSet<String>();
+
   /**
    * Creates a new Web component.
    *
@@ -188,6 +202,8 @@ public class Web extends AndroidNonvisibleComponent implements Component {
     cookieHandler = (SdkLevel.getLevel() >= SdkLevel.LEVEL_GINGERBREAD)
         ? GingerbreadUtil.newCookieManager()
         : null;
+
+    form.registerForOnDestroy(this);
   }
 
   /**
@@ -331,7 +347,9 @@ public class Web extends AndroidNonvisibleComponent implements Component {
    * and the GotFile event will be triggered. The ResponseFileName property
    * can be used to specify the name of the file.<br>
    * If the SaveResponse property is false, the GotText event will be
-   * triggered.
+   * triggered.<br>
+   * If an identical request is already in progress, no new request is made
+   * and only one event is triggered.
    */
   @SimpleFunction
   public void Get() {
@@ -342,20 +360,46 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
-      @Override
-      public void run() {
-        try {
-          performRequest(webProps, null, null, "GET");
-        } catch (FileUtil.FileException e) {
-          form.dispatchErrorOccurredEvent(Web.this, "Get",
-              e.getErrorMessageNumber());
-        } catch (Exception e) {
-          form.dispatchErrorOccurredEvent(Web.this, "Get",
-              ErrorMessages.ERROR_WEB_UNABLE_TO_GET, webProps.urlString);
+    // If an identical GET is still in progress, its response will do for this one too.
+    final String requestKey = webProps.getRequestKey();
+    synchronized (getsInProgress) {
+      if (!getsInProgress.add(requestKey)) {
+        return;
+      }
+    }
+
+    AsynchUtil.runAsynchronously(this, new GetCall(webProps, requestKey));
+  }
+
+  /*
+   * An asynchronous GET request. Its key is removed from getsInProgress when
+   * it finishes, or when it is cancelled before it starts; see onDestroy.
+   */
+  private class GetCall implements Runnable {
+    private final CapturedProperties webProps;
+    private final String requestKey;
+
+    GetCall(CapturedProperties webProps, String requestKey) {
+      this.webProps = webProps;
+      this.requestKey = requestKey;
+    }
+
+    @Override
+    public void run() {
+      try {
+        performRequest(webProps, null, null, "GET");
+      } catch (FileUtil.FileException e) {
+        form.dispatchErrorOccurredEvent(Web.this, "Get",
+            e.getErrorMessageNumber());
+      } catch (Exception e) {
+        form.dispatchErrorOccurredEvent(Web.this, "Get",
+            ErrorMessages.ERROR_WEB_UNABLE_TO_GET, webProps.urlString);
+      } finally {
+        synchronized (getsInProgress) {
+          getsInProgress.remove(requestKey);
         }
       }
-    });
+    }
   }
 
   /**
@@ -412,7 +456,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -482,7 +526,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -516,7 +560,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -557,7 +601,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       @Override
       public void run() {
         // Convert text to bytes using the encoding.
@@ -1092,4 +1136,18 @@ public class Web extends AndroidNonvisibleComponent implements Component {
     }
     return null;
   }
+
+  // OnDestroyListener implementation
+
+  @Override
+  public void onDestroy() {
+    // Requests that haven't started yet are no longer wanted.
+    for (Runnable call : AsynchUtil.cancelWaitingCalls(this)) {
+      if (call instanceof GetCall) {
+        synchronized (getsInProgress) {
+          getsInProgress.remove(((GetCall) call).requestKey);
+        }
+      }
+    }
+  }
 }
@@ -138,6 +138,7 @@ public class AppInvHTTPD extends NanoHTTPD {
           }
         }
         myOut.println( " UPLOADED: '" + filename + "' was at '" + tempLocation + "'");
+        MediaUtil.replAssetsChanged();
       }
 
     return serveFile( uri, header, rootDir, true );
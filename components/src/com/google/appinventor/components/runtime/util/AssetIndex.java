@@ -0,0 +1,139 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.components.runtime.util;
+
+import android.content.res.AssetManager;
+import android.webkit.MimeTypeMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An index of the assets in an app, or of the files in the REPL's asset
+ * directory, used by {@link MediaUtil} to find an asset whose name differs
+ * only in case from the name the app asked for, without listing the assets
+ * each time.
+ *
+ * <p>Only the top level of the assets is indexed. Names that include a
+ * directory are looked up exactly.
+ *
+ */
+final class AssetIndex {
+  /**
+   * What is known about an asset.
+   */
+  static final class Entry {
+    private final String name;
+    private final long size;
+    private final String type;
+
+    private Entry(String name, long size) {
+      this.name = name;
+      this.size = size;
+      this.type = mimeTypeOf(name);
+    }
+
+    /**
+     * Returns the real name of the asset.
+     */
+    String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the size of the asset in bytes, or -1 if it isn't known
+     * without opening the asset.
+     */
+    long getSize() {
+      return size;
+    }
+
+    /**
+     * Returns the MIME type of the asset, from its extension, or null if it
+     * isn't known.
+     */
+    String getType() {
+      return type;
+    }
+  }
+
+  // The assets by name, and by lower-cased name. If several names differ only in case, the
+  // lower-cased name maps to the first one listed.
+  private final Map<String, Entry> entriesByName = new HashMap<String, Entry>();
+  private final Map<String, Entry> entriesByLowerCaseName = new HashMap<String, Entry>();
+
+  private AssetIndex() {
+  }
+
+  /**
+   * Creates an index of the assets packaged with the app.
+   */
+  static AssetIndex forAssets(AssetManager assets) throws IOException {
+    AssetIndex index = new AssetIndex();
+    for (String name : assets.list("")) {
+      index.add(new Entry(name, -1));
+    }
+    return index;
+  }
+
+  /**
+   * Creates an index of the files in a directory. If the directory doesn't
+   * exist, the index is empty.
+   */
+  static AssetIndex forDirectory(File directory) {
+    AssetIndex index = new AssetIndex();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        index.add(new Entry(file.getName(), file.length()));
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the asset with the given name, or else an asset whose name
+   * differs from it only in case, or null if there is neither.
+   */
+  Entry find(String name) {
+    Entry entry = entriesByName.get(name);
+    if (entry == null) {
+      entry = entriesByLowerCaseName.get(toLowerCase(name));
+    }
+    return entry;
+  }
+
+  /**
+   * Returns the number of assets in the index.
+   */
+  int size() {
+    return entriesByName.size();
+  }
+
+  private void add(Entry entry) {
+    entriesByName.put(entry.name, entry);
+    String lowerCaseName = toLowerCase(entry.name);
+    if (!entriesByLowerCaseName.containsKey(lowerCaseName)) {
+      entriesByLowerCaseName.put(lowerCaseName, entry);
+    }
+  }
+
+  private static String toLowerCase(String name) {
+    return name.toLowerCase(Locale.ENGLISH);
+  }
+
+  private static String mimeTypeOf(String name) {
+    int dot = name.lastIndexOf('.');
+    if (dot == -1) {
+      return null;
+    }
+    String extension = toLowerCase(name.substring(dot + 1));
+    return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+  }
+}
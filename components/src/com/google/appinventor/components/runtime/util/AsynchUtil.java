@@ -6,23 +6,66 @@
 package com.google.appinventor.components.runtime.util;
 
 import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Utilities for handling asynchronous calls.
  *
+ * <p>Asynchronous calls run on a small pool of threads shared by all
+ * components, rather than on a new thread each, since apps that poll from a
+ * Clock would otherwise create many short-lived threads.  Calls made while
+ * all threads are busy wait in a queue.  Calls that may block indefinitely
+ * must use {@link #runInNewThread} so they don't tie up the pool.</p>
+ *
  * @author markf@google.com (Mark Friedman)
  */
 
 public class AsynchUtil {
+  private static final String LOG_TAG = "AsynchUtil";
+
+  // The number of threads running asynchronous calls.
+  private static final int POOL_SIZE = 8;
+
+  // The maximum number of calls of one owner that run at once; see
+  // runAsynchronously(Object, Runnable).
+  private static final int MAX_CALLS_PER_OWNER = 2;
+
+  // The calls of an owner that are running or waiting to run.
+  private static class OwnerCalls {
+    int running;
+    final LinkedList<Runnable> waiting = new LinkedList<Runnable>();
+  }
+
+  // The following are guarded by AsynchUtil.class.
+  private static ExecutorService executor;
+  private static final Map<Object, OwnerCalls> ownerCalls = new HashMap<Object, OwnerCalls>();
+
+  private static final AtomicInteger threadCount = new AtomicInteger(0);
+  private static final AtomicInteger queuedCalls = new AtomicInteger(0);
+  private static final AtomicInteger activeCalls = new AtomicInteger(0);
+  private static final AtomicLong completedCalls = new AtomicLong(0);
 
   /**
    * Make an asynchronous call in a separate thread.
    * @param call a {@link Runnable} to run in the thread.
    */
   public static void runAsynchronously(final Runnable call) {
-    Thread thread = new Thread(call);
-    thread.start();
+    submit(call);
   }
+
   /**
    * Make an asynchronous call in a separate thread, with a callback that's run on the current
    * Android UI thread.
@@ -45,7 +88,155 @@ public class AsynchUtil {
         }
       }
     };
-    Thread thread = new Thread(runnable);
+    submit(runnable);
+  }
+
+  /**
+   * Make an asynchronous call in a separate thread on behalf of an owner,
+   * usually a component.  At most a few calls of the same owner run at once;
+   * the rest wait, in order, until one of them finishes.  Waiting calls can be
+   * dropped with {@link #cancelWaitingCalls}.
+   * @param owner the object on whose behalf the call is made
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runAsynchronously(Object owner, Runnable call) {
+    synchronized (AsynchUtil.class) {
+      OwnerCalls calls = ownerCalls.get(owner);
+      if (calls == null) {
+        calls = new OwnerCalls();
+        ownerCalls.put(owner, calls);
+      }
+      if (calls.running < MAX_CALLS_PER_OWNER) {
+        calls.running++;
+        submit(ownedCall(owner, call));
+      } else {
+        calls.waiting.add(call);
+        queuedCalls.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Drops the calls of an owner that are waiting to run.  Calls that are
+   * already running are not affected.
+   * @param owner the object whose calls should be dropped
+   * @return the dropped calls, so the owner can undo any bookkeeping for them
+   */
+  public static List<Runnable> cancelWaitingCalls(Object owner) {
+    List<Runnable> dropped = new ArrayList<Runnable>();
+    synchronized (AsynchUtil.class) {
+      OwnerCalls calls = ownerCalls.get(owner);
+      if (calls != null) {
+        queuedCalls.addAndGet(-calls.waiting.size());
+        dropped.addAll(calls.waiting);
+        calls.waiting.clear();
+        if (calls.running == 0) {
+          ownerCalls.remove(owner);
+        }
+      }
+    }
+    return dropped;
+  }
+
+  /**
+   * Make an asynchronous call in a new thread of its own.  This is for calls
+   * that may block indefinitely, such as waiting for an incoming connection.
+   * @param call a {@link Runnable} to run in the thread.
+   */
+  public static void runInNewThread(Runnable call) {
+    Thread thread = new Thread(call);
     thread.start();
   }
+
+  /**
+   * Shuts down the thread pool.  Calls that have been made already still run,
+   * and a new pool is started if another call is made.  This is called when
+   * the last Form is destroyed.
+   */
+  public static void shutdown() {
+    synchronized (AsynchUtil.class) {
+      if (executor != null) {
+        executor.shutdown();
+        executor = null;
+      }
+    }
+    Log.i(LOG_TAG, "Shut down: " + getQueuedCallCount() + " queued, " +
+        getActiveCallCount() + " active, " + getCompletedCallCount() + " completed calls");
+  }
+
+  /**
+   * Returns the number of calls that are waiting to run.
+   */
+  public static int getQueuedCallCount() {
+    return queuedCalls.get();
+  }
+
+  /**
+   * Returns the number of calls that are running.
+   */
+  public static int getActiveCallCount() {
+    return activeCalls.get();
+  }
+
+  /**
+   * Returns the number of calls that have finished.
+   */
+  public static long getCompletedCallCount() {
+    return completedCalls.get();
+  }
+
+  private static void submit(final Runnable call) {
+    queuedCalls.incrementAndGet();
+    getExecutor().execute(new Runnable() {
+      public void run() {
+        queuedCalls.decrementAndGet();
+        activeCalls.incrementAndGet();
+        try {
+          call.run();
+        } finally {
+          activeCalls.decrementAndGet();
+          completedCalls.incrementAndGet();
+        }
+      }
+    });
+  }
+
+  /*
+   * Wraps a call of an owner so that, when it finishes, the owner's next
+   * waiting call is started.
+   */
+  private static Runnable ownedCall(final Object owner, final Runnable call) {
+    return new Runnable() {
+      public void run() {
+        try {
+          call.run();
+        } finally {
+          synchronized (AsynchUtil.class) {
+            OwnerCalls calls = ownerCalls.get(owner);
+            if (calls != null) {
+              Runnable next = calls.waiting.poll();
+              if (next != null) {
+                queuedCalls.decrementAndGet();
+                submit(ownedCall(owner, next));
+              } else if (--calls.running == 0) {
+                ownerCalls.remove(owner);
+              }
+            }
+          }
+        }
+      }
+    };
+  }
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0L, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+              return new Thread(runnable, "AsynchUtil-" + threadCount.incrementAndGet());
+            }
+          });
+    }
+    return executor;
+  }
 }
@@ -0,0 +1,139 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.components.runtime.util;
+
+import android.graphics.Bitmap;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of decoded bitmaps, used by {@link MediaUtil} so that components
+ * showing the same image share one bitmap instead of each decoding their own.
+ *
+ * <p>The most recently used bitmaps are kept until they take more than the
+ * memory budget. Bitmaps dropped from the cache are still remembered weakly,
+ * so a bitmap that some component is still showing is shared rather than
+ * decoded again. Once no component uses it, it is garbage collected.
+ *
+ * <p>The bitmaps are shared, so they must not be changed or recycled.
+ *
+ */
+final class BitmapCache {
+  private final long maxBytes;
+
+  // The following are guarded by this.
+  // The recently used bitmaps, least recently used first.
+  private final LinkedHashMap<String, Bitmap> bitmaps =
+      new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+  // Bitmaps dropped from the cache, which may still be in use.
+  private final Map<String, WeakReference<Bitmap>> droppedBitmaps =
+      new HashMap<String, WeakReference<Bitmap>>();
+  private long bytes;
+  private int hits;
+  private int misses;
+  private int evictions;
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param maxBytes  the most memory used by the recently used bitmaps
+   */
+  BitmapCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the bitmap with the given key, or null if there is none.
+   */
+  synchronized Bitmap get(String key) {
+    Bitmap bitmap = bitmaps.get(key);
+    if (bitmap == null) {
+      WeakReference<Bitmap> reference = droppedBitmaps.remove(key);
+      bitmap = (reference == null) ? null : reference.get();
+      if (bitmap != null) {
+        // It is still in use, so it is recently used again.
+        add(key, bitmap);
+      }
+    }
+    if (bitmap == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return bitmap;
+  }
+
+  /**
+   * Adds a bitmap with the given key, replacing any bitmap it had before.
+   */
+  synchronized void put(String key, Bitmap bitmap) {
+    droppedBitmaps.remove(key);
+    Bitmap old = bitmaps.remove(key);
+    if (old != null) {
+      bytes -= sizeOf(old);
+    }
+    add(key, bitmap);
+  }
+
+  /**
+   * Drops all the bitmaps from the cache, for example when memory is low.
+   * Bitmaps that are still in use are still shared.
+   */
+  synchronized void clear() {
+    for (Map.Entry<String, Bitmap> entry : bitmaps.entrySet()) {
+      droppedBitmaps.put(entry.getKey(), new WeakReference<Bitmap>(entry.getValue()));
+    }
+    evictions += bitmaps.size();
+    bitmaps.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Returns a description of the cache's size and how well it is working.
+   */
+  synchronized String getStats() {
+    return bitmaps.size() + " bitmaps (" + bytes / 1024 + " of " + maxBytes / 1024 + " KB), "
+        + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+  }
+
+  private void add(String key, Bitmap bitmap) {
+    long size = sizeOf(bitmap);
+    if (size > maxBytes) {
+      // It would push everything else out, so only remember it while it is in use.
+      droppedBitmaps.put(key, new WeakReference<Bitmap>(bitmap));
+      return;
+    }
+    bitmaps.put(key, bitmap);
+    bytes += size;
+    Iterator<Map.Entry<String, Bitmap>> iterator = bitmaps.entrySet().iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Bitmap> eldest = iterator.next();
+      iterator.remove();
+      bytes -= sizeOf(eldest.getValue());
+      droppedBitmaps.put(eldest.getKey(), new WeakReference<Bitmap>(eldest.getValue()));
+      evictions++;
+    }
+    removeCollectedBitmaps();
+  }
+
+  // Forgets the dropped bitmaps that have been garbage collected.
+  private void removeCollectedBitmaps() {
+    Iterator<WeakReference<Bitmap>> iterator = droppedBitmaps.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().get() == null) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private static long sizeOf(Bitmap bitmap) {
+    return (long) bitmap.getRowBytes() * bitmap.getHeight();
+  }
+}
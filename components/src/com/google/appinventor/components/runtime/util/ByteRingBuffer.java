@@ -0,0 +1,156 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.components.runtime.util;
+
+import java.io.IOException;
+
+/**
+ * A bounded queue of bytes, written by one thread and read by another. The
+ * Bluetooth components use it to hold the bytes that a background thread has
+ * received from the connection until the app reads them.
+ *
+ * <p>When the buffer is full, the writer waits for the reader, so that a
+ * device sending faster than the app reads is slowed down rather than its
+ * bytes being lost. Once the buffer is closed, the reader gets the bytes
+ * that are left and then no more.
+ *
+ */
+public final class ByteRingBuffer {
+  private final byte[] bytes;
+  // The following are guarded by this.
+  private int start;
+  private int count;
+  private boolean closed;
+  private IOException closeReason;
+
+  /**
+   * Creates an empty buffer.
+   *
+   * @param capacity  the most bytes the buffer holds
+   */
+  public ByteRingBuffer(int capacity) {
+    bytes = new byte[capacity];
+  }
+
+  /**
+   * Returns the number of bytes that can be read without waiting.
+   */
+  public synchronized int available() {
+    return count;
+  }
+
+  /**
+   * Returns the byte at the given position without removing it.
+   *
+   * @param index  the position of the byte, 0 for the next byte to be read
+   * @return the byte, from 0 to 255
+   */
+  public synchronized int peek(int index) {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Available: " + count);
+    }
+    return bytes[(start + index) % bytes.length] & 0xFF;
+  }
+
+  /**
+   * Returns the position of the first occurrence of the given byte, or -1 if
+   * it hasn't been received.
+   */
+  public synchronized int indexOf(byte b) {
+    for (int i = 0; i < count; i++) {
+      if (bytes[(start + i) % bytes.length] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Adds bytes to the buffer, waiting while it is full. If the buffer is
+   * closed, the bytes that don't fit are dropped.
+   */
+  public synchronized void write(byte[] source, int offset, int length)
+      throws InterruptedException {
+    while (length > 0 && !closed) {
+      while (count == bytes.length && !closed) {
+        wait();
+      }
+      if (closed) {
+        break;
+      }
+      int end = (start + count) % bytes.length;
+      int chunk = Math.min(length, Math.min(bytes.length - count, bytes.length - end));
+      System.arraycopy(source, offset, bytes, end, chunk);
+      count += chunk;
+      offset += chunk;
+      length -= chunk;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Removes up to the given number of bytes from the buffer without waiting.
+   *
+   * @return the number of bytes removed
+   */
+  public synchronized int read(byte[] destination, int offset, int length) {
+    int total = 0;
+    while (total < length && count > 0) {
+      int chunk = Math.min(length - total, Math.min(count, bytes.length - start));
+      System.arraycopy(bytes, start, destination, offset + total, chunk);
+      start = (start + chunk) % bytes.length;
+      count -= chunk;
+      total += chunk;
+    }
+    if (total > 0) {
+      notifyAll();
+    }
+    return total;
+  }
+
+  /**
+   * Waits until the given number of bytes can be read, or the buffer is
+   * closed.
+   *
+   * @return whether that many bytes can be read
+   */
+  public synchronized boolean awaitAvailable(int length) throws InterruptedException {
+    while (count < length && !closed) {
+      wait();
+    }
+    return count >= length;
+  }
+
+  /**
+   * Closes the buffer. Waiting readers and writers return; the bytes already
+   * in the buffer can still be read.
+   *
+   * @param reason  why no more bytes will be received, or null if the
+   *                connection ended normally
+   */
+  public synchronized void close(IOException reason) {
+    if (!closed) {
+      closed = true;
+      closeReason = reason;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Returns whether the buffer is closed.
+   */
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Returns why the buffer was closed, or null if it isn't closed or the
+   * connection ended normally.
+   */
+  public synchronized IOException getCloseReason() {
+    return closeReason;
+  }
+}
@@ -0,0 +1,92 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.components.runtime.util;
+
+import android.os.SystemClock;
+
+/**
+ * Limits how often a component raises an event, so that a sensor reporting
+ * many times a second doesn't flood the event's handler.
+ *
+ * <p>An event is raised at most once per minimum interval. After a handler
+ * that took a long time, the event isn't raised again until at least as long
+ * has passed, so that a slow handler takes at most half of the UI thread
+ * instead of falling further and further behind the sensor.
+ *
+ * <p>An EventRateLimiter is only used on the UI thread.
+ *
+ */
+public final class EventRateLimiter {
+  private long minIntervalMillis;
+  private long startMillis;
+  private long nextAllowedMillis;
+
+  // Statistics.
+  private int raised;
+  private int dropped;
+
+  /**
+   * Creates a limiter.
+   *
+   * @param minIntervalMillis  the least time between the starts of two
+   *                           events, in milliseconds
+   */
+  public EventRateLimiter(long minIntervalMillis) {
+    setMinInterval(minIntervalMillis);
+  }
+
+  /**
+   * Sets the least time between the starts of two events, in milliseconds.
+   */
+  public void setMinInterval(long millis) {
+    minIntervalMillis = Math.max(0, millis);
+  }
+
+  /**
+   * Returns the least time between the starts of two events, in
+   * milliseconds.
+   */
+  public long getMinInterval() {
+    return minIntervalMillis;
+  }
+
+  /**
+   * Returns whether the event may be raised now. If so, the caller must call
+   * {@link #finish} once the event has been handled.
+   */
+  public boolean tryStart() {
+    long now = SystemClock.uptimeMillis();
+    if (now < nextAllowedMillis) {
+      dropped++;
+      return false;
+    }
+    startMillis = now;
+    raised++;
+    return true;
+  }
+
+  /**
+   * Records that the event started by {@link #tryStart} has been handled.
+   */
+  public void finish() {
+    long now = SystemClock.uptimeMillis();
+    nextAllowedMillis = Math.max(startMillis + minIntervalMillis, now + (now - startMillis));
+  }
+
+  /**
+   * Allows the next event to be raised right away.
+   */
+  public void reset() {
+    nextAllowedMillis = 0;
+  }
+
+  /**
+   * Returns a description of how many events were raised and dropped.
+   */
+  public String getStats() {
+    return raised + " events raised, " + dropped + " dropped";
+  }
+}
@@ -5,6 +5,7 @@
 
 package com.google.appinventor.components.runtime.util;
 
+import android.media.SoundPool;
 import android.view.Display;
 
 /**
@@ -27,4 +28,17 @@ public class FroyoUtil {
   public static int getRotation(Display display) {
     return display.getRotation();
   }
+
+  /**
+   * Calls {@link SoundPool#setOnLoadCompleteListener} with a listener that
+   * tells the given engine when a sound has loaded.
+   */
+  public static void setOnLoadCompleteListener(SoundPool soundPool, final SoundEngine engine) {
+    soundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+      @Override
+      public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+        engine.onLoadComplete(sampleId, status);
+      }
+    });
+  }
 }
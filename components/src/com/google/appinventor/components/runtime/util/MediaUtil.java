@@ -12,7 +12,6 @@ import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.media.MediaPlayer;
 import android.media.SoundPool;
@@ -24,17 +23,17 @@ import android.view.Display;
 import android.view.WindowManager;
 import android.widget.VideoView;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
-import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Array;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Utilities for loading media.
@@ -51,13 +50,54 @@ public class MediaUtil {
   // tempFileMap maps cached media (assets, etc) to their respective temp files.
   private static final Map<String, File> tempFileMap = new HashMap<String, File>();
 
+  // assetIndexes holds the index of each form's assets, so that finding an asset whose name
+  // differs in case doesn't list the assets every time. Guarded by itself.
+  private static final Map<Form, AssetIndex> assetIndexes = new WeakHashMap<Form, AssetIndex>();
+
+  // The index of the REPL's asset directory, and the directory's modification time when it was
+  // built. Guarded by MediaUtil.class.
+  private static AssetIndex replAssetIndex;
+  private static long replAssetIndexLastModified;
+
+  // bitmapCache holds decoded images, so that components showing the same image share one
+  // bitmap. It may use an eighth of the memory available to the app.
+  private static final BitmapCache bitmapCache =
+      new BitmapCache(Runtime.getRuntime().maxMemory() / 8);
+
   private MediaUtil() {
   }
 
+  // Returns the path of an asset in the REPL's asset directory. Like assets in an app, its name
+  // may differ in case from the name the app asked for.
   private static String replAssetPath(String assetName) {
+    if (!new File(REPL_ASSET_DIR + assetName).exists()) {
+      AssetIndex.Entry entry = getReplAssetIndex().find(assetName);
+      if (entry != null) {
+        return REPL_ASSET_DIR + entry.getName();
+      }
+    }
     return REPL_ASSET_DIR + assetName;
   }
 
+  // Returns the index of the REPL's asset directory, building it again if assets have been
+  // added since it was built.
+  private static synchronized AssetIndex getReplAssetIndex() {
+    long lastModified = new File(REPL_ASSET_DIR).lastModified();
+    if (replAssetIndex == null || lastModified != replAssetIndexLastModified) {
+      replAssetIndex = AssetIndex.forDirectory(new File(REPL_ASSET_DIR));
+      replAssetIndexLastModified = lastModified;
+    }
+    return replAssetIndex;
+  }
+
+  /**
+   * Tells MediaUtil that assets have been pushed to the REPL's asset
+   * directory, so that it finds them.
+   */
+  public static synchronized void replAssetsChanged() {
+    replAssetIndex = null;
+  }
+
   static String fileUrlToFilePath(String mediaPath) throws IOException {
     try {
       return new File(new URL(mediaPath).toURI()).getAbsolutePath();
@@ -123,17 +163,36 @@ public class MediaUtil {
     return MediaSource.ASSET;
   }
 
-  private static String findCaseinsensitivePath(Form form, String mediaPath)
-      throws IOException{
-    String[] mediaPathlist = form.getAssets().list("");
-    int l = Array.getLength(mediaPathlist);
-    for (int i=0; i<l; i++){
-      String temp = mediaPathlist[i];
-      if (temp.equalsIgnoreCase(mediaPath)){
-        return temp;
+  // Returns the index of the form's assets, building it the first time.
+  private static AssetIndex getAssetIndex(Form form) throws IOException {
+    synchronized (assetIndexes) {
+      AssetIndex index = assetIndexes.get(form);
+      if (index == null) {
+        index = AssetIndex.forAssets(form.getAssets());
+        assetIndexes.put(form, index);
+        Log.i(LOG_TAG, "Indexed " + index.size() + " assets");
       }
+      return index;
     }
-    return null;
+  }
+
+  /**
+   * Returns the real name of an asset from a mediaPath using case-insensitive
+   * comparison. If there is no matching asset, or the assets can't be listed,
+   * returns mediaPath, so that opening it reports the error.
+   * @param form the Form
+   * @param mediaPath the path to the media
+   */
+  private static String resolveAssetName(Form form, String mediaPath) {
+    try {
+      AssetIndex.Entry entry = getAssetIndex(form).find(mediaPath);
+      if (entry != null) {
+        return entry.getName();
+      }
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "Unable to list assets: " + e.getMessage());
+    }
+    return mediaPath;
   }
 
   /**
@@ -145,17 +204,7 @@ public class MediaUtil {
    */
   private static InputStream getAssetsIgnoreCaseInputStream(Form form, String mediaPath)
       throws IOException{
-    try {
-      return form.getAssets().open(mediaPath);
-
-    } catch (IOException e) {
-        if (findCaseinsensitivePath(form, mediaPath) == null){
-          throw e;
-        } else {
-        String path = findCaseinsensitivePath(form, mediaPath);
-        return form.getAssets().open(path);
-        }
-    }
+    return form.getAssets().open(resolveAssetName(form, mediaPath));
   }
 
   private static InputStream openMedia(Form form, String mediaPath, MediaSource mediaSource)
@@ -256,6 +305,10 @@ public class MediaUtil {
    *
    * <p/>If mediaPath is null or empty, null is returned.
    *
+   * <p/>Images that can't change, such as assets, or whose changes can be
+   * detected, such as files, are decoded once and the bitmap is shared by all
+   * the Drawables returned for them. The bitmap must not be changed.
+   *
    * @param form the Form
    * @param mediaPath the path to the media
    * @return a Drawable or null
@@ -267,14 +320,29 @@ public class MediaUtil {
 
     MediaSource mediaSource = determineMediaSource(form, mediaPath);
 
-    // Unlike other types of media, we don't cache image files from the internet to temp files.
-    // The image at a particular URL, such as an image from a web cam, may change over time.
-    // When the app says to fetch the image, we need to get the latest image, not one that we
-    // cached previously.
+    // Set the sample size so that we scale down any image that is larger than twice the
+    // width/height of the screen.
+    // The goal is to never make an image that is actually larger than the screen end up appearing
+    // smaller than the screen.
+    Display display = ((WindowManager) form.getSystemService(Context.WINDOW_SERVICE)).
+        getDefaultDisplay();
+    int maxWidth = 2 * display.getWidth();
+    int maxHeight = 2 * display.getHeight();
+
+    // The sample size only depends on the image and the screen size, so these identify the
+    // decoded bitmap.
+    String cacheKey = getBitmapCacheKey(mediaPath, mediaSource);
+    if (cacheKey != null) {
+      cacheKey += "@" + maxWidth + "x" + maxHeight;
+      Bitmap bitmap = bitmapCache.get(cacheKey);
+      if (bitmap != null) {
+        return new BitmapDrawable(bitmap);
+      }
+    }
 
-    InputStream is1;
+    InputStream is;
     try {
-      is1 = openMedia(form, mediaPath, mediaSource);
+      is = openMedia(form, mediaPath, mediaSource);
     } catch (IOException e) {
       if (mediaSource == MediaSource.CONTACT_URI) {
         // There's no photo for this contact, return a placeholder image.
@@ -284,72 +352,93 @@ public class MediaUtil {
       throw e;
     }
 
-    BitmapFactory.Options options;
+    // Read the image once, rather than opening it once to get its size and again to decode it.
+    byte[] imageData;
     try {
-      options = getBitmapOptions(form, is1);
+      imageData = readFully(is);
     } finally {
-      is1.close();
+      is.close();
     }
 
-    InputStream is2 = openMedia(form, mediaPath, mediaSource);
-    try {
-      return new BitmapDrawable(decodeStream(is2, null, options));
-    } finally {
-      is2.close();
+    BitmapFactory.Options options = getBitmapOptions(imageData, maxWidth, maxHeight);
+    Bitmap bitmap = BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+    if (bitmap != null && cacheKey != null) {
+      bitmapCache.put(cacheKey, bitmap);
     }
+    return new BitmapDrawable(bitmap);
+  }
+
+  /**
+   * Drops the decoded images kept by {@link #getBitmapDrawable}. Images that
+   * are still shown are still shared.
+   */
+  public static void clearBitmapCache() {
+    bitmapCache.clear();
   }
 
-  private static Bitmap decodeStream(InputStream is, Rect outPadding, BitmapFactory.Options opts) {
-    // We wrap a FlushedInputStream around the given InputStream. This works around a problem in
-    // BitmapFactory.decodeStream where it fails to load the image if the InputStream's skip method
-    // doesn't skip the requested number of bytes.
-    return BitmapFactory.decodeStream(new FlushedInputStream(is), outPadding, opts);
+  /**
+   * Returns a description of the decoded images kept by
+   * {@link #getBitmapDrawable}, including the numbers of cache hits and
+   * misses. This can be called from the REPL.
+   */
+  public static String getBitmapCacheStats() {
+    return bitmapCache.getStats();
   }
 
-  // This class comes from
-  // http://android-developers.blogspot.com/2010/07/multithreading-for-performance.html
-  // written by Googler Gilles Debunne.
-  private static class FlushedInputStream extends FilterInputStream {
-    public FlushedInputStream(InputStream inputStream) {
-      super(inputStream);
+  // Returns the key for the decoded image in the bitmap cache, or null if it must not be cached.
+  private static String getBitmapCacheKey(String mediaPath, MediaSource mediaSource)
+      throws IOException {
+    switch (mediaSource) {
+      case ASSET:
+        // Assets can't change.
+        return "asset:" + mediaPath;
+
+      case REPL_ASSET:
+        // Assets in the REPL are replaced when the user uploads a new version.
+        return getFileCacheKey(replAssetPath(mediaPath));
+
+      case SDCARD:
+        return getFileCacheKey(mediaPath);
+
+      case FILE_URL:
+        return getFileCacheKey(fileUrlToFilePath(mediaPath));
     }
+    // Unlike other types of media, we don't cache images from the internet. The image at a
+    // particular URL, such as an image from a web cam, may change over time. When the app says
+    // to fetch the image, we need to get the latest image, not one that we cached previously.
+    // The same goes for content and contact URIs.
+    return null;
+  }
 
-    @Override
-    public long skip(long n) throws IOException {
-      long totalBytesSkipped = 0;
-      while (totalBytesSkipped < n) {
-        long bytesSkipped = in.skip(n - totalBytesSkipped);
-        if (bytesSkipped == 0L) {
-          if (read() < 0) {
-            break;  // we reached EOF
-          } else {
-            bytesSkipped = 1; // we read one byte
-          }
-        }
-        totalBytesSkipped += bytesSkipped;
-      }
-      return totalBytesSkipped;
+  // The key for a file includes its modification time and length, so that the file is decoded
+  // again after it changes.
+  private static String getFileCacheKey(String filePath) {
+    File file = new File(filePath);
+    if (!file.exists()) {
+      return null;
+    }
+    return "file:" + filePath + ":" + file.lastModified() + ":" + file.length();
+  }
+
+  private static byte[] readFully(InputStream is) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int count;
+    while ((count = is.read(buffer)) != -1) {
+      out.write(buffer, 0, count);
     }
+    return out.toByteArray();
   }
 
-  private static BitmapFactory.Options getBitmapOptions(Form form, InputStream is) {
+  private static BitmapFactory.Options getBitmapOptions(byte[] imageData, int maxWidth,
+      int maxHeight) {
     // Get the size of the image.
     BitmapFactory.Options options = new BitmapFactory.Options();
     options.inJustDecodeBounds = true;
-    decodeStream(is, null, options);
+    BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
     int imageWidth = options.outWidth;
     int imageHeight = options.outHeight;
 
-    // Get the screen size.
-    Display display = ((WindowManager) form.getSystemService(Context.WINDOW_SERVICE)).
-        getDefaultDisplay();
-
-    // Set the sample size so that we scale down any image that is larger than twice the
-    // width/height of the screen.
-    // The goal is to never make an image that is actually larger than the screen end up appearing
-    // smaller than the screen.
-    int maxWidth = 2 * display.getWidth();
-    int maxHeight = 2 * display.getHeight();
     int sampleSize = 1;
     while ((imageWidth / sampleSize > maxWidth) && (imageHeight / sampleSize > maxHeight)) {
       sampleSize *= 2;
@@ -370,17 +459,7 @@ public class MediaUtil {
    */
   private static AssetFileDescriptor getAssetsIgnoreCaseAfd(Form form, String mediaPath)
       throws IOException{
-    try {
-      return form.getAssets().openFd(mediaPath);
-
-    } catch (IOException e) {
-      if (findCaseinsensitivePath(form, mediaPath) == null){
-        throw e;
-      } else {
-      String path = findCaseinsensitivePath(form, mediaPath);
-      return form.getAssets().openFd(path);
-      }
-    }
+    return form.getAssets().openFd(resolveAssetName(form, mediaPath));
   }
 
   /**
@@ -0,0 +1,280 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.components.runtime.util;
+
+/**
+ * The recent readings of a sensor, kept in a ring of primitive floats so that
+ * processing a reading allocates nothing. The sensor components use it for
+ * shake detection, step detection and orientation.
+ *
+ * <p>Each reading passes through the pipeline in order:
+ * <ol>
+ * <li>The filter, if any, either smooths the readings (low-pass) or removes
+ *     their slowly changing part, such as gravity (high-pass). Every reading
+ *     goes through the filter, so that decimation doesn't alias.</li>
+ * <li>Decimation keeps only every nth reading, and drops readings that come
+ *     sooner than the sample period after the last one kept.</li>
+ * <li>The reading is stored in the ring, replacing the oldest one once the
+ *     ring is full.</li>
+ * </ol>
+ *
+ * <p>A SensorPipeline is not thread safe. The sensor components only use it
+ * on the UI thread.
+ *
+ */
+public final class SensorPipeline {
+  /**
+   * Readings are stored as they are.
+   */
+  public static final int FILTER_NONE = 0;
+
+  /**
+   * Readings are smoothed by an exponential moving average.
+   */
+  public static final int FILTER_LOW_PASS = 1;
+
+  /**
+   * Readings have their exponential moving average subtracted.
+   */
+  public static final int FILTER_HIGH_PASS = 2;
+
+  private final int dimensions;
+  private final int capacity;
+
+  // The readings. Reading i is stored at [i * dimensions, (i + 1) * dimensions).
+  private final float[] ring;
+  // The sum of each axis of the readings in the ring, for the mean.
+  private final double[] sums;
+  // Where the next reading is stored, and how many readings are stored.
+  private int next;
+  private int size;
+
+  private int filter = FILTER_NONE;
+  private float smoothing = 1;
+  // The moving average of each axis of all the readings, for the filter.
+  private final float[] averages;
+  private boolean averagesPrimed;
+
+  private int decimation = 1;
+  private long samplePeriodNanos;
+  private int readingsSinceKept;
+  private long lastKeptTimestamp;
+
+  // Statistics.
+  private long received;
+  private long kept;
+
+  /**
+   * Creates an empty pipeline, with no filter and no decimation.
+   *
+   * @param dimensions  the number of values in each reading, for example 3
+   *                    for the x, y and z axes
+   * @param capacity  the number of readings kept
+   */
+  public SensorPipeline(int dimensions, int capacity) {
+    if (dimensions < 1 || capacity < 1) {
+      throw new IllegalArgumentException("dimensions and capacity must be positive");
+    }
+    this.dimensions = dimensions;
+    this.capacity = capacity;
+    ring = new float[dimensions * capacity];
+    sums = new double[dimensions];
+    averages = new float[dimensions];
+  }
+
+  /**
+   * Sets the filter the readings go through.
+   *
+   * @param filter  {@link #FILTER_NONE}, {@link #FILTER_LOW_PASS} or
+   *                {@link #FILTER_HIGH_PASS}
+   * @param smoothing  how much of each reading goes into the moving average,
+   *                   from 0 (none) to 1 (all of it). Smaller values give
+   *                   smoother readings that follow changes more slowly.
+   */
+  public void setFilter(int filter, float smoothing) {
+    if (filter != FILTER_NONE && filter != FILTER_LOW_PASS && filter != FILTER_HIGH_PASS) {
+      throw new IllegalArgumentException("Unknown filter: " + filter);
+    }
+    this.filter = filter;
+    this.smoothing = Math.max(0, Math.min(1, smoothing));
+  }
+
+  /**
+   * Keeps only every nth reading.
+   */
+  public void setDecimation(int n) {
+    decimation = Math.max(1, n);
+  }
+
+  /**
+   * Sets the sampling rate, by dropping readings that come sooner than the
+   * given period after the last one kept. A period of 0 keeps every reading.
+   *
+   * @param millis  the sample period, in milliseconds
+   */
+  public void setSamplePeriod(long millis) {
+    samplePeriodNanos = Math.max(0, millis) * 1000000;
+  }
+
+  /**
+   * Adds a reading.
+   *
+   * @param values  the reading, which may have more values than the
+   *                pipeline's dimensions
+   * @param timestampNanos  the time of the reading, in nanoseconds, such as
+   *                        {@code SensorEvent.timestamp}
+   * @return whether the reading was kept
+   */
+  public boolean add(float[] values, long timestampNanos) {
+    received++;
+    if (filter != FILTER_NONE) {
+      for (int axis = 0; axis < dimensions; axis++) {
+        if (averagesPrimed) {
+          averages[axis] += smoothing * (values[axis] - averages[axis]);
+        } else {
+          averages[axis] = values[axis];
+        }
+      }
+      averagesPrimed = true;
+    }
+
+    if (++readingsSinceKept < decimation) {
+      return false;
+    }
+    if (samplePeriodNanos > 0 && kept > 0 &&
+        timestampNanos - lastKeptTimestamp < samplePeriodNanos) {
+      return false;
+    }
+    readingsSinceKept = 0;
+    lastKeptTimestamp = timestampNanos;
+    kept++;
+
+    int offset = next * dimensions;
+    for (int axis = 0; axis < dimensions; axis++) {
+      float value;
+      switch (filter) {
+        case FILTER_LOW_PASS:
+          value = averages[axis];
+          break;
+        case FILTER_HIGH_PASS:
+          value = values[axis] - averages[axis];
+          break;
+        default:
+          value = values[axis];
+          break;
+      }
+      if (size == capacity) {
+        sums[axis] -= ring[offset + axis];
+      }
+      ring[offset + axis] = value;
+      sums[axis] += value;
+    }
+    next = (next + 1) % capacity;
+    if (size < capacity) {
+      size++;
+    }
+    if (next == 0) {
+      // Recompute the sums once per trip around the ring so that rounding errors don't build up.
+      recomputeSums();
+    }
+    return true;
+  }
+
+  /**
+   * Changes a value of the latest reading.
+   */
+  public void setLatest(int axis, float value) {
+    int offset = indexOf(0) * dimensions + axis;
+    sums[axis] += value - ring[offset];
+    ring[offset] = value;
+  }
+
+  /**
+   * Returns a value of a stored reading.
+   *
+   * @param age  0 for the latest reading, 1 for the one before, and so on
+   * @param axis  which value of the reading
+   */
+  public float get(int age, int axis) {
+    return ring[indexOf(age) * dimensions + axis];
+  }
+
+  /**
+   * Returns a value of the latest reading.
+   */
+  public float getLatest(int axis) {
+    return get(0, axis);
+  }
+
+  /**
+   * Copies the latest reading into the given array.
+   */
+  public void getLatest(float[] values) {
+    System.arraycopy(ring, indexOf(0) * dimensions, values, 0, dimensions);
+  }
+
+  /**
+   * Returns the mean of a value of the stored readings, or 0 if there are
+   * none.
+   */
+  public float getMean(int axis) {
+    return (size == 0) ? 0 : (float) (sums[axis] / size);
+  }
+
+  /**
+   * Returns the number of readings stored.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns whether the ring is full, so that adding a reading replaces the
+   * oldest one.
+   */
+  public boolean isFull() {
+    return size == capacity;
+  }
+
+  /**
+   * Throws away all the readings, for example when the sensor stops so that
+   * they would go stale.
+   */
+  public void clear() {
+    next = 0;
+    size = 0;
+    for (int axis = 0; axis < dimensions; axis++) {
+      sums[axis] = 0;
+    }
+    averagesPrimed = false;
+    readingsSinceKept = 0;
+  }
+
+  /**
+   * Returns a description of how many readings were received and kept.
+   */
+  public String getStats() {
+    return received + " readings received, " + kept + " kept, " + size + " of " + capacity +
+        " stored";
+  }
+
+  private int indexOf(int age) {
+    if (age < 0 || age >= size) {
+      throw new IndexOutOfBoundsException("Age: " + age + ", Size: " + size);
+    }
+    return (next - 1 - age + 2 * capacity) % capacity;
+  }
+
+  private void recomputeSums() {
+    for (int axis = 0; axis < dimensions; axis++) {
+      double sum = 0;
+      for (int i = 0; i < size; i++) {
+        sum += ring[i * dimensions + axis];
+      }
+      sums[axis] = sum;
+    }
+  }
+}
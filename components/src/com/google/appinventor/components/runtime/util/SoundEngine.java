@@ -0,0 +1,313 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.components.runtime.util;
+
+import com.google.appinventor.components.runtime.Form;
+import com.google.appinventor.components.runtime.OnDestroyListener;
+
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sound effects of a form. All the Sound components of a form share one
+ * {@link SoundPool}, and components with the same source share the loaded
+ * sound.
+ *
+ * <p>A sound starts loading as soon as a component's source is set, so
+ * sounds set in the Designer are loaded while the form is created, before
+ * Screen.Initialize. On Froyo and later, playing a sound that hasn't
+ * finished loading waits for it to load rather than failing.
+ *
+ * <p>A SoundEngine is only used on the UI thread.
+ *
+ */
+public final class SoundEngine implements OnDestroyListener, OnInitializeListener {
+  private static final String LOG_TAG = "SoundEngine";
+
+  /**
+   * The default number of sounds that can play at the same time.
+   */
+  public static final int DEFAULT_MAX_STREAMS = 10;
+
+  /**
+   * Returned by {@link #play} when the sound will be played once it has
+   * loaded.
+   */
+  public static final int PLAY_PENDING = -1;
+
+  private static final float VOLUME_FULL = 1.0f;
+  private static final int LOOP_MODE_NO_LOOP = 0;
+  private static final float PLAYBACK_RATE_NORMAL = 1.0f;
+
+  // The engine of each form. An engine refers to its form, so this map would keep the form alive
+  // even with weak keys; instead, each engine removes itself when its form is destroyed.
+  // Guarded by SoundEngine.class.
+  private static final Map<Form, SoundEngine> engines = new HashMap<Form, SoundEngine>();
+  private static int maxStreams = DEFAULT_MAX_STREAMS;
+
+  /**
+   * Something that plays sounds, and is told when a play that waited for its
+   * sound to load has started.
+   */
+  public interface Player {
+    /**
+     * Called when a play that returned {@link #PLAY_PENDING} has started.
+     *
+     * @param streamId  the stream of the sound, or 0 if it couldn't be played
+     */
+    void onPendingPlay(int streamId);
+  }
+
+  // A sound loaded into the pool.
+  private static class Sample {
+    private final String path;
+    private final int sampleId;
+    private final long loadStartTime;
+    private int users;
+    private boolean loaded;
+    private final List<Player> pendingPlayers = new ArrayList<Player>();
+
+    private Sample(String path, int sampleId, boolean loaded) {
+      this.path = path;
+      this.sampleId = sampleId;
+      this.loaded = loaded;
+      this.loadStartTime = SystemClock.uptimeMillis();
+    }
+  }
+
+  private final Form form;
+  private SoundPool soundPool;
+  // Whether the pool tells us when a sound has loaded. Before Froyo, sounds are treated as loaded
+  // as soon as loading starts.
+  private final boolean loadCompletionKnown;
+  private final Map<String, Sample> samplesByPath = new HashMap<String, Sample>();
+  private final Map<Integer, Sample> samplesById = new HashMap<Integer, Sample>();
+
+  // Statistics.
+  private int loads;
+  private int sharedLoads;
+  private int loadFailures;
+  private int loadsCompleted;
+  private long totalLoadMillis;
+  private long maxLoadMillis;
+  private int plays;
+  private int pendingPlays;
+  private int droppedStreams;
+
+  private SoundEngine(Form form) {
+    this.form = form;
+    soundPool = new SoundPool(maxStreams, AudioManager.STREAM_MUSIC, 0);
+    loadCompletionKnown = SdkLevel.getLevel() >= SdkLevel.LEVEL_FROYO;
+    if (loadCompletionKnown) {
+      FroyoUtil.setOnLoadCompleteListener(soundPool, this);
+    }
+    form.registerForOnDestroy(this);
+    form.registerForOnInitialize(this);
+  }
+
+  /**
+   * Returns the engine of the given form, creating it if necessary.
+   */
+  public static synchronized SoundEngine forForm(Form form) {
+    SoundEngine engine = engines.get(form);
+    if (engine == null) {
+      engine = new SoundEngine(form);
+      engines.put(form, engine);
+    }
+    return engine;
+  }
+
+  /**
+   * Sets the number of sounds that can play at the same time in engines
+   * created after this call. When more are played, the oldest are stopped.
+   */
+  public static synchronized void setMaxStreams(int streams) {
+    maxStreams = Math.max(1, streams);
+  }
+
+  /**
+   * Loads the sound at the given path, unless it is already loaded, and
+   * returns its sample id. Each call must be matched by a call to
+   * {@link #release}.
+   *
+   * @param path  the path of the sound; see {@link MediaUtil#loadSoundPool}
+   * @return the sample id, or 0 if the sound couldn't be loaded
+   */
+  public int acquire(String path) throws IOException {
+    if (soundPool == null) {
+      return 0;
+    }
+    Sample sample = samplesByPath.get(path);
+    if (sample != null) {
+      sharedLoads++;
+    } else {
+      Log.i(LOG_TAG, "Loading sound " + path);
+      int sampleId = MediaUtil.loadSoundPool(soundPool, form, path);
+      if (sampleId == 0) {
+        loadFailures++;
+        return 0;
+      }
+      loads++;
+      sample = new Sample(path, sampleId, !loadCompletionKnown);
+      samplesByPath.put(path, sample);
+      samplesById.put(sampleId, sample);
+    }
+    sample.users++;
+    return sample.sampleId;
+  }
+
+  /**
+   * Releases a sound acquired by {@link #acquire}, and cancels any play of it
+   * by the given player that is waiting for it to load. When no component
+   * uses the sound any more, it is unloaded.
+   */
+  public void release(int sampleId, Player player) {
+    Sample sample = samplesById.get(sampleId);
+    if (sample == null) {
+      return;
+    }
+    cancelPendingPlay(sampleId, player);
+    if (--sample.users == 0) {
+      samplesById.remove(sampleId);
+      samplesByPath.remove(sample.path);
+      if (soundPool != null) {
+        soundPool.unload(sampleId);
+      }
+    }
+  }
+
+  /**
+   * Plays a sound once at full volume.
+   *
+   * @param sampleId  the sample id returned by {@link #acquire}
+   * @param player  the player to tell if the play has to wait for the sound
+   *                to load
+   * @return the stream id, 0 if the sound couldn't be played, or
+   *         {@link #PLAY_PENDING} if it will be played once it has loaded
+   */
+  public int play(int sampleId, Player player) {
+    Sample sample = samplesById.get(sampleId);
+    if (sample == null || soundPool == null) {
+      return 0;
+    }
+    if (!sample.loaded) {
+      if (!sample.pendingPlayers.contains(player)) {
+        sample.pendingPlayers.add(player);
+      }
+      pendingPlays++;
+      return PLAY_PENDING;
+    }
+    return playLoaded(sampleId);
+  }
+
+  /**
+   * Cancels a play by the given player that is waiting for its sound to
+   * load.
+   *
+   * @return whether a play was waiting
+   */
+  public boolean cancelPendingPlay(int sampleId, Player player) {
+    Sample sample = samplesById.get(sampleId);
+    return sample != null && sample.pendingPlayers.remove(player);
+  }
+
+  public void pause(int streamId) {
+    if (soundPool != null) {
+      soundPool.pause(streamId);
+    }
+  }
+
+  public void resume(int streamId) {
+    if (soundPool != null) {
+      soundPool.resume(streamId);
+    }
+  }
+
+  public void stop(int streamId) {
+    if (soundPool != null) {
+      soundPool.stop(streamId);
+    }
+  }
+
+  /**
+   * Returns a description of the sounds loaded and played: how many, how long
+   * they took to load, and how many plays failed.
+   */
+  public String getStats() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(samplesById.size()).append(" sounds loaded (").append(loads).append(" loads, ")
+        .append(sharedLoads).append(" shared, ").append(loadFailures).append(" failed)");
+    if (loadsCompleted > 0) {
+      sb.append(", load time average ").append(totalLoadMillis / loadsCompleted)
+          .append(" ms, max ").append(maxLoadMillis).append(" ms");
+    }
+    sb.append(", ").append(plays).append(" plays (").append(pendingPlays)
+        .append(" waited for loading, ").append(droppedStreams).append(" dropped)");
+    return sb.toString();
+  }
+
+  // Called by the pool's OnLoadCompleteListener, on Froyo and later.
+  void onLoadComplete(int sampleId, int status) {
+    Sample sample = samplesById.get(sampleId);
+    if (sample == null) {
+      return;
+    }
+    sample.loaded = true;
+    long millis = SystemClock.uptimeMillis() - sample.loadStartTime;
+    loadsCompleted++;
+    totalLoadMillis += millis;
+    maxLoadMillis = Math.max(maxLoadMillis, millis);
+    Log.i(LOG_TAG, "Loaded sound " + sample.path + " in " + millis + " ms, status " + status);
+
+    List<Player> players = new ArrayList<Player>(sample.pendingPlayers);
+    sample.pendingPlayers.clear();
+    for (Player player : players) {
+      player.onPendingPlay((status == 0) ? playLoaded(sampleId) : 0);
+    }
+  }
+
+  private int playLoaded(int sampleId) {
+    plays++;
+    int streamId = soundPool.play(sampleId, VOLUME_FULL, VOLUME_FULL, 0, LOOP_MODE_NO_LOOP,
+        PLAYBACK_RATE_NORMAL);
+    if (streamId == 0) {
+      droppedStreams++;
+    }
+    return streamId;
+  }
+
+  // OnInitializeListener implementation
+
+  @Override
+  public void onInitialize() {
+    Log.i(LOG_TAG, "Sounds at Initialize: " + getStats());
+  }
+
+  // OnDestroyListener implementation
+
+  @Override
+  public void onDestroy() {
+    Log.i(LOG_TAG, "Sounds at onDestroy: " + getStats());
+    synchronized (SoundEngine.class) {
+      engines.remove(form);
+    }
+    if (soundPool != null) {
+      soundPool.release();
+      // The documentation for SoundPool suggests setting the reference to null;
+      soundPool = null;
+    }
+    samplesById.clear();
+    samplesByPath.clear();
+  }
+}
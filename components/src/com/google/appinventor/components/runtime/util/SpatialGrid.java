@@ -0,0 +1,154 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A uniform grid of square cells that indexes items by their bounding
+ * boxes, for quickly finding the items that may overlap a given box.
+ * An item is listed in every cell its bounding box touches, so any two
+ * items whose boxes intersect share at least one cell.
+ *
+ * <p>Items are updated incrementally: moving an item within the cells it
+ * already occupies costs only the computation of its cell range.</p>
+ *
+ * @param <T> the type of the indexed items
+ */
+public final class SpatialGrid<T> {
+  private final double cellSize;
+
+  // The items in each non-empty cell, keyed by cellKey().
+  private final Map<Long, List<T>> cells = new HashMap<Long, List<T>>();
+
+  // The cells occupied by each item, as {left, top, right, bottom}
+  // column and row indices, all inclusive.
+  private final Map<T, int[]> ranges = new HashMap<T, int[]>();
+
+  /**
+   * Creates an empty grid.
+   *
+   * @param cellSize the width and height of each cell
+   */
+  public SpatialGrid(double cellSize) {
+    if (cellSize <= 0) {
+      throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+    }
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * Adds an item to the grid or, if it is already there, moves it.
+   *
+   * @param item the item
+   * @param box the item's current bounding box
+   */
+  public void update(T item, BoundingBox box) {
+    int[] newRange = cellRange(box);
+    int[] oldRange = ranges.get(item);
+    if (oldRange != null) {
+      if (oldRange[0] == newRange[0] && oldRange[1] == newRange[1] &&
+          oldRange[2] == newRange[2] && oldRange[3] == newRange[3]) {
+        return;
+      }
+      removeFromCells(item, oldRange);
+    }
+    ranges.put(item, newRange);
+    for (int col = newRange[0]; col <= newRange[2]; col++) {
+      for (int row = newRange[1]; row <= newRange[3]; row++) {
+        Long key = cellKey(col, row);
+        List<T> items = cells.get(key);
+        if (items == null) {
+          items = new ArrayList<T>(4);
+          cells.put(key, items);
+        }
+        items.add(item);
+      }
+    }
+  }
+
+  /**
+   * Removes an item from the grid.  Does nothing if it isn't there.
+   *
+   * @param item the item
+   */
+  public void remove(T item) {
+    int[] range = ranges.remove(item);
+    if (range != null) {
+      removeFromCells(item, range);
+    }
+  }
+
+  /**
+   * Adds to {@code result} every item whose bounding box may intersect the
+   * given box.  Items in several of the cells are added once per cell, so a
+   * {@link java.util.Set} is the usual choice of result.
+   *
+   * @param box the box to search
+   * @param result the collection to which candidates are added
+   */
+  public void query(BoundingBox box, Collection<? super T> result) {
+    int[] range = cellRange(box);
+    for (int col = range[0]; col <= range[2]; col++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        List<T> items = cells.get(cellKey(col, row));
+        if (items != null) {
+          result.addAll(items);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns whether an item is in the grid.
+   *
+   * @param item the item
+   */
+  public boolean contains(T item) {
+    return ranges.containsKey(item);
+  }
+
+  /**
+   * Returns the number of items in the grid.
+   */
+  public int size() {
+    return ranges.size();
+  }
+
+  private void removeFromCells(T item, int[] range) {
+    for (int col = range[0]; col <= range[2]; col++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        Long key = cellKey(col, row);
+        List<T> items = cells.get(key);
+        if (items != null) {
+          items.remove(item);
+          if (items.isEmpty()) {
+            cells.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  private int[] cellRange(BoundingBox box) {
+    return new int[] {
+      cellIndex(box.getLeft()), cellIndex(box.getTop()),
+      cellIndex(box.getRight()), cellIndex(box.getBottom())
+    };
+  }
+
+  private int cellIndex(double coordinate) {
+    return (int) Math.floor(coordinate / cellSize);
+  }
+
+  private static Long cellKey(int col, int row) {
+    return ((long) col << 32) | (row & 0xffffffffL);
+  }
+}
@@ -0,0 +1,123 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2012 MIT, All rights reserved
+// Released under the MIT License https://raw.github.com/mit-cml/app-inventor/master/mitlicense.txt
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Micro-benchmark of {@link SpatialGrid} as Canvas uses it: every frame, each
+ * sprite moves a little and is checked for collisions with the others.  The
+ * grid is compared with checking every pair of sprites, which is what Canvas
+ * did before it had the grid.
+ *
+ * <p>Usage: {@code java -cp AndroidRuntime.jar
+ * com.google.appinventor.components.runtime.util.SpatialGridBenchmark
+ * [frames [sprite counts...]]}</p>
+ */
+public final class SpatialGridBenchmark {
+  // The same values as Canvas.SPRITE_GRID_CELL_SIZE and a typical sprite.
+  private static final double CELL_SIZE = 64;
+  private static final double SPRITE_SIZE = 32;
+  private static final double CANVAS_SIZE = 1000;
+  private static final double MAX_STEP = 8;
+
+  private SpatialGridBenchmark() {
+  }
+
+  public static void main(String[] args) {
+    int frames = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+    int[] spriteCounts = {50, 200, 1000};
+    if (args.length > 1) {
+      spriteCounts = new int[args.length - 1];
+      for (int i = 1; i < args.length; i++) {
+        spriteCounts[i - 1] = Integer.parseInt(args[i]);
+      }
+    }
+
+    // Warm up, so that the JIT has compiled both versions before timing.
+    run(200, frames, true);
+    run(200, frames, false);
+
+    System.out.println("sprites\tpairs ms/frame\tgrid ms/frame\tcollisions");
+    for (int spriteCount : spriteCounts) {
+      long start = System.nanoTime();
+      long pairsCollisions = run(spriteCount, frames, false);
+      long pairsNanos = System.nanoTime() - start;
+      start = System.nanoTime();
+      long gridCollisions = run(spriteCount, frames, true);
+      long gridNanos = System.nanoTime() - start;
+      if (pairsCollisions != gridCollisions) {
+        throw new AssertionError("The grid found " + gridCollisions +
+            " collisions, checking every pair found " + pairsCollisions);
+      }
+      System.out.println(spriteCount + "\t" + millisPerFrame(pairsNanos, frames) + "\t" +
+          millisPerFrame(gridNanos, frames) + "\t" + gridCollisions);
+    }
+  }
+
+  /*
+   * Moves spriteCount sprites for the given number of frames and returns the
+   * number of colliding pairs seen, summed over all frames.  The sprites move
+   * the same way whether or not the grid is used.
+   */
+  private static long run(int spriteCount, int frames, boolean useGrid) {
+    Random random = new Random(spriteCount);
+    double[] x = new double[spriteCount];
+    double[] y = new double[spriteCount];
+    Integer[] sprites = new Integer[spriteCount];
+    SpatialGrid<Integer> grid = new SpatialGrid<Integer>(CELL_SIZE);
+    for (int i = 0; i < spriteCount; i++) {
+      sprites[i] = i;
+      x[i] = random.nextDouble() * (CANVAS_SIZE - SPRITE_SIZE);
+      y[i] = random.nextDouble() * (CANVAS_SIZE - SPRITE_SIZE);
+      grid.update(sprites[i], box(x[i], y[i]));
+    }
+
+    long collisions = 0;
+    Set<Integer> candidates = new HashSet<Integer>();
+    for (int frame = 0; frame < frames; frame++) {
+      for (int i = 0; i < spriteCount; i++) {
+        x[i] = clamp(x[i] + (random.nextDouble() * 2 - 1) * MAX_STEP);
+        y[i] = clamp(y[i] + (random.nextDouble() * 2 - 1) * MAX_STEP);
+        if (useGrid) {
+          grid.update(sprites[i], box(x[i], y[i]));
+        }
+      }
+      // Count each colliding pair once, from its lower-numbered sprite.
+      for (int i = 0; i < spriteCount; i++) {
+        if (useGrid) {
+          candidates.clear();
+          grid.query(box(x[i], y[i]), candidates);
+          for (Integer j : candidates) {
+            if (j > i && box(x[i], y[i]).intersectDestructively(box(x[j], y[j]))) {
+              collisions++;
+            }
+          }
+        } else {
+          for (int j = i + 1; j < spriteCount; j++) {
+            if (box(x[i], y[i]).intersectDestructively(box(x[j], y[j]))) {
+              collisions++;
+            }
+          }
+        }
+      }
+    }
+    return collisions;
+  }
+
+  private static BoundingBox box(double x, double y) {
+    return new BoundingBox(x, y, x + SPRITE_SIZE - 1, y + SPRITE_SIZE - 1);
+  }
+
+  private static double clamp(double coordinate) {
+    return Math.max(0, Math.min(CANVAS_SIZE - SPRITE_SIZE, coordinate));
+  }
+
+  private static String millisPerFrame(long nanos, int frames) {
+    return String.format("%.3f", nanos / 1e6 / frames);
+  }
+}